@@ -0,0 +1,175 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.Rule;
+import org.hisp.dhis.rules.models.RuleAction;
+import org.hisp.dhis.rules.models.RuleActionDisplayText;
+import org.hisp.dhis.rules.models.RuleAttributeValue;
+import org.hisp.dhis.rules.models.RuleDataValue;
+import org.hisp.dhis.rules.models.RuleEnrollment;
+import org.hisp.dhis.rules.models.RuleEvent;
+import org.hisp.dhis.rules.models.RuleValueType;
+import org.hisp.dhis.rules.models.RuleVariable;
+import org.hisp.dhis.rules.models.RuleVariableCurrentEvent;
+import org.hisp.dhis.rules.models.RuleVariableNewestEvent;
+import org.hisp.dhis.rules.models.RuleVariablePreviousEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Synthetic programs for benchmarks. Data is generated deterministically,
+ * which means that results of different runs can be compared.
+ */
+final class BenchmarkFixtures {
+    static final String PROGRAM_STAGE = "benchmark_program_stage";
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long START_DATE = 1483228800000L; // 2017-01-01
+
+    /**
+     * Shape of rule conditions.
+     */
+    enum Complexity {
+        SIMPLE {
+            @Nonnull
+            @Override
+            String condition(@Nonnull String a, @Nonnull String b, @Nonnull String c) {
+                return String.format(Locale.US, "#{%s} > 10", a);
+            }
+        },
+
+        MODERATE {
+            @Nonnull
+            @Override
+            String condition(@Nonnull String a, @Nonnull String b, @Nonnull String c) {
+                return String.format(Locale.US, "#{%1$s} > 10 && #{%2$s} <= #{%3$s} || " +
+                        "d2:hasValue('%3$s')", a, b, c);
+            }
+        },
+
+        COMPLEX {
+            @Nonnull
+            @Override
+            String condition(@Nonnull String a, @Nonnull String b, @Nonnull String c) {
+                return String.format(Locale.US, "(#{%1$s} + #{%2$s}) * 2 > #{%3$s} && " +
+                        "d2:floor(d2:ceil(#{%1$s}) / 2) != 3 && " +
+                        "d2:daysBetween(V{event_date}, V{current_date}) >= 0 ? " +
+                        "#{%2$s} %% 2 == 0 : #{%1$s} == #{%3$s} || #{%2$s} < 5", a, b, c);
+            }
+        };
+
+        @Nonnull
+        abstract String condition(@Nonnull String a, @Nonnull String b, @Nonnull String c);
+    }
+
+    private BenchmarkFixtures() {
+        // no instances
+    }
+
+    /**
+     * @return numeric variables bound to data elements. Variables
+     * take turns between current, previous and newest event values.
+     */
+    @Nonnull
+    static List<RuleVariable> variables(int variableCount) {
+        List<RuleVariable> ruleVariables = new ArrayList<>(variableCount);
+        for (int i = 0; i < variableCount; i++) {
+            switch (i % 3) {
+                case 0:
+                    ruleVariables.add(RuleVariableCurrentEvent.create(
+                            variable(i), dataElement(i), RuleValueType.NUMERIC));
+                    break;
+                case 1:
+                    ruleVariables.add(RuleVariablePreviousEvent.create(
+                            variable(i), dataElement(i), RuleValueType.NUMERIC));
+                    break;
+                default:
+                    ruleVariables.add(RuleVariableNewestEvent.create(
+                            variable(i), dataElement(i), RuleValueType.NUMERIC));
+                    break;
+            }
+        }
+        return ruleVariables;
+    }
+
+    /**
+     * @return rules which reference variables in round-robin fashion. Every
+     * other rule has an action with data expression to evaluate.
+     */
+    @Nonnull
+    static List<Rule> rules(int ruleCount, int variableCount, @Nonnull Complexity complexity) {
+        List<Rule> rules = new ArrayList<>(ruleCount);
+        for (int i = 0; i < ruleCount; i++) {
+            String a = variable(i % variableCount);
+            String b = variable((i + 1) % variableCount);
+            String c = variable((i + 2) % variableCount);
+
+            List<RuleAction> ruleActions = i % 2 == 0 ? Collections.<RuleAction>singletonList(
+                    RuleActionDisplayText.createForFeedback("rule_" + i,
+                            String.format(Locale.US, "#{%s} + #{%s}", a, b))) :
+                    Collections.<RuleAction>singletonList(RuleActionDisplayText
+                            .createForFeedback("rule_" + i, null));
+
+            rules.add(Rule.create(null, null, complexity.condition(a, b, c), ruleActions));
+        }
+        return rules;
+    }
+
+    /**
+     * @return events with values for each of data elements, ordered by
+     * event date. Each event is one day newer than the previous one.
+     */
+    @Nonnull
+    static List<RuleEvent> events(int eventCount, int variableCount) {
+        List<RuleEvent> ruleEvents = new ArrayList<>(eventCount);
+        for (int i = 0; i < eventCount; i++) {
+            ruleEvents.add(event("event_" + i, i, variableCount));
+        }
+        return ruleEvents;
+    }
+
+    /**
+     * @return event which is newer than any of events in the list.
+     */
+    @Nonnull
+    static RuleEvent targetEvent(int eventCount, int variableCount) {
+        return event("target_event", eventCount, variableCount);
+    }
+
+    @Nonnull
+    static RuleEnrollment enrollment() {
+        return RuleEnrollment.create("benchmark_enrollment", new Date(START_DATE),
+                new Date(START_DATE), RuleEnrollment.Status.ACTIVE,
+                Collections.<RuleAttributeValue>emptyList());
+    }
+
+    @Nonnull
+    static String variable(int index) {
+        return "variable_" + index;
+    }
+
+    @Nonnull
+    static String dataElement(int index) {
+        return "data_element_" + index;
+    }
+
+    @Nonnull
+    private static RuleEvent event(@Nonnull String event, int day, int variableCount) {
+        Date eventDate = new Date(START_DATE + day * DAY);
+
+        List<RuleDataValue> dataValues = new ArrayList<>(variableCount);
+        for (int i = 0; i < variableCount; i++) {
+            dataValues.add(RuleDataValue.create(eventDate, PROGRAM_STAGE,
+                    dataElement(i), String.valueOf((day + i) % 20)));
+        }
+
+        return RuleEvent.create(event, PROGRAM_STAGE, RuleEvent.Status.ACTIVE,
+                eventDate, eventDate, dataValues);
+    }
+}
@@ -0,0 +1,91 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.RuleEffect;
+import org.hisp.dhis.rules.models.RuleEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+/**
+ * End-to-end evaluation of an event: materialization of variable values,
+ * evaluation of conditions and data expressions of actions.
+ */
+@State(Scope.Benchmark)
+public class RuleEngineBenchmark {
+
+    @Param({"10", "100", "300"})
+    public int ruleCount;
+
+    @Param({"10", "100"})
+    public int variableCount;
+
+    @Param({"1", "100"})
+    public int eventCount;
+
+    @Param({"SIMPLE", "MODERATE", "COMPLEX"})
+    public BenchmarkFixtures.Complexity complexity;
+
+    /**
+     * Either JVM interpreter, or stand-in for the external evaluator
+     * which receives expressions with values rendered into them.
+     */
+    @Param({"interpreter", "external"})
+    public String evaluator;
+
+    private RuleEngine ruleEngine;
+
+    private RuleEngineContext ruleEngineContext;
+
+    private RuleEvent ruleEvent;
+
+    @Setup
+    public void setUp() {
+        RuleExpressionEvaluator expressionEvaluator = "interpreter".equals(evaluator) ?
+                RuleExpressionInterpreter.create() : new ExternalEvaluator();
+
+        ruleEngineContext = RuleEngineContext.builder(expressionEvaluator)
+                .ruleVariables(BenchmarkFixtures.variables(variableCount))
+                .rules(BenchmarkFixtures.rules(ruleCount, variableCount, complexity))
+                .build();
+        ruleEngine = ruleEngineContext.toEngineBuilder()
+                .enrollment(BenchmarkFixtures.enrollment())
+                .events(BenchmarkFixtures.events(eventCount, variableCount))
+                .build();
+        ruleEvent = BenchmarkFixtures.targetEvent(eventCount, variableCount);
+    }
+
+    @Benchmark
+    public List<RuleEffect> evaluate() throws Exception {
+        return ruleEngine.evaluate(ruleEvent).call();
+    }
+
+    @Benchmark
+    public RuleEngineContext buildContext() {
+        return RuleEngineContext.builder(ruleEngineContext.expressionEvaluator())
+                .ruleVariables(ruleEngineContext.ruleVariables())
+                .rules(ruleEngineContext.rules())
+                .build();
+    }
+
+    /**
+     * Evaluates expressions on the JVM, but unlike {@link RuleExpressionInterpreter}
+     * it is opaque to the engine, so expressions are bound and rendered into text as
+     * they would be for JavaScript engines.
+     */
+    static final class ExternalEvaluator implements RuleExpressionEvaluator {
+        private final RuleExpressionEvaluator expressionEvaluator =
+                RuleExpressionInterpreter.create();
+
+        @Nonnull
+        @Override
+        public String evaluate(@Nonnull String expression) {
+            return expressionEvaluator.evaluate(expression);
+        }
+    }
+}
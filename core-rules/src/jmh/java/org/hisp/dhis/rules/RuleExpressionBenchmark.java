@@ -0,0 +1,88 @@
+package org.hisp.dhis.rules;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Extraction of variables and function calls from expressions,
+ * compilation of expressions and binding of values into them.
+ */
+@State(Scope.Benchmark)
+public class RuleExpressionBenchmark {
+
+    @Param({"SIMPLE", "MODERATE", "COMPLEX"})
+    public BenchmarkFixtures.Complexity complexity;
+
+    /**
+     * Number of conditions joined with '&&' into expression.
+     */
+    @Param({"1", "5", "20"})
+    public int clauseCount;
+
+    private String expression;
+
+    private RuleExpression ruleExpression;
+
+    private RuleExpressionTemplate template;
+
+    @Setup
+    public void setUp() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < clauseCount; i++) {
+            if (i > 0) {
+                builder.append(" && ");
+            }
+
+            builder.append('(').append(complexity.condition(BenchmarkFixtures.variable(i),
+                    BenchmarkFixtures.variable(i + 1), BenchmarkFixtures.variable(i + 2)))
+                    .append(')');
+        }
+
+        expression = builder.toString();
+        ruleExpression = RuleExpression.from(expression);
+        template = RuleExpressionCompiler.compile(expression);
+    }
+
+    @Benchmark
+    public RuleExpression from() {
+        return RuleExpression.from(expression);
+    }
+
+    @Benchmark
+    public RuleExpressionTemplate compile() {
+        return RuleExpressionCompiler.compile(expression);
+    }
+
+    @Benchmark
+    public String bind() {
+        RuleExpressionBinder binder = RuleExpressionBinder.from(ruleExpression);
+        for (String variable : ruleExpression.variables()) {
+            binder.bindVariable(variable, "12");
+        }
+
+        for (String function : ruleExpression.functions()) {
+            binder.bindFunction(function, "4");
+        }
+
+        return binder.build();
+    }
+
+    @Benchmark
+    public String bindTemplate() {
+        RuleExpressionBinder binder = RuleExpressionBinder.from(template);
+        for (int i = 0; i < template.tokens().size(); i++) {
+            RuleExpressionToken token = template.tokens().get(i);
+
+            if (token.isFunctionCall()) {
+                binder.bindFunction(token.text(), "4");
+            } else {
+                binder.bindVariable(token.text(), "12");
+            }
+        }
+
+        return binder.build();
+    }
+}
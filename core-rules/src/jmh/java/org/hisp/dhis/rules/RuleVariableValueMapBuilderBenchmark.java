@@ -0,0 +1,51 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.RuleEnrollment;
+import org.hisp.dhis.rules.models.RuleEvent;
+import org.hisp.dhis.rules.models.RuleVariable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Materialization of variable values for a single event.
+ */
+@State(Scope.Benchmark)
+public class RuleVariableValueMapBuilderBenchmark {
+
+    @Param({"10", "100"})
+    public int variableCount;
+
+    @Param({"1", "10", "100", "1000"})
+    public int eventCount;
+
+    private List<RuleVariable> ruleVariables;
+
+    private List<RuleEvent> ruleEvents;
+
+    private RuleEnrollment ruleEnrollment;
+
+    private RuleEvent ruleEvent;
+
+    @Setup
+    public void setUp() {
+        ruleVariables = BenchmarkFixtures.variables(variableCount);
+        ruleEvents = BenchmarkFixtures.events(eventCount, variableCount);
+        ruleEnrollment = BenchmarkFixtures.enrollment();
+        ruleEvent = BenchmarkFixtures.targetEvent(eventCount, variableCount);
+    }
+
+    @Benchmark
+    public Map<String, RuleVariableValue> build() {
+        return RuleVariableValueMapBuilder.target(ruleEvent)
+                .ruleVariables(ruleVariables)
+                .ruleEnrollment(ruleEnrollment)
+                .ruleEvents(ruleEvents)
+                .build();
+    }
+}
@@ -0,0 +1,134 @@
+package org.hisp.dhis.rules;
+
+import com.google.auto.value.AutoValue;
+
+import org.hisp.dhis.rules.models.Rule;
+import org.hisp.dhis.rules.models.RuleAction;
+import org.hisp.dhis.rules.models.RuleActionAssign;
+import org.hisp.dhis.rules.models.RuleActionCreateEvent;
+import org.hisp.dhis.rules.models.RuleActionDisplayKeyValuePair;
+import org.hisp.dhis.rules.models.RuleActionDisplayText;
+import org.hisp.dhis.rules.models.RuleActionErrorOnCompletion;
+import org.hisp.dhis.rules.models.RuleActionShowError;
+import org.hisp.dhis.rules.models.RuleActionShowWarning;
+import org.hisp.dhis.rules.models.RuleActionWarningOnCompletion;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Rule along with compiled condition and compiled data expressions of its actions.
+ */
+@AutoValue
+abstract class CompiledRule {
+
+    @Nonnull
+    public abstract Rule rule();
+
+    @Nonnull
+    public abstract RuleExpressionTemplate condition();
+
+    /**
+     * @return compiled data expressions. Order and size of the
+     * list matches the list of actions within the rule.
+     */
+    @Nonnull
+    public abstract List<RuleExpressionTemplate> actions();
+
+    /**
+     * @return true if condition has been folded into a falsy literal at compile
+     * time, which means that rule is never going to be triggered.
+     */
+    boolean isNeverTriggered() {
+        RuleExpressionNode condition = condition().node();
+        return condition instanceof RuleExpressionNode.Literal &&
+                !RuleExpressionNode.toBoolean(((RuleExpressionNode.Literal) condition).value);
+    }
+
+    @Nonnull
+    static CompiledRule compile(@Nonnull Rule rule, @Nonnull RuleVariableSlots slots) {
+        return compile(rule, slots, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * @param constants values of constants keyed by uid, which are inlined into expressions.
+     */
+    @Nonnull
+    static CompiledRule compile(@Nonnull Rule rule, @Nonnull RuleVariableSlots slots,
+            @Nonnull Map<String, String> constants) {
+        List<RuleExpressionTemplate> actions = new ArrayList<>(rule.actions().size());
+        for (int i = 0; i < rule.actions().size(); i++) {
+            actions.add(RuleExpressionCompiler.compile(
+                    data(rule.actions().get(i)), slots, constants));
+        }
+
+        return create(rule, RuleExpressionCompiler.compile(rule.condition(), slots, constants), actions);
+    }
+
+    /**
+     * @param actions compiled data expressions, in the same order as actions within the rule.
+     */
+    @Nonnull
+    static CompiledRule create(@Nonnull Rule rule, @Nonnull RuleExpressionTemplate condition,
+            @Nonnull List<RuleExpressionTemplate> actions) {
+        return new AutoValue_CompiledRule(rule, condition, Collections.unmodifiableList(actions));
+    }
+
+    /**
+     * @param slots slots which variables referenced by rules are assigned to.
+     */
+    @Nonnull
+    static List<CompiledRule> compile(@Nonnull List<Rule> rules, @Nonnull RuleVariableSlots slots) {
+        return compile(rules, slots, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * @param slots     slots which variables referenced by rules are assigned to.
+     * @param constants values of constants keyed by uid, which are inlined into expressions.
+     * @return compiled rules, except for the ones which are never going to be triggered.
+     */
+    @Nonnull
+    static List<CompiledRule> compile(@Nonnull List<Rule> rules, @Nonnull RuleVariableSlots slots,
+            @Nonnull Map<String, String> constants) {
+        List<CompiledRule> compiledRules = new ArrayList<>(rules.size());
+        for (int i = 0; i < rules.size(); i++) {
+            CompiledRule compiledRule = compile(rules.get(i), slots, constants);
+            if (!compiledRule.isNeverTriggered()) {
+                compiledRules.add(compiledRule);
+            }
+        }
+        return Collections.unmodifiableList(compiledRules);
+    }
+
+    /**
+     * @return data expression of the action. Only certain
+     * types of actions might contain code to execute.
+     */
+    @Nullable
+    private static String data(@Nonnull RuleAction ruleAction) {
+        if (ruleAction instanceof RuleActionAssign) {
+            return ((RuleActionAssign) ruleAction).data();
+        } else if (ruleAction instanceof RuleActionCreateEvent) {
+            return ((RuleActionCreateEvent) ruleAction).data();
+        } else if (ruleAction instanceof RuleActionDisplayKeyValuePair) {
+            return ((RuleActionDisplayKeyValuePair) ruleAction).data();
+        } else if (ruleAction instanceof RuleActionDisplayText) {
+            return ((RuleActionDisplayText) ruleAction).data();
+        } else if (ruleAction instanceof RuleActionErrorOnCompletion) {
+            return ((RuleActionErrorOnCompletion) ruleAction).data();
+        } else if (ruleAction instanceof RuleActionShowError) {
+            return ((RuleActionShowError) ruleAction).data();
+        } else if (ruleAction instanceof RuleActionShowWarning) {
+            return ((RuleActionShowWarning) ruleAction).data();
+        } else if (ruleAction instanceof RuleActionWarningOnCompletion) {
+            return ((RuleActionWarningOnCompletion) ruleAction).data();
+        }
+
+        return null;
+    }
+}
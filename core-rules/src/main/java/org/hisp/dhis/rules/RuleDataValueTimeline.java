@@ -0,0 +1,179 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.RuleDataValue;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Values of a single data element across all events, ordered by date of the event
+ * they belong to, from the newest to the oldest one. Event dates are kept in a primitive
+ * array, which means that value preceding the given date can be found with a binary search.
+ * <p>
+ * Timelines are not thread-safe.
+ */
+final class RuleDataValueTimeline {
+
+    @Nonnull
+    private final List<RuleDataValue> ruleDataValues;
+
+    @Nonnull
+    private final List<String> values;
+
+    /**
+     * Dates of events (in milliseconds) which values belong to, in non-increasing order.
+     */
+    @Nonnull
+    private long[] eventDates;
+
+    /**
+     * Timelines of values within each program stage, built on demand.
+     */
+    @Nullable
+    private Map<String, RuleDataValueTimeline> stageTimelines;
+
+    RuleDataValueTimeline(int capacity) {
+        this.ruleDataValues = new ArrayList<>(capacity);
+        this.values = new ValueList(ruleDataValues);
+        this.eventDates = new long[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Appends value to the end of timeline. Values must be
+     * appended in order, starting from the newest one.
+     */
+    void append(@Nonnull RuleDataValue ruleDataValue, long eventDate) {
+        int size = ruleDataValues.size();
+        if (size > 0 && eventDates[size - 1] < eventDate) {
+            throw new IllegalArgumentException("Values must be appended " +
+                    "in order, from the newest to the oldest one");
+        }
+
+        if (size == eventDates.length) {
+            eventDates = Arrays.copyOf(eventDates, size * 2);
+        }
+
+        eventDates[size] = eventDate;
+        ruleDataValues.add(ruleDataValue);
+
+        // sub-indexes are stale now
+        stageTimelines = null;
+    }
+
+    /**
+     * @return copy of the timeline where value is replaced with another one which belongs
+     * to the same event, or null if the value is not a part of the timeline. Timeline itself
+     * is left intact, since its {@link #values()} might be held by variable values.
+     */
+    @Nullable
+    RuleDataValueTimeline replace(@Nonnull RuleDataValue ruleDataValue,
+            @Nonnull RuleDataValue replacement) {
+        for (int i = 0; i < ruleDataValues.size(); i++) {
+            // values are looked up by identity, since events can hold equal values
+            if (ruleDataValues.get(i) == ruleDataValue) { //NOPMD
+                RuleDataValueTimeline timeline = new RuleDataValueTimeline(ruleDataValues.size());
+                for (int j = 0; j < ruleDataValues.size(); j++) {
+                    timeline.append(j == i ? replacement : ruleDataValues.get(j), eventDates[j]);
+                }
+                return timeline;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the most recent value, or null if timeline is empty.
+     */
+    @Nullable
+    RuleDataValue newest() {
+        return ruleDataValues.isEmpty() ? null : ruleDataValues.get(0);
+    }
+
+    /**
+     * @return the most recent value which precedes the given date
+     * (strictly), or null if there is no such value.
+     */
+    @Nullable
+    RuleDataValue previous(long eventDate) {
+        // index of the first value which is older than the given date
+        int low = 0;
+        int high = ruleDataValues.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (eventDates[middle] < eventDate) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+
+        return low < ruleDataValues.size() ? ruleDataValues.get(low) : null;
+    }
+
+    /**
+     * @return values in the same order as they appear in the
+     * timeline. List is a read-only view, not a copy.
+     */
+    @Nonnull
+    List<String> values() {
+        return values;
+    }
+
+    /**
+     * @return timeline of values which belong to events of the given program stage.
+     */
+    @Nonnull
+    RuleDataValueTimeline stage(@Nonnull String programStage) {
+        if (stageTimelines == null) {
+            stageTimelines = new HashMap<>();
+        }
+
+        RuleDataValueTimeline stageTimeline = stageTimelines.get(programStage);
+        if (stageTimeline == null) {
+            stageTimeline = new RuleDataValueTimeline(ruleDataValues.size());
+            for (int i = 0; i < ruleDataValues.size(); i++) {
+                if (programStage.equals(ruleDataValues.get(i).programStage())) {
+                    stageTimeline.append(ruleDataValues.get(i), eventDates[i]);
+                }
+            }
+
+            stageTimelines.put(programStage, stageTimeline);
+        }
+
+        return stageTimeline;
+    }
+
+    boolean isEmpty() {
+        return ruleDataValues.isEmpty();
+    }
+
+    private static final class ValueList extends AbstractList<String> implements RandomAccess {
+
+        @Nonnull
+        private final List<RuleDataValue> ruleDataValues;
+
+        ValueList(@Nonnull List<RuleDataValue> ruleDataValues) {
+            this.ruleDataValues = ruleDataValues;
+        }
+
+        @Override
+        public String get(int index) {
+            return ruleDataValues.get(index).value();
+        }
+
+        @Override
+        public int size() {
+            return ruleDataValues.size();
+        }
+    }
+}
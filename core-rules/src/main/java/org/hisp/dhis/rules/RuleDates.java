@@ -0,0 +1,234 @@
+package org.hisp.dhis.rules;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Dates in the 'yyyy-MM-dd' form used by program rule expressions. Internally, dates are
+ * represented as number of days since 1970-01-01 (epoch day), which turns date arithmetic
+ * into integer math. Conversions between epoch days and dates of the proleptic Gregorian
+ * calendar follow algorithms by Howard Hinnant ('chrono-Compatible Low-Level Date Algorithms').
+ * <p>
+ * All methods are thread-safe.
+ */
+public final class RuleDates {
+    public static final String DATE_PATTERN = "yyyy-MM-dd";
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final int DAYS_PER_ERA = 146097;
+    private static final int DAYS_BEFORE_EPOCH = 719468;
+
+    /**
+     * Current date formatted for the time zone, re-used until the end of the day.
+     */
+    private static volatile CurrentDate currentDate;
+
+    private RuleDates() {
+        // no instances
+    }
+
+    /**
+     * @return epoch day of the date. Dates which are not in 'yyyy-MM-dd' form
+     * are parsed leniently, in the same way as by {@link SimpleDateFormat}.
+     * @throws IllegalArgumentException if date can't be parsed.
+     */
+    public static int parse(@Nonnull String date) {
+        if (date.length() >= 10 && date.charAt(4) == '-' && date.charAt(7) == '-') {
+            int year = digits(date, 0, 4);
+            int month = digits(date, 5, 7);
+            int day = digits(date, 8, 10);
+
+            if (year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= 31) {
+                // days beyond the end of month roll over to the next one
+                return epochDay(year, month, 1) + day - 1;
+            }
+        }
+
+        return parseLeniently(date);
+    }
+
+    /**
+     * @return date in 'yyyy-MM-dd' form.
+     */
+    @Nonnull
+    public static String format(int epochDay) {
+        int civil = civil(epochDay);
+        int year = year(civil);
+
+        if (year < 0 || year > 9999) {
+            return String.format(Locale.US, "%04d-%02d-%02d", year, month(civil), day(civil));
+        }
+
+        char[] characters = new char[10];
+        write(characters, 0, year, 4);
+        characters[4] = '-';
+        write(characters, 5, month(civil), 2);
+        characters[7] = '-';
+        write(characters, 8, day(civil), 2);
+        return new String(characters);
+    }
+
+    /**
+     * @return date in 'yyyy-MM-dd' form, as it is in the given time zone.
+     */
+    @Nonnull
+    public static String format(@Nonnull Date date, @Nonnull TimeZone timeZone) {
+        return format(epochDay(date.getTime(), timeZone));
+    }
+
+    /**
+     * @return epoch day of the instant in the given time zone.
+     */
+    public static int epochDay(long millis, @Nonnull TimeZone timeZone) {
+        return (int) floorDiv(millis + timeZone.getOffset(millis), DAY);
+    }
+
+    /**
+     * @return today's date in 'yyyy-MM-dd' form. Date is formatted
+     * once per day and time zone, and then shared by all callers.
+     */
+    @Nonnull
+    public static String currentDate(@Nonnull TimeZone timeZone) {
+        long now = System.currentTimeMillis();
+
+        CurrentDate cachedDate = currentDate;
+        if (cachedDate != null && cachedDate.start <= now && now < cachedDate.end &&
+                cachedDate.timeZone.equals(timeZone.getID())) {
+            return cachedDate.date;
+        }
+
+        int epochDay = epochDay(now, timeZone);
+        long start = epochDay * DAY - timeZone.getOffset(now);
+        long end = (epochDay + 1) * DAY - timeZone.getOffset(start + DAY);
+
+        cachedDate = new CurrentDate(timeZone.getID(), start, end, format(epochDay));
+        currentDate = cachedDate;
+        return cachedDate.date;
+    }
+
+    /**
+     * @return number of whole months between dates, negative if end precedes start.
+     * Month is counted only once the day of month of the start date has been reached.
+     */
+    public static int monthsBetween(int startEpochDay, int endEpochDay) {
+        int start = civil(startEpochDay);
+        int end = civil(endEpochDay);
+
+        int months = (year(end) - year(start)) * 12 + month(end) - month(start);
+        int days = day(end) - day(start);
+
+        // the last month is not complete yet
+        if (months > 0 && days < 0) {
+            months--;
+        } else if (months < 0 && days > 0) {
+            months++;
+        }
+
+        return months;
+    }
+
+    private static int epochDay(int year, int month, int day) {
+        int shiftedYear = month <= 2 ? year - 1 : year;
+        int era = (shiftedYear >= 0 ? shiftedYear : shiftedYear - 399) / 400;
+        int yearOfEra = shiftedYear - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * DAYS_PER_ERA + dayOfEra - DAYS_BEFORE_EPOCH;
+    }
+
+    /**
+     * @return year, month and day of the epoch day, packed into a single
+     * integer in order to avoid allocation of intermediate objects.
+     */
+    private static int civil(int epochDay) {
+        int shiftedDay = epochDay + DAYS_BEFORE_EPOCH;
+        int era = (shiftedDay >= 0 ? shiftedDay : shiftedDay - DAYS_PER_ERA + 1) / DAYS_PER_ERA;
+        int dayOfEra = shiftedDay - era * DAYS_PER_ERA;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return (year << 9) | (month << 5) | day;
+    }
+
+    private static int year(int civil) {
+        return civil >> 9;
+    }
+
+    private static int month(int civil) {
+        return (civil >> 5) & 0xF;
+    }
+
+    private static int day(int civil) {
+        return civil & 0x1F;
+    }
+
+    /**
+     * @return number formed by digits within the range, or -1 if there are non-digits.
+     */
+    private static int digits(@Nonnull String text, int start, int end) {
+        int number = 0;
+        for (int index = start; index < end; index++) {
+            char character = text.charAt(index);
+            if (character < '0' || character > '9') {
+                return -1;
+            }
+            number = number * 10 + character - '0';
+        }
+        return number;
+    }
+
+    private static void write(@Nonnull char[] characters, int start, int number, int width) {
+        int remainder = number;
+        for (int index = start + width - 1; index >= start; index--) {
+            characters[index] = (char) ('0' + remainder % 10);
+            remainder = remainder / 10;
+        }
+    }
+
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        return (dividend % divisor != 0 && (dividend < 0) != (divisor < 0)) ?
+                quotient - 1 : quotient;
+    }
+
+    private static int parseLeniently(@Nonnull String date) {
+        TimeZone timeZone = TimeZone.getDefault();
+        SimpleDateFormat format = new SimpleDateFormat(DATE_PATTERN, Locale.US);
+        format.setTimeZone(timeZone);
+
+        try {
+            return epochDay(format.parse(date).getTime(), timeZone);
+        } catch (ParseException parseException) {
+            throw new IllegalArgumentException("Malformed date: " + date, parseException);
+        }
+    }
+
+    private static final class CurrentDate {
+
+        @Nonnull
+        final String timeZone;
+
+        final long start;
+
+        final long end;
+
+        @Nonnull
+        final String date;
+
+        CurrentDate(@Nonnull String timeZone, long start, long end, @Nonnull String date) {
+            this.timeZone = timeZone;
+            this.start = start;
+            this.end = end;
+            this.date = date;
+        }
+    }
+}
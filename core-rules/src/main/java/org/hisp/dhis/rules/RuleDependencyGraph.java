@@ -0,0 +1,413 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.Rule;
+import org.hisp.dhis.rules.models.RuleActionAssign;
+import org.hisp.dhis.rules.models.RuleVariable;
+import org.hisp.dhis.rules.models.RuleVariableAttribute;
+import org.hisp.dhis.rules.models.RuleVariableCurrentEvent;
+import org.hisp.dhis.rules.models.RuleVariableNewestEvent;
+import org.hisp.dhis.rules.models.RuleVariableNewestStageEvent;
+import org.hisp.dhis.rules.models.RuleVariablePreviousEvent;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Dependencies between data elements, tracked entity attributes, variables and rules.
+ * Graph is built once per {@link RuleEngineContext} from compiled rules: rule depends
+ * on variable if condition or any of its actions reference the variable, either
+ * directly (#{..}, A{..}, C{..}, V{..}) or by name in quotes as argument of
+ * function call (e.g. d2:hasValue('variable')).
+ * <p>
+ * Rules also depend on other rules, if they reference variables which are assigned by
+ * ASSIGN actions of those rules: either directly by name, or through the data element
+ * which variable is bound to.
+ */
+final class RuleDependencyGraph {
+
+    /**
+     * Rules which indexes within the graph refer to.
+     */
+    @Nonnull
+    private final List<CompiledRule> rules;
+
+    @Nonnull
+    private final Map<String, BitSet> variableRules;
+
+    @Nonnull
+    private final Map<String, List<RuleVariable>> dataElementVariables;
+
+    @Nonnull
+    private final Map<String, List<RuleVariable>> attributeVariables;
+
+    /**
+     * Rules which depend on values assigned by each of the rules (null if there are none).
+     * Rules which depend only on values assigned by themselves are not included.
+     */
+    @Nonnull
+    private final BitSet[] assignDependents;
+
+    /**
+     * Rules which assign values to variables referenced by other rules.
+     */
+    @Nonnull
+    private final BitSet assigningRules;
+
+    private RuleDependencyGraph(@Nonnull List<CompiledRule> rules,
+            @Nonnull Map<String, BitSet> variableRules,
+            @Nonnull Map<String, List<RuleVariable>> dataElementVariables,
+            @Nonnull Map<String, List<RuleVariable>> attributeVariables,
+            @Nonnull BitSet[] assignDependents) {
+        this.rules = rules;
+        this.variableRules = variableRules;
+        this.dataElementVariables = dataElementVariables;
+        this.attributeVariables = attributeVariables;
+        this.assignDependents = assignDependents;
+        this.assigningRules = new BitSet(assignDependents.length);
+
+        for (int i = 0; i < assignDependents.length; i++) {
+            if (assignDependents[i] != null) {
+                assigningRules.set(i);
+            }
+        }
+    }
+
+    @Nonnull
+    static RuleDependencyGraph create(@Nonnull List<CompiledRule> rules,
+            @Nonnull List<RuleVariable> ruleVariables) {
+        Map<String, BitSet> variableRules = new HashMap<>();
+        for (int i = 0; i < rules.size(); i++) {
+            CompiledRule rule = rules.get(i);
+
+            addDependencies(variableRules, rule.condition(), i);
+            for (int j = 0; j < rule.actions().size(); j++) {
+                addDependencies(variableRules, rule.actions().get(j), i);
+            }
+        }
+
+        Map<String, List<RuleVariable>> dataElementVariables = new HashMap<>();
+        Map<String, List<RuleVariable>> attributeVariables = new HashMap<>();
+        for (int i = 0; i < ruleVariables.size(); i++) {
+            RuleVariable ruleVariable = ruleVariables.get(i);
+
+            // values of variables which are not referenced can't affect rules
+            if (!variableRules.containsKey(ruleVariable.name())) {
+                continue;
+            }
+
+            if (ruleVariable instanceof RuleVariableAttribute) {
+                add(attributeVariables, ((RuleVariableAttribute) ruleVariable)
+                        .trackedEntityAttribute(), ruleVariable);
+            } else {
+                String dataElement = dataElement(ruleVariable);
+                if (dataElement != null) {
+                    add(dataElementVariables, dataElement, ruleVariable);
+                }
+            }
+        }
+
+        BitSet[] assignDependents = new BitSet[rules.size()];
+        for (int i = 0; i < rules.size(); i++) {
+            BitSet dependents = rules(variableRules,
+                    assignedVariables(rules.get(i).rule(), dataElementVariables));
+            dependents.clear(i);
+
+            if (!dependents.isEmpty()) {
+                assignDependents[i] = dependents;
+            }
+        }
+
+        return new RuleDependencyGraph(rules, variableRules, dataElementVariables,
+                attributeVariables, assignDependents);
+    }
+
+    /**
+     * @return graph of rules ordered in such a way that rules which assign values go before
+     * rules which depend on them. Otherwise, original order (priority) of rules is preserved.
+     * Graph is built only once: if rules have to be reordered, its indexes are remapped.
+     * @throws IllegalStateException if rules depend on values assigned by each other.
+     */
+    @Nonnull
+    static RuleDependencyGraph order(@Nonnull List<CompiledRule> rules,
+            @Nonnull List<RuleVariable> ruleVariables) {
+        RuleDependencyGraph graph = create(rules, ruleVariables);
+        if (!graph.hasAssignDependencies()) {
+            return graph;
+        }
+
+        int[] dependencies = new int[rules.size()];
+        for (int i = 0; i < rules.size(); i++) {
+            BitSet dependents = graph.assignDependents[i];
+            for (int j = dependents == null ? -1 : dependents.nextSetBit(0);
+                    j >= 0; j = dependents.nextSetBit(j + 1)) {
+                dependencies[j]++;
+            }
+        }
+
+        // topological sort, which picks rule of the highest priority out of ready ones
+        PriorityQueue<Integer> readyRules = new PriorityQueue<>();
+        for (int i = 0; i < rules.size(); i++) {
+            if (dependencies[i] == 0) {
+                readyRules.add(i);
+            }
+        }
+
+        // new index of each rule within the ordered list
+        int[] positions = new int[rules.size()];
+        List<CompiledRule> orderedRules = new ArrayList<>(rules.size());
+        while (!readyRules.isEmpty()) {
+            int rule = readyRules.poll();
+            positions[rule] = orderedRules.size();
+            orderedRules.add(rules.get(rule));
+
+            BitSet dependents = graph.assignDependents[rule];
+            for (int j = dependents == null ? -1 : dependents.nextSetBit(0);
+                    j >= 0; j = dependents.nextSetBit(j + 1)) {
+                dependencies[j]--;
+                if (dependencies[j] == 0) {
+                    readyRules.add(j);
+                }
+            }
+        }
+
+        if (orderedRules.size() < rules.size()) {
+            List<String> conditions = new ArrayList<>();
+            for (int i = 0; i < rules.size(); i++) {
+                if (dependencies[i] > 0) {
+                    conditions.add(rules.get(i).rule().condition());
+                }
+            }
+
+            throw new IllegalStateException("Rules can't be ordered, because of cyclic " +
+                    "dependencies between values they assign: " + conditions);
+        }
+
+        Map<String, BitSet> variableRules = new HashMap<>();
+        for (Map.Entry<String, BitSet> entry : graph.variableRules.entrySet()) {
+            variableRules.put(entry.getKey(), remap(entry.getValue(), positions));
+        }
+
+        BitSet[] assignDependents = new BitSet[rules.size()];
+        for (int i = 0; i < rules.size(); i++) {
+            if (graph.assignDependents[i] != null) {
+                assignDependents[positions[i]] = remap(graph.assignDependents[i], positions);
+            }
+        }
+
+        return new RuleDependencyGraph(Collections.unmodifiableList(orderedRules), variableRules,
+                graph.dataElementVariables, graph.attributeVariables, assignDependents);
+    }
+
+    @Nonnull
+    private static BitSet remap(@Nonnull BitSet rules, @Nonnull int[] positions) {
+        BitSet remappedRules = new BitSet(positions.length);
+        for (int i = rules.nextSetBit(0); i >= 0; i = rules.nextSetBit(i + 1)) {
+            remappedRules.set(positions[i]);
+        }
+        return remappedRules;
+    }
+
+    /**
+     * @return rules which indexes within the graph refer to.
+     */
+    @Nonnull
+    List<CompiledRule> rules() {
+        return rules;
+    }
+
+    /**
+     * @return true if outcome of some rules might depend on values assigned by other
+     * rules, which means that rules have to be evaluated one after another.
+     */
+    boolean hasAssignDependencies() {
+        return !assigningRules.isEmpty();
+    }
+
+    /**
+     * @return indexes of rules which assign values to variables referenced by other rules.
+     */
+    @Nonnull
+    BitSet assigningRules() {
+        return (BitSet) assigningRules.clone();
+    }
+
+    /**
+     * @return indexes of rules which depend on values assigned by the given rule.
+     */
+    @Nonnull
+    BitSet assignDependents(int rule) {
+        return assignDependents[rule] == null ? new BitSet() : (BitSet) assignDependents[rule].clone();
+    }
+
+    /**
+     * @return names of referenced variables which are assigned by the action.
+     */
+    @Nonnull
+    Set<String> assignedVariables(@Nonnull RuleActionAssign ruleAction) {
+        Set<String> assignedVariables = new HashSet<>();
+        addAssignedVariables(assignedVariables, ruleAction, dataElementVariables);
+        return assignedVariables;
+    }
+
+    /**
+     * @return indexes of rules (within the list of compiled rules) which
+     * depend on any of the given variables.
+     */
+    @Nonnull
+    BitSet rules(@Nonnull Set<String> variables) {
+        return rules(variableRules, variables);
+    }
+
+    @Nonnull
+    private static BitSet rules(@Nonnull Map<String, BitSet> variableRules,
+            @Nonnull Set<String> variables) {
+        BitSet rules = new BitSet();
+        for (String variable : variables) {
+            BitSet dependentRules = variableRules.get(variable);
+            if (dependentRules != null) {
+                rules.or(dependentRules);
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * @return names of variables referenced by at least one rule,
+     * including environment variables.
+     */
+    @Nonnull
+    Set<String> variables() {
+        return Collections.unmodifiableSet(variableRules.keySet());
+    }
+
+    /**
+     * @return referenced variables which are bound to the data element.
+     */
+    @Nonnull
+    List<RuleVariable> dataElementVariables(@Nonnull String dataElement) {
+        List<RuleVariable> ruleVariables = dataElementVariables.get(dataElement);
+        return ruleVariables == null ? Collections.<RuleVariable>emptyList() : ruleVariables;
+    }
+
+    /**
+     * @return referenced variables which are bound to the attribute.
+     */
+    @Nonnull
+    List<RuleVariable> attributeVariables(@Nonnull String attribute) {
+        List<RuleVariable> ruleVariables = attributeVariables.get(attribute);
+        return ruleVariables == null ? Collections.<RuleVariable>emptyList() : ruleVariables;
+    }
+
+    /**
+     * @return names of variables which are assigned by ASSIGN actions of the rule.
+     */
+    @Nonnull
+    private static Set<String> assignedVariables(@Nonnull Rule rule,
+            @Nonnull Map<String, List<RuleVariable>> dataElementVariables) {
+        Set<String> assignedVariables = new HashSet<>();
+        for (int i = 0; i < rule.actions().size(); i++) {
+            if (rule.actions().get(i) instanceof RuleActionAssign) {
+                addAssignedVariables(assignedVariables,
+                        (RuleActionAssign) rule.actions().get(i), dataElementVariables);
+            }
+        }
+        return assignedVariables;
+    }
+
+    /**
+     * Adds variables which are assigned by the action: either directly by
+     * name, or indirectly by assigning value to the data element of variable.
+     */
+    private static void addAssignedVariables(@Nonnull Set<String> assignedVariables,
+            @Nonnull RuleActionAssign ruleAction,
+            @Nonnull Map<String, List<RuleVariable>> dataElementVariables) {
+        if (RuleExpression.VARIABLE_PATTERN_COMPILED.matcher(ruleAction.content()).matches()) {
+            assignedVariables.add(RuleExpression.unwrapVariableName(ruleAction.content()));
+        }
+
+        List<RuleVariable> fieldVariables = dataElementVariables.get(ruleAction.field());
+        for (int i = 0; fieldVariables != null && i < fieldVariables.size(); i++) {
+            assignedVariables.add(fieldVariables.get(i).name());
+        }
+    }
+
+    private static void addDependencies(@Nonnull Map<String, BitSet> variableRules,
+            @Nonnull RuleExpressionTemplate template, int rule) {
+        for (String variable : template.ruleExpression().variables()) {
+            dependentRules(variableRules, RuleExpression.unwrapVariableName(variable)).set(rule);
+        }
+
+        for (int i = 0; i < template.functionCalls().size(); i++) {
+            List<RuleExpressionTemplate> arguments = template.functionCalls().get(i).arguments();
+
+            for (int j = 0; j < arguments.size(); j++) {
+                String variable = quotedName(arguments.get(j).expression());
+                if (variable != null) {
+                    dependentRules(variableRules, variable).set(rule);
+                }
+
+                addDependencies(variableRules, arguments.get(j), rule);
+            }
+        }
+    }
+
+    @Nonnull
+    private static BitSet dependentRules(@Nonnull Map<String, BitSet> variableRules,
+            @Nonnull String variable) {
+        BitSet rules = variableRules.get(variable);
+        if (rules == null) {
+            rules = new BitSet();
+            variableRules.put(variable, rules);
+        }
+        return rules;
+    }
+
+    /**
+     * @return content of string literal, if the whole argument is a
+     * string literal which might be a name of variable.
+     */
+    @Nullable
+    private static String quotedName(@Nonnull String argument) {
+        String text = argument.trim();
+        if (text.length() > 2 && (text.charAt(0) == '\'' || text.charAt(0) == '"') &&
+                text.charAt(text.length() - 1) == text.charAt(0)) {
+            return text.substring(1, text.length() - 1);
+        }
+        return null;
+    }
+
+    @Nullable
+    private static String dataElement(@Nonnull RuleVariable ruleVariable) {
+        if (ruleVariable instanceof RuleVariableCurrentEvent) {
+            return ((RuleVariableCurrentEvent) ruleVariable).dataElement();
+        } else if (ruleVariable instanceof RuleVariablePreviousEvent) {
+            return ((RuleVariablePreviousEvent) ruleVariable).dataElement();
+        } else if (ruleVariable instanceof RuleVariableNewestEvent) {
+            return ((RuleVariableNewestEvent) ruleVariable).dataElement();
+        } else if (ruleVariable instanceof RuleVariableNewestStageEvent) {
+            return ((RuleVariableNewestStageEvent) ruleVariable).dataElement();
+        }
+
+        return null;
+    }
+
+    private static void add(@Nonnull Map<String, List<RuleVariable>> variables,
+            @Nonnull String key, @Nonnull RuleVariable ruleVariable) {
+        List<RuleVariable> list = variables.get(key);
+        if (list == null) {
+            list = new ArrayList<>();
+            variables.put(key, list);
+        }
+        list.add(ruleVariable);
+    }
+}
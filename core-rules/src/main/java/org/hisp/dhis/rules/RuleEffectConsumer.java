@@ -0,0 +1,19 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.RuleEffect;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Receives effects as soon as actions are triggered, instead of waiting for all rules
+ * to be evaluated. Consumer can stop evaluation at any point, e.g. at the first error
+ * which blocks completion, in which case the rest of rules are not evaluated at all.
+ */
+public interface RuleEffectConsumer {
+
+    /**
+     * @param ruleEffect effect of the triggered action.
+     * @return true to continue evaluation, or false to stop it.
+     */
+    boolean accept(@Nonnull RuleEffect ruleEffect);
+}
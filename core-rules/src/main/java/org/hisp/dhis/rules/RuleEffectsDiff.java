@@ -0,0 +1,105 @@
+package org.hisp.dhis.rules;
+
+import com.google.auto.value.AutoValue;
+
+import org.hisp.dhis.rules.models.RuleAction;
+import org.hisp.dhis.rules.models.RuleEffect;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Difference between effects of rules before and after an update of {@link RuleEngineSession}.
+ * Effects are matched by their actions: effect is changed if the same action has produced
+ * different data.
+ */
+@AutoValue
+public abstract class RuleEffectsDiff {
+
+    /**
+     * @return effects of actions which have not been triggered before the update.
+     */
+    @Nonnull
+    public abstract List<RuleEffect> added();
+
+    /**
+     * @return effects of actions which are not triggered anymore, as they were before the update.
+     */
+    @Nonnull
+    public abstract List<RuleEffect> removed();
+
+    /**
+     * @return effects of actions which have produced different data, as they are after the update.
+     */
+    @Nonnull
+    public abstract List<RuleEffect> changed();
+
+    public boolean isEmpty() {
+        return added().isEmpty() && removed().isEmpty() && changed().isEmpty();
+    }
+
+    @Nonnull
+    static RuleEffectsDiff empty() {
+        return create(Collections.<RuleEffect>emptyList(), Collections.<RuleEffect>emptyList(),
+                Collections.<RuleEffect>emptyList());
+    }
+
+    @Nonnull
+    static RuleEffectsDiff create(@Nonnull List<RuleEffect> added,
+            @Nonnull List<RuleEffect> removed, @Nonnull List<RuleEffect> changed) {
+        return new AutoValue_RuleEffectsDiff(Collections.unmodifiableList(added),
+                Collections.unmodifiableList(removed), Collections.unmodifiableList(changed));
+    }
+
+    /**
+     * Accumulates differences between effects of individual rules, which
+     * makes cost of the diff proportional to the number of re-evaluated rules.
+     */
+    static final class Builder {
+        private final List<RuleEffect> added = new ArrayList<>();
+        private final List<RuleEffect> removed = new ArrayList<>();
+        private final List<RuleEffect> changed = new ArrayList<>();
+
+        @Nonnull
+        Builder effects(@Nonnull List<RuleEffect> oldEffects, @Nonnull List<RuleEffect> newEffects) {
+            if (oldEffects.isEmpty()) {
+                added.addAll(newEffects);
+                return this;
+            }
+
+            if (newEffects.isEmpty()) {
+                removed.addAll(oldEffects);
+                return this;
+            }
+
+            Map<RuleAction, RuleEffect> oldEffectMap = new LinkedHashMap<>();
+            for (int i = 0; i < oldEffects.size(); i++) {
+                oldEffectMap.put(oldEffects.get(i).ruleAction(), oldEffects.get(i));
+            }
+
+            for (int i = 0; i < newEffects.size(); i++) {
+                RuleEffect newEffect = newEffects.get(i);
+                RuleEffect oldEffect = oldEffectMap.remove(newEffect.ruleAction());
+
+                if (oldEffect == null) {
+                    added.add(newEffect);
+                } else if (!oldEffect.data().equals(newEffect.data())) {
+                    changed.add(newEffect);
+                }
+            }
+
+            removed.addAll(oldEffectMap.values());
+            return this;
+        }
+
+        @Nonnull
+        RuleEffectsDiff build() {
+            return create(added, removed, changed);
+        }
+    }
+}
@@ -4,11 +4,13 @@ import org.hisp.dhis.rules.models.RuleEffect;
 import org.hisp.dhis.rules.models.RuleEnrollment;
 import org.hisp.dhis.rules.models.RuleEvent;
 
-import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 
 import javax.annotation.Nonnull;
@@ -21,13 +23,13 @@ public final class RuleEngine {
     private final RuleEngineContext ruleEngineContext;
 
     @Nonnull
-    private final List<RuleEvent> ruleEvents;
+    private final RuleEvents ruleEvents;
 
     @Nullable
     private final RuleEnrollment ruleEnrollment;
 
     RuleEngine(@Nonnull RuleEngineContext ruleEngineContext,
-            @Nonnull List<RuleEvent> ruleEvents,
+            @Nonnull RuleEvents ruleEvents,
             @Nullable RuleEnrollment ruleEnrollment) {
         this.ruleEngineContext = ruleEngineContext;
         this.ruleEvents = ruleEvents;
@@ -36,7 +38,7 @@ public final class RuleEngine {
 
     @Nonnull
     public List<RuleEvent> events() {
-        return ruleEvents;
+        return ruleEvents.events();
     }
 
     @Nullable
@@ -51,29 +53,72 @@ public final class RuleEngine {
 
     @Nonnull
     public Callable<List<RuleEffect>> evaluate(@Nonnull RuleEvent ruleEvent) {
+        return execution(ruleEvent);
+    }
+
+    /**
+     * Evaluates rules against the event, handing effects over to the consumer as soon as
+     * actions are triggered. Effects are not collected, and evaluation can be stopped by
+     * the consumer, in which case the rest of rules are not evaluated.
+     *
+     * @return callable which returns true if all rules have been evaluated,
+     * or false if evaluation has been stopped by the consumer.
+     */
+    @Nonnull
+    public Callable<Boolean> evaluate(@Nonnull RuleEvent ruleEvent,
+            @Nonnull RuleEffectConsumer ruleEffectConsumer) {
+        if (ruleEffectConsumer == null) {
+            throw new IllegalArgumentException("ruleEffectConsumer == null");
+        }
+
+        return stream(execution(ruleEvent), ruleEffectConsumer);
+    }
+
+    @Nonnull
+    public Callable<List<RuleEffect>> evaluate(@Nonnull RuleEnrollment ruleEnrollment) {
+        return execution(ruleEnrollment);
+    }
+
+    /**
+     * Streaming counterpart of {@link #evaluate(RuleEnrollment)}.
+     *
+     * @see #evaluate(RuleEvent, RuleEffectConsumer)
+     */
+    @Nonnull
+    public Callable<Boolean> evaluate(@Nonnull RuleEnrollment ruleEnrollment,
+            @Nonnull RuleEffectConsumer ruleEffectConsumer) {
+        if (ruleEffectConsumer == null) {
+            throw new IllegalArgumentException("ruleEffectConsumer == null");
+        }
+
+        return stream(execution(ruleEnrollment), ruleEffectConsumer);
+    }
+
+    @Nonnull
+    private RuleEngineExecution execution(@Nonnull RuleEvent ruleEvent) {
         if (ruleEvent == null) {
             throw new IllegalArgumentException("ruleEvent == null");
         }
 
-        for (RuleEvent contextualEvent : ruleEvents) {
-            if (contextualEvent.event().equals(ruleEvent.event())) {
-                throw new IllegalStateException(String.format(Locale.US, "Event '%s' is already " +
-                        "set as a part of execution context.", contextualEvent.event()));
-            }
+        if (ruleEvents.contains(ruleEvent.event())) {
+            throw new IllegalStateException(String.format(Locale.US, "Event '%s' is already " +
+                    "set as a part of execution context.", ruleEvent.event()));
         }
 
         Map<String, RuleVariableValue> valueMap = RuleVariableValueMapBuilder.target(ruleEvent)
                 .ruleVariables(ruleEngineContext.ruleVariables())
+                .referencedVariables(ruleEngineContext.dependencyGraph().variables())
                 .ruleEnrollment(ruleEnrollment)
                 .ruleEvents(ruleEvents)
                 .build();
 
-        return new RuleEngineExecution(executionContext().expressionEvaluator(),
-                ruleEngineContext.rules(), valueMap);
+        return new RuleEngineExecution(ruleEngineContext,
+                ruleEngineContext.compiledRules(ruleEvent.programStage()),
+                new RuleVariableFrame(ruleEngineContext.variableSlots(), valueMap));
     }
 
     @Nonnull
-    public Callable<List<RuleEffect>> evaluate(@Nonnull RuleEnrollment ruleEnrollment) {
+    private RuleEngineExecution execution(@Nonnull RuleEnrollment ruleEnrollment) {
         if (ruleEnrollment == null) {
             throw new IllegalArgumentException("ruleEnrollment == null");
         }
@@ -85,11 +130,163 @@ public final class RuleEngine {
 
         Map<String, RuleVariableValue> valueMap = RuleVariableValueMapBuilder.target(ruleEnrollment)
                 .ruleVariables(ruleEngineContext.ruleVariables())
+                .referencedVariables(ruleEngineContext.dependencyGraph().variables())
                 .ruleEvents(ruleEvents)
                 .build();
 
-        return new RuleEngineExecution(executionContext().expressionEvaluator(),
-                ruleEngineContext.rules(), valueMap);
+        return new RuleEngineExecution(ruleEngineContext, ruleEngineContext.compiledRules(null),
+                new RuleVariableFrame(ruleEngineContext.variableSlots(), valueMap));
+    }
+
+    @Nonnull
+    private static Callable<Boolean> stream(@Nonnull final RuleEngineExecution ruleEngineExecution,
+            @Nonnull final RuleEffectConsumer ruleEffectConsumer) {
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return ruleEngineExecution.evaluate(ruleEffectConsumer);
+            }
+        };
+    }
+
+    /**
+     * Evaluates a batch of events in a single pass. Each event is evaluated against
+     * contextual events and enrollment of this engine, as well as the rest of events
+     * in the batch. This is equivalent to calling {@link #evaluate(RuleEvent)} for
+     * each of the events, but events are sorted and aggregated only once.
+     *
+     * @param ruleEvents events to evaluate.
+     * @return effects keyed by event uid, in the same order as events were supplied.
+     */
+    @Nonnull
+    public Callable<Map<String, List<RuleEffect>>> evaluate(@Nonnull List<RuleEvent> ruleEvents) {
+        if (ruleEvents == null) {
+            throw new IllegalArgumentException("ruleEvents == null");
+        }
+
+        checkTargetEvents(ruleEvents);
+
+        Map<String, Map<String, RuleVariableValue>> valueMaps = RuleVariableValueMapBuilder
+                .target(ruleEvents)
+                .ruleVariables(ruleEngineContext.ruleVariables())
+                .referencedVariables(ruleEngineContext.dependencyGraph().variables())
+                .ruleEnrollment(ruleEnrollment)
+                .ruleEvents(this.ruleEvents)
+                .multipleBuild();
+
+        return new RuleEngineMultipleExecution(ruleEngineContext,
+                targetRules(null, ruleEvents), valueMaps);
+    }
+
+    /**
+     * Evaluates enrollment and a batch of its events in a single pass. Enrollment is
+     * evaluated against all events, while each event is evaluated against the enrollment
+     * and the rest of events (both contextual and supplied).
+     *
+     * @param ruleEnrollment enrollment to evaluate.
+     * @param ruleEvents     events to evaluate.
+     * @return effects keyed by enrollment and event uids. Enrollment goes first,
+     * followed by events in the same order as they were supplied.
+     */
+    @Nonnull
+    public Callable<Map<String, List<RuleEffect>>> evaluate(
+            @Nonnull RuleEnrollment ruleEnrollment, @Nonnull List<RuleEvent> ruleEvents) {
+        if (ruleEnrollment == null) {
+            throw new IllegalArgumentException("ruleEnrollment == null");
+        }
+
+        if (ruleEvents == null) {
+            throw new IllegalArgumentException("ruleEvents == null");
+        }
+
+        if (this.ruleEnrollment != null) {
+            throw new IllegalStateException(String.format(Locale.US, "Enrollment '%s' is already " +
+                    "set as a part of execution context.", this.ruleEnrollment.enrollment()));
+        }
+
+        checkTargetEvents(ruleEvents);
+
+        Map<String, Map<String, RuleVariableValue>> valueMaps = RuleVariableValueMapBuilder
+                .target(ruleEnrollment, ruleEvents)
+                .ruleVariables(ruleEngineContext.ruleVariables())
+                .referencedVariables(ruleEngineContext.dependencyGraph().variables())
+                .ruleEvents(this.ruleEvents)
+                .multipleBuild();
+
+        return new RuleEngineMultipleExecution(ruleEngineContext,
+                targetRules(ruleEnrollment, ruleEvents), valueMaps);
+    }
+
+    /**
+     * Creates session for incremental evaluation of the event. Rules are evaluated
+     * once when session is created, subsequent updates of data values re-evaluate
+     * only rules which depend on them.
+     */
+    @Nonnull
+    public RuleEngineSession session(@Nonnull RuleEvent ruleEvent) {
+        if (ruleEvent == null) {
+            throw new IllegalArgumentException("ruleEvent == null");
+        }
+
+        checkTargetEvents(Collections.singletonList(ruleEvent));
+
+        return new RuleEngineSession(ruleEngineContext, ruleEvents, ruleEnrollment, ruleEvent);
+    }
+
+    /**
+     * Creates session for incremental evaluation of the enrollment. Rules are evaluated
+     * once when session is created, subsequent updates of attribute values re-evaluate
+     * only rules which depend on them.
+     */
+    @Nonnull
+    public RuleEngineSession session(@Nonnull RuleEnrollment ruleEnrollment) {
+        if (ruleEnrollment == null) {
+            throw new IllegalArgumentException("ruleEnrollment == null");
+        }
+
+        if (this.ruleEnrollment != null) {
+            throw new IllegalStateException(String.format(Locale.US, "Enrollment '%s' is already " +
+                    "set as a part of execution context.", this.ruleEnrollment.enrollment()));
+        }
+
+        return new RuleEngineSession(ruleEngineContext, ruleEvents, ruleEnrollment, null);
+    }
+
+    /**
+     * @return rules which apply to each of the targets, keyed by uid.
+     */
+    @Nonnull
+    private Map<String, List<CompiledRule>> targetRules(
+            @Nullable RuleEnrollment targetEnrollment, @Nonnull List<RuleEvent> targetEvents) {
+        Map<String, List<CompiledRule>> targetRules = new HashMap<>();
+
+        if (targetEnrollment != null) {
+            targetRules.put(targetEnrollment.enrollment(), ruleEngineContext.compiledRules(null));
+        }
+
+        for (int i = 0; i < targetEvents.size(); i++) {
+            RuleEvent targetEvent = targetEvents.get(i);
+            targetRules.put(targetEvent.event(),
+                    ruleEngineContext.compiledRules(targetEvent.programStage()));
+        }
+
+        return targetRules;
+    }
+
+    private void checkTargetEvents(@Nonnull List<RuleEvent> targetEvents) {
+        Set<String> events = new HashSet<>(targetEvents.size() * 2);
+        for (int i = 0; i < targetEvents.size(); i++) {
+            RuleEvent targetEvent = targetEvents.get(i);
+
+            if (targetEvent == null) {
+                throw new IllegalArgumentException("ruleEvent == null");
+            }
+
+            if (ruleEvents.contains(targetEvent.event()) || !events.add(targetEvent.event())) {
+                throw new IllegalStateException(String.format(Locale.US, "Event '%s' is already " +
+                        "set as a part of execution context.", targetEvent.event()));
+            }
+        }
     }
 
     public static class Builder {
@@ -97,14 +294,15 @@ public final class RuleEngine {
         @Nonnull
         private final RuleEngineContext ruleEngineContext;
 
-        @Nullable
-        private List<RuleEvent> ruleEvents;
+        @Nonnull
+        private RuleEvents ruleEvents;
 
         @Nullable
         private RuleEnrollment ruleEnrollment;
 
         Builder(@Nonnull RuleEngineContext ruleEngineContext) {
             this.ruleEngineContext = ruleEngineContext;
+            this.ruleEvents = RuleEvents.empty();
         }
 
         @Nonnull
@@ -113,7 +311,8 @@ public final class RuleEngine {
                 throw new IllegalArgumentException("ruleEvents == null");
             }
 
-            this.ruleEvents = Collections.unmodifiableList(new ArrayList<>(ruleEvents));
+            // events are copied and indexed once, all evaluations share the index
+            this.ruleEvents = RuleEvents.create(ruleEvents);
             return this;
         }
 
@@ -129,10 +328,6 @@ public final class RuleEngine {
 
         @Nonnull
         public RuleEngine build() {
-            if (ruleEvents == null) {
-                ruleEvents = Collections.unmodifiableList(new ArrayList<RuleEvent>());
-            }
-
             return new RuleEngine(ruleEngineContext, ruleEvents, ruleEnrollment);
         }
     }
@@ -3,15 +3,28 @@ package org.hisp.dhis.rules;
 import org.hisp.dhis.rules.models.Rule;
 import org.hisp.dhis.rules.models.RuleVariable;
 
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
 
+/**
+ * Rules and variables of a program along with their compiled form. Context is immutable
+ * once built, which means that it can be shared across threads and engines. In order to
+ * pick up new rules, build a new context and replace the old one, e.g. within
+ * {@link RuleEngineContextHolder}.
+ */
 public final class RuleEngineContext {
+    private static final Comparator<Rule> PRIORITY_COMPARATOR = new PriorityComparator();
 
     @Nonnull
     private final RuleExpressionEvaluator expressionEvaluator;
@@ -22,11 +35,80 @@ public final class RuleEngineContext {
     @Nonnull
     private final List<RuleVariable> ruleVariables;
 
+    @Nonnull
+    private final List<CompiledRule> compiledRules;
+
+    @Nonnull
+    private final RuleVariableSlots variableSlots;
+
+    @Nonnull
+    private final RuleDependencyGraph dependencyGraph;
+
+    @Nonnull
+    private final RuleEngineCounters counters;
+
+    @Nonnull
+    private final RuleEngineListener listener;
+
+    /**
+     * Rules which are not bound to any program stage.
+     */
+    @Nonnull
+    private final List<CompiledRule> programRules;
+
+    /**
+     * Program-wide rules along with rules bound to the program stage, keyed by stage.
+     */
+    @Nonnull
+    private final Map<String, List<CompiledRule>> programStageRules;
+
     RuleEngineContext(@Nonnull RuleExpressionEvaluator expressionEvaluator,
-            @Nonnull List<Rule> rules, @Nonnull List<RuleVariable> ruleVariables) {
+            @Nonnull List<Rule> rules, @Nonnull List<RuleVariable> ruleVariables,
+            @Nonnull RuleDependencyGraph dependencyGraph, @Nonnull RuleVariableSlots variableSlots,
+            @Nonnull RuleEngineListener listener) {
+        List<CompiledRule> compiledRules = dependencyGraph.rules();
+
         this.expressionEvaluator = expressionEvaluator;
         this.rules = rules;
         this.ruleVariables = ruleVariables;
+        this.compiledRules = compiledRules;
+        this.variableSlots = variableSlots;
+        this.dependencyGraph = dependencyGraph;
+        this.counters = new RuleEngineCounters();
+        this.listener = listener;
+
+        List<CompiledRule> programRules = new ArrayList<>();
+        Map<String, List<CompiledRule>> programStageRules = new HashMap<>();
+
+        // index rules by program stage, preserving order of
+        // compiled rules within each of the buckets
+        for (int i = 0; i < compiledRules.size(); i++) {
+            String programStage = compiledRules.get(i).rule().programStage();
+            if (programStage != null && !programStageRules.containsKey(programStage)) {
+                programStageRules.put(programStage, new ArrayList<CompiledRule>()); //NOPMD
+            }
+        }
+
+        for (int i = 0; i < compiledRules.size(); i++) {
+            CompiledRule compiledRule = compiledRules.get(i);
+            String programStage = compiledRule.rule().programStage();
+
+            if (programStage == null) {
+                programRules.add(compiledRule);
+                for (List<CompiledRule> stageRules : programStageRules.values()) {
+                    stageRules.add(compiledRule);
+                }
+            } else {
+                programStageRules.get(programStage).add(compiledRule);
+            }
+        }
+
+        for (Map.Entry<String, List<CompiledRule>> stageRules : programStageRules.entrySet()) {
+            stageRules.setValue(unmodifiableList(stageRules.getValue()));
+        }
+
+        this.programRules = unmodifiableList(programRules);
+        this.programStageRules = unmodifiableMap(programStageRules);
     }
 
     @Nonnull
@@ -44,6 +126,63 @@ public final class RuleEngineContext {
         return expressionEvaluator;
     }
 
+    /**
+     * @return all compiled rules, ordered by priority. Rules which assign values
+     * go before rules which depend on them, regardless of their priority.
+     */
+    @Nonnull
+    List<CompiledRule> compiledRules() {
+        return compiledRules;
+    }
+
+    /**
+     * @param programStage uid of program stage, or null for enrollment.
+     * @return rules which apply to events of the given program stage: program-wide
+     * rules along with rules bound to the stage, ordered by priority. If stage is
+     * null, all rules are returned, since enrollment is evaluated against every rule.
+     */
+    @Nonnull
+    List<CompiledRule> compiledRules(@Nullable String programStage) {
+        if (programStage == null) {
+            return compiledRules;
+        }
+
+        if (programStageRules.containsKey(programStage)) {
+            return programStageRules.get(programStage);
+        }
+
+        return programRules;
+    }
+
+    /**
+     * @return slots of variables referenced by compiled rules.
+     */
+    @Nonnull
+    RuleVariableSlots variableSlots() {
+        return variableSlots;
+    }
+
+    @Nonnull
+    RuleDependencyGraph dependencyGraph() {
+        return dependencyGraph;
+    }
+
+    /**
+     * @return counters of function calls, shared by all engines built from the context.
+     */
+    @Nonnull
+    public RuleEngineCounters counters() {
+        return counters;
+    }
+
+    /**
+     * @return listener which is notified about each rule evaluated by engines built from the context.
+     */
+    @Nonnull
+    public RuleEngineListener listener() {
+        return listener;
+    }
+
     @Nonnull
     public RuleEngine.Builder toEngineBuilder() {
         return new RuleEngine.Builder(this);
@@ -69,6 +208,12 @@ public final class RuleEngineContext {
         @Nullable
         private List<RuleVariable> ruleVariables;
 
+        @Nullable
+        private Map<String, String> constants;
+
+        @Nullable
+        private RuleEngineListener listener;
+
         Builder(@Nonnull RuleExpressionEvaluator evaluator) {
             this.evaluator = evaluator;
         }
@@ -93,6 +238,38 @@ public final class RuleEngineContext {
             return this;
         }
 
+        /**
+         * @param constants values of constants keyed by uid. Constants which are referenced
+         *                  as 'C{uid}' are inlined into expressions when rules are compiled.
+         */
+        @Nonnull
+        public Builder constants(@Nonnull Map<String, String> constants) {
+            if (constants == null) {
+                throw new IllegalArgumentException("constants == null");
+            }
+
+            this.constants = unmodifiableMap(new HashMap<>(constants));
+            return this;
+        }
+
+        /**
+         * @param listener listener to report metrics of evaluated rules to, e.g.
+         *                 {@link RuleEngineHistogramListener} in debug builds.
+         */
+        @Nonnull
+        public Builder listener(@Nonnull RuleEngineListener listener) {
+            if (listener == null) {
+                throw new IllegalArgumentException("listener == null");
+            }
+
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * @throws IllegalStateException if there is a cycle of rules which
+         *                               depend on values assigned by each other.
+         */
         @Nonnull
         public RuleEngineContext build() {
             if (rules == null) {
@@ -103,7 +280,43 @@ public final class RuleEngineContext {
                 ruleVariables = unmodifiableList(new ArrayList<RuleVariable>());
             }
 
-            return new RuleEngineContext(evaluator, rules, ruleVariables);
+            if (constants == null) {
+                constants = unmodifiableMap(new HashMap<String, String>());
+            }
+
+            if (listener == null) {
+                listener = RuleEngineNoopListener.create();
+            }
+
+            // rules are evaluated in order of priority, rules without priority
+            // go last. Sorting is stable, so original order is kept for the rest
+            List<Rule> sortedRules = new ArrayList<>(rules);
+            Collections.sort(sortedRules, PRIORITY_COMPARATOR);
+
+            // expressions are compiled only once per context, rules
+            // which are never going to be triggered are left out
+            RuleVariableSlots variableSlots = new RuleVariableSlots();
+            List<CompiledRule> compiledRules = CompiledRule.compile(
+                    sortedRules, variableSlots, constants);
+
+            // rules which assign values go before rules which depend on them
+            return new RuleEngineContext(evaluator, rules, ruleVariables,
+                    RuleDependencyGraph.order(compiledRules, ruleVariables), variableSlots, listener);
+        }
+    }
+
+    private static class PriorityComparator implements Comparator<Rule>, Serializable {
+        private static final long serialVersionUID = 3214906184625392041L;
+
+        @Override
+        public int compare(Rule first, Rule second) {
+            if (first.priority() == null) {
+                return second.priority() == null ? 0 : 1;
+            } else if (second.priority() == null) {
+                return -1;
+            }
+
+            return first.priority().compareTo(second.priority());
         }
     }
 }
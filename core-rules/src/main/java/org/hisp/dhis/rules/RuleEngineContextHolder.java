@@ -0,0 +1,82 @@
+package org.hisp.dhis.rules;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Holds the current {@link RuleEngineContext}, which can be replaced by a newly built one at any
+ * time, e.g. when program rules have been synced in background. Contexts are immutable, so
+ * replacing one does not affect engines, callables and sessions which have been created from
+ * it: they keep evaluating against the old snapshot, while the new ones pick up the new context.
+ * <p>
+ * Holder is thread-safe and does not lock: reading and replacing the context are atomic.
+ */
+public final class RuleEngineContextHolder {
+
+    @Nonnull
+    private final AtomicReference<RuleEngineContext> ruleEngineContext;
+
+    private RuleEngineContextHolder(@Nonnull RuleEngineContext ruleEngineContext) {
+        this.ruleEngineContext = new AtomicReference<>(ruleEngineContext);
+    }
+
+    @Nonnull
+    public static RuleEngineContextHolder create(@Nonnull RuleEngineContext ruleEngineContext) {
+        if (ruleEngineContext == null) {
+            throw new IllegalArgumentException("ruleEngineContext == null");
+        }
+
+        return new RuleEngineContextHolder(ruleEngineContext);
+    }
+
+    /**
+     * @return snapshot of the current context.
+     */
+    @Nonnull
+    public RuleEngineContext get() {
+        return ruleEngineContext.get();
+    }
+
+    /**
+     * @return builder of engine over the current context.
+     */
+    @Nonnull
+    public RuleEngine.Builder toEngineBuilder() {
+        return ruleEngineContext.get().toEngineBuilder();
+    }
+
+    /**
+     * Replaces the current context. Context should be built upfront,
+     * so that readers are not blocked while rules are being compiled.
+     *
+     * @return context which has been replaced.
+     */
+    @Nonnull
+    public RuleEngineContext swap(@Nonnull RuleEngineContext ruleEngineContext) {
+        if (ruleEngineContext == null) {
+            throw new IllegalArgumentException("ruleEngineContext == null");
+        }
+
+        return this.ruleEngineContext.getAndSet(ruleEngineContext);
+    }
+
+    /**
+     * Replaces the context only if it is still the expected one, which allows
+     * concurrent updaters to detect that context has been replaced in between.
+     *
+     * @return true if context has been replaced.
+     */
+    public boolean swap(@Nonnull RuleEngineContext expected,
+            @Nonnull RuleEngineContext ruleEngineContext) {
+        if (expected == null) {
+            throw new IllegalArgumentException("expected == null");
+        }
+
+        if (ruleEngineContext == null) {
+            throw new IllegalArgumentException("ruleEngineContext == null");
+        }
+
+        return this.ruleEngineContext.compareAndSet(expected, ruleEngineContext);
+    }
+}
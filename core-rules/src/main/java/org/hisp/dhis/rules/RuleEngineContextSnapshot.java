@@ -0,0 +1,926 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.Rule;
+import org.hisp.dhis.rules.models.RuleAction;
+import org.hisp.dhis.rules.models.RuleActionAssign;
+import org.hisp.dhis.rules.models.RuleActionCreateEvent;
+import org.hisp.dhis.rules.models.RuleActionDisplayKeyValuePair;
+import org.hisp.dhis.rules.models.RuleActionDisplayText;
+import org.hisp.dhis.rules.models.RuleActionErrorOnCompletion;
+import org.hisp.dhis.rules.models.RuleActionHideField;
+import org.hisp.dhis.rules.models.RuleActionHideSection;
+import org.hisp.dhis.rules.models.RuleActionSetMandatoryField;
+import org.hisp.dhis.rules.models.RuleActionShowError;
+import org.hisp.dhis.rules.models.RuleActionShowWarning;
+import org.hisp.dhis.rules.models.RuleActionWarningOnCompletion;
+import org.hisp.dhis.rules.models.RuleValueType;
+import org.hisp.dhis.rules.models.RuleVariable;
+import org.hisp.dhis.rules.models.RuleVariableAttribute;
+import org.hisp.dhis.rules.models.RuleVariableCurrentEvent;
+import org.hisp.dhis.rules.models.RuleVariableNewestEvent;
+import org.hisp.dhis.rules.models.RuleVariableNewestStageEvent;
+import org.hisp.dhis.rules.models.RuleVariablePreviousEvent;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Compact binary form of a compiled {@link RuleEngineContext}: rules, actions, variables and
+ * compiled expressions, so that context can be restored on start up without fetching rules
+ * and compiling their expressions again. Snapshot is meant to be written once rules have been
+ * synced, and read back before the first evaluation.
+ * <p>
+ * Every string is written once into a table which goes before the rest of the snapshot, so
+ * the snapshot is read in a single pass and strings are shared by all expressions referring
+ * to them. Snapshot carries version of the format along with version of the source it has
+ * been built from (e.g. time of the last sync). If either of them does not match, snapshot
+ * is considered stale and has to be rebuilt. Snapshot ends with a checksum, in order to
+ * detect files which have been corrupted or written only partially. Checksum is verified
+ * before the snapshot is parsed, and every count and length is bounded by the size of the
+ * snapshot, so that corrupted input fails with {@link IOException} rather than with an
+ * attempt to allocate huge arrays.
+ */
+public final class RuleEngineContextSnapshot {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Marks the start of snapshot: 'D2RC'.
+     */
+    private static final int MAGIC = 0x44325243;
+
+    /**
+     * Version of the format, which has to be bumped on any change
+     * in layout of the snapshot or in the way expressions are compiled.
+     */
+    static final int FORMAT_VERSION = 1;
+
+    private static final int VARIABLE_ATTRIBUTE = 1;
+    private static final int VARIABLE_CURRENT_EVENT = 2;
+    private static final int VARIABLE_NEWEST_EVENT = 3;
+    private static final int VARIABLE_NEWEST_STAGE_EVENT = 4;
+    private static final int VARIABLE_PREVIOUS_EVENT = 5;
+
+    private static final int ACTION_ASSIGN = 1;
+    private static final int ACTION_CREATE_EVENT = 2;
+    private static final int ACTION_DISPLAY_KEY_VALUE_PAIR = 3;
+    private static final int ACTION_DISPLAY_TEXT = 4;
+    private static final int ACTION_ERROR_ON_COMPLETION = 5;
+    private static final int ACTION_HIDE_FIELD = 6;
+    private static final int ACTION_HIDE_SECTION = 7;
+    private static final int ACTION_SET_MANDATORY_FIELD = 8;
+    private static final int ACTION_SHOW_ERROR = 9;
+    private static final int ACTION_SHOW_WARNING = 10;
+    private static final int ACTION_WARNING_ON_COMPLETION = 11;
+
+    private static final int NODE_NONE = 0;
+    private static final int NODE_NUMBER = 1;
+    private static final int NODE_BOOLEAN = 2;
+    private static final int NODE_TEXT = 3;
+    private static final int NODE_VARIABLE = 4;
+    private static final int NODE_FUNCTION_CALL = 5;
+    private static final int NODE_UNARY = 6;
+    private static final int NODE_BINARY = 7;
+    private static final int NODE_CONDITIONAL = 8;
+
+    private RuleEngineContextSnapshot() {
+        // no instances
+    }
+
+    /**
+     * Writes snapshot of the context. Stream is neither closed nor flushed beyond the snapshot.
+     *
+     * @param sourceVersion version of the source which context has been built from.
+     * @throws IllegalArgumentException if context contains actions or variables which are
+     *                                  not known to the engine.
+     */
+    public static void write(@Nonnull RuleEngineContext ruleEngineContext,
+            @Nonnull String sourceVersion, @Nonnull OutputStream outputStream) throws IOException {
+        if (ruleEngineContext == null) {
+            throw new IllegalArgumentException("ruleEngineContext == null");
+        }
+
+        if (sourceVersion == null) {
+            throw new IllegalArgumentException("sourceVersion == null");
+        }
+
+        if (outputStream == null) {
+            throw new IllegalArgumentException("outputStream == null");
+        }
+
+        // strings are collected while the body is being
+        // written, but they have to go before the body
+        Writer writer = new Writer();
+        writer.context(ruleEngineContext);
+
+        CRC32 checksum = new CRC32();
+        DataOutputStream output = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(outputStream), checksum));
+
+        output.writeInt(MAGIC);
+        writeVarInt(output, FORMAT_VERSION);
+        writeText(output, sourceVersion);
+        writer.writeTo(output);
+
+        output.flush();
+        new DataOutputStream(outputStream).writeInt((int) checksum.getValue());
+        outputStream.flush();
+    }
+
+    /**
+     * @see #read(InputStream, RuleExpressionEvaluator, RuleEngineListener, String)
+     */
+    @Nullable
+    public static RuleEngineContext read(@Nonnull InputStream inputStream,
+            @Nonnull RuleExpressionEvaluator evaluator, @Nonnull String sourceVersion) throws IOException {
+        return read(inputStream, evaluator, RuleEngineNoopListener.create(), sourceVersion);
+    }
+
+    /**
+     * Reads snapshot which has been written by {@link #write(RuleEngineContext, String, OutputStream)}.
+     * Stream is read into memory up to its end, so snapshot is expected to take the rest of the
+     * stream. Stream is not closed.
+     *
+     * @param sourceVersion version of the source which context is expected to be built from.
+     * @return context, or null if snapshot is stale: it has been written either in another
+     * format or from another version of the source.
+     * @throws IOException if snapshot is corrupted.
+     */
+    @Nullable
+    public static RuleEngineContext read(@Nonnull InputStream inputStream,
+            @Nonnull RuleExpressionEvaluator evaluator, @Nonnull RuleEngineListener listener,
+            @Nonnull String sourceVersion) throws IOException {
+        if (inputStream == null) {
+            throw new IllegalArgumentException("inputStream == null");
+        }
+
+        if (evaluator == null) {
+            throw new IllegalArgumentException("evaluator == null");
+        }
+
+        if (listener == null) {
+            throw new IllegalArgumentException("listener == null");
+        }
+
+        if (sourceVersion == null) {
+            throw new IllegalArgumentException("sourceVersion == null");
+        }
+
+        byte[] snapshot = readFully(inputStream);
+
+        // checksum itself is not a part of checksum
+        int length = snapshot.length - 4;
+        if (length < 4) {
+            throw new IOException("Input is not a snapshot of rule engine context");
+        }
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(snapshot, 0, length));
+        if (input.readInt() != MAGIC) {
+            throw new IOException("Input is not a snapshot of rule engine context");
+        }
+
+        // layout of the rest, including checksum, depends on the format
+        if (readVarInt(input) != FORMAT_VERSION) {
+            return null;
+        }
+
+        CRC32 checksum = new CRC32();
+        checksum.update(snapshot, 0, length);
+        if (ByteBuffer.wrap(snapshot, length, 4).getInt() != (int) checksum.getValue()) {
+            throw new IOException("Snapshot of rule engine context is corrupted");
+        }
+
+        if (!sourceVersion.equals(readText(input))) {
+            return null;
+        }
+
+        RuleEngineContext ruleEngineContext;
+        try {
+            ruleEngineContext = new Reader(input).context(evaluator, listener);
+        } catch (RuntimeException runtimeException) {
+            // checksum matches, but content is not consistent
+            throw new IOException("Snapshot of rule engine context is corrupted", runtimeException);
+        }
+
+        if (input.available() > 0) {
+            throw new IOException("Unexpected data at the end of snapshot");
+        }
+
+        return ruleEngineContext;
+    }
+
+    @Nonnull
+    private static byte[] readFully(@Nonnull InputStream inputStream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+        byte[] buffer = new byte[8192];
+        for (int count = inputStream.read(buffer); count != -1; count = inputStream.read(buffer)) {
+            bytes.write(buffer, 0, count);
+        }
+        return bytes.toByteArray();
+    }
+
+    static void writeVarInt(@Nonnull DataOutputStream output, int value) throws IOException {
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            output.writeByte((remaining & 0x7F) | 0x80);
+            remaining = remaining >>> 7;
+        }
+        output.writeByte(remaining);
+    }
+
+    static int readVarInt(@Nonnull DataInputStream input) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift = shift + 7) {
+            int current = input.readUnsignedByte();
+            value = value | ((current & 0x7F) << shift);
+
+            if ((current & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    /**
+     * Reads number of elements or bytes which follow. Each of them takes at least one byte,
+     * so the number can't exceed the size of the rest of the snapshot, which is held in memory.
+     */
+    private static int readCount(@Nonnull DataInputStream input) throws IOException {
+        int count = readVarInt(input);
+        if (count < 0 || count > input.available()) {
+            throw new IOException(String.format(Locale.US, "Invalid count: %d", count));
+        }
+        return count;
+    }
+
+    private static void writeText(@Nonnull DataOutputStream output,
+            @Nonnull String text) throws IOException {
+        byte[] bytes = text.getBytes(UTF_8);
+        writeVarInt(output, bytes.length);
+        output.write(bytes);
+    }
+
+    @Nonnull
+    private static String readText(@Nonnull DataInputStream input) throws IOException {
+        byte[] bytes = new byte[readCount(input)];
+        input.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Writes body of the snapshot into memory, collecting strings into the table.
+     */
+    private static final class Writer {
+
+        @Nonnull
+        private final Map<String, Integer> strings;
+
+        @Nonnull
+        private final List<String> stringTable;
+
+        @Nonnull
+        private final ByteArrayOutputStream bytes;
+
+        @Nonnull
+        private final DataOutputStream body;
+
+        Writer() {
+            this.strings = new HashMap<>();
+            this.stringTable = new ArrayList<>();
+            this.bytes = new ByteArrayOutputStream(8192);
+            this.body = new DataOutputStream(bytes);
+        }
+
+        void writeTo(@Nonnull DataOutputStream output) throws IOException {
+            writeVarInt(output, stringTable.size());
+            for (int i = 0; i < stringTable.size(); i++) {
+                writeText(output, stringTable.get(i));
+            }
+
+            body.flush();
+            bytes.writeTo(output);
+        }
+
+        void context(@Nonnull RuleEngineContext ruleEngineContext) throws IOException {
+            RuleVariableSlots slots = ruleEngineContext.variableSlots();
+            varInt(slots.size());
+            for (int i = 0; i < slots.size(); i++) {
+                string(slots.name(i));
+            }
+
+            List<RuleVariable> ruleVariables = ruleEngineContext.ruleVariables();
+            varInt(ruleVariables.size());
+            for (int i = 0; i < ruleVariables.size(); i++) {
+                variable(ruleVariables.get(i));
+            }
+
+            // compiled rules refer to rules by their index
+            List<Rule> rules = ruleEngineContext.rules();
+            Map<Rule, Integer> ruleIndexes = new IdentityHashMap<>(rules.size());
+            varInt(rules.size());
+            for (int i = 0; i < rules.size(); i++) {
+                rule(rules.get(i));
+                ruleIndexes.put(rules.get(i), i);
+            }
+
+            List<CompiledRule> compiledRules = ruleEngineContext.compiledRules();
+            varInt(compiledRules.size());
+            for (int i = 0; i < compiledRules.size(); i++) {
+                CompiledRule compiledRule = compiledRules.get(i);
+
+                Integer ruleIndex = ruleIndexes.get(compiledRule.rule());
+                if (ruleIndex == null) {
+                    throw new IllegalStateException("Compiled rule is not a part of the context");
+                }
+
+                varInt(ruleIndex);
+                template(compiledRule.condition());
+
+                // number of actions is known from the rule
+                for (int j = 0; j < compiledRule.actions().size(); j++) {
+                    template(compiledRule.actions().get(j));
+                }
+            }
+        }
+
+        private void variable(@Nonnull RuleVariable ruleVariable) throws IOException {
+            if (ruleVariable instanceof RuleVariableAttribute) {
+                RuleVariableAttribute variable = (RuleVariableAttribute) ruleVariable;
+                varInt(VARIABLE_ATTRIBUTE);
+                string(variable.name());
+                string(variable.trackedEntityAttribute());
+                string(variable.trackedEntityAttributeType().name());
+            } else if (ruleVariable instanceof RuleVariableCurrentEvent) {
+                RuleVariableCurrentEvent variable = (RuleVariableCurrentEvent) ruleVariable;
+                varInt(VARIABLE_CURRENT_EVENT);
+                string(variable.name());
+                string(variable.dataElement());
+                string(variable.dataElementType().name());
+            } else if (ruleVariable instanceof RuleVariableNewestEvent) {
+                RuleVariableNewestEvent variable = (RuleVariableNewestEvent) ruleVariable;
+                varInt(VARIABLE_NEWEST_EVENT);
+                string(variable.name());
+                string(variable.dataElement());
+                string(variable.dataElementType().name());
+            } else if (ruleVariable instanceof RuleVariableNewestStageEvent) {
+                RuleVariableNewestStageEvent variable = (RuleVariableNewestStageEvent) ruleVariable;
+                varInt(VARIABLE_NEWEST_STAGE_EVENT);
+                string(variable.name());
+                string(variable.dataElement());
+                string(variable.dataElementType().name());
+                string(variable.programStage());
+            } else if (ruleVariable instanceof RuleVariablePreviousEvent) {
+                RuleVariablePreviousEvent variable = (RuleVariablePreviousEvent) ruleVariable;
+                varInt(VARIABLE_PREVIOUS_EVENT);
+                string(variable.name());
+                string(variable.dataElement());
+                string(variable.dataElementType().name());
+            } else {
+                throw new IllegalArgumentException("Unsupported variable: " + ruleVariable);
+            }
+        }
+
+        private void rule(@Nonnull Rule rule) throws IOException {
+            string(rule.programStage());
+            varInt(rule.priority() == null ? 0 : 1);
+            if (rule.priority() != null) {
+                body.writeInt(rule.priority());
+            }
+            string(rule.condition());
+
+            varInt(rule.actions().size());
+            for (int i = 0; i < rule.actions().size(); i++) {
+                action(rule.actions().get(i));
+            }
+        }
+
+        @SuppressWarnings("PMD.CyclomaticComplexity")
+        private void action(@Nonnull RuleAction ruleAction) throws IOException {
+            if (ruleAction instanceof RuleActionAssign) {
+                RuleActionAssign action = (RuleActionAssign) ruleAction;
+                action(ACTION_ASSIGN, action.content(), action.data(), action.field());
+            } else if (ruleAction instanceof RuleActionCreateEvent) {
+                RuleActionCreateEvent action = (RuleActionCreateEvent) ruleAction;
+                action(ACTION_CREATE_EVENT, action.content(), action.data(), action.programStage());
+            } else if (ruleAction instanceof RuleActionDisplayKeyValuePair) {
+                RuleActionDisplayKeyValuePair action = (RuleActionDisplayKeyValuePair) ruleAction;
+                action(ACTION_DISPLAY_KEY_VALUE_PAIR, action.content(), action.data(), action.location());
+            } else if (ruleAction instanceof RuleActionDisplayText) {
+                RuleActionDisplayText action = (RuleActionDisplayText) ruleAction;
+                action(ACTION_DISPLAY_TEXT, action.content(), action.data(), action.location());
+            } else if (ruleAction instanceof RuleActionErrorOnCompletion) {
+                RuleActionErrorOnCompletion action = (RuleActionErrorOnCompletion) ruleAction;
+                action(ACTION_ERROR_ON_COMPLETION, action.content(), action.data(), action.field());
+            } else if (ruleAction instanceof RuleActionHideField) {
+                RuleActionHideField action = (RuleActionHideField) ruleAction;
+                action(ACTION_HIDE_FIELD, action.content(), null, action.field());
+            } else if (ruleAction instanceof RuleActionHideSection) {
+                RuleActionHideSection action = (RuleActionHideSection) ruleAction;
+                action(ACTION_HIDE_SECTION, null, null, action.programStageSection());
+            } else if (ruleAction instanceof RuleActionSetMandatoryField) {
+                RuleActionSetMandatoryField action = (RuleActionSetMandatoryField) ruleAction;
+                action(ACTION_SET_MANDATORY_FIELD, null, null, action.field());
+            } else if (ruleAction instanceof RuleActionShowError) {
+                RuleActionShowError action = (RuleActionShowError) ruleAction;
+                action(ACTION_SHOW_ERROR, action.content(), action.data(), action.field());
+            } else if (ruleAction instanceof RuleActionShowWarning) {
+                RuleActionShowWarning action = (RuleActionShowWarning) ruleAction;
+                action(ACTION_SHOW_WARNING, action.content(), action.data(), action.field());
+            } else if (ruleAction instanceof RuleActionWarningOnCompletion) {
+                RuleActionWarningOnCompletion action = (RuleActionWarningOnCompletion) ruleAction;
+                action(ACTION_WARNING_ON_COMPLETION, action.content(), action.data(), action.field());
+            } else {
+                throw new IllegalArgumentException("Unsupported action: " + ruleAction);
+            }
+        }
+
+        /**
+         * @param target field, program stage, section or location, depending on action.
+         */
+        private void action(int type, @Nullable String content, @Nullable String data,
+                @Nullable String target) throws IOException {
+            varInt(type);
+            string(content);
+            string(data);
+            string(target);
+        }
+
+        private void template(@Nonnull RuleExpressionTemplate template) throws IOException {
+            string(template.expression());
+
+            Set<String> variables = template.ruleExpression().variables();
+            varInt(variables.size());
+            for (String variable : variables) {
+                string(variable);
+            }
+
+            List<RuleFunctionCallTemplate> functionCalls = template.functionCalls();
+            varInt(functionCalls.size());
+            for (int i = 0; i < functionCalls.size(); i++) {
+                RuleFunctionCallTemplate functionCall = functionCalls.get(i);
+                string(functionCall.functionCall());
+                string(functionCall.functionName());
+
+                varInt(functionCall.arguments().size());
+                for (int j = 0; j < functionCall.arguments().size(); j++) {
+                    template(functionCall.arguments().get(j));
+                }
+            }
+
+            List<RuleExpressionToken> tokens = template.tokens();
+            varInt(tokens.size());
+            for (int i = 0; i < tokens.size(); i++) {
+                RuleExpressionToken token = tokens.get(i);
+                body.writeBoolean(token.isFunctionCall());
+                varInt(token.start());
+                string(token.text());
+
+                if (!token.isFunctionCall()) {
+                    varInt(token.slot() + 1);
+                }
+            }
+
+            node(template.node());
+
+            RuleExpressionBranch branch = template.branch();
+            if (branch == null) {
+                varInt(0);
+            } else {
+                varInt(branch.kind().ordinal() + 1);
+                varInt(branch.operands().size());
+                for (int i = 0; i < branch.operands().size(); i++) {
+                    template(branch.operands().get(i));
+                }
+            }
+        }
+
+        private void node(@Nullable RuleExpressionNode node) throws IOException {
+            if (node == null) {
+                varInt(NODE_NONE);
+            } else if (node instanceof RuleExpressionNode.Literal) {
+                literal(((RuleExpressionNode.Literal) node).value);
+            } else if (node instanceof RuleExpressionNode.Variable) {
+                RuleExpressionNode.Variable variable = (RuleExpressionNode.Variable) node;
+                varInt(NODE_VARIABLE);
+                string(variable.variable);
+                string(variable.name);
+                varInt(variable.slot + 1);
+            } else if (node instanceof RuleExpressionNode.FunctionCall) {
+                RuleExpressionNode.FunctionCall functionCall = (RuleExpressionNode.FunctionCall) node;
+                varInt(NODE_FUNCTION_CALL);
+                string(functionCall.functionName);
+                varInt(functionCall.arguments.size());
+                for (int i = 0; i < functionCall.arguments.size(); i++) {
+                    node(functionCall.arguments.get(i));
+                }
+            } else if (node instanceof RuleExpressionNode.Unary) {
+                RuleExpressionNode.Unary unary = (RuleExpressionNode.Unary) node;
+                varInt(NODE_UNARY);
+                string(unary.operator.name());
+                node(unary.operand);
+            } else if (node instanceof RuleExpressionNode.Binary) {
+                RuleExpressionNode.Binary binary = (RuleExpressionNode.Binary) node;
+                binary(binary.operator, binary.left, binary.right);
+            } else if (node instanceof RuleExpressionNode.Logical) {
+                RuleExpressionNode.Logical logical = (RuleExpressionNode.Logical) node;
+                binary(logical.operator, logical.left, logical.right);
+            } else if (node instanceof RuleExpressionNode.Conditional) {
+                RuleExpressionNode.Conditional conditional = (RuleExpressionNode.Conditional) node;
+                varInt(NODE_CONDITIONAL);
+                node(conditional.condition);
+                node(conditional.whenTrue);
+                node(conditional.whenFalse);
+            } else {
+                throw new IllegalArgumentException("Unsupported expression: " + node);
+            }
+        }
+
+        private void binary(@Nonnull RuleExpressionNode.Operator operator,
+                @Nonnull RuleExpressionNode left, @Nonnull RuleExpressionNode right) throws IOException {
+            varInt(NODE_BINARY);
+            string(operator.name());
+            node(left);
+            node(right);
+        }
+
+        private void literal(@Nonnull Object value) throws IOException {
+            if (value instanceof Double) {
+                varInt(NODE_NUMBER);
+                body.writeDouble((Double) value);
+            } else if (value instanceof Boolean) {
+                varInt(NODE_BOOLEAN);
+                body.writeBoolean((Boolean) value);
+            } else if (value instanceof String) {
+                varInt(NODE_TEXT);
+                string((String) value);
+            } else {
+                throw new IllegalArgumentException("Unsupported literal: " + value);
+            }
+        }
+
+        private void varInt(int value) throws IOException {
+            writeVarInt(body, value);
+        }
+
+        /**
+         * Writes reference to the string within the table, where 0 stands for null.
+         */
+        private void string(@Nullable String value) throws IOException {
+            if (value == null) {
+                varInt(0);
+                return;
+            }
+
+            Integer index = strings.get(value);
+            if (index == null) {
+                index = stringTable.size();
+                strings.put(value, index);
+                stringTable.add(value);
+            }
+
+            varInt(index + 1);
+        }
+    }
+
+    private static final class Reader {
+
+        @Nonnull
+        private final DataInputStream input;
+
+        @Nonnull
+        private final String[] strings;
+
+        private int slotCount;
+
+        Reader(@Nonnull DataInputStream input) throws IOException {
+            this.input = input;
+            this.strings = new String[readCount(input)];
+
+            // buffer is reused for all strings
+            byte[] buffer = new byte[64];
+            for (int i = 0; i < strings.length; i++) {
+                int length = readCount(input);
+                if (length > buffer.length) {
+                    buffer = new byte[Math.max(length, buffer.length * 2)];
+                }
+
+                input.readFully(buffer, 0, length);
+                strings[i] = new String(buffer, 0, length, UTF_8);
+            }
+        }
+
+        @Nonnull
+        @SuppressWarnings("PMD.AvoidInstantiatingObjectsInLoops")
+        RuleEngineContext context(@Nonnull RuleExpressionEvaluator evaluator,
+                @Nonnull RuleEngineListener listener) throws IOException {
+            RuleVariableSlots slots = new RuleVariableSlots();
+            slotCount = count();
+            for (int i = 0; i < slotCount; i++) {
+                if (slots.slot(string()) != i) {
+                    throw new IOException("Duplicate variable slot");
+                }
+            }
+
+            int variableCount = count();
+            List<RuleVariable> ruleVariables = new ArrayList<>(variableCount);
+            for (int i = 0; i < variableCount; i++) {
+                ruleVariables.add(variable());
+            }
+
+            int ruleCount = count();
+            List<Rule> rules = new ArrayList<>(ruleCount);
+            for (int i = 0; i < ruleCount; i++) {
+                rules.add(rule());
+            }
+
+            int compiledRuleCount = count();
+            List<CompiledRule> compiledRules = new ArrayList<>(compiledRuleCount);
+            for (int i = 0; i < compiledRuleCount; i++) {
+                int ruleIndex = varInt();
+                if (ruleIndex < 0 || ruleIndex >= rules.size()) {
+                    throw new IOException("Invalid rule index: " + ruleIndex);
+                }
+
+                Rule rule = rules.get(ruleIndex);
+                RuleExpressionTemplate condition = template();
+
+                List<RuleExpressionTemplate> actions = new ArrayList<>(rule.actions().size());
+                for (int j = 0; j < rule.actions().size(); j++) {
+                    actions.add(template());
+                }
+
+                compiledRules.add(CompiledRule.create(rule, condition, actions));
+            }
+
+            // compiled rules have been written in order already
+            RuleDependencyGraph dependencyGraph = RuleDependencyGraph.create(
+                    Collections.unmodifiableList(compiledRules), ruleVariables);
+
+            return new RuleEngineContext(evaluator, Collections.unmodifiableList(rules),
+                    Collections.unmodifiableList(ruleVariables), dependencyGraph, slots, listener);
+        }
+
+        @Nonnull
+        private RuleVariable variable() throws IOException {
+            int type = varInt();
+            String name = requireString();
+            String field = requireString();
+            RuleValueType valueType = valueType(requireString());
+
+            switch (type) {
+                case VARIABLE_ATTRIBUTE:
+                    return RuleVariableAttribute.create(name, field, valueType);
+                case VARIABLE_CURRENT_EVENT:
+                    return RuleVariableCurrentEvent.create(name, field, valueType);
+                case VARIABLE_NEWEST_EVENT:
+                    return RuleVariableNewestEvent.create(name, field, valueType);
+                case VARIABLE_NEWEST_STAGE_EVENT:
+                    return RuleVariableNewestStageEvent.create(name, field, requireString(), valueType);
+                case VARIABLE_PREVIOUS_EVENT:
+                    return RuleVariablePreviousEvent.create(name, field, valueType);
+                default:
+                    throw new IOException("Unknown type of variable: " + type);
+            }
+        }
+
+        @Nonnull
+        private Rule rule() throws IOException {
+            String programStage = string();
+            Integer priority = varInt() == 0 ? null : input.readInt();
+            String condition = requireString();
+
+            int actionCount = count();
+            List<RuleAction> actions = new ArrayList<>(actionCount);
+            for (int i = 0; i < actionCount; i++) {
+                actions.add(action());
+            }
+
+            return Rule.create(programStage, priority, condition, actions);
+        }
+
+        @Nonnull
+        @SuppressWarnings("PMD.CyclomaticComplexity")
+        private RuleAction action() throws IOException {
+            int type = varInt();
+            String content = string();
+            String data = string();
+            String target = string();
+
+            switch (type) {
+                case ACTION_ASSIGN:
+                    return RuleActionAssign.create(content, data, target);
+                case ACTION_CREATE_EVENT:
+                    return RuleActionCreateEvent.create(content, data, target);
+                case ACTION_DISPLAY_KEY_VALUE_PAIR:
+                    return RuleActionDisplayKeyValuePair.LOCATION_INDICATOR_WIDGET.equals(target) ?
+                            RuleActionDisplayKeyValuePair.createForIndicators(content, data) :
+                            RuleActionDisplayKeyValuePair.createForFeedback(content, data);
+                case ACTION_DISPLAY_TEXT:
+                    return RuleActionDisplayText.LOCATION_INDICATOR_WIDGET.equals(target) ?
+                            RuleActionDisplayText.createForIndicators(content, data) :
+                            RuleActionDisplayText.createForFeedback(content, data);
+                case ACTION_ERROR_ON_COMPLETION:
+                    return RuleActionErrorOnCompletion.create(content, data, target);
+                case ACTION_HIDE_FIELD:
+                    return RuleActionHideField.create(content, target);
+                case ACTION_HIDE_SECTION:
+                    return RuleActionHideSection.create(target);
+                case ACTION_SET_MANDATORY_FIELD:
+                    return RuleActionSetMandatoryField.create(target);
+                case ACTION_SHOW_ERROR:
+                    return RuleActionShowError.create(content, data, target);
+                case ACTION_SHOW_WARNING:
+                    return RuleActionShowWarning.create(content, data, target);
+                case ACTION_WARNING_ON_COMPLETION:
+                    return RuleActionWarningOnCompletion.create(content, data, target);
+                default:
+                    throw new IOException("Unknown type of action: " + type);
+            }
+        }
+
+        @Nonnull
+        @SuppressWarnings("PMD.AvoidInstantiatingObjectsInLoops")
+        private RuleExpressionTemplate template() throws IOException {
+            String expression = requireString();
+
+            int variableCount = count();
+            Set<String> variables = new LinkedHashSet<>(variableCount * 2);
+            for (int i = 0; i < variableCount; i++) {
+                variables.add(requireString());
+            }
+
+            int functionCallCount = count();
+            List<RuleFunctionCallTemplate> functionCalls = new ArrayList<>(functionCallCount);
+            for (int i = 0; i < functionCallCount; i++) {
+                String functionCall = requireString();
+                String functionName = requireString();
+
+                int argumentCount = count();
+                List<RuleExpressionTemplate> arguments = new ArrayList<>(argumentCount);
+                for (int j = 0; j < argumentCount; j++) {
+                    arguments.add(template());
+                }
+
+                functionCalls.add(RuleFunctionCallTemplate.create(functionCall, functionName, arguments));
+            }
+
+            int tokenCount = count();
+            List<RuleExpressionToken> tokens = new ArrayList<>(tokenCount);
+            for (int i = 0; i < tokenCount; i++) {
+                boolean isFunctionCall = input.readBoolean();
+                int start = varInt();
+                String text = requireString();
+                if (start < 0 || start > expression.length() - text.length()) {
+                    throw new IOException(String.format(Locale.US, "Invalid token position: %d", start));
+                }
+
+                tokens.add(isFunctionCall ? RuleExpressionToken.functionCall(start, text) :
+                        RuleExpressionToken.variable(start, text, slot()));
+            }
+
+            RuleExpressionNode node = node();
+
+            RuleExpressionBranch branch = null;
+            int kind = varInt();
+            if (kind > 0) {
+                RuleExpressionBranch.Kind[] kinds = RuleExpressionBranch.Kind.values();
+                if (kind > kinds.length) {
+                    throw new IOException("Unknown kind of branch: " + kind);
+                }
+
+                int operandCount = count();
+                List<RuleExpressionTemplate> operands = new ArrayList<>(operandCount);
+                for (int i = 0; i < operandCount; i++) {
+                    operands.add(template());
+                }
+
+                branch = RuleExpressionBranch.create(kinds[kind - 1], operands);
+            }
+
+            return RuleExpressionTemplate.create(expression, variables, functionCalls, tokens, node, branch);
+        }
+
+        @Nullable
+        private RuleExpressionNode node() throws IOException {
+            int type = varInt();
+
+            switch (type) {
+                case NODE_NONE:
+                    return null;
+                case NODE_NUMBER:
+                    return RuleExpressionNode.literal(input.readDouble());
+                case NODE_BOOLEAN:
+                    return RuleExpressionNode.literal(input.readBoolean());
+                case NODE_TEXT:
+                    return RuleExpressionNode.literal(requireString());
+                case NODE_VARIABLE:
+                    return new RuleExpressionNode.Variable(requireString(), requireString(), slot());
+                case NODE_FUNCTION_CALL:
+                    String functionName = requireString();
+                    int argumentCount = count();
+                    List<RuleExpressionNode> arguments = new ArrayList<>(argumentCount);
+                    for (int i = 0; i < argumentCount; i++) {
+                        arguments.add(requireNode());
+                    }
+                    return RuleExpressionNode.functionCall(functionName, arguments);
+                case NODE_UNARY:
+                    return RuleExpressionNode.unary(operator(), requireNode());
+                case NODE_BINARY:
+                    RuleExpressionNode.Operator operator = operator();
+                    return RuleExpressionNode.binary(operator, requireNode(), requireNode());
+                case NODE_CONDITIONAL:
+                    return RuleExpressionNode.conditional(requireNode(), requireNode(), requireNode());
+                default:
+                    throw new IOException("Unknown type of expression: " + type);
+            }
+        }
+
+        @Nonnull
+        private RuleExpressionNode requireNode() throws IOException {
+            RuleExpressionNode node = node();
+            if (node == null) {
+                throw new IOException("Missing operand of expression");
+            }
+            return node;
+        }
+
+        @Nonnull
+        private RuleExpressionNode.Operator operator() throws IOException {
+            String operator = requireString();
+            try {
+                return RuleExpressionNode.Operator.valueOf(operator);
+            } catch (IllegalArgumentException illegalArgumentException) {
+                throw new IOException("Unknown operator: " + operator, illegalArgumentException);
+            }
+        }
+
+        @Nonnull
+        private static RuleValueType valueType(@Nonnull String valueType) throws IOException {
+            try {
+                return RuleValueType.valueOf(valueType);
+            } catch (IllegalArgumentException illegalArgumentException) {
+                throw new IOException("Unknown value type: " + valueType, illegalArgumentException);
+            }
+        }
+
+        private int varInt() throws IOException {
+            return readVarInt(input);
+        }
+
+        private int count() throws IOException {
+            return readCount(input);
+        }
+
+        /**
+         * Reads slot of the variable, where -1 stands for variable without slot.
+         */
+        private int slot() throws IOException {
+            int slot = varInt() - 1;
+            if (slot < -1 || slot >= slotCount) {
+                throw new IOException(String.format(Locale.US, "Invalid variable slot: %d", slot));
+            }
+            return slot;
+        }
+
+        @Nullable
+        private String string() throws IOException {
+            int index = varInt();
+            if (index < 0 || index > strings.length) {
+                throw new IOException(String.format(Locale.US, "Invalid string reference: %d", index));
+            }
+
+            return index == 0 ? null : strings[index - 1];
+        }
+
+        @Nonnull
+        private String requireString() throws IOException {
+            String value = string();
+            if (value == null) {
+                throw new IOException("Missing string");
+            }
+            return value;
+        }
+    }
+}
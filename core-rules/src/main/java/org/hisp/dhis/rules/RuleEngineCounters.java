@@ -0,0 +1,48 @@
+package org.hisp.dhis.rules;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of work done by the engine, accumulated across all evaluations within the
+ * context. Counters are flushed once per evaluated rule, which makes them cheap to
+ * maintain even if rules are evaluated concurrently.
+ */
+public final class RuleEngineCounters {
+    private final AtomicLong functionCalls;
+    private final AtomicLong skippedFunctionCalls;
+
+    RuleEngineCounters() {
+        this.functionCalls = new AtomicLong();
+        this.skippedFunctionCalls = new AtomicLong();
+    }
+
+    /**
+     * @return number of function calls evaluated by the engine itself.
+     */
+    public long functionCalls() {
+        return functionCalls.get();
+    }
+
+    /**
+     * @return number of function calls which were not evaluated, because they could
+     * not affect result of expression (e.g. right operand of '&&' if left one is false).
+     */
+    public long skippedFunctionCalls() {
+        return skippedFunctionCalls.get();
+    }
+
+    public void reset() {
+        functionCalls.set(0);
+        skippedFunctionCalls.set(0);
+    }
+
+    void add(int functionCalls, int skippedFunctionCalls) {
+        if (functionCalls > 0) {
+            this.functionCalls.addAndGet(functionCalls);
+        }
+
+        if (skippedFunctionCalls > 0) {
+            this.skippedFunctionCalls.addAndGet(skippedFunctionCalls);
+        }
+    }
+}
@@ -1,154 +1,572 @@
 package org.hisp.dhis.rules;
 
-import org.hisp.dhis.rules.functions.RuleFunction;
 import org.hisp.dhis.rules.models.Rule;
 import org.hisp.dhis.rules.models.RuleAction;
 import org.hisp.dhis.rules.models.RuleActionAssign;
-import org.hisp.dhis.rules.models.RuleActionCreateEvent;
-import org.hisp.dhis.rules.models.RuleActionDisplayKeyValuePair;
-import org.hisp.dhis.rules.models.RuleActionDisplayText;
-import org.hisp.dhis.rules.models.RuleActionErrorOnCompletion;
-import org.hisp.dhis.rules.models.RuleActionShowError;
-import org.hisp.dhis.rules.models.RuleActionShowWarning;
-import org.hisp.dhis.rules.models.RuleActionWarningOnCompletion;
 import org.hisp.dhis.rules.models.RuleEffect;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Locale;
 import java.util.concurrent.Callable;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 class RuleEngineExecution implements Callable<List<RuleEffect>> {
-    private static final String D2_FUNCTION_PREFIX = "d2:";
+
+    @Nonnull
+    private final RuleEngineContext ruleEngineContext;
 
     @Nonnull
     private final RuleExpressionEvaluator expressionEvaluator;
 
     @Nonnull
-    private final Map<String, RuleVariableValue> valueMap;
+    private final RuleVariableFrame frame;
+
+    @Nonnull
+    private final List<CompiledRule> rules;
 
     @Nonnull
-    private final List<Rule> rules;
+    private final RuleEngineCounters counters;
+
+    /**
+     * Whether parsed expressions can be evaluated directly against the frame.
+     */
+    private final boolean interpreted;
+
+    /**
+     * Whether values assigned by rules are referenced by other rules, in which
+     * case they have to be written into the frame as rules are evaluated.
+     */
+    private final boolean assignDependencies;
+
+    /**
+     * Evaluator which accepts many expressions at once, if any.
+     */
+    @Nullable
+    private final RuleExpressionBatchEvaluator batchEvaluator;
+
+    @Nonnull
+    private final RuleEngineListener listener;
+
+    /**
+     * Metrics of the rule which is being evaluated, or null if rules are not profiled.
+     */
+    @Nullable
+    private final RuleMetrics metrics;
+
+    /**
+     * Results of function arguments which have been evaluated upfront within a batch.
+     */
+    @Nullable
+    private Map<RuleExpressionTemplate, String> argumentResults;
 
-    RuleEngineExecution(@Nonnull RuleExpressionEvaluator expressionEvaluator,
-            @Nonnull List<Rule> rules, @Nonnull Map<String, RuleVariableValue> valueMap) {
-        this.expressionEvaluator = expressionEvaluator;
-        this.valueMap = valueMap;
+    RuleEngineExecution(@Nonnull RuleEngineContext ruleEngineContext,
+            @Nonnull List<CompiledRule> rules, @Nonnull RuleVariableFrame frame) {
+        this.ruleEngineContext = ruleEngineContext;
+        this.expressionEvaluator = ruleEngineContext.expressionEvaluator();
+        this.frame = frame;
         this.rules = rules;
+        this.counters = ruleEngineContext.counters();
+        this.interpreted = expressionEvaluator instanceof RuleExpressionInterpreter;
+        this.assignDependencies = ruleEngineContext.dependencyGraph().hasAssignDependencies();
+        this.listener = ruleEngineContext.listener();
+        this.metrics = listener instanceof RuleEngineNoopListener ? null : new RuleMetrics();
+        this.frame.profile(metrics);
+
+        // conditions can't be evaluated upfront, if they depend on assigned values,
+        // while metrics can't be attributed to rules if they are evaluated in batches
+        this.batchEvaluator = !interpreted && !assignDependencies && metrics == null &&
+                expressionEvaluator instanceof RuleExpressionBatchEvaluator ?
+                (RuleExpressionBatchEvaluator) expressionEvaluator : null;
     }
 
     @Override
     public List<RuleEffect> call() throws Exception {
-        List<RuleEffect> ruleEffects = new ArrayList<>();
+        if (batchEvaluator != null) {
+            try {
+                return evaluateBatches();
+            } finally {
+                frame.flushCounters(counters);
+            }
+        }
 
-        for (int i = 0; i < rules.size(); i++) {
-            Rule rule = rules.get(i);
+        RuleEffectCollector ruleEffectCollector = new RuleEffectCollector(new ArrayList<RuleEffect>());
+        evaluate(ruleEffectCollector);
 
-            // send expression to evaluator
-            if (Boolean.valueOf(process(rule.condition()))) {
+        return ruleEffectCollector.ruleEffects();
+    }
 
-                // process each action for this rule
-                for (int j = 0; j < rule.actions().size(); j++) {
-                    ruleEffects.add(create(rule.actions().get(j)));
+    /**
+     * Evaluates rules one by one, handing effects to the consumer as actions are triggered.
+     * Expressions are not batched, since it would mean evaluating all of them upfront.
+     *
+     * @return true if all rules have been evaluated, or false if consumer has stopped evaluation.
+     */
+    boolean evaluate(@Nonnull RuleEffectConsumer ruleEffectConsumer) {
+        for (int i = 0; i < rules.size(); i++) {
+            try {
+                if (!evaluateActions(rules.get(i), ruleEffectConsumer)) {
+                    return false;
                 }
+            } finally {
+                frame.flushCounters(counters);
+            }
+        }
+
+        return true;
+    }
+
+    @Nonnull
+    List<CompiledRule> rules() {
+        return rules;
+    }
+
+    /**
+     * @return whether rules can be evaluated in any order, or even concurrently.
+     */
+    boolean hasIndependentRules() {
+        return !assignDependencies;
+    }
+
+    /**
+     * @return whether evaluator of the context can be called by many threads at once.
+     */
+    boolean isThreadSafe() {
+        return expressionEvaluator instanceof RuleExpressionThreadSafeEvaluator;
+    }
+
+    /**
+     * @return execution of the given range of rules, which has a frame of its own
+     * (frames are not thread-safe) over the same values as this execution.
+     */
+    @Nonnull
+    RuleEngineExecution slice(int fromIndex, int toIndex) {
+        return new RuleEngineExecution(ruleEngineContext,
+                rules.subList(fromIndex, toIndex), frame.copy());
+    }
+
+    /**
+     * @return effects of the given rule, or empty list if condition is not met.
+     */
+    @Nonnull
+    List<RuleEffect> evaluate(@Nonnull CompiledRule compiledRule) {
+        RuleEffectCollector ruleEffectCollector = new RuleEffectCollector(null);
+
+        try {
+            evaluateActions(compiledRule, ruleEffectCollector);
+        } finally {
+            frame.flushCounters(counters);
+        }
+
+        return ruleEffectCollector.ruleEffects();
+    }
+
+    /**
+     * @return false if consumer has stopped evaluation.
+     */
+    private boolean evaluateActions(@Nonnull CompiledRule compiledRule,
+            @Nonnull RuleEffectConsumer ruleEffectConsumer) {
+        if (metrics == null) {
+            return evaluateRule(compiledRule, ruleEffectConsumer);
+        }
+
+        metrics.reset();
+        long start = System.nanoTime();
+
+        boolean completed = evaluateRule(compiledRule, ruleEffectConsumer);
+
+        metrics.nanos(System.nanoTime() - start);
+        listener.onRuleEvaluated(compiledRule.rule(), metrics);
+
+        return completed;
+    }
+
+    private boolean evaluateRule(@Nonnull CompiledRule compiledRule,
+            @Nonnull RuleEffectConsumer ruleEffectConsumer) {
+        Rule rule = compiledRule.rule();
+
+        // send expression to evaluator
+        long start = metrics == null ? 0 : System.nanoTime();
+        boolean triggered = Boolean.valueOf(process(compiledRule.condition()));
+
+        if (metrics != null) {
+            metrics.conditionNanos(System.nanoTime() - start);
+        }
+
+        if (!triggered) {
+            return true;
+        }
+
+        // process each action for this rule
+        for (int i = 0; i < rule.actions().size(); i++) {
+            RuleAction ruleAction = rule.actions().get(i);
+            String data = process(compiledRule.actions().get(i));
+
+            // rules are ordered, so that assigned values are
+            // written before rules which depend on them are evaluated
+            if (assignDependencies && ruleAction instanceof RuleActionAssign) {
+                assign((RuleActionAssign) ruleAction, data);
+            }
+
+            if (metrics != null) {
+                metrics.effect();
+            }
+
+            if (!ruleEffectConsumer.accept(RuleEffect.create(ruleAction, data))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void assign(@Nonnull RuleActionAssign ruleAction, @Nonnull String data) {
+        for (String variable : ruleEngineContext.dependencyGraph().assignedVariables(ruleAction)) {
+            frame.assign(variable, data);
+        }
+    }
+
+    /**
+     * Evaluates rules in two round trips to the batch evaluator: the first one for
+     * conditions of all rules, and the second one for data of triggered actions.
+     */
+    @Nonnull
+    private List<RuleEffect> evaluateBatches() {
+        List<RuleExpressionTemplate> conditions = new ArrayList<>(rules.size());
+        for (int i = 0; i < rules.size(); i++) {
+            conditions.add(rules.get(i).condition());
+        }
+
+        List<String> conditionResults = processBatch(conditions);
+
+        List<Rule> triggeredRules = new ArrayList<>();
+        List<RuleExpressionTemplate> actions = new ArrayList<>();
+        for (int i = 0; i < rules.size(); i++) {
+            if (Boolean.valueOf(conditionResults.get(i))) {
+                triggeredRules.add(rules.get(i).rule());
+                actions.addAll(rules.get(i).actions());
+            }
+        }
+
+        List<String> actionResults = processBatch(actions);
+
+        List<RuleEffect> ruleEffects = new ArrayList<>(actions.size());
+        for (int i = 0; i < triggeredRules.size(); i++) {
+            List<RuleAction> ruleActions = triggeredRules.get(i).actions();
+            for (int j = 0; j < ruleActions.size(); j++) {
+                ruleEffects.add(RuleEffect.create(ruleActions.get(j),
+                        actionResults.get(ruleEffects.size())));
             }
         }
 
         return ruleEffects;
     }
 
+    /**
+     * @return results of the templates in the same order. Templates which are evaluated
+     * lazily operand by operand are left out of the batch, in order to skip function calls.
+     */
     @Nonnull
-    private RuleEffect create(@Nonnull RuleAction ruleAction) {
-        // Only certain types of actions might
-        // contain code to execute.
-        if (ruleAction instanceof RuleActionAssign) {
-            return RuleEffect.create(ruleAction,
-                    process(((RuleActionAssign) ruleAction).data()));
-        } else if (ruleAction instanceof RuleActionCreateEvent) {
-            return RuleEffect.create(ruleAction, process(
-                    ((RuleActionCreateEvent) ruleAction).data()));
-        } else if (ruleAction instanceof RuleActionDisplayKeyValuePair) {
-            return RuleEffect.create(ruleAction, process(
-                    ((RuleActionDisplayKeyValuePair) ruleAction).data()));
-        } else if (ruleAction instanceof RuleActionDisplayText) {
-            return RuleEffect.create(ruleAction, process(
-                    ((RuleActionDisplayText) ruleAction).data()));
-        } else if (ruleAction instanceof RuleActionErrorOnCompletion) {
-            return RuleEffect.create(ruleAction, process(
-                    ((RuleActionErrorOnCompletion) ruleAction).data()));
-        } else if (ruleAction instanceof RuleActionShowError) {
-            return RuleEffect.create(ruleAction,
-                    process(((RuleActionShowError) ruleAction).data()));
-        } else if (ruleAction instanceof RuleActionShowWarning) {
-            return RuleEffect.create(ruleAction,
-                    process(((RuleActionShowWarning) ruleAction).data()));
-        } else if (ruleAction instanceof RuleActionWarningOnCompletion) {
-            return RuleEffect.create(ruleAction,
-                    process(((RuleActionWarningOnCompletion) ruleAction).data()));
-        }
-
-        return RuleEffect.create(ruleAction);
-    }
-
-    @Nonnull
-    private String process(@Nonnull String expression) {
+    private List<String> processBatch(@Nonnull List<RuleExpressionTemplate> templates) {
+        List<RuleExpressionTemplate> batchedTemplates = new ArrayList<>(templates.size());
+        for (int i = 0; i < templates.size(); i++) {
+            if (isBatched(templates.get(i))) {
+                batchedTemplates.add(templates.get(i));
+            }
+        }
+
+        argumentResults = new IdentityHashMap<>();
+        try {
+            processArguments(batchedTemplates);
+
+            List<String> expressions = new ArrayList<>(batchedTemplates.size());
+            for (int i = 0; i < batchedTemplates.size(); i++) {
+                expressions.add(bind(batchedTemplates.get(i)));
+            }
+
+            List<String> batchResults = evaluateAll(expressions);
+
+            int batchIndex = 0;
+            List<String> results = new ArrayList<>(templates.size());
+            for (int i = 0; i < templates.size(); i++) {
+                if (isBatched(templates.get(i))) {
+                    results.add(batchResults.get(batchIndex));
+                    batchIndex++;
+                } else {
+                    results.add(process(templates.get(i)));
+                }
+            }
+
+            return results;
+        } finally {
+            argumentResults = null;
+        }
+    }
+
+    /**
+     * Evaluates arguments of functions called by the templates, so that functions don't
+     * send their arguments to the evaluator one by one. Arguments are evaluated in a batch
+     * per level of nesting, starting from the innermost one. Arguments which are evaluated
+     * lazily operand by operand are left out, the same way as templates are.
+     */
+    private void processArguments(@Nonnull List<RuleExpressionTemplate> templates) {
+        List<RuleExpressionTemplate> arguments = new ArrayList<>();
+        for (int i = 0; i < templates.size(); i++) {
+            List<RuleFunctionCallTemplate> functionCalls = templates.get(i).functionCalls();
+
+            for (int j = 0; j < functionCalls.size(); j++) {
+                // arguments of functions which are not known to the engine are bound as they are
+                if (functionCalls.get(j).function() == null) {
+                    continue;
+                }
+
+                for (RuleExpressionTemplate argument : functionCalls.get(j).arguments()) {
+                    if (isBatched(argument)) {
+                        arguments.add(argument);
+                    }
+                }
+            }
+        }
+
+        if (arguments.isEmpty()) {
+            return;
+        }
+
+        processArguments(arguments);
+
+        List<String> expressions = new ArrayList<>(arguments.size());
+        for (int i = 0; i < arguments.size(); i++) {
+            expressions.add(bind(arguments.get(i)));
+        }
+
+        List<String> results = evaluateAll(expressions);
+        for (int i = 0; i < arguments.size(); i++) {
+            argumentResults.put(arguments.get(i), results.get(i));
+        }
+    }
+
+    @Nonnull
+    private List<String> evaluateAll(@Nonnull List<String> expressions) {
+        if (expressions.isEmpty()) {
+            return expressions;
+        }
+
+        List<String> results = batchEvaluator.evaluateAll(expressions);
+        if (results.size() != expressions.size()) {
+            throw new IllegalStateException(String.format(Locale.US, "Evaluator returned " +
+                    "%d results for %d expressions", results.size(), expressions.size()));
+        }
+
+        return results;
+    }
+
+    private static boolean isBatched(@Nonnull RuleExpressionTemplate template) {
+        return !template.isEmpty() && template.branch() == null;
+    }
+
+    @Nonnull
+    private String process(@Nonnull RuleExpressionTemplate template) {
         // we don't want to run empty expression
-        if (!expression.trim().isEmpty()) {
-            String expressionWithVariableValues = bindVariableValues(expression);
-            String expressionWithFunctionValues = bindFunctionValues(expressionWithVariableValues);
-            return expressionEvaluator.evaluate(expressionWithFunctionValues);
+        if (template.isEmpty()) {
+            return "";
+        }
+
+        if (argumentResults != null && argumentResults.containsKey(template)) {
+            return argumentResults.get(template);
+        }
+
+        // there is no need to render values into expression, if
+        // it is going to be parsed by interpreter again anyway
+        if (interpreted && template.node() != null) {
+            countEvaluatorCall();
+            return RuleExpressionInterpreter.toResult(template.node().evaluate(frame));
+        }
+
+        // evaluate operands one by one, in order to skip function calls
+        if (template.branch() != null) {
+            return process(template.branch());
+        }
+
+        countEvaluatorCall();
+        return expressionEvaluator.evaluate(bind(template));
+    }
+
+    /**
+     * Evaluates operands the same way as JavaScript does: result of '&&' and '||'
+     * is the value of the last evaluated operand. Truthiness of literals and variables
+     * is decided by their type, which means that text like 'false' or '0' is truthy.
+     */
+    @Nonnull
+    private String process(@Nonnull RuleExpressionBranch branch) {
+        List<RuleExpressionTemplate> operands = branch.operands();
+
+        if (RuleExpressionBranch.Kind.CONDITIONAL.equals(branch.kind())) {
+            boolean condition = isTruthy(operands.get(0), process(operands.get(0)));
+
+            skip(operands.get(condition ? 2 : 1));
+            return process(operands.get(condition ? 1 : 2));
+        }
+
+        boolean and = RuleExpressionBranch.Kind.AND.equals(branch.kind());
+        for (int i = 0; i < operands.size() - 1; i++) {
+            String value = process(operands.get(i));
+
+            if (and != isTruthy(operands.get(i), value)) {
+                for (int j = i + 1; j < operands.size(); j++) {
+                    skip(operands.get(j));
+                }
+                return value;
+            }
         }
 
-        return "";
+        return process(operands.get(operands.size() - 1));
+    }
+
+    private void countEvaluatorCall() {
+        if (metrics != null) {
+            metrics.evaluatorCall();
+        }
+    }
+
+    private void skip(@Nonnull RuleExpressionTemplate template) {
+        int functionCalls = template.functionCallCount();
+        if (functionCalls > 0) {
+            frame.skip(functionCalls);
+        }
     }
 
     @Nonnull
-    private String bindVariableValues(@Nonnull String expression) {
-        RuleExpression ruleExpression = RuleExpression.from(expression);
-        RuleExpressionBinder ruleExpressionBinder = RuleExpressionBinder.from(ruleExpression);
+    private String bind(@Nonnull RuleExpressionTemplate template) {
+        RuleExpressionBinder ruleExpressionBinder = RuleExpressionBinder.from(template);
 
         // substitute variable values
-        for (String variable : ruleExpression.variables()) {
-            RuleVariableValue variableValue = valueMap.get(
-                    RuleExpression.unwrapVariableName(variable));
+        for (int i = 0; i < template.tokens().size(); i++) {
+            RuleExpressionToken token = template.tokens().get(i);
 
-            ruleExpressionBinder.bindVariable(variable, variableValue.value() == null ?
-                    variableValue.type().defaultValue() : variableValue.value());
+            if (!token.isFunctionCall()) {
+                String value = frame.render(token.slot());
+
+                // unknown variables are left up to the evaluator
+                if (value != null) {
+                    ruleExpressionBinder.bindVariable(token.text(), value);
+                }
+            }
+        }
+
+        // substitute function calls, nested calls are resolved
+        // bottom-up within arguments before the call itself
+        for (int i = 0; i < template.functionCalls().size(); i++) {
+            RuleFunctionCallTemplate functionCall = template.functionCalls().get(i);
+            ruleExpressionBinder.bindFunction(functionCall.functionCall(), call(functionCall));
         }
 
         return ruleExpressionBinder.build();
     }
 
     @Nonnull
-    @SuppressWarnings("PMD.AvoidInstantiatingObjectsInLoops")
-    private String bindFunctionValues(@Nonnull String expression) {
-        RuleExpression ruleExpression = RuleExpression.from(expression);
-        RuleExpressionBinder ruleExpressionBinder = RuleExpressionBinder.from(ruleExpression);
+    private String call(@Nonnull RuleFunctionCallTemplate functionCall) {
+        List<String> arguments = new ArrayList<>(functionCall.arguments().size());
+
+        if (functionCall.function() == null) {
+            // function is not known to the engine: bind arguments
+            // and leave the call up to the expression evaluator
+            for (int i = 0; i < functionCall.arguments().size(); i++) {
+                arguments.add(bind(functionCall.arguments().get(i)));
+            }
+
+            return String.format(Locale.US, "%s(%s)", functionCall.functionName(),
+                    join(arguments));
+        }
+
+        for (int i = 0; i < functionCall.arguments().size(); i++) {
+            arguments.add(process(functionCall.arguments().get(i)));
+        }
+
+        String result = functionCall.function().evaluate(arguments, frame.valueMap());
+        frame.countFunctionCall(functionCall.functionName());
 
-        for (String function : ruleExpression.functions()) {
-            RuleFunctionCall ruleFunctionCall = RuleFunctionCall.from(function);
+        // text has to be quoted in order to be bound into expression,
+        // the same way as values of text variables are
+        if (RuleExpressionInterpreter.fromResult(result) instanceof String) {
+            return RuleExpressionInterpreter.toLiteral(result);
+        }
+
+        return result;
+    }
 
-            List<String> arguments = new ArrayList<>(ruleFunctionCall.arguments());
-            for (int j = 0; j < arguments.size(); j++) {
-                arguments.set(j, process(arguments.get(j)));
+    /**
+     * @return truthiness of the operand's result. Evaluator returns results as text, so
+     * the type is taken from the operand itself where possible: rendered 'false' can be
+     * both boolean and text. Results of anything else are typed by their content.
+     */
+    private boolean isTruthy(@Nonnull RuleExpressionTemplate operand, @Nonnull String value) {
+        RuleExpressionNode node = operand.node();
+
+        if (node instanceof RuleExpressionNode.Literal) {
+            return RuleExpressionNode.toBoolean(((RuleExpressionNode.Literal) node).value);
+        } else if (node instanceof RuleExpressionNode.Variable) {
+            int slot = ((RuleExpressionNode.Variable) node).slot;
+
+            // unknown variables are left up to the evaluator
+            if (slot >= 0 && frame.render(slot) != null) {
+                return RuleExpressionNode.toBoolean(frame.value(slot));
             }
+        }
 
-            ruleExpressionBinder.bindFunction(ruleFunctionCall.functionCall(), RuleFunction
-                    .create(ruleFunctionCall.functionName()).evaluate(arguments, valueMap));
+        return isTruthy(value);
+    }
+
+    private static boolean isTruthy(@Nonnull String value) {
+        if ("null".equals(value) || "undefined".equals(value)) {
+            return false;
         }
 
-        String processedExpression = ruleExpressionBinder.build();
+        return RuleExpressionNode.toBoolean(RuleExpressionInterpreter.fromResult(value));
+    }
 
-        // In case if there are functions which
-        // are not processed completely.
-        if (processedExpression.contains(D2_FUNCTION_PREFIX)) {
-            // Another recursive call to process rest of
-            // the d2 function calls.
-            processedExpression = bindFunctionValues(processedExpression);
+    @Nonnull
+    private static String join(@Nonnull List<String> arguments) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < arguments.size(); i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(arguments.get(i));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Collects effects into a list. If list is not given upfront,
+     * it is not allocated until the first effect.
+     */
+    private static final class RuleEffectCollector implements RuleEffectConsumer {
+
+        @Nullable
+        private List<RuleEffect> ruleEffects;
+
+        RuleEffectCollector(@Nullable List<RuleEffect> ruleEffects) {
+            this.ruleEffects = ruleEffects;
         }
 
-        return processedExpression;
+        @Override
+        public boolean accept(@Nonnull RuleEffect ruleEffect) {
+            if (ruleEffects == null) {
+                ruleEffects = new ArrayList<>();
+            }
+
+            ruleEffects.add(ruleEffect);
+            return true;
+        }
+
+        @Nonnull
+        List<RuleEffect> ruleEffects() {
+            return ruleEffects == null ? Collections.<RuleEffect>emptyList() : ruleEffects;
+        }
     }
 }
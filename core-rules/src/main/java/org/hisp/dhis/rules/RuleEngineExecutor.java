@@ -0,0 +1,234 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.RuleEffect;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Evaluates callables returned by {@link RuleEngine} on a {@link ForkJoinPool}. Large sets of
+ * rules are split into ranges which are evaluated concurrently, as long as rules don't depend
+ * on values assigned by ASSIGN actions of other rules. Batches of targets (as well as lists of
+ * callables) are fanned out, so that each target is evaluated by a task of its own.
+ * <p>
+ * Rules and targets are evaluated concurrently only if the evaluator of the context implements
+ * {@link RuleExpressionThreadSafeEvaluator} (e.g. {@link RuleExpressionInterpreter}). Other
+ * evaluators, like bridges to JavaScript engines, are called by a single thread at a time:
+ * rules are evaluated sequentially, and so are the targets of a batch. The same applies to
+ * lists of callables, unless each of them comes from an engine with a thread-safe evaluator.
+ * <p>
+ * Effects are always returned in the same order as if callables were called sequentially.
+ * Exceptions thrown while evaluating rules are re-thrown by the executor; checked exceptions
+ * are wrapped into {@link RuntimeException}.
+ */
+public final class RuleEngineExecutor {
+    private static final int DEFAULT_THRESHOLD = 32;
+
+    @Nonnull
+    private final ForkJoinPool pool;
+
+    /**
+     * Maximum number of rules evaluated sequentially by a single task.
+     */
+    private final int threshold;
+
+    private RuleEngineExecutor(@Nonnull ForkJoinPool pool, int threshold) {
+        this.pool = pool;
+        this.threshold = threshold;
+    }
+
+    @Nonnull
+    public static RuleEngineExecutor create(@Nonnull ForkJoinPool pool) {
+        return create(pool, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param threshold maximum number of rules evaluated sequentially by a single task.
+     */
+    @Nonnull
+    public static RuleEngineExecutor create(@Nonnull ForkJoinPool pool, int threshold) {
+        if (pool == null) {
+            throw new IllegalArgumentException("pool == null");
+        }
+
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("threshold must be positive: " + threshold);
+        }
+
+        return new RuleEngineExecutor(pool, threshold);
+    }
+
+    /**
+     * @param callable callable returned by {@link RuleEngine#evaluate(org.hisp.dhis.rules.models.RuleEvent)}
+     *                 or {@link RuleEngine#evaluate(org.hisp.dhis.rules.models.RuleEnrollment)}.
+     */
+    @Nonnull
+    public List<RuleEffect> execute(@Nonnull Callable<List<RuleEffect>> callable) {
+        if (callable == null) {
+            throw new IllegalArgumentException("callable == null");
+        }
+
+        return pool.invoke(task(callable));
+    }
+
+    /**
+     * @param callable callable returned by one of the methods of {@link RuleEngine}
+     *                 which evaluate multiple targets at once.
+     * @return effects keyed by uid of target, in the same order as the callable returns them.
+     */
+    @Nonnull
+    public Map<String, List<RuleEffect>> executeMultiple(
+            @Nonnull Callable<Map<String, List<RuleEffect>>> callable) {
+        if (callable == null) {
+            throw new IllegalArgumentException("callable == null");
+        }
+
+        if (!(callable instanceof RuleEngineMultipleExecution)) {
+            return pool.invoke(ForkJoinTask.adapt(callable));
+        }
+
+        Map<String, RuleEngineExecution> executions =
+                ((RuleEngineMultipleExecution) callable).executions();
+
+        List<String> targets = new ArrayList<>(executions.keySet());
+        List<List<RuleEffect>> ruleEffects = pool.invoke(new FanOutTask(
+                new ArrayList<Callable<List<RuleEffect>>>(executions.values())));
+
+        Map<String, List<RuleEffect>> targetEffects = new LinkedHashMap<>();
+        for (int i = 0; i < targets.size(); i++) {
+            targetEffects.put(targets.get(i), ruleEffects.get(i));
+        }
+
+        return Collections.unmodifiableMap(targetEffects);
+    }
+
+    /**
+     * Evaluates many targets concurrently, e.g. enrollments during bulk re-evaluation.
+     *
+     * @return effects of each of the callables, in the same order as callables.
+     */
+    @Nonnull
+    public List<List<RuleEffect>> executeAll(@Nonnull List<Callable<List<RuleEffect>>> callables) {
+        if (callables == null) {
+            throw new IllegalArgumentException("callables == null");
+        }
+
+        return pool.invoke(new FanOutTask(callables));
+    }
+
+    @Nonnull
+    private ForkJoinTask<List<RuleEffect>> task(@Nonnull Callable<List<RuleEffect>> callable) {
+        if (callable instanceof RuleEngineExecution) {
+            RuleEngineExecution execution = (RuleEngineExecution) callable;
+
+            if (execution.isThreadSafe() && execution.hasIndependentRules() &&
+                    execution.rules().size() > threshold) {
+                return new RulesTask(execution, 0, execution.rules().size());
+            }
+        }
+
+        return ForkJoinTask.adapt(callable);
+    }
+
+    private static boolean isThreadSafe(@Nonnull List<Callable<List<RuleEffect>>> callables) {
+        for (int i = 0; i < callables.size(); i++) {
+            Callable<List<RuleEffect>> callable = callables.get(i);
+            if (!(callable instanceof RuleEngineExecution) ||
+                    !((RuleEngineExecution) callable).isThreadSafe()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Evaluates range of rules, splitting it in halves until it is small enough.
+     */
+    private final class RulesTask extends RecursiveTask<List<RuleEffect>> {
+        private static final long serialVersionUID = -2830372498617346471L;
+
+        @Nonnull
+        private final transient RuleEngineExecution execution;
+
+        private final int fromIndex;
+
+        private final int toIndex;
+
+        RulesTask(@Nonnull RuleEngineExecution execution, int fromIndex, int toIndex) {
+            this.execution = execution;
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+        }
+
+        @Override
+        @SuppressWarnings("PMD.AvoidCatchingGenericException")
+        protected List<RuleEffect> compute() {
+            if (toIndex - fromIndex <= threshold) {
+                try {
+                    return execution.slice(fromIndex, toIndex).call();
+                } catch (RuntimeException runtimeException) {
+                    throw runtimeException;
+                } catch (Exception exception) {
+                    throw new RuntimeException(exception); //NOPMD
+                }
+            }
+
+            int middle = (fromIndex + toIndex) >>> 1;
+            RulesTask left = new RulesTask(execution, fromIndex, middle);
+            RulesTask right = new RulesTask(execution, middle, toIndex);
+
+            right.fork();
+            List<RuleEffect> ruleEffects = new ArrayList<>(left.compute());
+            ruleEffects.addAll(right.join());
+            return ruleEffects;
+        }
+    }
+
+    /**
+     * Evaluates each of the callables by a task of its own, or all of them one by one
+     * within this task if any of them is not known to be thread-safe.
+     */
+    private final class FanOutTask extends RecursiveTask<List<List<RuleEffect>>> {
+        private static final long serialVersionUID = 6042394127541043615L;
+
+        @Nonnull
+        private final transient List<Callable<List<RuleEffect>>> callables;
+
+        FanOutTask(@Nonnull List<Callable<List<RuleEffect>>> callables) {
+            this.callables = callables;
+        }
+
+        @Override
+        protected List<List<RuleEffect>> compute() {
+            List<ForkJoinTask<List<RuleEffect>>> tasks = new ArrayList<>(callables.size());
+            for (int i = 0; i < callables.size(); i++) {
+                tasks.add(task(callables.get(i)));
+            }
+
+            List<List<RuleEffect>> ruleEffects = new ArrayList<>(tasks.size());
+            if (isThreadSafe(callables)) {
+                invokeAll(tasks);
+
+                for (int i = 0; i < tasks.size(); i++) {
+                    ruleEffects.add(tasks.get(i).join());
+                }
+            } else {
+                // tasks are computed by the current thread
+                for (int i = 0; i < tasks.size(); i++) {
+                    ruleEffects.add(tasks.get(i).invoke());
+                }
+            }
+            return ruleEffects;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.Rule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Aggregates metrics of evaluated rules into per-rule histograms of evaluation time. Meant
+ * for debug builds: histograms can be dumped as text table, where the most expensive rules
+ * go first. Listener is thread-safe.
+ */
+public final class RuleEngineHistogramListener implements RuleEngineListener {
+
+    @Nonnull
+    private final ConcurrentMap<Rule, Histogram> histograms;
+
+    private RuleEngineHistogramListener() {
+        this.histograms = new ConcurrentHashMap<>();
+    }
+
+    @Nonnull
+    public static RuleEngineHistogramListener create() {
+        return new RuleEngineHistogramListener();
+    }
+
+    @Override
+    public void onRuleEvaluated(@Nonnull Rule rule, @Nonnull RuleMetrics ruleMetrics) {
+        Histogram histogram = histograms.get(rule);
+        if (histogram == null) {
+            Histogram newHistogram = new Histogram(rule);
+            histogram = histograms.putIfAbsent(rule, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+
+        histogram.record(ruleMetrics);
+    }
+
+    /**
+     * @return histograms of rules evaluated so far, ordered by total evaluation time.
+     */
+    @Nonnull
+    public List<Histogram> histograms() {
+        List<Histogram> histograms = new ArrayList<>(this.histograms.values());
+        Collections.sort(histograms, new Comparator<Histogram>() {
+            @Override
+            public int compare(Histogram first, Histogram second) {
+                long firstNanos = first.nanos();
+                long secondNanos = second.nanos();
+                return firstNanos < secondNanos ? 1 : firstNanos == secondNanos ? 0 : -1;
+            }
+        });
+        return Collections.unmodifiableList(histograms);
+    }
+
+    public void reset() {
+        histograms.clear();
+    }
+
+    /**
+     * @return text table with a row per rule, ordered by total evaluation time. Times are
+     * given in microseconds, calls of functions and materialized variables are totals.
+     */
+    @Nonnull
+    public String dump() {
+        StringBuilder builder = new StringBuilder(String.format(Locale.US,
+                "%8s %10s %10s %10s %10s %10s %8s %8s %8s  %s%n", "count", "total", "condition",
+                "p50", "p99", "max", "evals", "vars", "effects", "condition / function calls"));
+
+        for (Histogram histogram : histograms()) {
+            builder.append(String.format(Locale.US, "%8d %10d %10d %10d %10d %10d %8d %8d %8d  %s %s%n",
+                    histogram.count(), micros(histogram.nanos()), micros(histogram.conditionNanos()),
+                    micros(histogram.percentileNanos(0.5)), micros(histogram.percentileNanos(0.99)),
+                    micros(histogram.maxNanos()), histogram.evaluatorCalls(),
+                    histogram.variablesMaterialized(), histogram.effects(),
+                    histogram.rule().condition(), histogram.functionCalls()));
+        }
+
+        return builder.toString();
+    }
+
+    private static long micros(long nanos) {
+        return nanos / 1000;
+    }
+
+    /**
+     * Metrics of a single rule. Evaluation times are counted in buckets, where bucket
+     * {@code i} holds evaluations which took less than {@code 2^i} nanoseconds.
+     */
+    public static final class Histogram {
+        private static final int BUCKETS = 48;
+
+        @Nonnull
+        private final Rule rule;
+
+        @Nonnull
+        private final long[] buckets;
+
+        @Nonnull
+        private final Map<String, Long> functionCalls;
+
+        private long count;
+
+        private long nanos;
+
+        private long conditionNanos;
+
+        private long maxNanos;
+
+        private long evaluatorCalls;
+
+        private long variablesMaterialized;
+
+        private long effects;
+
+        Histogram(@Nonnull Rule rule) {
+            this.rule = rule;
+            this.buckets = new long[BUCKETS];
+            this.functionCalls = new HashMap<>();
+        }
+
+        synchronized void record(@Nonnull RuleMetrics ruleMetrics) {
+            long ruleNanos = ruleMetrics.nanos();
+
+            count++;
+            nanos = nanos + ruleNanos;
+            conditionNanos = conditionNanos + ruleMetrics.conditionNanos();
+            maxNanos = Math.max(maxNanos, ruleNanos);
+            buckets[bucket(ruleNanos)]++;
+
+            evaluatorCalls = evaluatorCalls + ruleMetrics.evaluatorCalls();
+            variablesMaterialized = variablesMaterialized + ruleMetrics.variablesMaterialized();
+            effects = effects + ruleMetrics.effects();
+
+            for (Map.Entry<String, Integer> calls : ruleMetrics.functionCalls().entrySet()) {
+                Long total = functionCalls.get(calls.getKey());
+                functionCalls.put(calls.getKey(), total == null ?
+                        calls.getValue() : total + calls.getValue());
+            }
+        }
+
+        @Nonnull
+        public Rule rule() {
+            return rule;
+        }
+
+        public synchronized long count() {
+            return count;
+        }
+
+        /**
+         * @return total time spent on the rule, in nanoseconds.
+         */
+        public synchronized long nanos() {
+            return nanos;
+        }
+
+        /**
+         * @return total time spent on condition of the rule, in nanoseconds.
+         */
+        public synchronized long conditionNanos() {
+            return conditionNanos;
+        }
+
+        public synchronized long maxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * @param percentile value between 0 and 1.
+         * @return upper bound of the bucket which the percentile falls into, in nanoseconds.
+         */
+        public synchronized long percentileNanos(double percentile) {
+            if (percentile < 0 || percentile > 1) {
+                throw new IllegalArgumentException("percentile must be between 0 and 1");
+            }
+
+            long rank = (long) Math.ceil(percentile * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen = seen + buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(maxNanos, (1L << i) - 1);
+                }
+            }
+
+            return 0;
+        }
+
+        public synchronized long evaluatorCalls() {
+            return evaluatorCalls;
+        }
+
+        /**
+         * @return total number of calls of each function, keyed by function name.
+         */
+        @Nonnull
+        public synchronized Map<String, Long> functionCalls() {
+            return Collections.unmodifiableMap(new HashMap<>(functionCalls));
+        }
+
+        public synchronized long variablesMaterialized() {
+            return variablesMaterialized;
+        }
+
+        public synchronized long effects() {
+            return effects;
+        }
+
+        private static int bucket(long nanos) {
+            // number of bits which are needed to represent the value
+            return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.Rule;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Receives metrics of each rule evaluated by engines built from the context, which allows
+ * to find rules which are expensive to evaluate. Listener is called by the thread which has
+ * evaluated the rule, so it has to be thread-safe if targets are evaluated concurrently
+ * (e.g. by {@link RuleEngineExecutor}).
+ * <p>
+ * By default, context is built with {@link RuleEngineNoopListener}, in which case engine
+ * does not measure anything. Otherwise, rules are evaluated one by one even if evaluator
+ * implements {@link RuleExpressionBatchEvaluator}, so that metrics can be attributed to them.
+ */
+public interface RuleEngineListener {
+
+    /**
+     * @param rule        rule which has been evaluated.
+     * @param ruleMetrics work done while evaluating the rule. Instance is reused
+     *                    for the next rule once this method returns.
+     */
+    void onRuleEvaluated(@Nonnull Rule rule, @Nonnull RuleMetrics ruleMetrics);
+}
@@ -0,0 +1,63 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.RuleEffect;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import javax.annotation.Nonnull;
+
+class RuleEngineMultipleExecution implements Callable<Map<String, List<RuleEffect>>> {
+
+    @Nonnull
+    private final RuleEngineContext ruleEngineContext;
+
+    @Nonnull
+    private final Map<String, Map<String, RuleVariableValue>> valueMaps;
+
+    /**
+     * Rules which apply to each of the targets, keyed by uid.
+     */
+    @Nonnull
+    private final Map<String, List<CompiledRule>> rules;
+
+    RuleEngineMultipleExecution(@Nonnull RuleEngineContext ruleEngineContext,
+            @Nonnull Map<String, List<CompiledRule>> rules,
+            @Nonnull Map<String, Map<String, RuleVariableValue>> valueMaps) {
+        this.ruleEngineContext = ruleEngineContext;
+        this.valueMaps = valueMaps;
+        this.rules = rules;
+    }
+
+    @Override
+    public Map<String, List<RuleEffect>> call() throws Exception {
+        Map<String, RuleEngineExecution> executions = executions();
+        Map<String, List<RuleEffect>> ruleEffects = new LinkedHashMap<>();
+
+        for (Map.Entry<String, RuleEngineExecution> execution : executions.entrySet()) {
+            ruleEffects.put(execution.getKey(), execution.getValue().call());
+        }
+
+        return Collections.unmodifiableMap(ruleEffects);
+    }
+
+    /**
+     * @return independent executions for each of the targets, keyed by uid.
+     */
+    @Nonnull
+    @SuppressWarnings("PMD.AvoidInstantiatingObjectsInLoops")
+    Map<String, RuleEngineExecution> executions() {
+        Map<String, RuleEngineExecution> executions = new LinkedHashMap<>();
+
+        for (Map.Entry<String, Map<String, RuleVariableValue>> valueMap : valueMaps.entrySet()) {
+            executions.put(valueMap.getKey(), new RuleEngineExecution(ruleEngineContext,
+                    rules.get(valueMap.getKey()), new RuleVariableFrame(
+                    ruleEngineContext.variableSlots(), valueMap.getValue())));
+        }
+
+        return executions;
+    }
+}
@@ -0,0 +1,27 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.Rule;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Listener which is used unless another one is given to the context. Engine recognizes it
+ * and skips measurements altogether, so that evaluation does not pay for metrics at all.
+ */
+public final class RuleEngineNoopListener implements RuleEngineListener {
+    private static final RuleEngineNoopListener INSTANCE = new RuleEngineNoopListener();
+
+    private RuleEngineNoopListener() {
+        // use create() instead
+    }
+
+    @Nonnull
+    public static RuleEngineNoopListener create() {
+        return INSTANCE;
+    }
+
+    @Override
+    public void onRuleEvaluated(@Nonnull Rule rule, @Nonnull RuleMetrics ruleMetrics) {
+        // noop
+    }
+}
@@ -0,0 +1,278 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.RuleAttributeValue;
+import org.hisp.dhis.rules.models.RuleDataValue;
+import org.hisp.dhis.rules.models.RuleEffect;
+import org.hisp.dhis.rules.models.RuleEnrollment;
+import org.hisp.dhis.rules.models.RuleEvent;
+import org.hisp.dhis.rules.models.RuleVariable;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Long-lived evaluation session for a single event or enrollment. Session keeps values
+ * of variables and effects of each rule between updates. When value of a data element
+ * or an attribute changes, only variables bound to it are re-computed, and only rules
+ * which depend on changed variables are evaluated again. Difference between effects before
+ * and after the latest update is available through {@link #changes()}.
+ * <p>
+ * Sessions are not thread-safe.
+ */
+public final class RuleEngineSession {
+
+    @Nonnull
+    private final RuleEngineContext ruleEngineContext;
+
+    /**
+     * Builder which keeps timelines of values across events between updates.
+     */
+    @Nonnull
+    private final RuleVariableValueMapBuilder valueMapBuilder;
+
+    @Nonnull
+    private final Map<String, RuleVariableValue> valueMap;
+
+    @Nonnull
+    private final RuleVariableFrame frame;
+
+    @Nonnull
+    private final RuleEngineExecution ruleEngineExecution;
+
+    @Nonnull
+    private final List<List<RuleEffect>> ruleEffects;
+
+    /**
+     * Indexes of rules which apply to the target of the session.
+     */
+    @Nonnull
+    private final BitSet targetRules;
+
+    @Nonnull
+    private RuleEffectsDiff changes;
+
+    /**
+     * Target of the session, if session has been created for an event.
+     */
+    @Nullable
+    private RuleEvent ruleEvent;
+
+    /**
+     * Either target of the session or contextual enrollment.
+     */
+    @Nullable
+    private RuleEnrollment ruleEnrollment;
+
+    RuleEngineSession(@Nonnull RuleEngineContext ruleEngineContext,
+            @Nonnull RuleEvents ruleEvents, @Nullable RuleEnrollment ruleEnrollment,
+            @Nullable RuleEvent ruleEvent) {
+        this.ruleEngineContext = ruleEngineContext;
+        this.ruleEnrollment = ruleEnrollment;
+        this.ruleEvent = ruleEvent;
+        this.valueMapBuilder = (ruleEvent == null ?
+                RuleVariableValueMapBuilder.target(ruleEnrollment) :
+                RuleVariableValueMapBuilder.target(ruleEvent).ruleEnrollment(ruleEnrollment))
+                .ruleVariables(ruleEngineContext.ruleVariables())
+                .referencedVariables(ruleEngineContext.dependencyGraph().variables())
+                .ruleEvents(ruleEvents);
+        this.valueMap = new HashMap<>(valueMapBuilder.build());
+        this.frame = new RuleVariableFrame(ruleEngineContext.variableSlots(), valueMap);
+        this.ruleEngineExecution = new RuleEngineExecution(
+                ruleEngineContext, ruleEngineContext.compiledRules(), frame);
+
+        List<CompiledRule> compiledRules = ruleEngineContext.compiledRules();
+        this.ruleEffects = new ArrayList<>(compiledRules.size());
+        this.targetRules = new BitSet(compiledRules.size());
+        for (int i = 0; i < compiledRules.size(); i++) {
+            String programStage = compiledRules.get(i).rule().programStage();
+
+            // enrollment is evaluated against all rules, event only against
+            // program-wide rules and rules bound to its stage
+            if (programStage == null || ruleEvent == null ||
+                    programStage.equals(ruleEvent.programStage())) {
+                targetRules.set(i);
+                ruleEffects.add(ruleEngineExecution.evaluate(compiledRules.get(i)));
+            } else {
+                ruleEffects.add(Collections.<RuleEffect>emptyList());
+            }
+        }
+
+        this.changes = RuleEffectsDiff.create(effects(),
+                Collections.<RuleEffect>emptyList(), Collections.<RuleEffect>emptyList());
+    }
+
+    @Nullable
+    public RuleEvent event() {
+        return ruleEvent;
+    }
+
+    @Nullable
+    public RuleEnrollment enrollment() {
+        return ruleEnrollment;
+    }
+
+    /**
+     * @return effects of all rules, as of the latest update.
+     */
+    @Nonnull
+    public List<RuleEffect> effects() {
+        List<RuleEffect> effects = new ArrayList<>();
+        for (int i = 0; i < ruleEffects.size(); i++) {
+            effects.addAll(ruleEffects.get(i));
+        }
+        return Collections.unmodifiableList(effects);
+    }
+
+    /**
+     * @return effects which have been added, removed or changed by the latest update.
+     * Right after creation of the session, all effects are reported as added.
+     */
+    @Nonnull
+    public RuleEffectsDiff changes() {
+        return changes;
+    }
+
+    /**
+     * Sets value of the data element within the target event.
+     *
+     * @param dataElement uid of data element.
+     * @param value       new value, or null if value has been removed.
+     * @return effects of all rules after the update.
+     */
+    @Nonnull
+    public List<RuleEffect> updateDataValue(@Nonnull String dataElement, @Nullable String value) {
+        if (dataElement == null) {
+            throw new IllegalArgumentException("dataElement == null");
+        }
+
+        if (ruleEvent == null) {
+            throw new IllegalStateException("Data values can be updated " +
+                    "only within sessions created for events.");
+        }
+
+        List<RuleDataValue> dataValues = new ArrayList<>(ruleEvent.dataValues().size() + 1);
+        for (RuleDataValue dataValue : ruleEvent.dataValues()) {
+            if (!dataValue.dataElement().equals(dataElement)) {
+                dataValues.add(dataValue);
+            }
+        }
+
+        if (value != null) {
+            dataValues.add(RuleDataValue.create(ruleEvent.eventDate(),
+                    ruleEvent.programStage(), dataElement, value));
+        }
+
+        ruleEvent = RuleEvent.create(ruleEvent.event(), ruleEvent.programStage(),
+                ruleEvent.status(), ruleEvent.eventDate(), ruleEvent.dueDate(), dataValues);
+        valueMapBuilder.updateDataValue(ruleEvent, dataElement);
+
+        return update(ruleEngineContext.dependencyGraph().dataElementVariables(dataElement));
+    }
+
+    /**
+     * Sets value of the tracked entity attribute within the enrollment.
+     *
+     * @param attribute uid of tracked entity attribute.
+     * @param value     new value, or null if value has been removed.
+     * @return effects of all rules after the update.
+     */
+    @Nonnull
+    public List<RuleEffect> updateAttributeValue(@Nonnull String attribute, @Nullable String value) {
+        if (attribute == null) {
+            throw new IllegalArgumentException("attribute == null");
+        }
+
+        if (ruleEnrollment == null) {
+            throw new IllegalStateException("Attribute values can be updated " +
+                    "only if enrollment is a part of session.");
+        }
+
+        List<RuleAttributeValue> attributeValues =
+                new ArrayList<>(ruleEnrollment.attributeValues().size() + 1);
+        for (RuleAttributeValue attributeValue : ruleEnrollment.attributeValues()) {
+            if (!attributeValue.trackedEntityAttribute().equals(attribute)) {
+                attributeValues.add(attributeValue);
+            }
+        }
+
+        if (value != null) {
+            attributeValues.add(RuleAttributeValue.create(attribute, value));
+        }
+
+        ruleEnrollment = RuleEnrollment.create(ruleEnrollment.enrollment(),
+                ruleEnrollment.incidentDate(), ruleEnrollment.enrollmentDate(),
+                ruleEnrollment.status(), attributeValues);
+        valueMapBuilder.updateAttributeValues(ruleEnrollment);
+
+        return update(ruleEngineContext.dependencyGraph().attributeVariables(attribute));
+    }
+
+    @Nonnull
+    private List<RuleEffect> update(@Nonnull List<RuleVariable> ruleVariables) {
+        if (ruleVariables.isEmpty()) {
+            // nothing depends on the value
+            changes = RuleEffectsDiff.empty();
+            return effects();
+        }
+
+        // re-compute only variables which are bound to updated value
+        Map<String, RuleVariableValue> variableValues = valueMapBuilder.buildValues(ruleVariables);
+
+        Set<String> changedVariables = new HashSet<>();
+        for (int i = 0; i < ruleVariables.size(); i++) {
+            String variable = ruleVariables.get(i).name();
+            RuleVariableValue variableValue = variableValues.get(variable);
+
+            if (variableValue == null) {
+                if (valueMap.remove(variable) != null) {
+                    changedVariables.add(variable);
+                }
+            } else if (!variableValue.equals(valueMap.put(variable, variableValue))) {
+                changedVariables.add(variable);
+            }
+        }
+
+        // values are cached within the frame
+        for (String variable : changedVariables) {
+            frame.invalidate(variable);
+        }
+
+        // evaluate only rules which depend on changed variables
+        RuleDependencyGraph dependencyGraph = ruleEngineContext.dependencyGraph();
+        BitSet rules = dependencyGraph.rules(changedVariables);
+
+        // assigned values are derived from the rest of values, so they are
+        // assigned again by the same rules, in the same order as initially
+        if (dependencyGraph.hasAssignDependencies()) {
+            frame.clearAssignments();
+            rules.or(dependencyGraph.assigningRules());
+        }
+
+        List<CompiledRule> compiledRules = ruleEngineContext.compiledRules();
+        RuleEffectsDiff.Builder diffBuilder = new RuleEffectsDiff.Builder();
+        rules.and(targetRules);
+        for (int i = rules.nextSetBit(0); i >= 0; i = rules.nextSetBit(i + 1)) {
+            List<RuleEffect> effects = ruleEngineExecution.evaluate(compiledRules.get(i));
+            diffBuilder.effects(ruleEffects.set(i, effects), effects);
+
+            // rules are ordered, so dependent rules always go after the current one
+            if (dependencyGraph.hasAssignDependencies()) {
+                BitSet dependents = dependencyGraph.assignDependents(i);
+                dependents.and(targetRules);
+                rules.or(dependents);
+            }
+        }
+
+        changes = diffBuilder.build();
+        return effects();
+    }
+}
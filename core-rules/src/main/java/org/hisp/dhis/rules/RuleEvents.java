@@ -0,0 +1,119 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.RuleEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Immutable set of contextual events, indexed by uid. It is built once per
+ * {@link RuleEngine} and shared by all evaluations, so neither membership
+ * checks nor sorting by event date have to be repeated for each target.
+ */
+final class RuleEvents {
+    private static final RuleEvents EMPTY = new RuleEvents(
+            Collections.unmodifiableList(new ArrayList<RuleEvent>()),
+            Collections.unmodifiableList(new ArrayList<RuleEvent>()),
+            Collections.<String>emptySet());
+
+    /**
+     * Events in the order they were supplied.
+     */
+    @Nonnull
+    private final List<RuleEvent> events;
+
+    /**
+     * Events sorted by {@link RuleEvent#EVENT_DATE_COMPARATOR}.
+     */
+    @Nonnull
+    private final List<RuleEvent> sortedEvents;
+
+    @Nonnull
+    private final Set<String> uids;
+
+    private RuleEvents(@Nonnull List<RuleEvent> events,
+            @Nonnull List<RuleEvent> sortedEvents, @Nonnull Set<String> uids) {
+        this.events = events;
+        this.sortedEvents = sortedEvents;
+        this.uids = uids;
+    }
+
+    @Nonnull
+    static RuleEvents empty() {
+        return EMPTY;
+    }
+
+    @Nonnull
+    static RuleEvents create(@Nonnull List<RuleEvent> ruleEvents) {
+        if (ruleEvents == null) {
+            throw new IllegalArgumentException("ruleEvents == null");
+        }
+
+        if (ruleEvents.isEmpty()) {
+            return EMPTY;
+        }
+
+        List<RuleEvent> events = new ArrayList<>(ruleEvents);
+        Set<String> uids = new HashSet<>(events.size() * 2);
+        for (int i = 0; i < events.size(); i++) {
+            uids.add(events.get(i).event());
+        }
+
+        // sorting is stable, so events with the same date keep supplied order
+        List<RuleEvent> sortedEvents = new ArrayList<>(events);
+        Collections.sort(sortedEvents, RuleEvent.EVENT_DATE_COMPARATOR);
+
+        return new RuleEvents(Collections.unmodifiableList(events),
+                Collections.unmodifiableList(sortedEvents), Collections.unmodifiableSet(uids));
+    }
+
+    @Nonnull
+    List<RuleEvent> events() {
+        return events;
+    }
+
+    @Nonnull
+    List<RuleEvent> sortedEvents() {
+        return sortedEvents;
+    }
+
+    int size() {
+        return events.size();
+    }
+
+    boolean contains(@Nonnull String event) {
+        return uids.contains(event);
+    }
+
+    /**
+     * @return sorted events along with the given one, which is placed after
+     * contextual events with the same date. Order is the same as if the event
+     * had been appended to the supplied events before sorting them.
+     */
+    @Nonnull
+    List<RuleEvent> sortedEvents(@Nonnull RuleEvent ruleEvent) {
+        int low = 0;
+        int high = sortedEvents.size();
+
+        // looking for the first event which goes strictly after the given one
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (RuleEvent.EVENT_DATE_COMPARATOR.compare(sortedEvents.get(middle), ruleEvent) > 0) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+
+        List<RuleEvent> events = new ArrayList<>(sortedEvents.size() + 1);
+        events.addAll(sortedEvents.subList(0, low));
+        events.add(ruleEvent);
+        events.addAll(sortedEvents.subList(low, sortedEvents.size()));
+        return events;
+    }
+}
@@ -61,7 +61,13 @@ abstract class RuleExpression {
             functions.add(functionMatcher.group());
         }
 
+        return create(expression, variables, functions);
+    }
+
+    @Nonnull
+    static RuleExpression create(@Nonnull String expression,
+            @Nonnull Set<String> variables, @Nonnull Set<String> functions) {
         return new AutoValue_RuleExpression(expression, Collections.unmodifiableSet(variables),
                 Collections.unmodifiableSet(functions));
     }
-}
\ No newline at end of file
+}
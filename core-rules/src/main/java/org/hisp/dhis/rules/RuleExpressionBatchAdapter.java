@@ -0,0 +1,52 @@
+package org.hisp.dhis.rules;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+/**
+ * {@link RuleExpressionBatchEvaluator} which evaluates expressions of the batch
+ * one by one, using an evaluator which does not support batches on its own.
+ */
+public final class RuleExpressionBatchAdapter implements RuleExpressionBatchEvaluator {
+
+    @Nonnull
+    private final RuleExpressionEvaluator evaluator;
+
+    private RuleExpressionBatchAdapter(@Nonnull RuleExpressionEvaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    /**
+     * @return the evaluator itself, if it supports batches already.
+     */
+    @Nonnull
+    public static RuleExpressionBatchEvaluator create(@Nonnull RuleExpressionEvaluator evaluator) {
+        if (evaluator == null) {
+            throw new IllegalArgumentException("evaluator == null");
+        }
+
+        if (evaluator instanceof RuleExpressionBatchEvaluator) {
+            return (RuleExpressionBatchEvaluator) evaluator;
+        }
+
+        return new RuleExpressionBatchAdapter(evaluator);
+    }
+
+    @Nonnull
+    @Override
+    public String evaluate(@Nonnull String expression) {
+        return evaluator.evaluate(expression);
+    }
+
+    @Nonnull
+    @Override
+    public List<String> evaluateAll(@Nonnull List<String> expressions) {
+        List<String> results = new ArrayList<>(expressions.size());
+        for (int i = 0; i < expressions.size(); i++) {
+            results.add(evaluator.evaluate(expressions.get(i)));
+        }
+        return results;
+    }
+}
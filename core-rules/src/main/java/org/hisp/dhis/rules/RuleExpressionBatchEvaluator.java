@@ -0,0 +1,26 @@
+package org.hisp.dhis.rules;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+/**
+ * {@link RuleExpressionEvaluator} which can evaluate many expressions at once. Evaluators
+ * with a high fixed cost per call (e.g. bridges to JavaScript engines or remote services)
+ * should implement this interface: engine then sends conditions of all rules in a single
+ * call, and data expressions of all triggered actions in another one. Arguments of d2
+ * functions are sent ahead of the expressions which call them, in one call per level of
+ * nesting.
+ * <p>
+ * Expressions which are split on {@code &&}, {@code ||} or {@code ?:} in order to skip
+ * function calls are left out of batches: their operands are sent one by one through
+ * {@link #evaluate(String)}, the same as with any other evaluator.
+ */
+public interface RuleExpressionBatchEvaluator extends RuleExpressionEvaluator {
+
+    /**
+     * @return results of the expressions, in the same order as expressions.
+     */
+    @Nonnull
+    List<String> evaluateAll(@Nonnull List<String> expressions);
+}
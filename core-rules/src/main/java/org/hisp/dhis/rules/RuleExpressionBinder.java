@@ -1,15 +1,27 @@
 package org.hisp.dhis.rules;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 
+/**
+ * Binds values of variables and results of function calls into the expression. Expression
+ * is represented as a list of tokens (offset ranges of references within the original
+ * expression), which means that resulting expression is rendered in a single pass.
+ */
 final class RuleExpressionBinder {
 
     @Nonnull
     private final String ruleExpression;
 
+    @Nonnull
+    private final List<RuleExpressionToken> ruleExpressionTokens;
+
     @Nonnull
     private final Map<String, String> ruleVariableValues;
 
@@ -17,9 +29,11 @@ final class RuleExpressionBinder {
     private final Map<String, String> ruleFunctionCalls;
 
     RuleExpressionBinder(@Nonnull String ruleExpression,
+            @Nonnull List<RuleExpressionToken> ruleExpressionTokens,
             @Nonnull Map<String, String> ruleVariableValues,
             @Nonnull Map<String, String> ruleFunctionCalls) {
         this.ruleExpression = ruleExpression;
+        this.ruleExpressionTokens = ruleExpressionTokens;
         this.ruleVariableValues = ruleVariableValues;
         this.ruleFunctionCalls = ruleFunctionCalls;
     }
@@ -44,49 +58,74 @@ final class RuleExpressionBinder {
 
     @Nonnull
     String build() {
-        String expression = ruleExpression;
-
-        // iterate over variables and replace them with values
-        for (Map.Entry<String, String> variableValue : ruleVariableValues.entrySet()) {
-            if (variableValue.getValue() != null) {
-                while (expression.contains(variableValue.getKey())) {
-                    expression = expression.replace(variableValue.getKey(),
-                            variableValue.getValue());
-                }
+        StringBuilder builder = new StringBuilder(ruleExpression.length());
+
+        int position = 0;
+        for (int i = 0; i < ruleExpressionTokens.size(); i++) {
+            RuleExpressionToken token = ruleExpressionTokens.get(i);
+
+            // token is a part of reference which has already been substituted
+            if (token.start() < position) {
+                continue;
             }
-        }
 
-        // iterate over function calls and replace them with values
-        for (Map.Entry<String, String> functionCall : ruleFunctionCalls.entrySet()) {
-            if (functionCall.getValue() != null) {
-                while (expression.contains(functionCall.getKey())) {
-                    expression = expression.replace(functionCall.getKey(),
-                            functionCall.getValue());
-                }
+            String value = token.isFunctionCall() ? ruleFunctionCalls.get(token.text()) :
+                    ruleVariableValues.get(token.text());
+
+            // leave unbound references as is, references nested
+            // into them (if any) are substituted on their own
+            if (value != null) {
+                builder.append(ruleExpression, position, token.start()).append(value);
+                position = token.end();
             }
         }
 
-        return expression;
+        return builder.append(ruleExpression, position, ruleExpression.length()).toString();
+    }
+
+    @Nonnull
+    static RuleExpressionBinder from(@Nonnull RuleExpressionTemplate template) {
+        return new RuleExpressionBinder(template.expression(), template.tokens(),
+                placeholders(template.ruleExpression().variables()),
+                placeholders(template.ruleExpression().functions()));
     }
 
     @Nonnull
     static RuleExpressionBinder from(@Nonnull RuleExpression ruleExpression) {
-        Map<String, String> ruleVariablePlaceholders =
-                new HashMap<>(ruleExpression.variables().size());
-        Map<String, String> ruleFunctionPlaceholders =
-                new HashMap<>(ruleExpression.functions().size());
+        String expression = ruleExpression.expression();
+        List<RuleExpressionToken> tokens = new ArrayList<>();
 
-        // populate list with placeholders which later will be used as
-        // source values in expression
-        for (String variable : ruleExpression.variables()) {
-            ruleVariablePlaceholders.put(variable, null);
+        // expression is not compiled, which means that
+        // we have to look up occurrences of each reference
+        for (String function : ruleExpression.functions()) {
+            for (int index = expression.indexOf(function); index >= 0;
+                    index = expression.indexOf(function, index + 1)) {
+                tokens.add(RuleExpressionToken.functionCall(index, function));
+            }
         }
 
-        for (String function : ruleExpression.functions()) {
-            ruleFunctionPlaceholders.put(function, null);
+        for (String variable : ruleExpression.variables()) {
+            for (int index = expression.indexOf(variable); index >= 0;
+                    index = expression.indexOf(variable, index + 1)) {
+                tokens.add(RuleExpressionToken.variable(index, variable, -1));
+            }
         }
 
-        return new RuleExpressionBinder(ruleExpression.expression(),
-                ruleVariablePlaceholders, ruleFunctionPlaceholders);
+        Collections.sort(tokens, RuleExpressionToken.OFFSET_COMPARATOR);
+
+        return new RuleExpressionBinder(expression, tokens,
+                placeholders(ruleExpression.variables()),
+                placeholders(ruleExpression.functions()));
+    }
+
+    @Nonnull
+    private static Map<String, String> placeholders(@Nonnull Set<String> references) {
+        // populate map with placeholders which later will be used as
+        // source values in expression
+        Map<String, String> placeholders = new HashMap<>(references.size());
+        for (String reference : references) {
+            placeholders.put(reference, null);
+        }
+        return placeholders;
     }
 }
@@ -0,0 +1,38 @@
+package org.hisp.dhis.rules;
+
+import com.google.auto.value.AutoValue;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Expression split at the top level '?:', '||' or '&&' operator into operands which are
+ * evaluated one by one, so that operands which can't affect the result are not evaluated
+ * at all. Used when expression is sent to the external evaluator as text, since parsed
+ * expressions are short-circuited by {@link RuleExpressionNode} itself.
+ */
+@AutoValue
+abstract class RuleExpressionBranch {
+
+    enum Kind {
+        AND, OR, CONDITIONAL
+    }
+
+    @Nonnull
+    public abstract Kind kind();
+
+    /**
+     * @return operands of '&&' and '||' in order of evaluation. In case of '?:',
+     * condition goes first, followed by values for true and false conditions.
+     */
+    @Nonnull
+    public abstract List<RuleExpressionTemplate> operands();
+
+    @Nonnull
+    static RuleExpressionBranch create(@Nonnull Kind kind,
+            @Nonnull List<RuleExpressionTemplate> operands) {
+        return new AutoValue_RuleExpressionBranch(kind, Collections.unmodifiableList(operands));
+    }
+}
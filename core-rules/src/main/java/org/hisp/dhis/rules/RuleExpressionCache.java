@@ -0,0 +1,144 @@
+package org.hisp.dhis.rules;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+/**
+ * {@link RuleExpressionEvaluator} which remembers results of the given evaluator. Bound
+ * expressions tend to repeat across evaluations (e.g. "'' == ''" for empty fields), so
+ * only expressions which have not been seen recently are sent to the evaluator. Least
+ * recently used results are evicted once the cache is full.
+ * <p>
+ * Evaluators are expected to be pure: the same expression always yields the same result.
+ * Failed evaluations are not cached. Instances can be shared across threads; evaluator
+ * is called outside of the lock, so the same expression might occasionally be evaluated
+ * twice by concurrent callers.
+ * <p>
+ * Note that {@link RuleExpressionInterpreter} evaluates parsed expressions without
+ * binding values into them, which is faster than caching. Wrapping it makes engine
+ * fall back to bound expressions, so the cache is meant for external evaluators.
+ */
+public final class RuleExpressionCache implements RuleExpressionEvaluator {
+
+    @Nonnull
+    private final RuleExpressionEvaluator evaluator;
+
+    @Nonnull
+    private final Map<String, String> results;
+
+    private final int maximumSize;
+
+    @Nonnull
+    private final AtomicLong hits;
+
+    @Nonnull
+    private final AtomicLong misses;
+
+    private RuleExpressionCache(@Nonnull RuleExpressionEvaluator evaluator, int maximumSize) {
+        this.evaluator = evaluator;
+        this.maximumSize = maximumSize;
+        this.results = new LruMap(maximumSize);
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+    }
+
+    /**
+     * @param evaluator   evaluator which results should be cached.
+     * @param maximumSize maximum number of cached results.
+     */
+    @Nonnull
+    public static RuleExpressionCache create(@Nonnull RuleExpressionEvaluator evaluator,
+            int maximumSize) {
+        if (evaluator == null) {
+            throw new IllegalArgumentException("evaluator == null");
+        }
+
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        }
+
+        return new RuleExpressionCache(evaluator, maximumSize);
+    }
+
+    @Nonnull
+    @Override
+    public String evaluate(@Nonnull String expression) {
+        String result;
+        synchronized (results) {
+            result = results.get(expression);
+        }
+
+        if (result != null) {
+            hits.incrementAndGet();
+            return result;
+        }
+
+        misses.incrementAndGet();
+        result = evaluator.evaluate(expression);
+
+        synchronized (results) {
+            results.put(expression, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return number of evaluations which were served from the cache.
+     */
+    public long hitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of evaluations which were delegated to the evaluator.
+     */
+    public long missCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of currently cached results.
+     */
+    public int size() {
+        synchronized (results) {
+            return results.size();
+        }
+    }
+
+    public int maximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Evicts all cached results and resets statistics.
+     */
+    public void clear() {
+        synchronized (results) {
+            results.clear();
+        }
+
+        hits.set(0);
+        misses.set(0);
+    }
+
+    private static final class LruMap extends LinkedHashMap<String, String> {
+        private static final long serialVersionUID = 4631245380153420146L;
+
+        private final int maximumSize;
+
+        LruMap(int maximumSize) {
+            // access order is what makes the map least recently used
+            super(16, 0.75f, true);
+            this.maximumSize = maximumSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > maximumSize;
+        }
+    }
+}
@@ -0,0 +1,460 @@
+package org.hisp.dhis.rules;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Single pass scanner which turns expression into a {@link RuleExpressionTemplate}.
+ * Unlike {@link RuleExpression#from(String)}, nested function calls are resolved
+ * structurally, so there is no need to re-scan the expression once inner calls are bound.
+ */
+final class RuleExpressionCompiler {
+    private static final String D2_FUNCTION_PREFIX = "d2:";
+    private static final String CONSTANT_PREFIX = "C{";
+    private static final RuleExpressionTemplate EMPTY = RuleExpressionTemplate.create("",
+            Collections.<String>emptySet(), Collections.<RuleFunctionCallTemplate>emptyList(),
+            Collections.<RuleExpressionToken>emptyList(), null, null);
+
+    private RuleExpressionCompiler() {
+        // no instances
+    }
+
+    @Nonnull
+    static RuleExpressionTemplate compile(@Nullable String expression) {
+        return compile(expression, new RuleVariableSlots());
+    }
+
+    /**
+     * @param slots slots which variables referenced by expression are assigned to.
+     */
+    @Nonnull
+    static RuleExpressionTemplate compile(@Nullable String expression,
+            @Nonnull RuleVariableSlots slots) {
+        return compile(expression, slots, true);
+    }
+
+    /**
+     * @param constants values of constants keyed by uid. Constants referenced by
+     *                  expression are inlined, and sub-expressions which do not
+     *                  reference variables or function calls are folded into literals.
+     */
+    @Nonnull
+    static RuleExpressionTemplate compile(@Nullable String expression,
+            @Nonnull RuleVariableSlots slots, @Nonnull Map<String, String> constants) {
+        if (expression == null || constants.isEmpty()) {
+            return compile(expression, slots, true);
+        }
+
+        return compile(inline(expression, constants), slots, true);
+    }
+
+    /**
+     * @param parse whether expression should be parsed (and split into lazily evaluated
+     *              operands). Arguments of function calls are evaluated as a part of
+     *              expression which contains the call, hence there is no need to parse
+     *              them on their own.
+     */
+    @Nonnull
+    private static RuleExpressionTemplate compile(@Nullable String expression,
+            @Nonnull RuleVariableSlots slots, boolean parse) {
+        if (expression == null || expression.trim().isEmpty()) {
+            return EMPTY;
+        }
+
+        Set<String> variables = new LinkedHashSet<>();
+        Set<String> functionCalls = new LinkedHashSet<>();
+        List<RuleFunctionCallTemplate> functionCallTemplates = new ArrayList<>();
+        List<RuleExpressionToken> tokens = new ArrayList<>();
+        Matcher variableMatcher = RuleExpression.VARIABLE_PATTERN_COMPILED.matcher(expression);
+
+        int index = 0;
+        while (index < expression.length()) {
+            char character = expression.charAt(index);
+
+            if (isQuote(character)) {
+                index = skipString(expression, index);
+            } else if (expression.startsWith(D2_FUNCTION_PREFIX, index)) {
+                int end = functionCallEnd(expression, index);
+
+                if (end < 0) {
+                    // not a well-formed function call, leave as is
+                    index = index + D2_FUNCTION_PREFIX.length();
+                } else {
+                    String functionCall = expression.substring(index, end);
+                    if (functionCalls.add(functionCall)) {
+                        functionCallTemplates.add(compileFunctionCall(functionCall, slots));
+                    }
+                    tokens.add(RuleExpressionToken.functionCall(index, functionCall));
+                    index = end;
+                }
+            } else if (variableMatcher.region(index, expression.length()).lookingAt()) {
+                variables.add(variableMatcher.group());
+                tokens.add(RuleExpressionToken.variable(index, variableMatcher.group(),
+                        slots.slot(RuleExpression.unwrapVariableName(variableMatcher.group()))));
+                index = variableMatcher.end();
+            } else {
+                index++;
+            }
+        }
+
+        if (!parse) {
+            return RuleExpressionTemplate.create(expression, variables,
+                    functionCallTemplates, tokens, null, null);
+        }
+
+        RuleExpressionNode node = parse(expression, slots);
+        if (node instanceof RuleExpressionNode.Literal) {
+            String literal = literal(((RuleExpressionNode.Literal) node).value);
+
+            // whole expression has been folded, there is nothing to bind
+            if (literal != null) {
+                return RuleExpressionTemplate.create(literal, Collections.<String>emptySet(),
+                        Collections.<RuleFunctionCallTemplate>emptyList(),
+                        Collections.<RuleExpressionToken>emptyList(), node, null);
+            }
+        }
+
+        return RuleExpressionTemplate.create(expression, variables, functionCallTemplates,
+                tokens, node, functionCallTemplates.isEmpty() ? null : branch(expression, slots));
+    }
+
+    /**
+     * @return expression where references to known constants are replaced by their values.
+     */
+    @Nonnull
+    private static String inline(@Nonnull String expression, @Nonnull Map<String, String> constants) {
+        if (!expression.contains(CONSTANT_PREFIX)) {
+            return expression;
+        }
+
+        StringBuilder builder = new StringBuilder(expression.length());
+        Matcher variableMatcher = RuleExpression.VARIABLE_PATTERN_COMPILED.matcher(expression);
+
+        int copied = 0;
+        int index = 0;
+        while (index < expression.length()) {
+            if (isQuote(expression.charAt(index))) {
+                index = skipString(expression, index);
+            } else if (expression.startsWith(CONSTANT_PREFIX, index) &&
+                    variableMatcher.region(index, expression.length()).lookingAt() &&
+                    constants.containsKey(variableMatcher.group(1))) {
+                builder.append(expression, copied, index)
+                        .append(constant(constants.get(variableMatcher.group(1))));
+                index = variableMatcher.end();
+                copied = index;
+            } else {
+                index++;
+            }
+        }
+
+        return builder.append(expression, copied, expression.length()).toString();
+    }
+
+    /**
+     * @return value of constant as it should be written within expression: numbers are
+     * inlined as they are (negative ones are parenthesized) and anything else as text.
+     */
+    @Nonnull
+    private static String constant(@Nonnull String value) {
+        String number = value.trim();
+        if (number.matches("-?\\d+(\\.\\d+)?")) {
+            return number.startsWith("-") ? "(" + number + ")" : number;
+        }
+
+        return RuleExpressionInterpreter.toLiteral(value);
+    }
+
+    /**
+     * @return source of the literal, or null if it can't be written as one.
+     */
+    @Nullable
+    private static String literal(@Nonnull Object value) {
+        if (value instanceof Boolean) {
+            return value.toString();
+        } else if (value instanceof Double) {
+            double number = (Double) value;
+            return Double.isNaN(number) || Double.isInfinite(number) ?
+                    null : RuleExpressionNode.toText(value);
+        }
+
+        String text = (String) value;
+        return text.contains("'") ? null : String.format(Locale.US, "'%s'", text);
+    }
+
+    /**
+     * @return expression split at the top level operator with the lowest precedence
+     * ('?:', then '||' and then '&&'), or null if it can't be split. Operands of '||'
+     * and '&&' are grouped, so that each group except the first one starts with a
+     * function call: there is no point in evaluating cheap operands one by one.
+     */
+    @Nullable
+    private static RuleExpressionBranch branch(@Nonnull String expression,
+            @Nonnull RuleVariableSlots slots) {
+        String body = unwrap(expression.trim());
+
+        int question = -1;
+        List<Integer> ors = new ArrayList<>();
+        List<Integer> ands = new ArrayList<>();
+
+        int depth = 0;
+        int index = 0;
+        while (index < body.length()) {
+            char character = body.charAt(index);
+
+            if (isQuote(character)) {
+                index = skipString(body, index);
+                continue;
+            }
+
+            if (character == '(' || character == '{') {
+                depth++;
+            } else if (character == ')' || character == '}') {
+                depth--;
+            } else if (depth == 0 && character == '?' && question < 0) {
+                question = index;
+            } else if (depth == 0 && body.startsWith("||", index)) {
+                ors.add(index);
+                index++;
+            } else if (depth == 0 && body.startsWith("&&", index)) {
+                ands.add(index);
+                index++;
+            }
+
+            index++;
+        }
+
+        if (question >= 0) {
+            return conditional(body, question, slots);
+        } else if (!ors.isEmpty()) {
+            return logical(RuleExpressionBranch.Kind.OR, body, ors, slots);
+        } else if (!ands.isEmpty()) {
+            return logical(RuleExpressionBranch.Kind.AND, body, ands, slots);
+        }
+
+        return null;
+    }
+
+    @Nullable
+    private static RuleExpressionBranch conditional(@Nonnull String body, int question,
+            @Nonnull RuleVariableSlots slots) {
+        // find ':' which pairs with the '?', skipping nested conditionals
+        int depth = 0;
+        int nesting = 0;
+        int colon = -1;
+        for (int index = question + 1; index < body.length() && colon < 0; index++) {
+            char character = body.charAt(index);
+
+            if (isQuote(character)) {
+                index = skipString(body, index) - 1;
+            } else if (character == '(' || character == '{') {
+                depth++;
+            } else if (character == ')' || character == '}') {
+                depth--;
+            } else if (depth == 0 && character == '?') {
+                nesting++;
+            } else if (depth == 0 && character == ':' &&
+                    !body.startsWith(D2_FUNCTION_PREFIX, index - 2)) {
+                if (nesting == 0) {
+                    colon = index;
+                }
+                nesting--;
+            }
+        }
+
+        if (colon < 0) {
+            return null;
+        }
+
+        String whenTrue = body.substring(question + 1, colon);
+        String whenFalse = body.substring(colon + 1);
+        if (!whenTrue.contains(D2_FUNCTION_PREFIX) && !whenFalse.contains(D2_FUNCTION_PREFIX)) {
+            return null;
+        }
+
+        return RuleExpressionBranch.create(RuleExpressionBranch.Kind.CONDITIONAL, Arrays.asList(
+                compile(body.substring(0, question), slots, true),
+                compile(whenTrue, slots, true), compile(whenFalse, slots, true)));
+    }
+
+    @Nullable
+    private static RuleExpressionBranch logical(@Nonnull RuleExpressionBranch.Kind kind,
+            @Nonnull String body, @Nonnull List<Integer> operators,
+            @Nonnull RuleVariableSlots slots) {
+        List<RuleExpressionTemplate> operands = new ArrayList<>();
+
+        int groupStart = 0;
+        for (int i = 0; i < operators.size(); i++) {
+            int operandStart = operators.get(i) + 2;
+            int operandEnd = i + 1 < operators.size() ? operators.get(i + 1) : body.length();
+
+            if (body.substring(operandStart, operandEnd).contains(D2_FUNCTION_PREFIX)) {
+                operands.add(compile(body.substring(groupStart, operators.get(i)), slots, true));
+                groupStart = operandStart;
+            }
+        }
+
+        if (operands.isEmpty()) {
+            return null;
+        }
+
+        operands.add(compile(body.substring(groupStart), slots, true));
+        return RuleExpressionBranch.create(kind, operands);
+    }
+
+    /**
+     * @return expression without parentheses which enclose all of it.
+     */
+    @Nonnull
+    private static String unwrap(@Nonnull String expression) {
+        if (expression.length() < 2 || expression.charAt(0) != '(' ||
+                expression.charAt(expression.length() - 1) != ')') {
+            return expression;
+        }
+
+        int depth = 0;
+        for (int index = 0; index < expression.length(); index++) {
+            char character = expression.charAt(index);
+
+            if (isQuote(character)) {
+                index = skipString(expression, index) - 1;
+            } else if (character == '(') {
+                depth++;
+            } else if (character == ')') {
+                depth--;
+
+                if (depth == 0 && index < expression.length() - 1) {
+                    // parenthesis which opens expression is closed before its end
+                    return expression;
+                }
+            }
+        }
+
+        return unwrap(expression.substring(1, expression.length() - 1).trim());
+    }
+
+    @Nullable
+    private static RuleExpressionNode parse(@Nonnull String expression,
+            @Nonnull RuleVariableSlots slots) {
+        try {
+            return RuleExpressionParser.parse(expression, slots).fold();
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // syntax which is not supported by interpreter,
+            // expression is left up to the external evaluator
+            return null;
+        }
+    }
+
+    @Nonnull
+    private static RuleFunctionCallTemplate compileFunctionCall(@Nonnull String functionCall,
+            @Nonnull RuleVariableSlots slots) {
+        int argumentsStart = functionCall.indexOf('(');
+        String functionName = functionCall.substring(0, argumentsStart);
+        String arguments = functionCall.substring(argumentsStart + 1, functionCall.length() - 1);
+
+        List<RuleExpressionTemplate> argumentTemplates = new ArrayList<>();
+        if (!arguments.trim().isEmpty()) {
+            int depth = 0;
+            int argumentStart = 0;
+
+            for (int index = 0; index < arguments.length(); index++) {
+                char character = arguments.charAt(index);
+
+                if (isQuote(character)) {
+                    index = skipString(arguments, index) - 1;
+                } else if (character == '(') {
+                    depth++;
+                } else if (character == ')') {
+                    depth--;
+                } else if (character == ',' && depth == 0) {
+                    argumentTemplates.add(compile(
+                            arguments.substring(argumentStart, index).trim(), slots, false));
+                    argumentStart = index + 1;
+                }
+            }
+
+            argumentTemplates.add(compile(arguments.substring(argumentStart).trim(), slots, false));
+        }
+
+        return RuleFunctionCallTemplate.create(functionCall, functionName, argumentTemplates);
+    }
+
+    /**
+     * @return index right after the closing parenthesis of the function
+     * call which starts at the given position, or -1 if it is malformed.
+     */
+    private static int functionCallEnd(@Nonnull String expression, int start) {
+        int index = start + D2_FUNCTION_PREFIX.length();
+        while (index < expression.length() && isNameCharacter(expression.charAt(index))) {
+            index++;
+        }
+
+        if (index == start + D2_FUNCTION_PREFIX.length() || index >= expression.length() ||
+                expression.charAt(index) != '(') {
+            return -1;
+        }
+
+        int depth = 0;
+        while (index < expression.length()) {
+            char character = expression.charAt(index);
+
+            if (isQuote(character)) {
+                index = skipString(expression, index);
+                continue;
+            }
+
+            if (character == '(') {
+                depth++;
+            } else if (character == ')') {
+                depth--;
+
+                if (depth == 0) {
+                    return index + 1;
+                }
+            }
+
+            index++;
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return index right after the closing quote of the string literal, or length of
+     * the expression if it is not terminated. Escaped quotes do not close the literal.
+     */
+    private static int skipString(@Nonnull String expression, int start) {
+        char quote = expression.charAt(start);
+
+        int index = start + 1;
+        while (index < expression.length()) {
+            char character = expression.charAt(index);
+            if (character == '\\') {
+                index = index + 2;
+            } else if (character == quote) {
+                return index + 1;
+            } else {
+                index++;
+            }
+        }
+
+        return expression.length();
+    }
+
+    private static boolean isQuote(char character) {
+        return character == '\'' || character == '"';
+    }
+
+    private static boolean isNameCharacter(char character) {
+        return Character.isLetterOrDigit(character) || character == '_';
+    }
+}
@@ -2,6 +2,10 @@ package org.hisp.dhis.rules;
 
 import javax.annotation.Nonnull;
 
+/**
+ * Evaluates bound program rule expressions. Engine assumes that evaluators are not
+ * thread-safe, unless they implement {@link RuleExpressionThreadSafeEvaluator}.
+ */
 public interface RuleExpressionEvaluator {
 
     @Nonnull
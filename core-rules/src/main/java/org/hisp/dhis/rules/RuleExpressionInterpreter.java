@@ -0,0 +1,125 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.functions.RuleFunction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * {@link RuleExpressionEvaluator} which interprets program rule expressions directly on the
+ * JVM, without any dependency on JavaScript engines. Results are rendered in the same way
+ * as by JavaScript engine bridges: numbers are formatted using {@link Double#toString(double)},
+ * strings are returned without quotes and booleans as 'true' or 'false'.
+ * <p>
+ * Instances are stateless and can be shared across threads.
+ */
+public final class RuleExpressionInterpreter implements RuleExpressionThreadSafeEvaluator {
+    private static final RuleExpressionNode.Environment ENVIRONMENT = new UnboundEnvironment();
+
+    private RuleExpressionInterpreter() {
+        // use factory method
+    }
+
+    @Nonnull
+    public static RuleExpressionInterpreter create() {
+        return new RuleExpressionInterpreter();
+    }
+
+    @Nonnull
+    @Override
+    public String evaluate(@Nonnull String expression) {
+        if (expression == null) {
+            throw new NullPointerException("expression == null");
+        }
+
+        return toResult(RuleExpressionParser.parse(expression).evaluate(ENVIRONMENT));
+    }
+
+    @Nonnull
+    static String toResult(@Nonnull Object value) {
+        if (value instanceof Double) {
+            return Double.toString((Double) value);
+        }
+
+        return value.toString();
+    }
+
+    /**
+     * @return text quoted as string literal, which can be substituted into expression.
+     * Quotes and backslashes are escaped, so that the literal evaluates to the same text.
+     */
+    @Nonnull
+    static String toLiteral(@Nonnull String text) {
+        return "'" + text.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+
+    /**
+     * @return value as it would have been parsed from the expression
+     * if the given text was substituted into it.
+     */
+    @Nonnull
+    static Object fromResult(@Nonnull String text) {
+        if ("true".equals(text)) {
+            return Boolean.TRUE;
+        } else if ("false".equals(text)) {
+            return Boolean.FALSE;
+        }
+
+        try {
+            return Double.valueOf(text);
+        } catch (NumberFormatException numberFormatException) {
+            return text;
+        }
+    }
+
+    /**
+     * Calls the function (resolved when expression was parsed)
+     * with already evaluated arguments.
+     */
+    @Nonnull
+    static Object call(@Nonnull String functionName, @Nullable RuleFunction ruleFunction,
+            @Nonnull List<Object> arguments, @Nonnull Map<String, RuleVariableValue> valueMap) {
+        if (ruleFunction == null) {
+            throw new IllegalArgumentException("Unsupported function: " + functionName);
+        }
+
+        List<String> values = new ArrayList<>(arguments.size());
+        for (int i = 0; i < arguments.size(); i++) {
+            values.add(toResult(arguments.get(i)));
+        }
+
+        return fromResult(ruleFunction.evaluate(values, valueMap));
+    }
+
+    /**
+     * Environment for expressions which have been already bound: variables are not
+     * expected, and functions are called without any variable values in scope.
+     */
+    private static final class UnboundEnvironment implements RuleExpressionNode.Environment {
+        private final Map<String, RuleVariableValue> valueMap =
+                Collections.<String, RuleVariableValue>emptyMap();
+
+        @Nonnull
+        @Override
+        public Object variable(@Nonnull String variable, @Nonnull String name, int slot) {
+            throw new IllegalArgumentException("Unbound variable: " + variable);
+        }
+
+        @Nonnull
+        @Override
+        public Object call(@Nonnull String functionName, @Nullable RuleFunction function,
+                @Nonnull List<Object> arguments) {
+            return RuleExpressionInterpreter.call(functionName, function, arguments, valueMap);
+        }
+
+        @Override
+        public void skip(int functionCalls) {
+            // nobody is interested in counters
+        }
+    }
+}
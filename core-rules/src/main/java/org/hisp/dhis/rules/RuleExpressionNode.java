@@ -0,0 +1,577 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.functions.RuleFunction;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Node of the parsed program rule expression. Evaluation follows semantics of
+ * JavaScript, since historically expressions were evaluated by JavaScript engines.
+ * Values are represented as {@link Double}, {@link String} or {@link Boolean} instances.
+ */
+@SuppressWarnings("PMD.GodClass")
+abstract class RuleExpressionNode {
+
+    /**
+     * Source of values for variables and function calls referenced by expression.
+     */
+    interface Environment {
+
+        /**
+         * @param slot slot of the variable, or -1 if expression
+         *             has been parsed without variable slots.
+         */
+        @Nonnull
+        Object variable(@Nonnull String variable, @Nonnull String name, int slot);
+
+        /**
+         * @param function function resolved by name, or null if it is not supported.
+         */
+        @Nonnull
+        Object call(@Nonnull String functionName, @Nullable RuleFunction function,
+                @Nonnull List<Object> arguments);
+
+        /**
+         * Notifies that evaluation of a sub-expression has been short-circuited.
+         *
+         * @param functionCalls number of function calls within the skipped sub-expression.
+         */
+        void skip(int functionCalls);
+    }
+
+    enum Operator {
+        NOT("!"), NEGATE("-"), PLUS("+"),
+        MULTIPLY("*"), DIVIDE("/"), MODULUS("%"), ADD("+"), SUBTRACT("-"),
+        LESS("<"), LESS_OR_EQUAL("<="), GREATER(">"), GREATER_OR_EQUAL(">="),
+        EQUAL("=="), NOT_EQUAL("!="), STRICT_EQUAL("==="), STRICT_NOT_EQUAL("!=="),
+        AND("&&"), OR("||");
+
+        @Nonnull
+        private final String symbol;
+
+        Operator(@Nonnull String symbol) {
+            this.symbol = symbol;
+        }
+
+        @Nonnull
+        String symbol() {
+            return symbol;
+        }
+    }
+
+    /**
+     * Environment of sub-expressions which do not reference anything.
+     */
+    private static final Environment CONSTANT_ENVIRONMENT = new ConstantEnvironment();
+
+    /**
+     * Number of function calls within the expression, including nested ones.
+     */
+    final int functionCalls;
+
+    RuleExpressionNode(int functionCalls) {
+        this.functionCalls = functionCalls;
+    }
+
+    @Nonnull
+    abstract Object evaluate(@Nonnull Environment environment);
+
+    /**
+     * @return equivalent expression, where sub-expressions which don't reference
+     * variables or function calls are replaced by literals. Function calls are never
+     * folded, since functions might depend on values of variables implicitly.
+     */
+    @Nonnull
+    RuleExpressionNode fold() {
+        return this;
+    }
+
+    @Nonnull
+    private static RuleExpressionNode evaluateConstant(@Nonnull RuleExpressionNode node) {
+        return literal(node.evaluate(CONSTANT_ENVIRONMENT));
+    }
+
+    @Nonnull
+    static RuleExpressionNode literal(@Nonnull Object value) {
+        return new Literal(value);
+    }
+
+    @Nonnull
+    static RuleExpressionNode variable(@Nonnull String variable,
+            @Nullable RuleVariableSlots slots) {
+        String name = RuleExpression.unwrapVariableName(variable);
+        return new Variable(variable, name, slots == null ? -1 : slots.slot(name));
+    }
+
+    @Nonnull
+    static RuleExpressionNode functionCall(@Nonnull String functionName,
+            @Nonnull List<RuleExpressionNode> arguments) {
+        return new FunctionCall(functionName, arguments);
+    }
+
+    @Nonnull
+    static RuleExpressionNode unary(@Nonnull Operator operator,
+            @Nonnull RuleExpressionNode operand) {
+        return new Unary(operator, operand);
+    }
+
+    @Nonnull
+    static RuleExpressionNode binary(@Nonnull Operator operator,
+            @Nonnull RuleExpressionNode left, @Nonnull RuleExpressionNode right) {
+        if (Operator.AND.equals(operator) || Operator.OR.equals(operator)) {
+            return new Logical(operator, left, right);
+        }
+
+        return new Binary(operator, left, right);
+    }
+
+    @Nonnull
+    static RuleExpressionNode conditional(@Nonnull RuleExpressionNode condition,
+            @Nonnull RuleExpressionNode whenTrue, @Nonnull RuleExpressionNode whenFalse) {
+        return new Conditional(condition, whenTrue, whenFalse);
+    }
+
+    static double toNumber(@Nonnull Object value) {
+        if (value instanceof Double) {
+            return (Double) value;
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? 1.0 : 0.0;
+        }
+
+        String text = ((String) value).trim();
+        if (text.isEmpty()) {
+            return 0.0;
+        }
+
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException numberFormatException) {
+            return Double.NaN;
+        }
+    }
+
+    static boolean toBoolean(@Nonnull Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        } else if (value instanceof Double) {
+            double number = (Double) value;
+            return number != 0.0 && !Double.isNaN(number);
+        }
+
+        return !((String) value).isEmpty();
+    }
+
+    @Nonnull
+    static String toText(@Nonnull Object value) {
+        if (value instanceof Double) {
+            return numberToText((Double) value);
+        }
+
+        return value.toString();
+    }
+
+    @Nonnull
+    private static String numberToText(double number) {
+        if (Double.isNaN(number)) {
+            return "NaN";
+        } else if (Double.isInfinite(number)) {
+            return number > 0 ? "Infinity" : "-Infinity";
+        } else if (number == Math.rint(number) && Math.abs(number) < 1e21) {
+            return new BigDecimal(number).toPlainString();
+        } else if (Math.abs(number) >= 1e-6 && Math.abs(number) < 1e21) {
+            return new BigDecimal(Double.toString(number)).toPlainString();
+        }
+
+        String text = Double.toString(number).toLowerCase(Locale.US);
+        return text.contains("e-") ? text : text.replace("e", "e+");
+    }
+
+    static boolean looseEquals(@Nonnull Object left, @Nonnull Object right) {
+        if (left.getClass().equals(right.getClass())) {
+            return strictEquals(left, right);
+        } else if (left instanceof Boolean) {
+            return looseEquals(toNumber(left), right);
+        } else if (right instanceof Boolean) {
+            return looseEquals(left, toNumber(right));
+        }
+
+        return toNumber(left) == toNumber(right);
+    }
+
+    static boolean strictEquals(@Nonnull Object left, @Nonnull Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            return ((Double) left).doubleValue() == ((Double) right).doubleValue();
+        }
+
+        return left.equals(right);
+    }
+
+    static final class Literal extends RuleExpressionNode {
+
+        @Nonnull
+        final Object value;
+
+        Literal(@Nonnull Object value) {
+            super(0);
+            this.value = value;
+        }
+
+        @Nonnull
+        @Override
+        Object evaluate(@Nonnull Environment environment) {
+            return value;
+        }
+    }
+
+    static final class Variable extends RuleExpressionNode {
+
+        /**
+         * Variable as it is referenced in expression, e.g. '#{variable_name}'.
+         */
+        @Nonnull
+        final String variable;
+
+        @Nonnull
+        final String name;
+
+        final int slot;
+
+        Variable(@Nonnull String variable, @Nonnull String name, int slot) {
+            super(0);
+            this.variable = variable;
+            this.name = name;
+            this.slot = slot;
+        }
+
+        @Nonnull
+        @Override
+        Object evaluate(@Nonnull Environment environment) {
+            return environment.variable(variable, name, slot);
+        }
+    }
+
+    static final class FunctionCall extends RuleExpressionNode {
+
+        @Nonnull
+        final String functionName;
+
+        @Nullable
+        final RuleFunction function;
+
+        @Nonnull
+        final List<RuleExpressionNode> arguments;
+
+        FunctionCall(@Nonnull String functionName, @Nonnull List<RuleExpressionNode> arguments) {
+            super(1 + functionCalls(arguments));
+            this.functionName = functionName;
+            this.function = RuleFunction.create(functionName);
+            this.arguments = Collections.unmodifiableList(new ArrayList<>(arguments));
+        }
+
+        @Nonnull
+        @Override
+        Object evaluate(@Nonnull Environment environment) {
+            List<Object> values = new ArrayList<>(arguments.size());
+            for (int i = 0; i < arguments.size(); i++) {
+                values.add(arguments.get(i).evaluate(environment));
+            }
+            return environment.call(functionName, function, values);
+        }
+
+        @Nonnull
+        @Override
+        RuleExpressionNode fold() {
+            List<RuleExpressionNode> foldedArguments = new ArrayList<>(arguments.size());
+            for (int i = 0; i < arguments.size(); i++) {
+                foldedArguments.add(arguments.get(i).fold());
+            }
+            return new FunctionCall(functionName, foldedArguments);
+        }
+
+        private static int functionCalls(@Nonnull List<RuleExpressionNode> arguments) {
+            int functionCalls = 0;
+            for (int i = 0; i < arguments.size(); i++) {
+                functionCalls = functionCalls + arguments.get(i).functionCalls;
+            }
+            return functionCalls;
+        }
+    }
+
+    static final class Unary extends RuleExpressionNode {
+
+        @Nonnull
+        final Operator operator;
+
+        @Nonnull
+        final RuleExpressionNode operand;
+
+        Unary(@Nonnull Operator operator, @Nonnull RuleExpressionNode operand) {
+            super(operand.functionCalls);
+            this.operator = operator;
+            this.operand = operand;
+        }
+
+        @Nonnull
+        @Override
+        Object evaluate(@Nonnull Environment environment) {
+            Object value = operand.evaluate(environment);
+
+            switch (operator) {
+                case NOT:
+                    return !toBoolean(value);
+                case NEGATE:
+                    return -toNumber(value);
+                case PLUS:
+                    return toNumber(value);
+                default:
+                    throw new IllegalStateException("Unsupported unary operator: " + operator);
+            }
+        }
+
+        @Nonnull
+        @Override
+        RuleExpressionNode fold() {
+            RuleExpressionNode foldedOperand = operand.fold();
+            Unary unary = new Unary(operator, foldedOperand);
+            return foldedOperand instanceof Literal ? evaluateConstant(unary) : unary;
+        }
+    }
+
+    static final class Binary extends RuleExpressionNode {
+
+        @Nonnull
+        final Operator operator;
+
+        @Nonnull
+        final RuleExpressionNode left;
+
+        @Nonnull
+        final RuleExpressionNode right;
+
+        Binary(@Nonnull Operator operator, @Nonnull RuleExpressionNode left,
+                @Nonnull RuleExpressionNode right) {
+            super(left.functionCalls + right.functionCalls);
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Nonnull
+        @Override
+        Object evaluate(@Nonnull Environment environment) {
+            return apply(operator, left.evaluate(environment), right.evaluate(environment));
+        }
+
+        @Nonnull
+        @Override
+        RuleExpressionNode fold() {
+            RuleExpressionNode foldedLeft = left.fold();
+            RuleExpressionNode foldedRight = right.fold();
+
+            Binary binary = new Binary(operator, foldedLeft, foldedRight);
+            return foldedLeft instanceof Literal && foldedRight instanceof Literal ?
+                    evaluateConstant(binary) : binary;
+        }
+
+        @Nonnull
+        @SuppressWarnings("PMD.CyclomaticComplexity")
+        static Object apply(@Nonnull Operator operator,
+                @Nonnull Object left, @Nonnull Object right) {
+            switch (operator) {
+                case ADD:
+                    if (left instanceof String || right instanceof String) {
+                        return toText(left) + toText(right);
+                    }
+                    return toNumber(left) + toNumber(right);
+                case SUBTRACT:
+                    return toNumber(left) - toNumber(right);
+                case MULTIPLY:
+                    return toNumber(left) * toNumber(right);
+                case DIVIDE:
+                    return toNumber(left) / toNumber(right);
+                case MODULUS:
+                    return toNumber(left) % toNumber(right);
+                case EQUAL:
+                    return looseEquals(left, right);
+                case NOT_EQUAL:
+                    return !looseEquals(left, right);
+                case STRICT_EQUAL:
+                    return strictEquals(left, right);
+                case STRICT_NOT_EQUAL:
+                    return !strictEquals(left, right);
+                default:
+                    return compare(operator, left, right);
+            }
+        }
+
+        @Nonnull
+        private static Boolean compare(@Nonnull Operator operator,
+                @Nonnull Object left, @Nonnull Object right) {
+            int comparison;
+            if (left instanceof String && right instanceof String) {
+                comparison = ((String) left).compareTo((String) right);
+            } else {
+                double leftNumber = toNumber(left);
+                double rightNumber = toNumber(right);
+
+                // any comparison with NaN is false
+                if (Double.isNaN(leftNumber) || Double.isNaN(rightNumber)) {
+                    return false;
+                }
+
+                comparison = Double.compare(leftNumber, rightNumber);
+                if (leftNumber == rightNumber) {
+                    // treat -0.0 and 0.0 as equal values
+                    comparison = 0;
+                }
+            }
+
+            switch (operator) {
+                case LESS:
+                    return comparison < 0;
+                case LESS_OR_EQUAL:
+                    return comparison <= 0;
+                case GREATER:
+                    return comparison > 0;
+                case GREATER_OR_EQUAL:
+                    return comparison >= 0;
+                default:
+                    throw new IllegalStateException("Unsupported binary operator: " + operator);
+            }
+        }
+    }
+
+    /**
+     * Short-circuiting '&&' and '||'. As in JavaScript,
+     * result is the value of the last evaluated operand.
+     */
+    static final class Logical extends RuleExpressionNode {
+
+        @Nonnull
+        final Operator operator;
+
+        @Nonnull
+        final RuleExpressionNode left;
+
+        @Nonnull
+        final RuleExpressionNode right;
+
+        Logical(@Nonnull Operator operator, @Nonnull RuleExpressionNode left,
+                @Nonnull RuleExpressionNode right) {
+            super(left.functionCalls + right.functionCalls);
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Nonnull
+        @Override
+        Object evaluate(@Nonnull Environment environment) {
+            Object value = left.evaluate(environment);
+            boolean truthy = toBoolean(value);
+
+            if (Operator.AND.equals(operator) ? !truthy : truthy) {
+                if (right.functionCalls > 0) {
+                    environment.skip(right.functionCalls);
+                }
+                return value;
+            }
+
+            return right.evaluate(environment);
+        }
+
+        @Nonnull
+        @Override
+        RuleExpressionNode fold() {
+            RuleExpressionNode foldedLeft = left.fold();
+            RuleExpressionNode foldedRight = right.fold();
+
+            if (foldedLeft instanceof Literal) {
+                boolean truthy = toBoolean(((Literal) foldedLeft).value);
+                return (Operator.AND.equals(operator) ? !truthy : truthy) ?
+                        foldedLeft : foldedRight;
+            }
+
+            return new Logical(operator, foldedLeft, foldedRight);
+        }
+    }
+
+    static final class Conditional extends RuleExpressionNode {
+
+        @Nonnull
+        final RuleExpressionNode condition;
+
+        @Nonnull
+        final RuleExpressionNode whenTrue;
+
+        @Nonnull
+        final RuleExpressionNode whenFalse;
+
+        Conditional(@Nonnull RuleExpressionNode condition,
+                @Nonnull RuleExpressionNode whenTrue, @Nonnull RuleExpressionNode whenFalse) {
+            super(condition.functionCalls + whenTrue.functionCalls + whenFalse.functionCalls);
+            this.condition = condition;
+            this.whenTrue = whenTrue;
+            this.whenFalse = whenFalse;
+        }
+
+        @Nonnull
+        @Override
+        Object evaluate(@Nonnull Environment environment) {
+            if (toBoolean(condition.evaluate(environment))) {
+                if (whenFalse.functionCalls > 0) {
+                    environment.skip(whenFalse.functionCalls);
+                }
+                return whenTrue.evaluate(environment);
+            }
+
+            if (whenTrue.functionCalls > 0) {
+                environment.skip(whenTrue.functionCalls);
+            }
+            return whenFalse.evaluate(environment);
+        }
+
+        @Nonnull
+        @Override
+        RuleExpressionNode fold() {
+            RuleExpressionNode foldedCondition = condition.fold();
+            RuleExpressionNode foldedWhenTrue = whenTrue.fold();
+            RuleExpressionNode foldedWhenFalse = whenFalse.fold();
+
+            if (foldedCondition instanceof Literal) {
+                return toBoolean(((Literal) foldedCondition).value) ?
+                        foldedWhenTrue : foldedWhenFalse;
+            }
+
+            return new Conditional(foldedCondition, foldedWhenTrue, foldedWhenFalse);
+        }
+    }
+
+    private static final class ConstantEnvironment implements Environment {
+
+        @Nonnull
+        @Override
+        public Object variable(@Nonnull String variable, @Nonnull String name, int slot) {
+            throw new IllegalStateException("Constant expression references variable: " + variable);
+        }
+
+        @Nonnull
+        @Override
+        public Object call(@Nonnull String functionName, @Nullable RuleFunction function,
+                @Nonnull List<Object> arguments) {
+            throw new IllegalStateException("Constant expression calls function: " + functionName);
+        }
+
+        @Override
+        public void skip(int functionCalls) {
+            // nothing to count
+        }
+    }
+}
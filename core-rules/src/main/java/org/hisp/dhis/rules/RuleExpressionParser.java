@@ -0,0 +1,370 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.RuleExpressionNode.Operator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Recursive descent parser for program rule expressions. Supported grammar is a subset
+ * of JavaScript expressions which is used in program rules: number, string and boolean
+ * literals, arithmetic, comparison and logical operators, ternary operator, variable
+ * references (#{..}, A{..}, C{..}, V{..}) and 'd2:' function calls.
+ */
+@SuppressWarnings("PMD.GodClass")
+final class RuleExpressionParser {
+    private static final String D2_FUNCTION_PREFIX = "d2:";
+
+    @Nonnull
+    private final String expression;
+
+    /**
+     * Slots of variables, if variables should be resolved by index.
+     */
+    @Nullable
+    private final RuleVariableSlots slots;
+
+    private int position;
+
+    private RuleExpressionParser(@Nonnull String expression, @Nullable RuleVariableSlots slots) {
+        this.expression = expression;
+        this.slots = slots;
+        this.position = 0;
+    }
+
+    @Nonnull
+    static RuleExpressionNode parse(@Nonnull String expression) {
+        return parse(expression, null);
+    }
+
+    /**
+     * @param slots slots which referenced variables are assigned to. Variables
+     *              which are not known yet are assigned to the next free slots.
+     */
+    @Nonnull
+    static RuleExpressionNode parse(@Nonnull String expression, @Nullable RuleVariableSlots slots) {
+        if (expression == null) {
+            throw new NullPointerException("expression == null");
+        }
+
+        RuleExpressionParser parser = new RuleExpressionParser(expression, slots);
+        RuleExpressionNode node = parser.conditional();
+
+        parser.skipWhitespace();
+        if (parser.position < expression.length()) {
+            throw parser.error("Unexpected character");
+        }
+
+        return node;
+    }
+
+    @Nonnull
+    private RuleExpressionNode conditional() {
+        RuleExpressionNode condition = or();
+
+        if (consume("?")) {
+            RuleExpressionNode whenTrue = conditional();
+            expect(":");
+            RuleExpressionNode whenFalse = conditional();
+            return RuleExpressionNode.conditional(condition, whenTrue, whenFalse);
+        }
+
+        return condition;
+    }
+
+    @Nonnull
+    private RuleExpressionNode or() {
+        RuleExpressionNode node = and();
+        while (consume("||")) {
+            node = RuleExpressionNode.binary(Operator.OR, node, and());
+        }
+        return node;
+    }
+
+    @Nonnull
+    private RuleExpressionNode and() {
+        RuleExpressionNode node = equality();
+        while (consume("&&")) {
+            node = RuleExpressionNode.binary(Operator.AND, node, equality());
+        }
+        return node;
+    }
+
+    @Nonnull
+    private RuleExpressionNode equality() {
+        RuleExpressionNode node = relational();
+        while (true) {
+            Operator operator;
+            if (consume("===")) {
+                operator = Operator.STRICT_EQUAL;
+            } else if (consume("!==")) {
+                operator = Operator.STRICT_NOT_EQUAL;
+            } else if (consume("==")) {
+                operator = Operator.EQUAL;
+            } else if (consume("!=")) {
+                operator = Operator.NOT_EQUAL;
+            } else {
+                return node;
+            }
+            node = RuleExpressionNode.binary(operator, node, relational());
+        }
+    }
+
+    @Nonnull
+    private RuleExpressionNode relational() {
+        RuleExpressionNode node = additive();
+        while (true) {
+            Operator operator;
+            if (consume("<=")) {
+                operator = Operator.LESS_OR_EQUAL;
+            } else if (consume(">=")) {
+                operator = Operator.GREATER_OR_EQUAL;
+            } else if (consume("<")) {
+                operator = Operator.LESS;
+            } else if (consume(">")) {
+                operator = Operator.GREATER;
+            } else {
+                return node;
+            }
+            node = RuleExpressionNode.binary(operator, node, additive());
+        }
+    }
+
+    @Nonnull
+    private RuleExpressionNode additive() {
+        RuleExpressionNode node = multiplicative();
+        while (true) {
+            Operator operator;
+            if (consume("+")) {
+                operator = Operator.ADD;
+            } else if (consume("-")) {
+                operator = Operator.SUBTRACT;
+            } else {
+                return node;
+            }
+            node = RuleExpressionNode.binary(operator, node, multiplicative());
+        }
+    }
+
+    @Nonnull
+    private RuleExpressionNode multiplicative() {
+        RuleExpressionNode node = unary();
+        while (true) {
+            Operator operator;
+            if (consume("*")) {
+                operator = Operator.MULTIPLY;
+            } else if (consume("/")) {
+                operator = Operator.DIVIDE;
+            } else if (consume("%")) {
+                operator = Operator.MODULUS;
+            } else {
+                return node;
+            }
+            node = RuleExpressionNode.binary(operator, node, unary());
+        }
+    }
+
+    @Nonnull
+    private RuleExpressionNode unary() {
+        if (consume("!")) {
+            return RuleExpressionNode.unary(Operator.NOT, unary());
+        } else if (consume("-")) {
+            return RuleExpressionNode.unary(Operator.NEGATE, unary());
+        } else if (consume("+")) {
+            return RuleExpressionNode.unary(Operator.PLUS, unary());
+        }
+
+        return primary();
+    }
+
+    @Nonnull
+    @SuppressWarnings("PMD.CyclomaticComplexity")
+    private RuleExpressionNode primary() {
+        skipWhitespace();
+
+        if (position >= expression.length()) {
+            throw error("Unexpected end of expression");
+        }
+
+        char character = expression.charAt(position);
+        if (consume("(")) {
+            RuleExpressionNode node = conditional();
+            expect(")");
+            return node;
+        } else if (character == '\'' || character == '"') {
+            return RuleExpressionNode.literal(string());
+        } else if (Character.isDigit(character) || character == '.') {
+            return RuleExpressionNode.literal(number());
+        } else if (expression.startsWith(D2_FUNCTION_PREFIX, position)) {
+            return functionCall();
+        } else if (isVariableStart()) {
+            return variable();
+        } else if (consumeKeyword("true")) {
+            return RuleExpressionNode.literal(Boolean.TRUE);
+        } else if (consumeKeyword("false")) {
+            return RuleExpressionNode.literal(Boolean.FALSE);
+        }
+
+        throw error("Unexpected character");
+    }
+
+    @Nonnull
+    private RuleExpressionNode functionCall() {
+        int start = position;
+        position = position + D2_FUNCTION_PREFIX.length();
+        while (position < expression.length() && isNameCharacter(expression.charAt(position))) {
+            position++;
+        }
+
+        String functionName = expression.substring(start, position);
+        if (functionName.length() == D2_FUNCTION_PREFIX.length()) {
+            throw error("Missing function name");
+        }
+
+        expect("(");
+        List<RuleExpressionNode> arguments = new ArrayList<>();
+        if (!consume(")")) {
+            do {
+                arguments.add(conditional());
+            } while (consume(","));
+            expect(")");
+        }
+
+        return RuleExpressionNode.functionCall(functionName, arguments);
+    }
+
+    @Nonnull
+    private RuleExpressionNode variable() {
+        int end = expression.indexOf('}', position);
+        if (end < 0) {
+            throw error("Unterminated variable");
+        }
+
+        String variable = expression.substring(position, end + 1);
+        position = end + 1;
+        return RuleExpressionNode.variable(variable, slots);
+    }
+
+    @Nonnull
+    private String string() {
+        char quote = expression.charAt(position);
+        StringBuilder builder = new StringBuilder();
+
+        position++;
+        while (position < expression.length()) {
+            char character = expression.charAt(position++);
+
+            if (character == quote) {
+                return builder.toString();
+            } else if (character == '\\' && position < expression.length()) {
+                builder.append(unescape(expression.charAt(position++)));
+            } else {
+                builder.append(character);
+            }
+        }
+
+        throw error("Unterminated string");
+    }
+
+    @Nonnull
+    private Double number() {
+        int start = position;
+        skipDigits();
+
+        if (position < expression.length() && expression.charAt(position) == '.') {
+            position++;
+            skipDigits();
+        }
+
+        if (position < expression.length() &&
+                (expression.charAt(position) == 'e' || expression.charAt(position) == 'E')) {
+            position++;
+            if (position < expression.length() && (expression.charAt(position) == '+' ||
+                    expression.charAt(position) == '-')) {
+                position++;
+            }
+            skipDigits();
+        }
+
+        try {
+            return Double.valueOf(expression.substring(start, position));
+        } catch (NumberFormatException numberFormatException) {
+            position = start;
+            throw error("Malformed number"); // NOPMD
+        }
+    }
+
+    private void skipDigits() {
+        while (position < expression.length() && Character.isDigit(expression.charAt(position))) {
+            position++;
+        }
+    }
+
+    private boolean isVariableStart() {
+        char character = expression.charAt(position);
+        return (character == '#' || character == 'A' || character == 'C' || character == 'V') &&
+                position + 1 < expression.length() && expression.charAt(position + 1) == '{';
+    }
+
+    private boolean consumeKeyword(@Nonnull String keyword) {
+        int end = position + keyword.length();
+        if (expression.startsWith(keyword, position) && (end >= expression.length() ||
+                !isNameCharacter(expression.charAt(end)))) {
+            position = end;
+            return true;
+        }
+
+        return false;
+    }
+
+    private boolean consume(@Nonnull String token) {
+        skipWhitespace();
+
+        if (expression.startsWith(token, position)) {
+            position = position + token.length();
+            return true;
+        }
+
+        return false;
+    }
+
+    private void expect(@Nonnull String token) {
+        if (!consume(token)) {
+            throw error(String.format(Locale.US, "Expected '%s'", token));
+        }
+    }
+
+    private void skipWhitespace() {
+        while (position < expression.length() &&
+                Character.isWhitespace(expression.charAt(position))) {
+            position++;
+        }
+    }
+
+    @Nonnull
+    private IllegalArgumentException error(@Nonnull String message) {
+        return new IllegalArgumentException(String.format(Locale.US,
+                "%s at position %d in expression: %s", message, position, expression));
+    }
+
+    private static char unescape(char character) {
+        switch (character) {
+            case 'n':
+                return '\n';
+            case 't':
+                return '\t';
+            case 'r':
+                return '\r';
+            default:
+                return character;
+        }
+    }
+
+    private static boolean isNameCharacter(char character) {
+        return Character.isLetterOrDigit(character) || character == '_';
+    }
+}
@@ -0,0 +1,94 @@
+package org.hisp.dhis.rules;
+
+import com.google.auto.value.AutoValue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Compiled form of a program rule expression. Variable references and function
+ * calls are extracted once, which means that evaluation boils down to binding
+ * values into the template instead of re-parsing the expression.
+ */
+@AutoValue
+abstract class RuleExpressionTemplate {
+
+    /**
+     * @return expression in its original form.
+     */
+    @Nonnull
+    public abstract String expression();
+
+    /**
+     * @return variables and function calls which are referenced at the
+     * top level of the expression (not as arguments of function calls).
+     */
+    @Nonnull
+    public abstract RuleExpression ruleExpression();
+
+    /**
+     * @return top level function calls. Arguments of each call are
+     * compiled templates on their own.
+     */
+    @Nonnull
+    public abstract List<RuleFunctionCallTemplate> functionCalls();
+
+    /**
+     * @return every occurrence of variables and top level function
+     * calls within the expression, ordered by offset.
+     */
+    @Nonnull
+    public abstract List<RuleExpressionToken> tokens();
+
+    /**
+     * @return parsed expression where variables are resolved by slot, or null if
+     * expression can't be parsed and has to be bound and sent to evaluator as text.
+     */
+    @Nullable
+    public abstract RuleExpressionNode node();
+
+    /**
+     * @return expression split into operands which can be evaluated lazily, or null
+     * if there are no function calls which could be skipped by splitting it.
+     */
+    @Nullable
+    public abstract RuleExpressionBranch branch();
+
+    /**
+     * @return true if there is nothing to evaluate.
+     */
+    boolean isEmpty() {
+        return expression().trim().isEmpty();
+    }
+
+    /**
+     * @return number of function calls within expression, including nested ones.
+     */
+    int functionCallCount() {
+        int count = 0;
+        for (int i = 0; i < functionCalls().size(); i++) {
+            List<RuleExpressionTemplate> arguments = functionCalls().get(i).arguments();
+
+            count++;
+            for (int j = 0; j < arguments.size(); j++) {
+                count = count + arguments.get(j).functionCallCount();
+            }
+        }
+        return count;
+    }
+
+    @Nonnull
+    static RuleExpressionTemplate create(@Nonnull String expression,
+            @Nonnull Set<String> variables, @Nonnull List<RuleFunctionCallTemplate> functionCalls,
+            @Nonnull List<RuleExpressionToken> tokens, @Nullable RuleExpressionNode node,
+            @Nullable RuleExpressionBranch branch) {
+        return new AutoValue_RuleExpressionTemplate(expression,
+                RuleExpression.create(expression, variables, RuleFunctionCallTemplate
+                        .functionCalls(functionCalls)), Collections.unmodifiableList(functionCalls),
+                Collections.unmodifiableList(tokens), node, branch);
+    }
+}
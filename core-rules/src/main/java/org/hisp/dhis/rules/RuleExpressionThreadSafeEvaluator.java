@@ -0,0 +1,13 @@
+package org.hisp.dhis.rules;
+
+/**
+ * Marks {@link RuleExpressionEvaluator} which can be called by many threads at once.
+ * {@link RuleEngineExecutor} evaluates rules and targets concurrently only if evaluator
+ * of the context implements this interface; otherwise they are evaluated one by one,
+ * since evaluators like bridges to JavaScript engines are bound to a single thread.
+ * <p>
+ * Decorators (e.g. {@link RuleExpressionCache}) are not marked, since they are as safe
+ * as the evaluator they wrap.
+ */
+public interface RuleExpressionThreadSafeEvaluator extends RuleExpressionEvaluator {
+}
@@ -0,0 +1,80 @@
+package org.hisp.dhis.rules;
+
+import com.google.auto.value.AutoValue;
+
+import java.io.Serializable;
+import java.util.Comparator;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Reference to a variable or to a function call within the expression,
+ * represented as a range of offsets into the original expression.
+ */
+@AutoValue
+abstract class RuleExpressionToken {
+
+    /**
+     * Orders tokens by start offset. Enclosing tokens go before tokens they contain.
+     */
+    static final Comparator<RuleExpressionToken> OFFSET_COMPARATOR = new OffsetComparator();
+
+    /**
+     * @return offset of the first character of the reference.
+     */
+    public abstract int start();
+
+    /**
+     * @return offset right after the last character of the reference.
+     */
+    public abstract int end();
+
+    /**
+     * @return reference in its original form: either variable (e.g. #{variable})
+     * or function call, including arguments.
+     */
+    @Nonnull
+    public abstract String text();
+
+    /**
+     * @return name of the variable without prefix and braces,
+     * or name of the function, including 'd2:' prefix.
+     */
+    @Nonnull
+    public abstract String name();
+
+    /**
+     * @return slot of the variable (see {@link RuleVariableSlots}), or -1 if
+     * token is a function call or variable has not been assigned to a slot.
+     */
+    public abstract int slot();
+
+    public abstract boolean isFunctionCall();
+
+    @Nonnull
+    static RuleExpressionToken variable(int start, @Nonnull String variable, int slot) {
+        return new AutoValue_RuleExpressionToken(start, start + variable.length(), variable,
+                variable.substring(2, variable.length() - 1), slot, false);
+    }
+
+    @Nonnull
+    static RuleExpressionToken functionCall(int start, @Nonnull String functionCall) {
+        return new AutoValue_RuleExpressionToken(start, start + functionCall.length(), functionCall,
+                functionCall.substring(0, functionCall.indexOf('(')), -1, true);
+    }
+
+    private static final class OffsetComparator
+            implements Comparator<RuleExpressionToken>, Serializable {
+        private static final long serialVersionUID = 2475623917462518702L;
+
+        @Override
+        public int compare(RuleExpressionToken first, RuleExpressionToken second) {
+            if (first.start() != second.start()) {
+                return first.start() < second.start() ? -1 : 1;
+            }
+
+            // longer token encloses the shorter one
+            return first.end() == second.end() ? 0 : (first.end() > second.end() ? -1 : 1);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.hisp.dhis.rules;
+
+import com.google.auto.value.AutoValue;
+
+import org.hisp.dhis.rules.functions.RuleFunction;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+@AutoValue
+abstract class RuleFunctionCallTemplate {
+
+    /**
+     * @return function call in its original form, including arguments.
+     */
+    @Nonnull
+    public abstract String functionCall();
+
+    /**
+     * @return name of the function, including 'd2:' prefix.
+     */
+    @Nonnull
+    public abstract String functionName();
+
+    /**
+     * @return function resolved by name, or null if function
+     * is not supported and has to be called by the evaluator.
+     */
+    @Nullable
+    public abstract RuleFunction function();
+
+    /**
+     * @return compiled arguments of the function call.
+     */
+    @Nonnull
+    public abstract List<RuleExpressionTemplate> arguments();
+
+    @Nonnull
+    static RuleFunctionCallTemplate create(@Nonnull String functionCall,
+            @Nonnull String functionName, @Nonnull List<RuleExpressionTemplate> arguments) {
+        return new AutoValue_RuleFunctionCallTemplate(functionCall, functionName,
+                RuleFunction.create(functionName), Collections.unmodifiableList(arguments));
+    }
+
+    @Nonnull
+    static Set<String> functionCalls(@Nonnull List<RuleFunctionCallTemplate> templates) {
+        Set<String> functionCalls = new LinkedHashSet<>(templates.size());
+        for (int i = 0; i < templates.size(); i++) {
+            functionCalls.add(templates.get(i).functionCall());
+        }
+        return functionCalls;
+    }
+}
@@ -0,0 +1,112 @@
+package org.hisp.dhis.rules;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Work done by the engine while evaluating a single rule, as reported to {@link RuleEngineListener}.
+ * Metrics are reused by the engine for the next rule, which means that listeners should copy
+ * values they want to keep instead of holding on to the instance.
+ */
+public final class RuleMetrics {
+
+    @Nonnull
+    private final Map<String, Integer> functionCalls;
+
+    private long conditionNanos;
+
+    private long nanos;
+
+    private int evaluatorCalls;
+
+    private int variablesMaterialized;
+
+    private int effects;
+
+    RuleMetrics() {
+        this.functionCalls = new HashMap<>();
+    }
+
+    /**
+     * @return time spent on evaluation of the condition, in nanoseconds.
+     */
+    public long conditionNanos() {
+        return conditionNanos;
+    }
+
+    /**
+     * @return time spent on evaluation of the condition and data of actions, in nanoseconds.
+     */
+    public long nanos() {
+        return nanos;
+    }
+
+    /**
+     * @return number of expressions evaluated, including operands of '&&', '||' and
+     * '?:' which are evaluated one by one, and expressions which are evaluated by
+     * {@link RuleExpressionInterpreter} directly against the parsed tree.
+     */
+    public int evaluatorCalls() {
+        return evaluatorCalls;
+    }
+
+    /**
+     * @return number of calls of functions known to the engine, keyed by function name.
+     */
+    @Nonnull
+    public Map<String, Integer> functionCalls() {
+        return Collections.unmodifiableMap(functionCalls);
+    }
+
+    /**
+     * @return number of variables which have been looked up in the value map and converted,
+     * values which had already been materialized by previous rules are not counted.
+     */
+    public int variablesMaterialized() {
+        return variablesMaterialized;
+    }
+
+    /**
+     * @return number of effects produced by the rule.
+     */
+    public int effects() {
+        return effects;
+    }
+
+    void reset() {
+        functionCalls.clear();
+        conditionNanos = 0;
+        nanos = 0;
+        evaluatorCalls = 0;
+        variablesMaterialized = 0;
+        effects = 0;
+    }
+
+    void conditionNanos(long conditionNanos) {
+        this.conditionNanos = conditionNanos;
+    }
+
+    void nanos(long nanos) {
+        this.nanos = nanos;
+    }
+
+    void evaluatorCall() {
+        evaluatorCalls++;
+    }
+
+    void functionCall(@Nonnull String functionName) {
+        Integer calls = functionCalls.get(functionName);
+        functionCalls.put(functionName, calls == null ? 1 : calls + 1);
+    }
+
+    void variableMaterialized() {
+        variablesMaterialized++;
+    }
+
+    void effect() {
+        effects++;
+    }
+}
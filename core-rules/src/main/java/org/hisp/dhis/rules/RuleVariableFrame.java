@@ -0,0 +1,303 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.functions.RuleFunction;
+import org.hisp.dhis.rules.models.RuleValueType;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Values of variables referenced by compiled rules, indexed by slot (see {@link RuleVariableSlots}).
+ * Each value is looked up in the value map and converted at most once per frame: numbers are kept
+ * as primitive doubles and booleans as primitive booleans, while text representation is rendered
+ * only if expression has to be bound for the external {@link RuleExpressionEvaluator}.
+ * <p>
+ * Frames are not thread-safe.
+ */
+final class RuleVariableFrame implements RuleExpressionNode.Environment {
+    private static final byte UNRESOLVED = 0;
+    private static final byte ABSENT = 1;
+    private static final byte NUMBER = 2;
+    private static final byte BOOLEAN = 3;
+    private static final byte TEXT = 4;
+
+    @Nonnull
+    private final RuleVariableSlots slots;
+
+    /**
+     * Values the frame has been created with.
+     */
+    @Nonnull
+    private final Map<String, RuleVariableValue> baseValueMap;
+
+    /**
+     * Either base values, or their copy with values assigned by rules.
+     */
+    @Nonnull
+    private Map<String, RuleVariableValue> valueMap;
+
+    @Nullable
+    private Set<String> assignedVariables;
+
+    @Nonnull
+    private final byte[] kinds;
+
+    @Nonnull
+    private final double[] numbers;
+
+    @Nonnull
+    private final boolean[] booleans;
+
+    /**
+     * Values of text variables, without quotes. Also keeps values which
+     * can't be converted to the type of variable (e.g. 'abc' for numbers).
+     */
+    @Nonnull
+    private final String[] texts;
+
+    /**
+     * Values as they are rendered into expressions, computed on demand.
+     */
+    @Nonnull
+    private final String[] renderedValues;
+
+    /**
+     * Function calls evaluated and skipped since counters were flushed last time.
+     */
+    private int functionCalls;
+
+    private int skippedFunctionCalls;
+
+    /**
+     * Metrics of the rule which is being evaluated, if rules are profiled.
+     */
+    @Nullable
+    private RuleMetrics metrics;
+
+    RuleVariableFrame(@Nonnull RuleVariableSlots slots,
+            @Nonnull Map<String, RuleVariableValue> valueMap) {
+        this.slots = slots;
+        this.baseValueMap = valueMap;
+        this.valueMap = valueMap;
+        this.kinds = new byte[slots.size()];
+        this.numbers = new double[slots.size()];
+        this.booleans = new boolean[slots.size()];
+        this.texts = new String[slots.size()];
+        this.renderedValues = new String[slots.size()];
+    }
+
+    /**
+     * @return new frame over the same value map. Converted values are not shared,
+     * so frames can be used by different threads as long as the map is not modified.
+     */
+    @Nonnull
+    RuleVariableFrame copy() {
+        return new RuleVariableFrame(slots, valueMap);
+    }
+
+    /**
+     * @param metrics metrics to count function calls and materialized variables in, or null.
+     */
+    void profile(@Nullable RuleMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Nonnull
+    Map<String, RuleVariableValue> valueMap() {
+        return valueMap;
+    }
+
+    /**
+     * @return value of the variable in the form it is substituted into
+     * expression, or null if there is no such variable in the value map.
+     */
+    @Nullable
+    String render(int slot) {
+        if (renderedValues[slot] == null) {
+            if (metrics != null && kinds[slot] == UNRESOLVED) {
+                metrics.variableMaterialized();
+            }
+
+            RuleVariableValue variableValue = valueMap.get(slots.name(slot));
+            if (variableValue == null) {
+                return null;
+            }
+
+            renderedValues[slot] = variableValue.value() == null ?
+                    variableValue.type().defaultValue() : variableValue.value();
+        }
+
+        return renderedValues[slot];
+    }
+
+    /**
+     * @return value of the variable as {@link Double}, {@link Boolean} or {@link String}.
+     */
+    @Nonnull
+    Object value(int slot) {
+        if (kinds[slot] == UNRESOLVED) {
+            resolve(slot);
+        }
+
+        switch (kinds[slot]) {
+            case NUMBER:
+                return numbers[slot];
+            case BOOLEAN:
+                return booleans[slot];
+            case TEXT:
+                return texts[slot];
+            default:
+                throw new IllegalArgumentException("Unbound variable: " + slots.name(slot));
+        }
+    }
+
+    /**
+     * Sets value of the variable, as it has been assigned by a rule. Base values are copied
+     * on the first assignment, so the map which frame has been created with stays intact.
+     */
+    void assign(@Nonnull String variable, @Nonnull String value) {
+        if (assignedVariables == null) {
+            valueMap = new HashMap<>(baseValueMap);
+            assignedVariables = new HashSet<>();
+        }
+
+        RuleVariableValue variableValue = valueMap.get(variable);
+        valueMap.put(variable, RuleVariableValue.create(value, variableValue == null ?
+                RuleValueType.TEXT : variableValue.type()));
+        assignedVariables.add(variable);
+        invalidate(variable);
+    }
+
+    /**
+     * Drops all values assigned by rules, bringing back base values.
+     */
+    void clearAssignments() {
+        if (assignedVariables != null) {
+            valueMap = baseValueMap;
+            for (String variable : assignedVariables) {
+                invalidate(variable);
+            }
+            assignedVariables = null;
+        }
+    }
+
+    /**
+     * Drops cached value of the variable, which will be looked
+     * up in the value map again on the next access.
+     */
+    void invalidate(@Nonnull String variable) {
+        int slot = slots.indexOf(variable);
+        if (slot >= 0) {
+            kinds[slot] = UNRESOLVED;
+            texts[slot] = null;
+            renderedValues[slot] = null;
+        }
+    }
+
+    @Nonnull
+    @Override
+    public Object variable(@Nonnull String variable, @Nonnull String name, int slot) {
+        int index = slot < 0 ? slots.indexOf(name) : slot;
+        if (index < 0) {
+            throw new IllegalArgumentException("Unbound variable: " + variable);
+        }
+
+        return value(index);
+    }
+
+    @Nonnull
+    @Override
+    public Object call(@Nonnull String functionName, @Nullable RuleFunction function,
+            @Nonnull List<Object> arguments) {
+        countFunctionCall(functionName);
+        return RuleExpressionInterpreter.call(functionName, function, arguments, valueMap);
+    }
+
+    @Override
+    public void skip(int functionCalls) {
+        skippedFunctionCalls = skippedFunctionCalls + functionCalls;
+    }
+
+    /**
+     * Records function call which has been evaluated outside of the frame.
+     */
+    void countFunctionCall(@Nonnull String functionName) {
+        functionCalls++;
+
+        if (metrics != null) {
+            metrics.functionCall(functionName);
+        }
+    }
+
+    /**
+     * Adds function calls counted by the frame to the given counters and resets them.
+     */
+    void flushCounters(@Nonnull RuleEngineCounters counters) {
+        if (functionCalls > 0 || skippedFunctionCalls > 0) {
+            counters.add(functionCalls, skippedFunctionCalls);
+            functionCalls = 0;
+            skippedFunctionCalls = 0;
+        }
+    }
+
+    private void resolve(int slot) {
+        if (metrics != null && renderedValues[slot] == null) {
+            metrics.variableMaterialized();
+        }
+
+        RuleVariableValue variableValue = valueMap.get(slots.name(slot));
+        if (variableValue == null) {
+            kinds[slot] = ABSENT;
+            return;
+        }
+
+        String value = variableValue.value();
+        if (RuleValueType.NUMERIC.equals(variableValue.type())) {
+            if (value == null) {
+                setNumber(slot, 0.0);
+            } else {
+                try {
+                    setNumber(slot, Double.parseDouble(value));
+                } catch (NumberFormatException numberFormatException) {
+                    setText(slot, value);
+                }
+            }
+        } else if (RuleValueType.BOOLEAN.equals(variableValue.type())) {
+            if (value == null || "false".equals(value)) {
+                setBoolean(slot, false);
+            } else if ("true".equals(value)) {
+                setBoolean(slot, true);
+            } else {
+                setText(slot, value);
+            }
+        } else if (value == null) {
+            setText(slot, "");
+        } else {
+            // text values are wrapped into quotes
+            setText(slot, value.length() >= 2 && value.charAt(0) == '\'' &&
+                    value.charAt(value.length() - 1) == '\'' ?
+                    value.substring(1, value.length() - 1) : value);
+        }
+    }
+
+    private void setNumber(int slot, double number) {
+        kinds[slot] = NUMBER;
+        numbers[slot] = number;
+    }
+
+    private void setBoolean(int slot, boolean value) {
+        kinds[slot] = BOOLEAN;
+        booleans[slot] = value;
+    }
+
+    private void setText(int slot, @Nonnull String text) {
+        kinds[slot] = TEXT;
+        texts[slot] = text;
+    }
+}
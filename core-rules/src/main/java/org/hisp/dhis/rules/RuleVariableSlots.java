@@ -0,0 +1,59 @@
+package org.hisp.dhis.rules;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Assigns integer slots to variables referenced by compiled rules. Slots are assigned
+ * while rules are being compiled, once per {@link RuleEngineContext}, which means that
+ * compiled expressions can refer to values within {@link RuleVariableFrame} by index
+ * instead of looking them up by name.
+ */
+final class RuleVariableSlots {
+
+    @Nonnull
+    private final Map<String, Integer> slots;
+
+    @Nonnull
+    private final List<String> names;
+
+    RuleVariableSlots() {
+        this.slots = new HashMap<>();
+        this.names = new ArrayList<>();
+    }
+
+    /**
+     * @return slot of the variable. Variable which has not been
+     * seen before is assigned to the next free slot.
+     */
+    int slot(@Nonnull String name) {
+        Integer slot = slots.get(name);
+        if (slot == null) {
+            slot = names.size();
+            slots.put(name, slot);
+            names.add(name);
+        }
+        return slot;
+    }
+
+    /**
+     * @return slot of the variable, or -1 if variable is not referenced by rules.
+     */
+    int indexOf(@Nonnull String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    @Nonnull
+    String name(int slot) {
+        return names.get(slot);
+    }
+
+    int size() {
+        return names.size();
+    }
+}
@@ -12,15 +12,16 @@ import org.hisp.dhis.rules.models.RuleVariableNewestEvent;
 import org.hisp.dhis.rules.models.RuleVariableNewestStageEvent;
 import org.hisp.dhis.rules.models.RuleVariablePreviousEvent;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -29,7 +30,6 @@ import static org.hisp.dhis.rules.RuleVariableValue.create;
 
 @SuppressWarnings("PMD.GodClass")
 final class RuleVariableValueMapBuilder {
-    private static final String DATE_PATTERN = "yyyy-MM-dd";
     private static final String ENV_VAR_CURRENT_DATE = "current_date";
     private static final String ENV_VAR_EVENT_DATE = "event_date";
     private static final String ENV_VAR_EVENT_COUNT = "event_count";
@@ -41,8 +41,11 @@ final class RuleVariableValueMapBuilder {
     private static final String ENV_VAR_INCIDENT_DATE = "incident_date";
     private static final String ENV_VAR_TEI_COUNT = "tei_count";
 
+    /**
+     * Time zone which dates are formatted in.
+     */
     @Nonnull
-    private final SimpleDateFormat dateFormat;
+    private final TimeZone timeZone;
 
     @Nonnull
     private final Map<String, RuleDataValue> currentEventValues;
@@ -51,13 +54,22 @@ final class RuleVariableValueMapBuilder {
     private final Map<String, RuleAttributeValue> currentEnrollmentValues;
 
     @Nonnull
-    private final Map<String, List<RuleDataValue>> allEventsValues;
+    private final Map<String, RuleDataValueTimeline> allEventsValues;
 
     @Nonnull
     private final List<RuleVariable> ruleVariables;
 
     @Nonnull
-    private final List<RuleEvent> ruleEvents;
+    private final List<RuleEvent> targetEvents;
+
+    @Nonnull
+    private RuleEvents ruleEvents;
+
+    /**
+     * All events sorted by date, as of the latest build.
+     */
+    @Nonnull
+    private List<RuleEvent> sortedEvents;
 
     @Nullable
     private RuleEnrollment ruleEnrollment;
@@ -65,15 +77,27 @@ final class RuleVariableValueMapBuilder {
     @Nullable
     private RuleEvent ruleEvent;
 
+    /**
+     * Names of variables to materialize. If null, all variables are materialized.
+     */
+    @Nullable
+    private Set<String> referencedVariables;
+
+    private boolean targetEnrollment;
+
+    private int eventCount;
+
     private RuleVariableValueMapBuilder() {
-        this.dateFormat = new SimpleDateFormat(DATE_PATTERN, Locale.US);
+        this.timeZone = TimeZone.getDefault();
 
         // collections used for construction of resulting variable value map
         this.currentEnrollmentValues = new HashMap<>();
         this.currentEventValues = new HashMap<>();
         this.allEventsValues = new HashMap<>();
         this.ruleVariables = new ArrayList<>();
-        this.ruleEvents = new ArrayList<>();
+        this.ruleEvents = RuleEvents.empty();
+        this.targetEvents = new ArrayList<>();
+        this.sortedEvents = new ArrayList<>();
     }
 
     private RuleVariableValueMapBuilder(@Nonnull RuleEnrollment ruleEnrollment) {
@@ -81,6 +105,7 @@ final class RuleVariableValueMapBuilder {
 
         // enrollment is the target
         this.ruleEnrollment = ruleEnrollment;
+        this.targetEnrollment = true;
     }
 
     private RuleVariableValueMapBuilder(@Nonnull RuleEvent ruleEvent) {
@@ -90,6 +115,13 @@ final class RuleVariableValueMapBuilder {
         this.ruleEvent = ruleEvent;
     }
 
+    private RuleVariableValueMapBuilder(@Nonnull List<RuleEvent> ruleEvents) {
+        this();
+
+        // all events are targets
+        this.targetEvents.addAll(ruleEvents);
+    }
+
     @Nonnull
     static RuleVariableValueMapBuilder target(@Nonnull RuleEnrollment ruleEnrollment) {
         return new RuleVariableValueMapBuilder(ruleEnrollment);
@@ -100,12 +132,45 @@ final class RuleVariableValueMapBuilder {
         return new RuleVariableValueMapBuilder(ruleEvent);
     }
 
+    /**
+     * Each of the events is evaluated against the rest of events
+     * in the list along with contextual events and enrollment.
+     * Value maps can be built only through {@link #multipleBuild()}.
+     */
+    @Nonnull
+    static RuleVariableValueMapBuilder target(@Nonnull List<RuleEvent> ruleEvents) {
+        return new RuleVariableValueMapBuilder(ruleEvents);
+    }
+
+    /**
+     * Both enrollment and events are targets. Enrollment is used as
+     * contextual enrollment for events, while events are part of the
+     * context for the enrollment and for each other.
+     */
+    @Nonnull
+    static RuleVariableValueMapBuilder target(@Nonnull RuleEnrollment ruleEnrollment,
+            @Nonnull List<RuleEvent> ruleEvents) {
+        RuleVariableValueMapBuilder builder = new RuleVariableValueMapBuilder(ruleEnrollment);
+        builder.targetEvents.addAll(ruleEvents);
+        return builder;
+    }
+
     @Nonnull
     RuleVariableValueMapBuilder ruleVariables(@Nonnull List<RuleVariable> ruleVariables) {
         this.ruleVariables.addAll(ruleVariables);
         return this;
     }
 
+    /**
+     * Restricts value maps to variables which are referenced by rules. Both rule
+     * variables and environment variables outside of the given set are skipped.
+     */
+    @Nonnull
+    RuleVariableValueMapBuilder referencedVariables(@Nonnull Set<String> referencedVariables) {
+        this.referencedVariables = referencedVariables;
+        return this;
+    }
+
     @Nonnull
     RuleVariableValueMapBuilder ruleEnrollment(@Nullable RuleEnrollment ruleEnrollment) {
         if (this.ruleEnrollment != null) {
@@ -119,18 +184,33 @@ final class RuleVariableValueMapBuilder {
 
     @Nonnull
     RuleVariableValueMapBuilder ruleEvents(@Nonnull List<RuleEvent> ruleEvents) {
-        if (isEventInList(ruleEvents, ruleEvent)) {
+        return ruleEvents(RuleEvents.create(ruleEvents));
+    }
+
+    @Nonnull
+    RuleVariableValueMapBuilder ruleEvents(@Nonnull RuleEvents ruleEvents) {
+        if (ruleEvent != null && ruleEvents.contains(ruleEvent.event())) {
             throw new IllegalStateException(String.format(Locale.US, "ruleEvent %s is already set " +
                     "as a target, but also present in the context: ruleEvents list", ruleEvent.event()));
         }
 
-        this.ruleEvents.addAll(ruleEvents);
+        for (int i = 0; i < targetEvents.size(); i++) {
+            if (ruleEvents.contains(targetEvents.get(i).event())) {
+                throw new IllegalStateException(String.format(Locale.US, "ruleEvent %s is " +
+                        "already set as a target, but also present in the context: " +
+                        "ruleEvents list", targetEvents.get(i).event()));
+            }
+        }
+
+        this.ruleEvents = ruleEvents;
         return this;
     }
 
     @Nonnull
     Map<String, RuleVariableValue> build() {
-        Map<String, RuleVariableValue> valueMap = new HashMap<>();
+        if (!targetEvents.isEmpty()) {
+            throw new IllegalStateException("Multiple targets are set, use multipleBuild() instead");
+        }
 
         // map tracked entity attributes to values from enrollment
         buildCurrentEnrollmentValues();
@@ -141,32 +221,135 @@ final class RuleVariableValueMapBuilder {
         // map data values within all events to data elements
         buildAllEventValues();
 
+        return buildValueMap();
+    }
+
+    /**
+     * Replaces the target event with its new version, which differs only by value of the
+     * given data element. Timelines of the rest of data elements are kept as they are,
+     * so that values of variables can be re-computed without going through all events.
+     * Can be called only after {@link #build()}.
+     */
+    void updateDataValue(@Nonnull RuleEvent ruleEvent, @Nonnull String dataElement) {
+        if (this.ruleEvent == null || !this.ruleEvent.event().equals(ruleEvent.event())) {
+            throw new IllegalStateException("Data values can be updated only within target event");
+        }
+
+        RuleDataValue previousValue = currentEventValues.get(dataElement);
+
+        // event date is the same, so event keeps its position among sorted events
+        sortedEvents.set(sortedEvents.indexOf(this.ruleEvent), ruleEvent);
+        this.ruleEvent = ruleEvent;
+        buildCurrentEventValues();
+
+        // timelines are never changed in place: candidates of values which
+        // have been built already are views of them, so they have to stay intact
+        RuleDataValue value = currentEventValues.get(dataElement);
+        RuleDataValueTimeline timeline = allEventsValues.get(dataElement);
+        if (previousValue != null && value != null && timeline != null) {
+            timeline = timeline.replace(previousValue, value);
+            if (timeline != null) {
+                allEventsValues.put(dataElement, timeline);
+                return;
+            }
+        }
+
+        // value has been added or removed: only timeline of the data element is rebuilt
+        timeline = new RuleDataValueTimeline(sortedEvents.size());
+        for (int i = 0; i < sortedEvents.size(); i++) {
+            RuleEvent event = sortedEvents.get(i);
+
+            for (int j = 0; j < event.dataValues().size(); j++) {
+                if (event.dataValues().get(j).dataElement().equals(dataElement)) {
+                    timeline.append(event.dataValues().get(j), event.eventDate().getTime());
+                }
+            }
+        }
+
+        allEventsValues.put(dataElement, timeline);
+    }
+
+    /**
+     * Replaces the enrollment with its new version, which differs only by attribute values.
+     * Can be called only after {@link #build()}.
+     */
+    void updateAttributeValues(@Nonnull RuleEnrollment ruleEnrollment) {
+        if (this.ruleEnrollment == null ||
+                !this.ruleEnrollment.enrollment().equals(ruleEnrollment.enrollment())) {
+            throw new IllegalStateException("Attribute values can be updated only within enrollment");
+        }
+
+        this.ruleEnrollment = ruleEnrollment;
+        buildCurrentEnrollmentValues();
+    }
+
+    /**
+     * @return values of the given variables, as of the latest build or update.
+     * Environment variables are left out, since they don't depend on values.
+     */
+    @Nonnull
+    Map<String, RuleVariableValue> buildValues(@Nonnull List<RuleVariable> ruleVariables) {
+        Map<String, RuleVariableValue> valueMap = new HashMap<>();
+        buildRuleVariableValues(valueMap, ruleVariables);
+        return Collections.unmodifiableMap(valueMap);
+    }
+
+    /**
+     * Builds value maps for all targets, sharing aggregated values of
+     * events and enrollment across them.
+     *
+     * @return value maps keyed by uid of target event or enrollment.
+     * Enrollment (if it is a target) goes first, followed by events
+     * in the order they were supplied.
+     */
+    @Nonnull
+    Map<String, Map<String, RuleVariableValue>> multipleBuild() {
+        Map<String, Map<String, RuleVariableValue>> valueMaps = new LinkedHashMap<>();
+
+        // map tracked entity attributes to values from enrollment
+        buildCurrentEnrollmentValues();
+
+        // map data values within all events (including targets) to data elements
+        buildAllEventValues();
+
+        if (targetEnrollment && ruleEnrollment != null) {
+            valueMaps.put(ruleEnrollment.enrollment(), buildValueMap());
+        }
+
+        for (int i = 0; i < targetEvents.size(); i++) {
+            ruleEvent = targetEvents.get(i);
+
+            // build a map of current event values
+            buildCurrentEventValues();
+
+            valueMaps.put(ruleEvent.event(), buildValueMap());
+        }
+
+        ruleEvent = null;
+        return Collections.unmodifiableMap(valueMaps);
+    }
+
+    @Nonnull
+    private Map<String, RuleVariableValue> buildValueMap() {
+        Map<String, RuleVariableValue> valueMap = new HashMap<>();
+
         // set environment variables
         buildEnvironmentVariables(valueMap);
 
         // set metadata variables
-        buildRuleVariableValues(valueMap);
+        buildRuleVariableValues(valueMap, ruleVariables);
 
         // do not let outer world to alter variable value map
         return Collections.unmodifiableMap(valueMap);
     }
 
-    private static boolean isEventInList(@Nonnull List<RuleEvent> ruleEvents,
-            @Nullable RuleEvent ruleEvent) {
-        if (ruleEvent != null) {
-            for (int i = 0; i < ruleEvents.size(); i++) {
-                RuleEvent event = ruleEvents.get(i);
-
-                if (event.event().equals(ruleEvent.event())) {
-                    return true;
-                }
-            }
-        }
-
-        return false;
+    private boolean isReferenced(@Nonnull String variable) {
+        return referencedVariables == null || referencedVariables.contains(variable);
     }
 
     private void buildCurrentEventValues() {
+        currentEventValues.clear();
+
         if (ruleEvent != null) {
             for (int index = 0; index < ruleEvent.dataValues().size(); index++) {
                 RuleDataValue ruleDataValue = ruleEvent.dataValues().get(index);
@@ -176,6 +359,8 @@ final class RuleVariableValueMapBuilder {
     }
 
     private void buildCurrentEnrollmentValues() {
+        currentEnrollmentValues.clear();
+
         if (ruleEnrollment != null) {
             List<RuleAttributeValue> ruleAttributeValues = ruleEnrollment.attributeValues();
             for (int index = 0; index < ruleAttributeValues.size(); index++) {
@@ -186,83 +371,130 @@ final class RuleVariableValueMapBuilder {
     }
 
     private void buildAllEventValues() {
-        List<RuleEvent> events = new ArrayList<>(ruleEvents);
-
-        if (ruleEvent != null) {
+        List<RuleEvent> events;
+
+        if (!targetEvents.isEmpty()) {
+            // the batch of target events is merged with
+            // contextual events and sorted by eventDate
+            events = new ArrayList<>(ruleEvents.size() + targetEvents.size());
+            events.addAll(ruleEvents.events());
+            events.addAll(targetEvents);
+            Collections.sort(events, RuleEvent.EVENT_DATE_COMPARATOR);
+        } else if (ruleEvent != null) {
             // target event should be among the list of all
             // events in order to achieve correct behavior
-            events.add(ruleEvent);
+            events = ruleEvents.sortedEvents(ruleEvent);
+        } else {
+            // contextual events are sorted upfront
+            events = ruleEvents.sortedEvents();
         }
 
-        // sort list of events by eventDate:
-        Collections.sort(events, RuleEvent.EVENT_DATE_COMPARATOR);
+        sortedEvents = events;
+        eventCount = events.size();
 
-        // aggregating values by data element uid
+        // aggregating values by data element uid into timelines, which
+        // are shared by all variables and targets of this builder
         for (int i = 0; i < events.size(); i++) {
             RuleEvent ruleEvent = events.get(i);
+            long eventDate = ruleEvent.eventDate().getTime();
 
             for (int j = 0; j < ruleEvent.dataValues().size(); j++) {
                 RuleDataValue ruleDataValue = ruleEvent.dataValues().get(j);
 
-                // push new list if it is not there for the given data element
-                if (!allEventsValues.containsKey(ruleDataValue.dataElement())) {
-                    allEventsValues.put(ruleDataValue.dataElement(),
-                            new ArrayList<RuleDataValue>(events.size())); //NOPMD
+                // push new timeline if it is not there for the given data element
+                RuleDataValueTimeline timeline = allEventsValues.get(ruleDataValue.dataElement());
+                if (timeline == null) {
+                    timeline = new RuleDataValueTimeline(events.size()); //NOPMD
+                    allEventsValues.put(ruleDataValue.dataElement(), timeline);
                 }
 
-                // append data value to the list
-                allEventsValues.get(ruleDataValue.dataElement()).add(ruleDataValue);
+                // append data value to the timeline
+                timeline.append(ruleDataValue, eventDate);
             }
         }
     }
 
     private void buildEnvironmentVariables(@Nonnull Map<String, RuleVariableValue> valueMap) {
-        String currentDate = dateFormat.format(new Date());
-        valueMap.put(ENV_VAR_CURRENT_DATE, create(currentDate,
-                RuleValueType.TEXT, Arrays.asList(currentDate)));
+        if (isReferenced(ENV_VAR_CURRENT_DATE)) {
+            String currentDate = RuleDates.currentDate(timeZone);
+            valueMap.put(ENV_VAR_CURRENT_DATE, create(currentDate,
+                    RuleValueType.TEXT, Arrays.asList(currentDate)));
+        }
 
-        if (!ruleEvents.isEmpty()) {
-            valueMap.put(ENV_VAR_EVENT_COUNT, create(String.valueOf(ruleEvents.size()),
-                    RuleValueType.NUMERIC, Arrays.asList(String.valueOf(ruleEvents.size()))));
+        if (eventCount > 0 && isReferenced(ENV_VAR_EVENT_COUNT)) {
+            // event count respects target events as well
+            valueMap.put(ENV_VAR_EVENT_COUNT, create(String.valueOf(eventCount),
+                    RuleValueType.NUMERIC, Arrays.asList(String.valueOf(eventCount))));
         }
 
         if (ruleEnrollment != null) {
+            buildEnrollmentEnvironmentVariables(valueMap, ruleEnrollment);
+        }
+
+        if (ruleEvent != null) {
+            buildEventEnvironmentVariables(valueMap, ruleEvent);
+        }
+    }
+
+    private void buildEnrollmentEnvironmentVariables(
+            @Nonnull Map<String, RuleVariableValue> valueMap,
+            @Nonnull RuleEnrollment ruleEnrollment) {
+        if (isReferenced(ENV_VAR_ENROLLMENT_ID)) {
             valueMap.put(ENV_VAR_ENROLLMENT_ID, create(ruleEnrollment.enrollment(),
                     RuleValueType.TEXT, Arrays.asList(ruleEnrollment.enrollment())));
+        }
+
+        if (isReferenced(ENV_VAR_ENROLLMENT_COUNT)) {
             valueMap.put(ENV_VAR_ENROLLMENT_COUNT, create("1",
                     RuleValueType.NUMERIC, Arrays.asList("1")));
+        }
+
+        if (isReferenced(ENV_VAR_TEI_COUNT)) {
             valueMap.put(ENV_VAR_TEI_COUNT, create("1",
                     RuleValueType.NUMERIC, Arrays.asList("1")));
+        }
 
-            String enrollmentDate = dateFormat.format(ruleEnrollment.enrollmentDate());
+        if (isReferenced(ENV_VAR_ENROLLMENT_DATE)) {
+            String enrollmentDate = RuleDates.format(ruleEnrollment.enrollmentDate(), timeZone);
             valueMap.put(ENV_VAR_ENROLLMENT_DATE, create(enrollmentDate,
                     RuleValueType.TEXT, Arrays.asList(enrollmentDate)));
+        }
 
-            String incidentDate = dateFormat.format(ruleEnrollment.incidentDate());
+        if (isReferenced(ENV_VAR_INCIDENT_DATE)) {
+            String incidentDate = RuleDates.format(ruleEnrollment.incidentDate(), timeZone);
             valueMap.put(ENV_VAR_INCIDENT_DATE, create(incidentDate,
                     RuleValueType.TEXT, Arrays.asList(incidentDate)));
         }
+    }
 
-        if (ruleEvent != null) {
-            String eventDate = dateFormat.format(ruleEvent.eventDate());
+    private void buildEventEnvironmentVariables(
+            @Nonnull Map<String, RuleVariableValue> valueMap, @Nonnull RuleEvent ruleEvent) {
+        if (isReferenced(ENV_VAR_EVENT_DATE)) {
+            String eventDate = RuleDates.format(ruleEvent.eventDate(), timeZone);
             valueMap.put(ENV_VAR_EVENT_DATE, create(eventDate, RuleValueType.TEXT,
                     Arrays.asList(eventDate)));
+        }
 
-            String dueDate = dateFormat.format(ruleEvent.dueDate());
+        if (isReferenced(ENV_VAR_DUE_DATE)) {
+            String dueDate = RuleDates.format(ruleEvent.dueDate(), timeZone);
             valueMap.put(ENV_VAR_DUE_DATE, create(dueDate, RuleValueType.TEXT,
                     Arrays.asList(dueDate)));
+        }
 
-            // override value of event count
-            String eventCount = String.valueOf(ruleEvents.size() + 1);
-            valueMap.put(ENV_VAR_EVENT_COUNT, create(eventCount,
-                    RuleValueType.NUMERIC, Arrays.asList(eventCount)));
+        if (isReferenced(ENV_VAR_EVENT_ID)) {
             valueMap.put(ENV_VAR_EVENT_ID, create(ruleEvent.event(),
                     RuleValueType.TEXT, Arrays.asList(ruleEvent.event())));
         }
     }
 
-    private void buildRuleVariableValues(@Nonnull Map<String, RuleVariableValue> valueMap) {
+    private void buildRuleVariableValues(@Nonnull Map<String, RuleVariableValue> valueMap,
+            @Nonnull List<RuleVariable> ruleVariables) {
         for (RuleVariable ruleVariable : ruleVariables) {
+            if (!isReferenced(ruleVariable.name())) {
+                // none of the rules is going to read value of the variable
+                continue;
+            }
+
             if (ruleVariable instanceof RuleVariableAttribute) {
                 RuleVariableAttribute ruleVariableAttribute
                         = (RuleVariableAttribute) ruleVariable;
@@ -336,37 +568,32 @@ final class RuleVariableValueMapBuilder {
             return;
         }
 
-        RuleVariableValue variableValue = null;
-        List<RuleDataValue> ruleDataValues = allEventsValues.get(variable.dataElement());
-        if (ruleDataValues != null && !ruleDataValues.isEmpty()) {
-            for (RuleDataValue ruleDataValue : ruleDataValues) {
-                // We found preceding value to the current currentEventValues,
-                // which is assumed to be best candidate.
-                if (ruleEvent.eventDate().compareTo(ruleDataValue.eventDate()) > 0) {
-                    variableValue = create(ruleDataValue.value(), variable.dataElementType(),
-                            Utils.values(ruleDataValues));
-                    break;
-                }
-            }
+        RuleDataValue ruleDataValue = null;
+        RuleDataValueTimeline timeline = allEventsValues.get(variable.dataElement());
+        if (timeline != null) {
+            // the newest value which precedes the current event
+            // is assumed to be the best candidate
+            ruleDataValue = timeline.previous(ruleEvent.eventDate().getTime());
         }
 
-        if (variableValue == null) {
-            variableValue = create(variable.dataElementType());
+        if (ruleDataValue == null) {
+            valueMap.put(variable.name(), create(variable.dataElementType()));
+        } else {
+            valueMap.put(variable.name(), create(ruleDataValue.value(),
+                    variable.dataElementType(), timeline.values()));
         }
-
-        valueMap.put(variable.name(), variableValue);
     }
 
     private void createNewestEventVariableValue(
             @Nonnull Map<String, RuleVariableValue> valueMap,
             @Nonnull RuleVariableNewestEvent variable) {
 
-        List<RuleDataValue> ruleDataValues = allEventsValues.get(variable.dataElement());
-        if (ruleDataValues == null || ruleDataValues.isEmpty()) {
+        RuleDataValueTimeline timeline = allEventsValues.get(variable.dataElement());
+        if (timeline == null || timeline.isEmpty()) {
             valueMap.put(variable.name(), create(variable.dataElementType()));
         } else {
-            valueMap.put(variable.name(), create(ruleDataValues.get(0).value(),
-                    variable.dataElementType(), Utils.values(ruleDataValues)));
+            valueMap.put(variable.name(), create(timeline.newest().value(),
+                    variable.dataElementType(), timeline.values()));
         }
     }
 
@@ -374,24 +601,17 @@ final class RuleVariableValueMapBuilder {
             @Nonnull Map<String, RuleVariableValue> valueMap,
             @Nonnull RuleVariableNewestStageEvent variable) {
 
-        List<RuleDataValue> stageRuleDataValues = new ArrayList<>();
-        List<RuleDataValue> sourceRuleDataValues = allEventsValues.get(variable.dataElement());
-        if (sourceRuleDataValues != null && !sourceRuleDataValues.isEmpty()) {
-
-            // filter data values based on program stage
-            for (int i = 0; i < sourceRuleDataValues.size(); i++) {
-                RuleDataValue ruleDataValue = sourceRuleDataValues.get(i);
-                if (variable.programStage().equals(ruleDataValue.programStage())) {
-                    stageRuleDataValues.add(ruleDataValue);
-                }
-            }
+        RuleDataValueTimeline timeline = allEventsValues.get(variable.dataElement());
+        if (timeline != null) {
+            // values within the program stage, indexed once per timeline
+            timeline = timeline.stage(variable.programStage());
         }
 
-        if (stageRuleDataValues.isEmpty()) {
+        if (timeline == null || timeline.isEmpty()) {
             valueMap.put(variable.name(), create(variable.dataElementType()));
         } else {
-            valueMap.put(variable.name(), create(stageRuleDataValues.get(0).value(),
-                    variable.dataElementType(), Utils.values(stageRuleDataValues)));
+            valueMap.put(variable.name(), create(timeline.newest().value(),
+                    variable.dataElementType(), timeline.values()));
         }
     }
 }
@@ -2,34 +2,100 @@ package org.hisp.dhis.rules.functions;
 
 import org.hisp.dhis.rules.RuleVariableValue;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+/**
+ * Native implementation of 'd2:' function. Functions are stateless, so
+ * there is only one instance of each, which can be shared across threads.
+ */
 public abstract class RuleFunction {
-    static final String DATE_PATTERN = "yyyy-MM-dd";
+
+    /**
+     * Registry of all supported functions keyed by name, including 'd2:' prefix.
+     */
+    private static final Map<String, RuleFunction> FUNCTIONS = functions();
 
     @Nonnull
     public abstract String evaluate(@Nonnull List<String> arguments,
             Map<String, RuleVariableValue> valueMap);
 
+    /**
+     * @return shared instance of the function, or null if function is not supported.
+     */
     @Nullable
     public static RuleFunction create(@Nonnull String fun) {
-        switch (fun) {
-            case RuleFunctionDaysBetween.D2_DAYS_BETWEEN:
-                return RuleFunctionDaysBetween.create();
-            case RuleFunctionWeeksBetween.D2_WEEKS_BETWEEN:
-                return RuleFunctionWeeksBetween.create();
-            case RuleFunctionHasValue.D2_HAS_VALUE:
-                return RuleFunctionHasValue.create();
-            case RuleFunctionFloor.D2_FLOOR:
-                return RuleFunctionFloor.create();
-            case RuleFunctionCeil.D2_CEIL:
-                return RuleFunctionCeil.create();
-            default:
-                return null;
+        return FUNCTIONS.get(fun);
+    }
+
+    @Nonnull
+    private static Map<String, RuleFunction> functions() {
+        Map<String, RuleFunction> functions = new HashMap<>();
+        functions.put(RuleFunctionDaysBetween.D2_DAYS_BETWEEN, RuleFunctionDaysBetween.create());
+        functions.put(RuleFunctionWeeksBetween.D2_WEEKS_BETWEEN, RuleFunctionWeeksBetween.create());
+        functions.put(RuleFunctionMonthsBetween.D2_MONTHS_BETWEEN, RuleFunctionMonthsBetween.create());
+        functions.put(RuleFunctionYearsBetween.D2_YEARS_BETWEEN, RuleFunctionYearsBetween.create());
+        functions.put(RuleFunctionAddDays.D2_ADD_DAYS, RuleFunctionAddDays.create());
+        functions.put(RuleFunctionHasValue.D2_HAS_VALUE, RuleFunctionHasValue.create());
+        functions.put(RuleFunctionCount.D2_COUNT, RuleFunctionCount.create());
+        functions.put(RuleFunctionCountIfValue.D2_COUNT_IF_VALUE, RuleFunctionCountIfValue.create());
+        functions.put(RuleFunctionCountIfZeroPos.D2_COUNT_IF_ZERO_POS, RuleFunctionCountIfZeroPos.create());
+        functions.put(RuleFunctionFloor.D2_FLOOR, RuleFunctionFloor.create());
+        functions.put(RuleFunctionCeil.D2_CEIL, RuleFunctionCeil.create());
+        functions.put(RuleFunctionRound.D2_ROUND, RuleFunctionRound.create());
+        functions.put(RuleFunctionModulus.D2_MODULUS, RuleFunctionModulus.create());
+        functions.put(RuleFunctionZing.D2_ZING, RuleFunctionZing.create());
+        functions.put(RuleFunctionOizp.D2_OIZP, RuleFunctionOizp.create());
+        functions.put(RuleFunctionConcatenate.D2_CONCATENATE, RuleFunctionConcatenate.create());
+        functions.put(RuleFunctionLeft.D2_LEFT, RuleFunctionLeft.create());
+        functions.put(RuleFunctionRight.D2_RIGHT, RuleFunctionRight.create());
+        functions.put(RuleFunctionSubstring.D2_SUBSTRING, RuleFunctionSubstring.create());
+        functions.put(RuleFunctionValidatePattern.D2_VALIDATE_PATTERN, RuleFunctionValidatePattern.create());
+        return Collections.unmodifiableMap(functions);
+    }
+
+    /**
+     * @return number parsed from the text, or default value if text is not a number.
+     */
+    static double toNumber(@Nullable String value, double defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException numberFormatException) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @return number formatted as in JavaScript: integers without fraction part.
+     */
+    @Nonnull
+    static String fromNumber(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return String.valueOf((long) value);
+        }
+
+        return Double.toString(value);
+    }
+
+    /**
+     * @return value of the variable which is referenced by name (optionally quoted).
+     */
+    @Nonnull
+    static RuleVariableValue variableValue(@Nonnull String variable,
+            @Nonnull Map<String, RuleVariableValue> valueMap) {
+        RuleVariableValue variableValue = valueMap.get(variable.replace("'", ""));
+        if (variableValue == null) {
+            throw new IllegalArgumentException("Unknown variable: " + variable);
         }
+        return variableValue;
     }
 }
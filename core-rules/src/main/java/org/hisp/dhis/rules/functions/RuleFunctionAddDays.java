@@ -0,0 +1,31 @@
+package org.hisp.dhis.rules.functions;
+
+import org.hisp.dhis.rules.RuleDates;
+import org.hisp.dhis.rules.RuleVariableValue;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+final class RuleFunctionAddDays extends RuleFunction {
+    static final String D2_ADD_DAYS = "d2:addDays";
+
+    @Nonnull
+    static RuleFunctionAddDays create() {
+        return new RuleFunctionAddDays();
+    }
+
+    @Nonnull
+    @Override
+    public String evaluate(@Nonnull List<String> arguments,
+            Map<String, RuleVariableValue> valueMap) {
+        if (arguments.size() != 2) {
+            throw new IllegalArgumentException("Two arguments were expected, " +
+                    arguments.size() + " were supplied");
+        }
+
+        return RuleDates.format(RuleDates.parse(arguments.get(0)) +
+                (int) toNumber(arguments.get(1), 0.0));
+    }
+}
@@ -0,0 +1,28 @@
+package org.hisp.dhis.rules.functions;
+
+import org.hisp.dhis.rules.RuleVariableValue;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+final class RuleFunctionConcatenate extends RuleFunction {
+    static final String D2_CONCATENATE = "d2:concatenate";
+
+    @Nonnull
+    static RuleFunctionConcatenate create() {
+        return new RuleFunctionConcatenate();
+    }
+
+    @Nonnull
+    @Override
+    public String evaluate(@Nonnull List<String> arguments,
+            Map<String, RuleVariableValue> valueMap) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < arguments.size(); i++) {
+            builder.append(arguments.get(i));
+        }
+        return builder.toString();
+    }
+}
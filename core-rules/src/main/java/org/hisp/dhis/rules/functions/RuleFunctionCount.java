@@ -0,0 +1,32 @@
+package org.hisp.dhis.rules.functions;
+
+import org.hisp.dhis.rules.RuleVariableValue;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Number of values which have been entered for the variable.
+ */
+final class RuleFunctionCount extends RuleFunction {
+    static final String D2_COUNT = "d2:count";
+
+    @Nonnull
+    static RuleFunctionCount create() {
+        return new RuleFunctionCount();
+    }
+
+    @Nonnull
+    @Override
+    public String evaluate(@Nonnull List<String> arguments,
+            Map<String, RuleVariableValue> valueMap) {
+        if (arguments.size() != 1) {
+            throw new IllegalArgumentException("One argument was expected, " +
+                    arguments.size() + " were supplied");
+        }
+
+        return String.valueOf(variableValue(arguments.get(0), valueMap).candidates().size());
+    }
+}
@@ -0,0 +1,52 @@
+package org.hisp.dhis.rules.functions;
+
+import org.hisp.dhis.rules.RuleVariableValue;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Number of values of the variable which match the given one.
+ */
+final class RuleFunctionCountIfValue extends RuleFunction {
+    static final String D2_COUNT_IF_VALUE = "d2:countIfValue";
+
+    @Nonnull
+    static RuleFunctionCountIfValue create() {
+        return new RuleFunctionCountIfValue();
+    }
+
+    @Nonnull
+    @Override
+    public String evaluate(@Nonnull List<String> arguments,
+            Map<String, RuleVariableValue> valueMap) {
+        if (arguments.size() != 2) {
+            throw new IllegalArgumentException("Two arguments were expected, " +
+                    arguments.size() + " were supplied");
+        }
+
+        List<String> candidates = variableValue(arguments.get(0), valueMap).candidates();
+        String value = arguments.get(1);
+
+        int count = 0;
+        for (int i = 0; i < candidates.size(); i++) {
+            if (isEqual(candidates.get(i), value)) {
+                count++;
+            }
+        }
+
+        return String.valueOf(count);
+    }
+
+    private static boolean isEqual(@Nonnull String candidate, @Nonnull String value) {
+        if (candidate.equals(value)) {
+            return true;
+        }
+
+        // numbers are compared by value: '5' and '5.0' are the same
+        double number = toNumber(candidate, Double.NaN);
+        return !Double.isNaN(number) && number == toNumber(value, Double.NaN);
+    }
+}
@@ -0,0 +1,41 @@
+package org.hisp.dhis.rules.functions;
+
+import org.hisp.dhis.rules.RuleVariableValue;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Number of values of the variable which are either zero or positive.
+ */
+final class RuleFunctionCountIfZeroPos extends RuleFunction {
+    static final String D2_COUNT_IF_ZERO_POS = "d2:countIfZeroPos";
+
+    @Nonnull
+    static RuleFunctionCountIfZeroPos create() {
+        return new RuleFunctionCountIfZeroPos();
+    }
+
+    @Nonnull
+    @Override
+    public String evaluate(@Nonnull List<String> arguments,
+            Map<String, RuleVariableValue> valueMap) {
+        if (arguments.size() != 1) {
+            throw new IllegalArgumentException("One argument was expected, " +
+                    arguments.size() + " were supplied");
+        }
+
+        List<String> candidates = variableValue(arguments.get(0), valueMap).candidates();
+
+        int count = 0;
+        for (int i = 0; i < candidates.size(); i++) {
+            if (toNumber(candidates.get(i), -1.0) >= 0.0) {
+                count++;
+            }
+        }
+
+        return String.valueOf(count);
+    }
+}
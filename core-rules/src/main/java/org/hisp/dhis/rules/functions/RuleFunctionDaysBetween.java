@@ -2,11 +2,9 @@ package org.hisp.dhis.rules.functions;
 
 import com.google.auto.value.AutoValue;
 
+import org.hisp.dhis.rules.RuleDates;
 import org.hisp.dhis.rules.RuleVariableValue;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
@@ -40,18 +38,7 @@ abstract class RuleFunctionDaysBetween extends RuleFunction {
      * @param end   the end date.
      * @return number of days between dates.
      */
-    @SuppressWarnings("PMD.UnnecessaryWrapperObjectCreation")
-    static Integer daysBetween(String start, String end) {
-        SimpleDateFormat format = new SimpleDateFormat();
-        format.applyPattern(DATE_PATTERN);
-
-        try {
-            Date startDate = format.parse(start);
-            Date endDate = format.parse(end);
-
-            return Long.valueOf((endDate.getTime() - startDate.getTime()) / 86400000).intValue();
-        } catch (ParseException parseException) {
-            throw new RuntimeException(parseException);
-        }
+    static int daysBetween(String start, String end) {
+        return RuleDates.parse(end) - RuleDates.parse(start);
     }
 }
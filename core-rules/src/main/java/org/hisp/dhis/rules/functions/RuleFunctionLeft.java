@@ -0,0 +1,31 @@
+package org.hisp.dhis.rules.functions;
+
+import org.hisp.dhis.rules.RuleVariableValue;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+final class RuleFunctionLeft extends RuleFunction {
+    static final String D2_LEFT = "d2:left";
+
+    @Nonnull
+    static RuleFunctionLeft create() {
+        return new RuleFunctionLeft();
+    }
+
+    @Nonnull
+    @Override
+    public String evaluate(@Nonnull List<String> arguments,
+            Map<String, RuleVariableValue> valueMap) {
+        if (arguments.size() != 2) {
+            throw new IllegalArgumentException("Two arguments were expected, " +
+                    arguments.size() + " were supplied");
+        }
+
+        String text = arguments.get(0);
+        int length = (int) toNumber(arguments.get(1), 0.0);
+        return text.substring(0, Math.max(0, Math.min(length, text.length())));
+    }
+}
@@ -0,0 +1,30 @@
+package org.hisp.dhis.rules.functions;
+
+import org.hisp.dhis.rules.RuleVariableValue;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+final class RuleFunctionModulus extends RuleFunction {
+    static final String D2_MODULUS = "d2:modulus";
+
+    @Nonnull
+    static RuleFunctionModulus create() {
+        return new RuleFunctionModulus();
+    }
+
+    @Nonnull
+    @Override
+    public String evaluate(@Nonnull List<String> arguments,
+            Map<String, RuleVariableValue> valueMap) {
+        if (arguments.size() != 2) {
+            throw new IllegalArgumentException("Two arguments were expected, " +
+                    arguments.size() + " were supplied");
+        }
+
+        // remainder takes the sign of dividend, as in JavaScript
+        return fromNumber(toNumber(arguments.get(0), 0.0) % toNumber(arguments.get(1), 0.0));
+    }
+}
@@ -0,0 +1,42 @@
+package org.hisp.dhis.rules.functions;
+
+import org.hisp.dhis.rules.RuleDates;
+import org.hisp.dhis.rules.RuleVariableValue;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+final class RuleFunctionMonthsBetween extends RuleFunction {
+    static final String D2_MONTHS_BETWEEN = "d2:monthsBetween";
+
+    @Nonnull
+    static RuleFunctionMonthsBetween create() {
+        return new RuleFunctionMonthsBetween();
+    }
+
+    @Nonnull
+    @Override
+    public String evaluate(@Nonnull List<String> arguments,
+            Map<String, RuleVariableValue> valueMap) {
+        if (arguments.size() != 2) {
+            throw new IllegalArgumentException("Two arguments were expected, " +
+                    arguments.size() + " were supplied");
+        }
+
+        return String.valueOf(monthsBetween(arguments.get(0), arguments.get(1)));
+    }
+
+    /**
+     * Function which will return the number of whole months between the two given dates.
+     * Month is counted only once the day of month of the start date has been reached.
+     *
+     * @param start the start date.
+     * @param end   the end date.
+     * @return number of months between dates.
+     */
+    static int monthsBetween(String start, String end) {
+        return RuleDates.monthsBetween(RuleDates.parse(start), RuleDates.parse(end));
+    }
+}
@@ -0,0 +1,32 @@
+package org.hisp.dhis.rules.functions;
+
+import org.hisp.dhis.rules.RuleVariableValue;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * One if the number is zero or positive, zero otherwise.
+ */
+final class RuleFunctionOizp extends RuleFunction {
+    static final String D2_OIZP = "d2:oizp";
+
+    @Nonnull
+    static RuleFunctionOizp create() {
+        return new RuleFunctionOizp();
+    }
+
+    @Nonnull
+    @Override
+    public String evaluate(@Nonnull List<String> arguments,
+            Map<String, RuleVariableValue> valueMap) {
+        if (arguments.size() != 1) {
+            throw new IllegalArgumentException("One argument was expected, " +
+                    arguments.size() + " were supplied");
+        }
+
+        return toNumber(arguments.get(0), -1.0) >= 0.0 ? "1" : "0";
+    }
+}
@@ -0,0 +1,29 @@
+package org.hisp.dhis.rules.functions;
+
+import org.hisp.dhis.rules.RuleVariableValue;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+final class RuleFunctionRound extends RuleFunction {
+    static final String D2_ROUND = "d2:round";
+
+    @Nonnull
+    static RuleFunctionRound create() {
+        return new RuleFunctionRound();
+    }
+
+    @Nonnull
+    @Override
+    public String evaluate(@Nonnull List<String> arguments,
+            Map<String, RuleVariableValue> valueMap) {
+        if (arguments.size() != 1) {
+            throw new IllegalArgumentException("One argument was expected, " +
+                    arguments.size() + " were supplied");
+        }
+
+        return String.valueOf(Math.round(toNumber(arguments.get(0), 0.0)));
+    }
+}
@@ -0,0 +1,42 @@
+package org.hisp.dhis.rules.functions;
+
+import org.hisp.dhis.rules.RuleVariableValue;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Part of the text between start (inclusive) and end (exclusive) indexes. Out
+ * of range indexes are clamped to the text, as in JavaScript.
+ */
+final class RuleFunctionSubstring extends RuleFunction {
+    static final String D2_SUBSTRING = "d2:substring";
+
+    @Nonnull
+    static RuleFunctionSubstring create() {
+        return new RuleFunctionSubstring();
+    }
+
+    @Nonnull
+    @Override
+    public String evaluate(@Nonnull List<String> arguments,
+            Map<String, RuleVariableValue> valueMap) {
+        if (arguments.size() != 3) {
+            throw new IllegalArgumentException("Three arguments were expected, " +
+                    arguments.size() + " were supplied");
+        }
+
+        String text = arguments.get(0);
+        int start = clamp((int) toNumber(arguments.get(1), 0.0), text.length());
+        int end = clamp((int) toNumber(arguments.get(2), 0.0), text.length());
+
+        // arguments are swapped if start is greater than end
+        return text.substring(Math.min(start, end), Math.max(start, end));
+    }
+
+    private static int clamp(int index, int length) {
+        return Math.max(0, Math.min(index, length));
+    }
+}
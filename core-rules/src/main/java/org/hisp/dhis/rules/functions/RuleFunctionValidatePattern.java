@@ -0,0 +1,72 @@
+package org.hisp.dhis.rules.functions;
+
+import org.hisp.dhis.rules.RuleVariableValue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Whether the whole text matches the regular expression. Patterns are compiled once,
+ * since the same few patterns of program rules are validated on every evaluation. Number
+ * of kept patterns is capped: once the cap is reached, new patterns are compiled per call.
+ */
+final class RuleFunctionValidatePattern extends RuleFunction {
+    static final String D2_VALIDATE_PATTERN = "d2:validatePattern";
+
+    private static final int MAXIMUM_PATTERNS = 64;
+
+    @Nonnull
+    private final ConcurrentMap<String, Pattern> patterns;
+
+    private RuleFunctionValidatePattern() {
+        // function is shared across threads
+        this.patterns = new ConcurrentHashMap<>();
+    }
+
+    @Nonnull
+    static RuleFunctionValidatePattern create() {
+        return new RuleFunctionValidatePattern();
+    }
+
+    @Nonnull
+    @Override
+    public String evaluate(@Nonnull List<String> arguments,
+            Map<String, RuleVariableValue> valueMap) {
+        if (arguments.size() != 2) {
+            throw new IllegalArgumentException("Two arguments were expected, " +
+                    arguments.size() + " were supplied");
+        }
+
+        return String.valueOf(pattern(arguments.get(1)).matcher(arguments.get(0)).matches());
+    }
+
+    @Nonnull
+    Pattern pattern(@Nonnull String regex) {
+        Pattern pattern = patterns.get(regex);
+        if (pattern != null) {
+            return pattern;
+        }
+
+        try {
+            pattern = Pattern.compile(regex);
+        } catch (PatternSyntaxException patternSyntaxException) {
+            throw new IllegalArgumentException("Malformed pattern: " + regex, patternSyntaxException);
+        }
+
+        // cap is approximate under concurrent calls, which is fine for a bound on memory
+        if (patterns.size() < MAXIMUM_PATTERNS) {
+            Pattern existingPattern = patterns.putIfAbsent(regex, pattern);
+            if (existingPattern != null) {
+                return existingPattern;
+            }
+        }
+
+        return pattern;
+    }
+}
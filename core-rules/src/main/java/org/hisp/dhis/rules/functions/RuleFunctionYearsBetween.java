@@ -0,0 +1,31 @@
+package org.hisp.dhis.rules.functions;
+
+import org.hisp.dhis.rules.RuleVariableValue;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import static org.hisp.dhis.rules.functions.RuleFunctionMonthsBetween.monthsBetween;
+
+final class RuleFunctionYearsBetween extends RuleFunction {
+    static final String D2_YEARS_BETWEEN = "d2:yearsBetween";
+
+    @Nonnull
+    static RuleFunctionYearsBetween create() {
+        return new RuleFunctionYearsBetween();
+    }
+
+    @Nonnull
+    @Override
+    public String evaluate(@Nonnull List<String> arguments,
+            Map<String, RuleVariableValue> valueMap) {
+        if (arguments.size() != 2) {
+            throw new IllegalArgumentException("Two arguments were expected, " +
+                    arguments.size() + " were supplied");
+        }
+
+        return String.valueOf(monthsBetween(arguments.get(0), arguments.get(1)) / 12);
+    }
+}
@@ -0,0 +1,33 @@
+package org.hisp.dhis.rules.functions;
+
+import org.hisp.dhis.rules.RuleVariableValue;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Zero if the number is negative, the number itself otherwise.
+ */
+final class RuleFunctionZing extends RuleFunction {
+    static final String D2_ZING = "d2:zing";
+
+    @Nonnull
+    static RuleFunctionZing create() {
+        return new RuleFunctionZing();
+    }
+
+    @Nonnull
+    @Override
+    public String evaluate(@Nonnull List<String> arguments,
+            Map<String, RuleVariableValue> valueMap) {
+        if (arguments.size() != 1) {
+            throw new IllegalArgumentException("One argument was expected, " +
+                    arguments.size() + " were supplied");
+        }
+
+        double value = toNumber(arguments.get(0), 0.0);
+        return fromNumber(value < 0.0 ? 0.0 : value);
+    }
+}
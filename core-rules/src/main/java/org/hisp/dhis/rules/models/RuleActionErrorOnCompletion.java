@@ -16,6 +16,7 @@ public abstract class RuleActionErrorOnCompletion extends RuleActionMessage {
                     " must not be null at the same time");
         }
 
-        return new AutoValue_RuleActionErrorOnCompletion(content, data, field);
+        return new AutoValue_RuleActionErrorOnCompletion(content == null ? "" : content,
+                data == null ? "" : data, field == null ? "" : field);
     }
 }
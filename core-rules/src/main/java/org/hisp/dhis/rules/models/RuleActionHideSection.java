@@ -11,7 +11,7 @@ public abstract class RuleActionHideSection extends RuleAction {
     public abstract String programStageSection();
 
     @Nonnull
-    public static AutoValue_RuleActionHideSection create(@Nonnull String section) {
+    public static RuleActionHideSection create(@Nonnull String section) {
         return new AutoValue_RuleActionHideSection(section);
     }
 }
@@ -0,0 +1,112 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.RuleDataValue;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Date;
+
+import static junit.framework.TestCase.fail;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class RuleDataValueTimelineTests {
+    private RuleDataValue newest;
+    private RuleDataValue middle;
+    private RuleDataValue sameDate;
+    private RuleDataValue oldest;
+
+    private RuleDataValueTimeline timeline;
+
+    @Before
+    public void setUp() throws Exception {
+        newest = RuleDataValue.create(new Date(400), "test_program_stage_one",
+                "test_data_element", "test_value_newest");
+        middle = RuleDataValue.create(new Date(300), "test_program_stage_two",
+                "test_data_element", "test_value_middle");
+        sameDate = RuleDataValue.create(new Date(300), "test_program_stage_one",
+                "test_data_element", "test_value_same_date");
+        oldest = RuleDataValue.create(new Date(100), "test_program_stage_two",
+                "test_data_element", "test_value_oldest");
+
+        timeline = new RuleDataValueTimeline(2);
+        timeline.append(newest, 400);
+        timeline.append(middle, 300);
+        timeline.append(sameDate, 300);
+        timeline.append(oldest, 100);
+    }
+
+    @Test
+    public void previousShouldReturnFirstValueStrictlyBeforeDate() {
+        assertThat(timeline.previous(500)).isEqualTo(newest);
+        assertThat(timeline.previous(400)).isEqualTo(middle);
+        assertThat(timeline.previous(301)).isEqualTo(middle);
+        assertThat(timeline.previous(300)).isEqualTo(oldest);
+        assertThat(timeline.previous(101)).isEqualTo(oldest);
+        assertThat(timeline.previous(100)).isNull();
+    }
+
+    @Test
+    public void emptyTimelineShouldNotReturnValues() {
+        RuleDataValueTimeline emptyTimeline = new RuleDataValueTimeline(0);
+
+        assertThat(emptyTimeline.isEmpty()).isTrue();
+        assertThat(emptyTimeline.newest()).isNull();
+        assertThat(emptyTimeline.previous(Long.MAX_VALUE)).isNull();
+        assertThat(emptyTimeline.values()).isEmpty();
+    }
+
+    @Test
+    public void valuesShouldBeViewOfTimeline() {
+        RuleDataValueTimeline growingTimeline = new RuleDataValueTimeline(1);
+        growingTimeline.append(newest, 400);
+
+        assertThat(growingTimeline.newest()).isEqualTo(newest);
+        assertThat(growingTimeline.values()).containsExactly("test_value_newest");
+
+        growingTimeline.append(oldest, 100);
+
+        assertThat(growingTimeline.values()).containsExactly(
+                "test_value_newest", "test_value_oldest");
+    }
+
+    @Test
+    public void valuesShouldBeReadOnly() {
+        try {
+            timeline.values().add("test_value");
+            fail("UnsupportedOperationException was expected, but nothing was thrown.");
+        } catch (UnsupportedOperationException unsupportedOperationException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void stageShouldKeepOrderOfValues() {
+        RuleDataValueTimeline stageOne = timeline.stage("test_program_stage_one");
+        RuleDataValueTimeline stageTwo = timeline.stage("test_program_stage_two");
+
+        assertThat(stageOne.newest()).isEqualTo(newest);
+        assertThat(stageOne.values()).containsExactly(
+                "test_value_newest", "test_value_same_date");
+        assertThat(stageOne.previous(400)).isEqualTo(sameDate);
+
+        assertThat(stageTwo.newest()).isEqualTo(middle);
+        assertThat(stageTwo.values()).containsExactly(
+                "test_value_middle", "test_value_oldest");
+
+        assertThat(timeline.stage("test_program_stage_one")).isSameAs(stageOne);
+        assertThat(timeline.stage("test_program_stage_three").isEmpty()).isTrue();
+    }
+
+    @Test
+    public void appendShouldThrowOnValuesOutOfOrder() {
+        try {
+            timeline.append(newest, 200);
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+}
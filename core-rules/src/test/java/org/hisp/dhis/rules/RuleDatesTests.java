@@ -0,0 +1,89 @@
+package org.hisp.dhis.rules;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.fail;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class RuleDatesTests {
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    @Test
+    public void formatMustMatchSimpleDateFormat() {
+        SimpleDateFormat dateFormat = new SimpleDateFormat(RuleDates.DATE_PATTERN, Locale.US);
+        dateFormat.setTimeZone(UTC);
+
+        // from 1700 to 2300, including leap years and centuries
+        for (int epochDay = -100000; epochDay < 120000; epochDay = epochDay + 13) {
+            String date = dateFormat.format(new Date(TimeUnit.DAYS.toMillis(epochDay)));
+
+            assertThat(RuleDates.format(epochDay)).isEqualTo(date);
+            assertThat(RuleDates.parse(date)).isEqualTo(epochDay);
+        }
+    }
+
+    @Test
+    public void parseMustReturnEpochDay() {
+        assertThat(RuleDates.parse("1970-01-01")).isEqualTo(0);
+        assertThat(RuleDates.parse("1969-12-31")).isEqualTo(-1);
+        assertThat(RuleDates.parse("2000-03-01")).isEqualTo(11017);
+        assertThat(RuleDates.parse("2017-01-01T10:00:00")).isEqualTo(17167);
+    }
+
+    @Test
+    public void parseMustBeLenient() {
+        assertThat(RuleDates.format(RuleDates.parse("2017-02-31"))).isEqualTo("2017-03-03");
+        assertThat(RuleDates.format(RuleDates.parse("2017-1-5"))).isEqualTo("2017-01-05");
+        assertThat(RuleDates.format(RuleDates.parse("2017-13-01"))).isEqualTo("2018-01-01");
+    }
+
+    @Test
+    public void parseMustThrowOnMalformedDate() {
+        try {
+            RuleDates.parse("test_date");
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void formatMustRespectTimeZone() {
+        Date date = new Date(TimeUnit.HOURS.toMillis(23));
+
+        assertThat(RuleDates.format(date, UTC)).isEqualTo("1970-01-01");
+        assertThat(RuleDates.format(date, TimeZone.getTimeZone("GMT+02:00"))).isEqualTo("1970-01-02");
+        assertThat(RuleDates.format(new Date(-1), UTC)).isEqualTo("1969-12-31");
+    }
+
+    @Test
+    public void monthsBetweenMustCountWholeMonths() {
+        assertThat(monthsBetween("2017-01-15", "2017-03-15")).isEqualTo(2);
+        assertThat(monthsBetween("2017-01-15", "2017-03-14")).isEqualTo(1);
+        assertThat(monthsBetween("2016-12-31", "2017-01-01")).isEqualTo(0);
+        assertThat(monthsBetween("2017-03-15", "2017-01-16")).isEqualTo(-1);
+        assertThat(monthsBetween("2000-06-15", "2017-06-15")).isEqualTo(204);
+    }
+
+    @Test
+    public void currentDateMustBeSharedWithinDay() {
+        String currentDate = RuleDates.currentDate(UTC);
+
+        // unless test runs exactly at midnight
+        assertThat(currentDate).isEqualTo(RuleDates.format(new Date(), UTC));
+        assertThat(RuleDates.currentDate(UTC)).isSameAs(currentDate);
+    }
+
+    private static int monthsBetween(String start, String end) {
+        return RuleDates.monthsBetween(RuleDates.parse(start), RuleDates.parse(end));
+    }
+}
@@ -0,0 +1,178 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.Rule;
+import org.hisp.dhis.rules.models.RuleAction;
+import org.hisp.dhis.rules.models.RuleActionAssign;
+import org.hisp.dhis.rules.models.RuleActionDisplayText;
+import org.hisp.dhis.rules.models.RuleValueType;
+import org.hisp.dhis.rules.models.RuleVariable;
+import org.hisp.dhis.rules.models.RuleVariableAttribute;
+import org.hisp.dhis.rules.models.RuleVariableCurrentEvent;
+import org.hisp.dhis.rules.models.RuleVariablePreviousEvent;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static junit.framework.TestCase.fail;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class RuleDependencyGraphTests {
+
+    @Test
+    public void graphShouldMapVariablesToRules() {
+        List<Rule> rules = Arrays.asList(
+                Rule.create(null, null, "#{test_variable_one} > 10 && V{current_date} != ''",
+                        Collections.<RuleAction>emptyList()),
+                Rule.create(null, null, "true", Arrays.<RuleAction>asList(RuleActionDisplayText
+                        .createForFeedback("test_content", "d2:ceil(A{test_variable_two})"))),
+                Rule.create(null, null, "d2:hasValue('test_variable_three')",
+                        Collections.<RuleAction>emptyList()));
+
+        RuleDependencyGraph graph = RuleDependencyGraph.create(CompiledRule.compile(rules, new RuleVariableSlots()),
+                Collections.<RuleVariable>emptyList());
+
+        assertThat(graph.variables()).hasSize(4);
+        assertThat(graph.variables()).contains("test_variable_one",
+                "current_date", "test_variable_two", "test_variable_three");
+        assertThat(graph.rules(set("test_variable_one"))).isEqualTo(bits(0));
+        assertThat(graph.rules(set("test_variable_two"))).isEqualTo(bits(1));
+        assertThat(graph.rules(set("test_variable_three"))).isEqualTo(bits(2));
+        assertThat(graph.rules(set("test_variable_one", "test_variable_three")))
+                .isEqualTo(bits(0, 2));
+        assertThat(graph.rules(set("test_unknown_variable")).isEmpty()).isTrue();
+    }
+
+    @Test
+    public void graphShouldMapValuesToVariables() {
+        RuleVariable ruleVariableOne = RuleVariableCurrentEvent.create(
+                "test_variable_one", "test_data_element", RuleValueType.NUMERIC);
+        RuleVariable ruleVariableTwo = RuleVariablePreviousEvent.create(
+                "test_variable_two", "test_data_element", RuleValueType.NUMERIC);
+        RuleVariable ruleVariableThree = RuleVariableAttribute.create(
+                "test_variable_three", "test_attribute", RuleValueType.TEXT);
+        RuleVariable ruleVariableFour = RuleVariableCurrentEvent.create(
+                "test_variable_four", "test_data_element", RuleValueType.NUMERIC);
+
+        List<Rule> rules = Arrays.asList(Rule.create(null, null, "#{test_variable_one} > " +
+                "#{test_variable_two} && A{test_variable_three} != ''",
+                Collections.<RuleAction>emptyList()));
+
+        RuleDependencyGraph graph = RuleDependencyGraph.create(CompiledRule.compile(rules, new RuleVariableSlots()),
+                Arrays.asList(ruleVariableOne, ruleVariableTwo,
+                        ruleVariableThree, ruleVariableFour));
+
+        // variables which are not referenced by rules are not expected
+        assertThat(graph.dataElementVariables("test_data_element"))
+                .containsExactly(ruleVariableOne, ruleVariableTwo);
+        assertThat(graph.attributeVariables("test_attribute"))
+                .containsExactly(ruleVariableThree);
+        assertThat(graph.dataElementVariables("test_attribute")).hasSize(0);
+    }
+
+    @Test
+    public void graphShouldDetectRulesWhichDependOnAssignedValues() {
+        RuleVariable ruleVariable = RuleVariableCurrentEvent.create(
+                "test_variable_one", "test_data_element", RuleValueType.NUMERIC);
+
+        Rule assignToVariable = Rule.create(null, 1, "true", Arrays.<RuleAction>asList(
+                RuleActionAssign.create("#{test_variable_two}", "1", null)));
+        Rule assignToField = Rule.create(null, 1, "true", Arrays.<RuleAction>asList(
+                RuleActionAssign.create(null, "1", "test_data_element")));
+        Rule readVariableOne = Rule.create(null, 2, "#{test_variable_one} > 0",
+                Collections.<RuleAction>emptyList());
+        Rule readVariableTwo = Rule.create(null, 2, "#{test_variable_two} > 0",
+                Collections.<RuleAction>emptyList());
+
+        assertThat(graph(Arrays.asList(assignToVariable, readVariableOne), ruleVariable)
+                .hasAssignDependencies()).isFalse();
+        assertThat(graph(Arrays.asList(assignToVariable, readVariableTwo), ruleVariable)
+                .hasAssignDependencies()).isTrue();
+        assertThat(graph(Arrays.asList(assignToField, readVariableOne), ruleVariable)
+                .hasAssignDependencies()).isTrue();
+        assertThat(graph(Arrays.asList(assignToField, readVariableTwo), ruleVariable)
+                .hasAssignDependencies()).isFalse();
+    }
+
+    @Test
+    public void orderShouldPlaceAssigningRulesBeforeDependentOnes() {
+        RuleVariable ruleVariable = RuleVariableCurrentEvent.create(
+                "test_variable_one", "test_data_element", RuleValueType.NUMERIC);
+
+        Rule readVariableThree = Rule.create(null, 3, "#{test_variable_three} > 0",
+                Collections.<RuleAction>emptyList());
+        Rule assignVariableThree = Rule.create(null, 2, "#{test_variable_two} > 0",
+                Arrays.<RuleAction>asList(RuleActionAssign.create("#{test_variable_three}", "1", null)));
+        Rule unrelated = Rule.create(null, 2, "#{test_variable_one} > 0",
+                Collections.<RuleAction>emptyList());
+        Rule assignVariableTwo = Rule.create(null, 1, "true", Arrays.<RuleAction>asList(
+                RuleActionAssign.create("#{test_variable_two}", "1", null)));
+
+        List<CompiledRule> compiledRules = CompiledRule.compile(Arrays.asList(
+                readVariableThree, assignVariableThree, unrelated, assignVariableTwo),
+                new RuleVariableSlots());
+        RuleDependencyGraph graph = RuleDependencyGraph.order(compiledRules, Arrays.asList(ruleVariable));
+        List<CompiledRule> orderedRules = graph.rules();
+
+        assertThat(orderedRules).hasSize(4);
+        assertThat(orderedRules.get(0).rule()).isEqualTo(unrelated);
+        assertThat(orderedRules.get(1).rule()).isEqualTo(assignVariableTwo);
+        assertThat(orderedRules.get(2).rule()).isEqualTo(assignVariableThree);
+        assertThat(orderedRules.get(3).rule()).isEqualTo(readVariableThree);
+
+        // indexes of the graph refer to ordered rules, the same as if it was built from them
+        RuleDependencyGraph expectedGraph = RuleDependencyGraph.create(
+                orderedRules, Arrays.asList(ruleVariable));
+        assertThat(graph.assigningRules()).isEqualTo(expectedGraph.assigningRules());
+        for (int i = 0; i < orderedRules.size(); i++) {
+            assertThat(graph.assignDependents(i)).isEqualTo(expectedGraph.assignDependents(i));
+        }
+        for (String variable : expectedGraph.variables()) {
+            assertThat(graph.rules(set(variable))).isEqualTo(expectedGraph.rules(set(variable)));
+        }
+        assertThat(graph.rules(set("test_variable_two"))).isEqualTo(bits(2));
+    }
+
+    @Test
+    public void orderShouldThrowOnCyclicAssignments() {
+        RuleVariable ruleVariable = RuleVariableCurrentEvent.create(
+                "test_variable_one", "test_data_element", RuleValueType.NUMERIC);
+
+        List<Rule> rules = Arrays.asList(
+                Rule.create(null, null, "#{test_variable_two} > 0", Arrays.<RuleAction>asList(
+                        RuleActionAssign.create("#{test_variable_three}", "1", null))),
+                Rule.create(null, null, "#{test_variable_three} > 0", Arrays.<RuleAction>asList(
+                        RuleActionAssign.create("#{test_variable_two}", "1", null))));
+
+        try {
+            RuleDependencyGraph.order(CompiledRule.compile(rules, new RuleVariableSlots()),
+                    Arrays.asList(ruleVariable));
+            fail("IllegalStateException was expected, but nothing was thrown.");
+        } catch (IllegalStateException illegalStateException) {
+            // noop
+        }
+    }
+
+    private static RuleDependencyGraph graph(List<Rule> rules, RuleVariable ruleVariable) {
+        return RuleDependencyGraph.create(CompiledRule.compile(rules, new RuleVariableSlots()),
+                Arrays.asList(ruleVariable));
+    }
+
+    private static HashSet<String> set(String... variables) {
+        return new HashSet<>(Arrays.asList(variables));
+    }
+
+    private static BitSet bits(int... indexes) {
+        BitSet bitSet = new BitSet();
+        for (int index : indexes) {
+            bitSet.set(index);
+        }
+        return bitSet;
+    }
+}
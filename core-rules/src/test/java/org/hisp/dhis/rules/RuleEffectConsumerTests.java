@@ -0,0 +1,118 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.Rule;
+import org.hisp.dhis.rules.models.RuleAction;
+import org.hisp.dhis.rules.models.RuleActionShowError;
+import org.hisp.dhis.rules.models.RuleActionShowWarning;
+import org.hisp.dhis.rules.models.RuleDataValue;
+import org.hisp.dhis.rules.models.RuleEffect;
+import org.hisp.dhis.rules.models.RuleEvent;
+import org.hisp.dhis.rules.models.RuleValueType;
+import org.hisp.dhis.rules.models.RuleVariable;
+import org.hisp.dhis.rules.models.RuleVariableCurrentEvent;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import static junit.framework.TestCase.fail;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class RuleEffectConsumerTests {
+    private CountingEvaluator evaluator;
+
+    private RuleEngine ruleEngine;
+
+    @Before
+    public void setUp() throws Exception {
+        evaluator = new CountingEvaluator();
+
+        Rule warning = Rule.create(null, 1, "#{test_variable} > 1", Arrays.<RuleAction>asList(
+                RuleActionShowWarning.create("test_warning", "#{test_variable}", "test_field")));
+        Rule error = Rule.create(null, 2, "#{test_variable} > 2", Arrays.<RuleAction>asList(
+                RuleActionShowError.create("test_error_one", "#{test_variable}", "test_field"),
+                RuleActionShowError.create("test_error_two", "#{test_variable}", "test_field")));
+        Rule anotherWarning = Rule.create(null, 3, "#{test_variable} > 3", Arrays.<RuleAction>asList(
+                RuleActionShowWarning.create("test_warning", "#{test_variable}", "test_field")));
+
+        ruleEngine = RuleEngineContext.builder(evaluator)
+                .ruleVariables(Arrays.<RuleVariable>asList(RuleVariableCurrentEvent.create(
+                        "test_variable", "test_data_element", RuleValueType.NUMERIC)))
+                .rules(Arrays.asList(warning, error, anotherWarning))
+                .build().toEngineBuilder().build();
+    }
+
+    @Test
+    public void evaluateShouldStopAtFirstError() throws Exception {
+        final List<RuleEffect> ruleEffects = new ArrayList<>();
+
+        Boolean completed = ruleEngine.evaluate(event("5"), new RuleEffectConsumer() {
+            @Override
+            public boolean accept(@Nonnull RuleEffect ruleEffect) {
+                ruleEffects.add(ruleEffect);
+                return !(ruleEffect.ruleAction() instanceof RuleActionShowError);
+            }
+        }).call();
+
+        assertThat(completed).isFalse();
+        assertThat(ruleEffects).hasSize(2);
+        assertThat(ruleEffects.get(1).ruleAction()).isInstanceOf(RuleActionShowError.class);
+
+        // conditions of two rules and data of two actions
+        assertThat(evaluator.count).isEqualTo(4);
+    }
+
+    @Test
+    public void evaluateShouldHandOverSameEffectsAsCallable() throws Exception {
+        final List<RuleEffect> ruleEffects = new ArrayList<>();
+
+        Boolean completed = ruleEngine.evaluate(event("5"), new RuleEffectConsumer() {
+            @Override
+            public boolean accept(@Nonnull RuleEffect ruleEffect) {
+                ruleEffects.add(ruleEffect);
+                return true;
+            }
+        }).call();
+
+        assertThat(completed).isTrue();
+        assertThat(ruleEffects).hasSize(4);
+        assertThat(ruleEffects).isEqualTo(ruleEngine.evaluate(event("5")).call());
+    }
+
+    @Test
+    public void evaluateShouldThrowOnNullConsumer() {
+        try {
+            ruleEngine.evaluate(event("5"), null);
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+
+    private static RuleEvent event(String value) {
+        return RuleEvent.create("test_event", "test_program_stage", RuleEvent.Status.ACTIVE,
+                new Date(), new Date(), Arrays.asList(RuleDataValue.create(new Date(),
+                        "test_program_stage", "test_data_element", value)));
+    }
+
+    private static final class CountingEvaluator implements RuleExpressionEvaluator {
+        private final RuleExpressionEvaluator evaluator = RuleExpressionInterpreter.create();
+
+        private int count;
+
+        @Nonnull
+        @Override
+        public String evaluate(@Nonnull String expression) {
+            count++;
+            return evaluator.evaluate(expression);
+        }
+    }
+}
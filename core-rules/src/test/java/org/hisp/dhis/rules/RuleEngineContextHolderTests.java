@@ -0,0 +1,159 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.Rule;
+import org.hisp.dhis.rules.models.RuleAction;
+import org.hisp.dhis.rules.models.RuleActionDisplayText;
+import org.hisp.dhis.rules.models.RuleDataValue;
+import org.hisp.dhis.rules.models.RuleEffect;
+import org.hisp.dhis.rules.models.RuleEvent;
+import org.hisp.dhis.rules.models.RuleValueType;
+import org.hisp.dhis.rules.models.RuleVariable;
+import org.hisp.dhis.rules.models.RuleVariableCurrentEvent;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+import static junit.framework.TestCase.fail;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class RuleEngineContextHolderTests {
+
+    @Test
+    public void createShouldThrowOnNullContext() {
+        try {
+            RuleEngineContextHolder.create(null);
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void swapShouldThrowOnNullContext() {
+        RuleEngineContextHolder holder = RuleEngineContextHolder.create(context("one"));
+
+        try {
+            holder.swap(null);
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+
+        try {
+            holder.swap(holder.get(), null);
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void swapShouldReplaceContext() {
+        RuleEngineContext contextOne = context("one");
+        RuleEngineContext contextTwo = context("two");
+        RuleEngineContextHolder holder = RuleEngineContextHolder.create(contextOne);
+
+        assertThat(holder.get()).isSameAs(contextOne);
+        assertThat(holder.swap(contextTwo)).isSameAs(contextOne);
+        assertThat(holder.get()).isSameAs(contextTwo);
+        assertThat(holder.toEngineBuilder().build().executionContext()).isSameAs(contextTwo);
+    }
+
+    @Test
+    public void compareAndSwapShouldReplaceOnlyExpectedContext() {
+        RuleEngineContext contextOne = context("one");
+        RuleEngineContext contextTwo = context("two");
+        RuleEngineContextHolder holder = RuleEngineContextHolder.create(contextOne);
+
+        assertThat(holder.swap(contextTwo, contextOne)).isFalse();
+        assertThat(holder.get()).isSameAs(contextOne);
+
+        assertThat(holder.swap(contextOne, contextTwo)).isTrue();
+        assertThat(holder.get()).isSameAs(contextTwo);
+    }
+
+    @Test
+    public void evaluationsShouldFinishOnSnapshotTheyWereCreatedFrom() throws Exception {
+        RuleEngineContextHolder holder = RuleEngineContextHolder.create(context("one"));
+
+        Callable<List<RuleEffect>> callable = holder.toEngineBuilder().build().evaluate(event());
+        RuleEngineSession session = holder.toEngineBuilder().build().session(event());
+
+        holder.swap(context("two"));
+
+        assertThat(callable.call().get(0).data()).isEqualTo("one");
+        assertThat(session.updateDataValue("test_data_element", "6").get(0).data()).isEqualTo("one");
+        assertThat(holder.toEngineBuilder().build().evaluate(event()).call().get(0).data())
+                .isEqualTo("two");
+    }
+
+    @Test
+    public void contextShouldBeSharedAcrossThreads() throws Exception {
+        final RuleEngineContextHolder holder = RuleEngineContextHolder.create(context("one"));
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<String> failures = new ArrayList<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < 200; j++) {
+                            String data = holder.toEngineBuilder().build()
+                                    .evaluate(event()).call().get(0).data();
+                            if (!"one".equals(data) && !"two".equals(data)) {
+                                synchronized (failures) {
+                                    failures.add(data);
+                                }
+                            }
+                        }
+                    } catch (Exception exception) {
+                        synchronized (failures) {
+                            failures.add(exception.toString());
+                        }
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+
+        start.countDown();
+        for (int i = 0; i < 100; i++) {
+            holder.swap(context(i % 2 == 0 ? "two" : "one"));
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(failures).isEmpty();
+    }
+
+    private static RuleEngineContext context(String text) {
+        Rule rule = Rule.create(null, null, "#{test_variable} > 1", Arrays.<RuleAction>asList(
+                RuleActionDisplayText.createForFeedback(null, "'" + text + "'")));
+
+        return RuleEngineContext.builder(RuleExpressionInterpreter.create())
+                .rules(Arrays.asList(rule))
+                .ruleVariables(Arrays.<RuleVariable>asList(RuleVariableCurrentEvent.create(
+                        "test_variable", "test_data_element", RuleValueType.NUMERIC)))
+                .build();
+    }
+
+    private static RuleEvent event() {
+        return RuleEvent.create("test_event", "test_program_stage", RuleEvent.Status.ACTIVE,
+                new Date(), new Date(), Arrays.asList(RuleDataValue.create(new Date(),
+                        "test_program_stage", "test_data_element", "5")));
+    }
+}
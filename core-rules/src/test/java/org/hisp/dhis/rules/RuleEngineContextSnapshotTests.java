@@ -0,0 +1,325 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.Rule;
+import org.hisp.dhis.rules.models.RuleAction;
+import org.hisp.dhis.rules.models.RuleActionAssign;
+import org.hisp.dhis.rules.models.RuleActionCreateEvent;
+import org.hisp.dhis.rules.models.RuleActionDisplayKeyValuePair;
+import org.hisp.dhis.rules.models.RuleActionDisplayText;
+import org.hisp.dhis.rules.models.RuleActionErrorOnCompletion;
+import org.hisp.dhis.rules.models.RuleActionHideField;
+import org.hisp.dhis.rules.models.RuleActionHideSection;
+import org.hisp.dhis.rules.models.RuleActionSetMandatoryField;
+import org.hisp.dhis.rules.models.RuleActionShowError;
+import org.hisp.dhis.rules.models.RuleActionShowWarning;
+import org.hisp.dhis.rules.models.RuleActionWarningOnCompletion;
+import org.hisp.dhis.rules.models.RuleDataValue;
+import org.hisp.dhis.rules.models.RuleEffect;
+import org.hisp.dhis.rules.models.RuleEvent;
+import org.hisp.dhis.rules.models.RuleValueType;
+import org.hisp.dhis.rules.models.RuleVariable;
+import org.hisp.dhis.rules.models.RuleVariableAttribute;
+import org.hisp.dhis.rules.models.RuleVariableCurrentEvent;
+import org.hisp.dhis.rules.models.RuleVariableNewestEvent;
+import org.hisp.dhis.rules.models.RuleVariableNewestStageEvent;
+import org.hisp.dhis.rules.models.RuleVariablePreviousEvent;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnull;
+
+import static junit.framework.TestCase.fail;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class RuleEngineContextSnapshotTests {
+
+    @Test
+    public void snapshotShouldRestoreRulesAndVariables() throws Exception {
+        RuleEngineContext ruleEngineContext = context();
+
+        RuleEngineContext restoredContext = RuleEngineContextSnapshot.read(new ByteArrayInputStream(
+                write(ruleEngineContext, "test_version")), RuleExpressionInterpreter.create(), "test_version");
+
+        assertThat(restoredContext).isNotNull();
+        assertThat(restoredContext.rules()).isEqualTo(ruleEngineContext.rules());
+        assertThat(restoredContext.ruleVariables()).isEqualTo(ruleEngineContext.ruleVariables());
+        assertThat(restoredContext.variableSlots().size()).isEqualTo(ruleEngineContext.variableSlots().size());
+        assertThat(restoredContext.listener()).isSameAs(RuleEngineNoopListener.create());
+
+        // never triggered rule is left out of compiled rules in both contexts
+        assertThat(restoredContext.compiledRules()).hasSize(ruleEngineContext.compiledRules().size());
+        for (int i = 0; i < ruleEngineContext.compiledRules().size(); i++) {
+            assertThat(restoredContext.compiledRules().get(i).rule())
+                    .isEqualTo(ruleEngineContext.compiledRules().get(i).rule());
+        }
+    }
+
+    @Test
+    public void restoredContextShouldProduceSameEffects() throws Exception {
+        RuleEngineContext ruleEngineContext = context();
+
+        for (RuleExpressionEvaluator evaluator : Arrays.asList(
+                RuleExpressionInterpreter.create(), new TextEvaluator())) {
+            RuleEngineContext restoredContext = RuleEngineContextSnapshot.read(new ByteArrayInputStream(
+                    write(ruleEngineContext, "test_version")), evaluator, "test_version");
+
+            for (String value : Arrays.asList("3", "5", "12")) {
+                List<RuleEffect> expected = RuleEngineContext.builder(evaluator)
+                        .rules(ruleEngineContext.rules())
+                        .ruleVariables(ruleEngineContext.ruleVariables())
+                        .constants(constants())
+                        .build().toEngineBuilder().build().evaluate(event(value)).call();
+
+                assertThat(restoredContext.toEngineBuilder().build().evaluate(event(value)).call())
+                        .isEqualTo(expected);
+            }
+        }
+    }
+
+    @Test
+    public void readShouldReturnNullIfSourceVersionDoesNotMatch() throws Exception {
+        byte[] snapshot = write(context(), "test_version");
+
+        assertThat(RuleEngineContextSnapshot.read(new ByteArrayInputStream(snapshot),
+                RuleExpressionInterpreter.create(), "another_version")).isNull();
+    }
+
+    @Test
+    public void readShouldReturnNullIfFormatVersionDoesNotMatch() throws Exception {
+        byte[] snapshot = write(context(), "test_version");
+
+        // version goes right after magic number
+        assertThat(snapshot[4]).isEqualTo((byte) RuleEngineContextSnapshot.FORMAT_VERSION);
+        snapshot[4] = (byte) (RuleEngineContextSnapshot.FORMAT_VERSION + 1);
+
+        assertThat(RuleEngineContextSnapshot.read(new ByteArrayInputStream(snapshot),
+                RuleExpressionInterpreter.create(), "test_version")).isNull();
+    }
+
+    @Test
+    public void readShouldThrowIfInputIsNotSnapshot() throws Exception {
+        try {
+            RuleEngineContextSnapshot.read(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5}),
+                    RuleExpressionInterpreter.create(), "test_version");
+            fail("IOException was expected, but nothing was thrown.");
+        } catch (IOException ioException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void readShouldThrowIfSnapshotIsCorrupted() throws Exception {
+        byte[] snapshot = write(context(), "test_version");
+        snapshot[snapshot.length / 2] = (byte) (snapshot[snapshot.length / 2] ^ 0x01);
+
+        try {
+            RuleEngineContextSnapshot.read(new ByteArrayInputStream(snapshot),
+                    RuleExpressionInterpreter.create(), "test_version");
+            fail("IOException was expected, but nothing was thrown.");
+        } catch (IOException ioException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void readShouldThrowIfSnapshotIsTruncated() throws Exception {
+        byte[] snapshot = write(context(), "test_version");
+
+        try {
+            RuleEngineContextSnapshot.read(new ByteArrayInputStream(snapshot, 0, snapshot.length - 8),
+                    RuleExpressionInterpreter.create(), "test_version");
+            fail("IOException was expected, but nothing was thrown.");
+        } catch (IOException ioException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void readShouldThrowIfLengthPrefixIsCorrupted() throws Exception {
+        byte[] snapshot = write(context(), "test_version");
+
+        // length of source version goes right after magic number and version
+        int sourceVersionOffset = 5;
+        assertThat(snapshot[sourceVersionOffset]).isEqualTo((byte) "test_version".length());
+
+        // count of strings in the table goes right after source version
+        int stringTableOffset = sourceVersionOffset + 1 + "test_version".length();
+
+        for (int offset : new int[]{sourceVersionOffset, stringTableOffset}) {
+            for (int value : new int[]{Integer.MAX_VALUE, -1, snapshot.length}) {
+                // checksum is fixed up, so that bounds are checked by parser
+                byte[] corrupted = withChecksum(replaceVarInt(snapshot, offset, value));
+
+                try {
+                    RuleEngineContextSnapshot.read(new ByteArrayInputStream(corrupted),
+                            RuleExpressionInterpreter.create(), "test_version");
+                    fail("IOException was expected, but nothing was thrown.");
+                } catch (IOException ioException) {
+                    // noop
+                }
+            }
+
+            // without fixing checksum up
+            try {
+                RuleEngineContextSnapshot.read(new ByteArrayInputStream(
+                        replaceVarInt(snapshot, offset, Integer.MAX_VALUE)),
+                        RuleExpressionInterpreter.create(), "test_version");
+                fail("IOException was expected, but nothing was thrown.");
+            } catch (IOException ioException) {
+                // noop
+            }
+        }
+    }
+
+    @Test
+    public void readShouldThrowIfSnapshotIsFollowedByData() throws Exception {
+        byte[] snapshot = write(context(), "test_version");
+        byte[] followed = Arrays.copyOf(snapshot, snapshot.length + 1);
+
+        try {
+            RuleEngineContextSnapshot.read(new ByteArrayInputStream(withChecksum(followed)),
+                    RuleExpressionInterpreter.create(), "test_version");
+            fail("IOException was expected, but nothing was thrown.");
+        } catch (IOException ioException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void writeShouldThrowOnNullArguments() throws Exception {
+        try {
+            RuleEngineContextSnapshot.write(context(), null, new ByteArrayOutputStream());
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+
+        try {
+            RuleEngineContextSnapshot.write(null, "test_version", new ByteArrayOutputStream());
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void varIntShouldRoundTrip() throws Exception {
+        for (int value : new int[]{0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1}) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            RuleEngineContextSnapshot.writeVarInt(new DataOutputStream(bytes), value);
+
+            assertThat(RuleEngineContextSnapshot.readVarInt(new DataInputStream(
+                    new ByteArrayInputStream(bytes.toByteArray())))).isEqualTo(value);
+        }
+    }
+
+    private static byte[] write(RuleEngineContext ruleEngineContext, String version) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        RuleEngineContextSnapshot.write(ruleEngineContext, version, bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Replaces variable-length integer at the given offset, keeping the checksum as is.
+     */
+    private static byte[] replaceVarInt(byte[] snapshot, int offset, int value) throws IOException {
+        ByteArrayInputStream input = new ByteArrayInputStream(snapshot, offset, snapshot.length - offset);
+        RuleEngineContextSnapshot.readVarInt(new DataInputStream(input));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(snapshot, 0, offset);
+        RuleEngineContextSnapshot.writeVarInt(new DataOutputStream(bytes), value);
+        bytes.write(snapshot, snapshot.length - input.available(), input.available());
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Recomputes checksum, which takes the last four bytes of the snapshot.
+     */
+    private static byte[] withChecksum(byte[] snapshot) {
+        CRC32 checksum = new CRC32();
+        checksum.update(snapshot, 0, snapshot.length - 4);
+
+        int value = (int) checksum.getValue();
+        for (int i = 0; i < 4; i++) {
+            snapshot[snapshot.length - 1 - i] = (byte) (value >>> (8 * i));
+        }
+        return snapshot;
+    }
+
+    private static RuleEngineContext context() {
+        List<Rule> rules = Arrays.asList(
+                Rule.create(null, 1, "#{test_var_one} > 10 && d2:hasValue('test_var_one')",
+                        Arrays.<RuleAction>asList(
+                                RuleActionShowError.create(null, "#{test_var_one} * C{test_constant}", "test_field"),
+                                RuleActionAssign.create(null, "'assigned'", "#{test_var_two}"))),
+                Rule.create(null, 2, "#{test_var_two} == 'assigned' || !(#{test_var_one} < 0)",
+                        Arrays.<RuleAction>asList(
+                                RuleActionDisplayText.createForFeedback("test_text", "d2:ceil(#{test_var_one})"),
+                                RuleActionDisplayKeyValuePair.createForIndicators("test_key", "-#{test_var_one}"),
+                                RuleActionShowWarning.create("test_warning", null, "test_field"))),
+                Rule.create("test_program_stage", 3, "#{test_var_one} > 4 ? true : false",
+                        Arrays.<RuleAction>asList(
+                                RuleActionHideField.create("test_content", "test_field"),
+                                RuleActionHideSection.create("test_section"),
+                                RuleActionSetMandatoryField.create("test_field"),
+                                RuleActionCreateEvent.create(null, "'text'", "test_program_stage"),
+                                RuleActionErrorOnCompletion.create(null, "d2:floor(#{test_var_one} / 2)", null),
+                                RuleActionWarningOnCompletion.create("test_content", null, "test_field"))),
+                Rule.create(null, null, "false", Arrays.<RuleAction>asList(
+                        RuleActionShowWarning.create("never", null, "test_field"))));
+
+        return RuleEngineContext.builder(RuleExpressionInterpreter.create())
+                .rules(rules)
+                .ruleVariables(Arrays.<RuleVariable>asList(
+                        RuleVariableCurrentEvent.create("test_var_one", "test_data_element", RuleValueType.NUMERIC),
+                        RuleVariableCurrentEvent.create("test_var_two", "test_data_element_two", RuleValueType.TEXT),
+                        RuleVariableAttribute.create("test_var_six", "test_attribute", RuleValueType.TEXT),
+                        RuleVariableNewestEvent.create("test_var_three", "test_data_element", RuleValueType.TEXT),
+                        RuleVariableNewestStageEvent.create("test_var_four", "test_data_element",
+                                "test_program_stage", RuleValueType.BOOLEAN),
+                        RuleVariablePreviousEvent.create("test_var_five", "test_data_element", RuleValueType.NUMERIC)))
+                .constants(constants())
+                .build();
+    }
+
+    private static Map<String, String> constants() {
+        Map<String, String> constants = new HashMap<>();
+        constants.put("test_constant", "2");
+        return Collections.unmodifiableMap(constants);
+    }
+
+    private static RuleEvent event(String value) {
+        return RuleEvent.create("test_event", "test_program_stage", RuleEvent.Status.ACTIVE,
+                new Date(), new Date(), Arrays.asList(RuleDataValue.create(new Date(),
+                        "test_program_stage", "test_data_element", value)));
+    }
+
+    /**
+     * Evaluates expressions as text, the same way as external evaluators do.
+     */
+    private static final class TextEvaluator implements RuleExpressionEvaluator {
+        private final RuleExpressionEvaluator evaluator = RuleExpressionInterpreter.create();
+
+        @Nonnull
+        @Override
+        public String evaluate(@Nonnull String expression) {
+            return evaluator.evaluate(expression);
+        }
+    }
+}
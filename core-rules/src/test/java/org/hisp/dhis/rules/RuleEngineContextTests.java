@@ -1,6 +1,7 @@
 package org.hisp.dhis.rules;
 
 import org.hisp.dhis.rules.models.Rule;
+import org.hisp.dhis.rules.models.RuleAction;
 import org.hisp.dhis.rules.models.RuleVariable;
 import org.junit.Before;
 import org.junit.Test;
@@ -11,7 +12,9 @@ import org.mockito.MockitoAnnotations;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static junit.framework.TestCase.fail;
 import static org.assertj.core.api.Java6Assertions.assertThat;
@@ -118,4 +121,91 @@ public class RuleEngineContextTests {
 
         assertThat(ruleEngineBuilderOne).isNotEqualTo(ruleEngineBuilderTwo);
     }
+
+    @Test
+    public void compiledRulesShouldBeOrderedByPriority() {
+        Rule ruleOne = Rule.create(null, null, "true", new ArrayList<RuleAction>());
+        Rule ruleTwo = Rule.create(null, 2, "true", new ArrayList<RuleAction>());
+        Rule ruleThree = Rule.create(null, null, "#{test_variable}", new ArrayList<RuleAction>());
+        Rule ruleFour = Rule.create(null, 1, "true", new ArrayList<RuleAction>());
+        Rule ruleFive = Rule.create(null, 1, "#{test_variable}", new ArrayList<RuleAction>());
+
+        RuleEngineContext ruleEngineContext = RuleEngineContext.builder(ruleExpressionEvaluator)
+                .rules(Arrays.asList(ruleOne, ruleTwo, ruleThree, ruleFour, ruleFive))
+                .build();
+
+        // original order of rules should be preserved
+        assertThat(ruleEngineContext.rules())
+                .containsExactly(ruleOne, ruleTwo, ruleThree, ruleFour, ruleFive);
+        assertThat(rules(ruleEngineContext.compiledRules()))
+                .containsExactly(ruleFour, ruleFive, ruleTwo, ruleOne, ruleThree);
+    }
+
+    @Test
+    public void compiledRulesShouldNotContainRulesWhichAreNeverTriggered() {
+        Rule ruleOne = Rule.create(null, null, "C{test_constant} * 2 > 10",
+                new ArrayList<RuleAction>());
+        Rule ruleTwo = Rule.create(null, null, "C{test_constant} > 1 && #{test_variable}",
+                new ArrayList<RuleAction>());
+        Rule ruleThree = Rule.create(null, null, "false || 1 > 2", new ArrayList<RuleAction>());
+        Rule ruleFour = Rule.create(null, null, "C{test_unknown_constant} > 1",
+                new ArrayList<RuleAction>());
+
+        Map<String, String> constants = new HashMap<>();
+        constants.put("test_constant", "4.0");
+
+        RuleEngineContext ruleEngineContext = RuleEngineContext.builder(ruleExpressionEvaluator)
+                .rules(Arrays.asList(ruleOne, ruleTwo, ruleThree, ruleFour))
+                .constants(constants)
+                .build();
+
+        assertThat(ruleEngineContext.rules())
+                .containsExactly(ruleOne, ruleTwo, ruleThree, ruleFour);
+        assertThat(rules(ruleEngineContext.compiledRules()))
+                .containsExactly(ruleTwo, ruleFour);
+        assertThat(ruleEngineContext.compiledRules().get(0).condition().expression())
+                .isEqualTo("4.0 > 1 && #{test_variable}");
+    }
+
+    @Test
+    public void builderShouldThrowOnNullConstants() {
+        try {
+            RuleEngineContext.builder(ruleExpressionEvaluator).constants(null);
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void compiledRulesShouldBeIndexedByProgramStage() {
+        Rule ruleOne = Rule.create("test_program_stage_one", null,
+                "true", new ArrayList<RuleAction>());
+        Rule ruleTwo = Rule.create(null, null, "true", new ArrayList<RuleAction>());
+        Rule ruleThree = Rule.create("test_program_stage_two", 1,
+                "true", new ArrayList<RuleAction>());
+        Rule ruleFour = Rule.create(null, 2, "true", new ArrayList<RuleAction>());
+
+        RuleEngineContext ruleEngineContext = RuleEngineContext.builder(ruleExpressionEvaluator)
+                .rules(Arrays.asList(ruleOne, ruleTwo, ruleThree, ruleFour))
+                .build();
+
+        assertThat(rules(ruleEngineContext.compiledRules("test_program_stage_one")))
+                .containsExactly(ruleFour, ruleOne, ruleTwo);
+        assertThat(rules(ruleEngineContext.compiledRules("test_program_stage_two")))
+                .containsExactly(ruleThree, ruleFour, ruleTwo);
+        assertThat(rules(ruleEngineContext.compiledRules("test_program_stage_three")))
+                .containsExactly(ruleFour, ruleTwo);
+        // enrollment is evaluated against all rules
+        assertThat(rules(ruleEngineContext.compiledRules(null)))
+                .containsExactly(ruleThree, ruleFour, ruleOne, ruleTwo);
+    }
+
+    private static List<Rule> rules(List<CompiledRule> compiledRules) {
+        List<Rule> rules = new ArrayList<>();
+        for (CompiledRule compiledRule : compiledRules) {
+            rules.add(compiledRule.rule());
+        }
+        return rules;
+    }
 }
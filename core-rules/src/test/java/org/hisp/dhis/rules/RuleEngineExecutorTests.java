@@ -0,0 +1,240 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.Rule;
+import org.hisp.dhis.rules.models.RuleAction;
+import org.hisp.dhis.rules.models.RuleActionAssign;
+import org.hisp.dhis.rules.models.RuleActionDisplayKeyValuePair;
+import org.hisp.dhis.rules.models.RuleDataValue;
+import org.hisp.dhis.rules.models.RuleEffect;
+import org.hisp.dhis.rules.models.RuleEvent;
+import org.hisp.dhis.rules.models.RuleValueType;
+import org.hisp.dhis.rules.models.RuleVariable;
+import org.hisp.dhis.rules.models.RuleVariableCurrentEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.annotation.Nonnull;
+
+import static junit.framework.TestCase.fail;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class RuleEngineExecutorTests {
+    private ForkJoinPool pool;
+
+    private RuleEngineExecutor executor;
+
+    @Before
+    public void setUp() throws Exception {
+        pool = new ForkJoinPool(4);
+        executor = RuleEngineExecutor.create(pool, 4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdown();
+    }
+
+    @Test
+    public void createShouldThrowOnIllegalArguments() {
+        try {
+            RuleEngineExecutor.create(null);
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+
+        try {
+            RuleEngineExecutor.create(pool, 0);
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void executeShouldReturnEffectsInOrderOfRules() throws Exception {
+        RuleEngine ruleEngine = ruleEngine(RuleExpressionInterpreter.create(), rules(50));
+
+        List<RuleEffect> ruleEffects = executor.execute(ruleEngine.evaluate(ruleEvent("test_event", "7")));
+
+        assertThat(ruleEffects).isEqualTo(ruleEngine.evaluate(ruleEvent("test_event", "7")).call());
+        assertThat(ruleEffects.size()).isEqualTo(43);
+        for (int i = 0; i < ruleEffects.size(); i++) {
+            assertThat(ruleEffects.get(i).data()).isEqualTo(String.valueOf(i + 7 + 7.0));
+        }
+    }
+
+    @Test
+    public void executeShouldEvaluateRulesWithAssignDependenciesSequentially() throws Exception {
+        List<Rule> rules = new ArrayList<>(rules(50));
+        rules.add(Rule.create(null, 0, "true", Arrays.<RuleAction>asList(
+                RuleActionAssign.create("#{test_variable}", "1", null))));
+
+        ThreadRecordingEvaluator evaluator = new ThreadRecordingEvaluator();
+        RuleEngine ruleEngine = ruleEngine(evaluator, rules);
+
+        List<RuleEffect> ruleEffects = executor.execute(ruleEngine.evaluate(ruleEvent("test_event", "7")));
+
+        // assigned value is seen by the rest of rules
+        assertThat(ruleEffects.size()).isEqualTo(50);
+        assertThat(ruleEffects.get(1).data()).isEqualTo("2.0");
+        assertThat(evaluator.threads).hasSize(1);
+    }
+
+    @Test
+    public void executeShouldEvaluateRulesSequentiallyIfEvaluatorIsNotThreadSafe() throws Exception {
+        ThreadRecordingEvaluator evaluator = new ThreadRecordingEvaluator();
+        RuleEngine ruleEngine = ruleEngine(evaluator, rules(50));
+
+        List<RuleEffect> expected = ruleEngine.evaluate(ruleEvent("test_event", "7")).call();
+        evaluator.threads.clear();
+
+        List<RuleEffect> ruleEffects = executor.execute(ruleEngine.evaluate(ruleEvent("test_event", "7")));
+
+        assertThat(ruleEffects).isEqualTo(expected);
+        assertThat(evaluator.threads).hasSize(1);
+    }
+
+    @Test
+    public void executeMultipleShouldEvaluateTargetsSequentiallyIfEvaluatorIsNotThreadSafe() throws Exception {
+        ThreadRecordingEvaluator evaluator = new ThreadRecordingEvaluator();
+        RuleEngine ruleEngine = ruleEngine(evaluator, rules(20));
+
+        List<RuleEvent> ruleEvents = new ArrayList<>();
+        List<Callable<List<RuleEffect>>> callables = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ruleEvents.add(ruleEvent("test_event_" + i, String.valueOf(i)));
+            callables.add(ruleEngine.evaluate(ruleEvent("test_event_" + i, String.valueOf(i))));
+        }
+
+        Map<String, List<RuleEffect>> expected = ruleEngine.evaluate(ruleEvents).call();
+        evaluator.threads.clear();
+
+        Map<String, List<RuleEffect>> ruleEffects = executor
+                .executeMultiple(ruleEngine.evaluate(ruleEvents));
+
+        assertThat(ruleEffects).isEqualTo(expected);
+        assertThat(evaluator.threads).hasSize(1);
+
+        evaluator.threads.clear();
+        List<List<RuleEffect>> allRuleEffects = executor.executeAll(callables);
+
+        assertThat(new ArrayList<>(ruleEffects.values())).isEqualTo(allRuleEffects);
+        assertThat(evaluator.threads).hasSize(1);
+    }
+
+    @Test
+    public void executeMultipleShouldKeepOrderOfTargets() throws Exception {
+        RuleEngine ruleEngine = ruleEngine(RuleExpressionInterpreter.create(), rules(20));
+
+        List<RuleEvent> ruleEvents = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ruleEvents.add(ruleEvent("test_event_" + i, String.valueOf(i)));
+        }
+
+        Map<String, List<RuleEffect>> ruleEffects = executor
+                .executeMultiple(ruleEngine.evaluate(ruleEvents));
+
+        assertThat(ruleEffects).isEqualTo(ruleEngine.evaluate(ruleEvents).call());
+        assertThat(new ArrayList<>(ruleEffects.keySet())).containsExactly("test_event_0",
+                "test_event_1", "test_event_2", "test_event_3", "test_event_4", "test_event_5",
+                "test_event_6", "test_event_7", "test_event_8", "test_event_9");
+        assertThat(ruleEffects.get("test_event_3").size()).isEqualTo(17);
+    }
+
+    @Test
+    public void executeAllShouldKeepOrderOfCallables() throws Exception {
+        RuleEngine ruleEngine = ruleEngine(RuleExpressionInterpreter.create(), rules(20));
+
+        List<Callable<List<RuleEffect>>> callables = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            callables.add(ruleEngine.evaluate(ruleEvent("test_event_" + i, String.valueOf(i))));
+        }
+        callables.add(new Callable<List<RuleEffect>>() {
+            @Override
+            public List<RuleEffect> call() throws Exception {
+                return Collections.emptyList();
+            }
+        });
+
+        List<List<RuleEffect>> ruleEffects = executor.executeAll(callables);
+
+        assertThat(ruleEffects.size()).isEqualTo(11);
+        for (int i = 0; i < 10; i++) {
+            assertThat(ruleEffects.get(i).size()).isEqualTo(20 - i);
+        }
+        assertThat(ruleEffects.get(10)).isEmpty();
+    }
+
+    @Test
+    public void executeShouldPropagateExceptions() throws Exception {
+        RuleEngine ruleEngine = ruleEngine(new RuleExpressionEvaluator() {
+            @Nonnull
+            @Override
+            public String evaluate(@Nonnull String expression) {
+                throw new IllegalStateException("test_exception");
+            }
+        }, rules(20));
+
+        try {
+            executor.execute(ruleEngine.evaluate(ruleEvent("test_event", "7")));
+            fail("IllegalStateException was expected, but nothing was thrown.");
+        } catch (IllegalStateException illegalStateException) {
+            // noop
+        }
+    }
+
+    private static List<Rule> rules(int count) {
+        List<Rule> rules = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rules.add(Rule.create(null, null, "#{test_variable} <= " + i,
+                    Arrays.<RuleAction>asList(RuleActionDisplayKeyValuePair.createForFeedback(
+                            "test_action_" + i, "#{test_variable} + " + i))));
+        }
+        return rules;
+    }
+
+    private static RuleEngine ruleEngine(RuleExpressionEvaluator evaluator, List<Rule> rules) {
+        RuleVariable ruleVariable = RuleVariableCurrentEvent.create(
+                "test_variable", "test_data_element", RuleValueType.NUMERIC);
+
+        return RuleEngineContext.builder(evaluator)
+                .rules(rules)
+                .ruleVariables(Arrays.asList(ruleVariable))
+                .build().toEngineBuilder().build();
+    }
+
+    private static RuleEvent ruleEvent(String event, String value) {
+        return RuleEvent.create(event, "test_program_stage", RuleEvent.Status.ACTIVE,
+                new Date(), new Date(), Arrays.asList(RuleDataValue.create(new Date(),
+                        "test_program_stage", "test_data_element", value)));
+    }
+
+    private static final class ThreadRecordingEvaluator implements RuleExpressionEvaluator {
+        private final RuleExpressionEvaluator evaluator = RuleExpressionInterpreter.create();
+
+        private final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+
+        @Nonnull
+        @Override
+        public String evaluate(@Nonnull String expression) {
+            threads.add(Thread.currentThread());
+            return evaluator.evaluate(expression);
+        }
+    }
+}
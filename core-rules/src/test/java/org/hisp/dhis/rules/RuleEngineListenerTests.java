@@ -0,0 +1,199 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.Rule;
+import org.hisp.dhis.rules.models.RuleAction;
+import org.hisp.dhis.rules.models.RuleActionShowWarning;
+import org.hisp.dhis.rules.models.RuleDataValue;
+import org.hisp.dhis.rules.models.RuleEffect;
+import org.hisp.dhis.rules.models.RuleEvent;
+import org.hisp.dhis.rules.models.RuleValueType;
+import org.hisp.dhis.rules.models.RuleVariable;
+import org.hisp.dhis.rules.models.RuleVariableCurrentEvent;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import static junit.framework.TestCase.fail;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class RuleEngineListenerTests {
+    private static final Rule WARNING = Rule.create(null, 1, "d2:hasValue('test_variable') && " +
+            "#{test_variable} > 1", Arrays.<RuleAction>asList(
+            RuleActionShowWarning.create("test_warning", "d2:ceil(#{test_variable})", "test_field")));
+
+    private static final Rule NEVER = Rule.create(null, 2, "#{test_variable} > 100",
+            Arrays.<RuleAction>asList(RuleActionShowWarning.create("test_warning", null, "test_field")));
+
+    @Test
+    public void contextShouldUseNoopListenerByDefault() {
+        RuleEngineContext ruleEngineContext = context(RuleExpressionInterpreter.create(), null);
+
+        assertThat(ruleEngineContext.listener()).isSameAs(RuleEngineNoopListener.create());
+    }
+
+    @Test
+    public void builderShouldThrowOnNullListener() {
+        try {
+            RuleEngineContext.builder(RuleExpressionInterpreter.create()).listener(null);
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void listenerShouldReceiveMetricsOfEachRule() throws Exception {
+        final List<Rule> rules = new ArrayList<>();
+        final List<Map<String, Integer>> functionCalls = new ArrayList<>();
+        final List<Integer> evaluatorCalls = new ArrayList<>();
+        final List<Integer> variables = new ArrayList<>();
+        final List<Integer> effects = new ArrayList<>();
+
+        RuleEngineListener listener = new RuleEngineListener() {
+            @Override
+            public void onRuleEvaluated(@Nonnull Rule rule, @Nonnull RuleMetrics ruleMetrics) {
+                assertThat(ruleMetrics.nanos()).isGreaterThanOrEqualTo(ruleMetrics.conditionNanos());
+
+                rules.add(rule);
+                functionCalls.add(new HashMap<>(ruleMetrics.functionCalls()));
+                evaluatorCalls.add(ruleMetrics.evaluatorCalls());
+                variables.add(ruleMetrics.variablesMaterialized());
+                effects.add(ruleMetrics.effects());
+            }
+        };
+
+        List<RuleEffect> ruleEffects = context(RuleExpressionInterpreter.create(), listener)
+                .toEngineBuilder().build().evaluate(event("5")).call();
+
+        assertThat(ruleEffects).hasSize(1);
+        assertThat(rules).containsExactly(WARNING, NEVER);
+
+        assertThat(functionCalls.get(0).get("d2:hasValue")).isEqualTo(1);
+        assertThat(functionCalls.get(0).get("d2:ceil")).isEqualTo(1);
+        assertThat(functionCalls.get(1)).isEmpty();
+
+        // condition and data of the action
+        assertThat(evaluatorCalls).containsExactly(2, 1);
+
+        // variable is materialized once per frame
+        assertThat(variables).containsExactly(1, 0);
+        assertThat(effects).containsExactly(1, 0);
+    }
+
+    @Test
+    public void listenerShouldDisableBatching() throws Exception {
+        CountingBatchEvaluator evaluator = new CountingBatchEvaluator();
+        RuleEngineHistogramListener listener = RuleEngineHistogramListener.create();
+
+        context(evaluator, listener).toEngineBuilder().build().evaluate(event("5")).call();
+
+        assertThat(evaluator.batches).isEqualTo(0);
+        assertThat(listener.histograms()).hasSize(2);
+
+        context(evaluator, null).toEngineBuilder().build().evaluate(event("5")).call();
+
+        // conditions and data of the action, each preceded by arguments of their functions
+        assertThat(evaluator.batches).isEqualTo(4);
+    }
+
+    @Test
+    public void histogramListenerShouldAggregateMetricsByRule() throws Exception {
+        RuleEngineHistogramListener listener = RuleEngineHistogramListener.create();
+        RuleEngine ruleEngine = context(RuleExpressionInterpreter.create(), listener)
+                .toEngineBuilder().build();
+
+        for (int i = 0; i < 10; i++) {
+            ruleEngine.evaluate(event("5")).call();
+        }
+
+        assertThat(listener.histograms()).hasSize(2);
+
+        for (RuleEngineHistogramListener.Histogram histogram : listener.histograms()) {
+            assertThat(histogram.count()).isEqualTo(10);
+            assertThat(histogram.percentileNanos(0.5)).isLessThanOrEqualTo(histogram.maxNanos());
+            assertThat(histogram.percentileNanos(1)).isLessThanOrEqualTo(histogram.maxNanos());
+
+            if (histogram.rule().equals(WARNING)) {
+                assertThat(histogram.effects()).isEqualTo(10);
+                assertThat(histogram.evaluatorCalls()).isEqualTo(20);
+                assertThat(histogram.functionCalls().get("d2:ceil")).isEqualTo(10L);
+            } else {
+                assertThat(histogram.effects()).isEqualTo(0);
+                assertThat(histogram.functionCalls()).isEmpty();
+            }
+        }
+
+        assertThat(listener.dump()).contains("#{test_variable} > 100");
+
+        listener.reset();
+        assertThat(listener.histograms()).isEmpty();
+    }
+
+    @Test
+    public void histogramShouldThrowOnInvalidPercentile() throws Exception {
+        RuleEngineHistogramListener listener = RuleEngineHistogramListener.create();
+        context(RuleExpressionInterpreter.create(), listener)
+                .toEngineBuilder().build().evaluate(event("5")).call();
+
+        try {
+            listener.histograms().get(0).percentileNanos(1.5);
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+
+    private static RuleEngineContext context(RuleExpressionEvaluator evaluator,
+            RuleEngineListener listener) {
+        RuleEngineContext.Builder builder = RuleEngineContext.builder(evaluator)
+                .rules(Arrays.asList(WARNING, NEVER))
+                .ruleVariables(Arrays.<RuleVariable>asList(RuleVariableCurrentEvent.create(
+                        "test_variable", "test_data_element", RuleValueType.NUMERIC)));
+
+        if (listener != null) {
+            builder.listener(listener);
+        }
+
+        return builder.build();
+    }
+
+    private static RuleEvent event(String value) {
+        return RuleEvent.create("test_event", "test_program_stage", RuleEvent.Status.ACTIVE,
+                new Date(), new Date(), Arrays.asList(RuleDataValue.create(new Date(),
+                        "test_program_stage", "test_data_element", value)));
+    }
+
+    private static final class CountingBatchEvaluator implements RuleExpressionBatchEvaluator {
+        private final RuleExpressionEvaluator evaluator = RuleExpressionInterpreter.create();
+
+        private int batches;
+
+        @Nonnull
+        @Override
+        public List<String> evaluateAll(@Nonnull List<String> expressions) {
+            batches++;
+
+            List<String> results = new ArrayList<>(expressions.size());
+            for (String expression : expressions) {
+                results.add(evaluator.evaluate(expression));
+            }
+            return results;
+        }
+
+        @Nonnull
+        @Override
+        public String evaluate(@Nonnull String expression) {
+            return evaluator.evaluate(expression);
+        }
+    }
+}
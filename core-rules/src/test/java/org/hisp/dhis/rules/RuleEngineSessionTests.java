@@ -0,0 +1,350 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.Rule;
+import org.hisp.dhis.rules.models.RuleAction;
+import org.hisp.dhis.rules.models.RuleActionAssign;
+import org.hisp.dhis.rules.models.RuleActionDisplayText;
+import org.hisp.dhis.rules.models.RuleAttributeValue;
+import org.hisp.dhis.rules.models.RuleDataValue;
+import org.hisp.dhis.rules.models.RuleEffect;
+import org.hisp.dhis.rules.models.RuleEnrollment;
+import org.hisp.dhis.rules.models.RuleEvent;
+import org.hisp.dhis.rules.models.RuleValueType;
+import org.hisp.dhis.rules.models.RuleVariable;
+import org.hisp.dhis.rules.models.RuleVariableAttribute;
+import org.hisp.dhis.rules.models.RuleVariableCurrentEvent;
+import org.hisp.dhis.rules.models.RuleVariableNewestEvent;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.assertj.core.api.Java6Assertions.fail;
+
+@RunWith(JUnit4.class)
+public class RuleEngineSessionTests {
+    private CountingEvaluator evaluator;
+
+    private RuleEngineContext ruleEngineContext;
+
+    private RuleEnrollment ruleEnrollment;
+
+    @Before
+    public void setUp() throws Exception {
+        evaluator = new CountingEvaluator();
+        ruleEnrollment = RuleEnrollment.create("test_enrollment", new Date(), new Date(),
+                RuleEnrollment.Status.ACTIVE, new ArrayList<RuleAttributeValue>());
+
+        RuleAction ruleActionOne = RuleActionDisplayText
+                .createForFeedback("test_action_one", "#{test_variable_one}");
+        RuleAction ruleActionTwo = RuleActionDisplayText
+                .createForFeedback("test_action_two", "#{test_variable_two}");
+        RuleAction ruleActionThree = RuleActionDisplayText
+                .createForFeedback("test_action_three", "A{test_attribute}");
+
+        ruleEngineContext = RuleEngineContext.builder(evaluator)
+                .ruleVariables(Arrays.<RuleVariable>asList(
+                        RuleVariableCurrentEvent.create("test_variable_one",
+                                "test_data_element_one", RuleValueType.NUMERIC),
+                        RuleVariableCurrentEvent.create("test_variable_two",
+                                "test_data_element_two", RuleValueType.NUMERIC),
+                        RuleVariableAttribute.create("test_attribute",
+                                "test_tracked_entity_attribute", RuleValueType.TEXT)))
+                .rules(Arrays.asList(
+                        Rule.create(null, null, "#{test_variable_one} > 10",
+                                Arrays.asList(ruleActionOne)),
+                        Rule.create(null, null, "d2:hasValue('test_variable_two')",
+                                Arrays.asList(ruleActionTwo)),
+                        Rule.create(null, null, "A{test_attribute} != ''",
+                                Arrays.asList(ruleActionThree))))
+                .build();
+    }
+
+    @Test
+    public void sessionShouldEvaluateAllRulesOnCreation() {
+        RuleEngineSession session = ruleEngineContext.toEngineBuilder()
+                .enrollment(ruleEnrollment)
+                .build().session(event("11", "2"));
+
+        assertThat(session.effects()).hasSize(2);
+        assertThat(session.effects().get(0).data()).isEqualTo("11.0");
+        assertThat(session.effects().get(1).data()).isEqualTo("2.0");
+
+        // conditions of three rules, argument of
+        // d2:hasValue and data expressions of two actions
+        assertThat(evaluator.count).isEqualTo(6);
+    }
+
+    @Test
+    public void updateDataValueShouldReEvaluateOnlyDependentRules() {
+        RuleEngineSession session = ruleEngineContext.toEngineBuilder()
+                .enrollment(ruleEnrollment)
+                .build().session(event("11", "2"));
+        evaluator.count = 0;
+
+        List<RuleEffect> ruleEffects = session.updateDataValue("test_data_element_one", "9");
+
+        assertThat(ruleEffects).hasSize(1);
+        assertThat(ruleEffects.get(0).data()).isEqualTo("2.0");
+        assertThat(evaluator.count).isEqualTo(1);
+
+        evaluator.count = 0;
+        ruleEffects = session.updateDataValue("test_data_element_two", null);
+
+        // condition of the second rule along with argument of d2:hasValue
+        assertThat(ruleEffects).hasSize(0);
+        assertThat(evaluator.count).isEqualTo(2);
+        assertThat(session.event().dataValues()).hasSize(1);
+    }
+
+    @Test
+    public void updateDataValueShouldNotReEvaluateRulesIfValueIsNotChanged() {
+        RuleEngineSession session = ruleEngineContext.toEngineBuilder()
+                .enrollment(ruleEnrollment)
+                .build().session(event("11", "2"));
+        evaluator.count = 0;
+
+        session.updateDataValue("test_data_element_one", "11");
+        session.updateDataValue("test_unknown_data_element", "11");
+
+        assertThat(session.effects()).hasSize(2);
+        assertThat(evaluator.count).isEqualTo(0);
+    }
+
+    @Test
+    public void sessionShouldReturnSameEffectsAsRuleEngine() throws Exception {
+        RuleEngineSession session = ruleEngineContext.toEngineBuilder()
+                .enrollment(ruleEnrollment)
+                .build().session(event("11", "2"));
+
+        session.updateDataValue("test_data_element_one", "12");
+        session.updateDataValue("test_data_element_two", "3");
+
+        List<RuleEffect> ruleEffects = ruleEngineContext.toEngineBuilder()
+                .enrollment(ruleEnrollment)
+                .build().evaluate(event("12", "3")).call();
+
+        assertThat(session.effects()).isEqualTo(ruleEffects);
+    }
+
+    @Test
+    public void updateDataValueShouldKeepValuesOfAllEventsUpToDate() throws Exception {
+        RuleEvent contextualEvent = RuleEvent.create("test_event_contextual", "test_program_stage",
+                RuleEvent.Status.ACTIVE, new Date(0), new Date(0), Arrays.asList(
+                        RuleDataValue.create(new Date(0), "test_program_stage",
+                                "test_data_element_one", "5")));
+        RuleEngine ruleEngine = RuleEngineContext.builder(evaluator)
+                .ruleVariables(Arrays.<RuleVariable>asList(RuleVariableNewestEvent.create(
+                        "test_newest", "test_data_element_one", RuleValueType.NUMERIC)))
+                .rules(Arrays.asList(Rule.create(null, null, "true", Arrays.<RuleAction>asList(
+                        RuleActionDisplayText.createForFeedback("test_action",
+                                "#{test_newest} * 10 + d2:count('test_newest')")))))
+                .build().toEngineBuilder()
+                .events(Arrays.asList(contextualEvent))
+                .build();
+
+        RuleEngineSession session = ruleEngine.session(event("11", "2"));
+        assertThat(session.effects().get(0).data()).isEqualTo("112.0");
+
+        // value is replaced, removed and added back
+        String[] values = {"12", null, "13"};
+        String[] results = {"122.0", "51.0", "132.0"};
+        for (int i = 0; i < values.length; i++) {
+            List<RuleEffect> ruleEffects = session.updateDataValue("test_data_element_one", values[i]);
+
+            assertThat(ruleEffects.get(0).data()).isEqualTo(results[i]);
+            assertThat(ruleEffects).isEqualTo(ruleEngine.evaluate(session.event()).call());
+        }
+    }
+
+    @Test
+    public void updateDataValueShouldReEvaluateRulesIfOnlyCandidatesAreChanged() throws Exception {
+        // contextual event is newer, so value of the variable stays the same
+        RuleEvent contextualEvent = RuleEvent.create("test_event_contextual", "test_program_stage",
+                RuleEvent.Status.ACTIVE, new Date(), new Date(), Arrays.asList(
+                        RuleDataValue.create(new Date(), "test_program_stage",
+                                "test_data_element_one", "7")));
+        RuleEvent ruleEvent = RuleEvent.create("test_event", "test_program_stage",
+                RuleEvent.Status.ACTIVE, new Date(0), new Date(0), Arrays.asList(
+                        RuleDataValue.create(new Date(0), "test_program_stage",
+                                "test_data_element_one", "3")));
+        RuleEngine ruleEngine = RuleEngineContext.builder(evaluator)
+                .ruleVariables(Arrays.<RuleVariable>asList(RuleVariableNewestEvent.create(
+                        "test_newest", "test_data_element_one", RuleValueType.NUMERIC)))
+                .rules(Arrays.asList(Rule.create(null, null, "true", Arrays.<RuleAction>asList(
+                        RuleActionDisplayText.createForFeedback("test_action",
+                                "d2:countIfValue('test_newest', 5)")))))
+                .build().toEngineBuilder()
+                .events(Arrays.asList(contextualEvent))
+                .build();
+
+        RuleEngineSession session = ruleEngine.session(ruleEvent);
+        assertThat(session.effects().get(0).data()).isEqualTo("0.0");
+
+        List<RuleEffect> ruleEffects = session.updateDataValue("test_data_element_one", "5");
+
+        assertThat(ruleEffects.get(0).data()).isEqualTo("1.0");
+        assertThat(ruleEffects).isEqualTo(ruleEngine.evaluate(session.event()).call());
+
+        assertThat(session.changes().added()).isEmpty();
+        assertThat(session.changes().removed()).isEmpty();
+        assertThat(session.changes().changed()).containsExactly(ruleEffects.get(0));
+    }
+
+    @Test
+    public void updateAttributeValueShouldReEvaluateOnlyDependentRules() {
+        RuleEngineSession session = ruleEngineContext.toEngineBuilder()
+                .enrollment(ruleEnrollment)
+                .build().session(event("11", "2"));
+        evaluator.count = 0;
+
+        List<RuleEffect> ruleEffects = session.updateAttributeValue(
+                "test_tracked_entity_attribute", "test_value");
+
+        assertThat(ruleEffects).hasSize(3);
+        assertThat(ruleEffects.get(2).data()).isEqualTo("test_value");
+        assertThat(evaluator.count).isEqualTo(2);
+        assertThat(session.enrollment().attributeValues()).hasSize(1);
+    }
+
+    @Test
+    public void changesShouldContainAllEffectsOnCreation() {
+        RuleEngineSession session = ruleEngineContext.toEngineBuilder()
+                .enrollment(ruleEnrollment)
+                .build().session(event("11", "2"));
+
+        assertThat(session.changes().added()).isEqualTo(session.effects());
+        assertThat(session.changes().removed()).isEmpty();
+        assertThat(session.changes().changed()).isEmpty();
+    }
+
+    @Test
+    public void changesShouldContainOnlyEffectsAffectedByUpdate() {
+        RuleEngineSession session = ruleEngineContext.toEngineBuilder()
+                .enrollment(ruleEnrollment)
+                .build().session(event("11", "2"));
+
+        session.updateDataValue("test_data_element_one", "12");
+
+        assertThat(session.changes().added()).isEmpty();
+        assertThat(session.changes().removed()).isEmpty();
+        assertThat(session.changes().changed()).hasSize(1);
+        assertThat(session.changes().changed().get(0)).isEqualTo(session.effects().get(0));
+        assertThat(session.changes().changed().get(0).data()).isEqualTo("12.0");
+
+        session.updateDataValue("test_data_element_one", "9");
+
+        assertThat(session.changes().added()).isEmpty();
+        assertThat(session.changes().removed()).hasSize(1);
+        assertThat(session.changes().removed().get(0).data()).isEqualTo("12.0");
+        assertThat(session.changes().changed()).isEmpty();
+
+        session.updateAttributeValue("test_tracked_entity_attribute", "test_value");
+
+        assertThat(session.changes().added()).hasSize(1);
+        assertThat(session.changes().added().get(0).data()).isEqualTo("test_value");
+        assertThat(session.changes().removed()).isEmpty();
+        assertThat(session.changes().changed()).isEmpty();
+    }
+
+    @Test
+    public void changesShouldBeEmptyIfNothingHasChanged() {
+        RuleEngineSession session = ruleEngineContext.toEngineBuilder()
+                .enrollment(ruleEnrollment)
+                .build().session(event("11", "2"));
+
+        session.updateDataValue("test_data_element_one", "11");
+        assertThat(session.changes().isEmpty()).isTrue();
+
+        session.updateDataValue("test_unknown_data_element", "11");
+        assertThat(session.changes().isEmpty()).isTrue();
+    }
+
+    @Test
+    public void updateDataValueShouldReAssignValues() {
+        RuleEngineContext assigningContext = RuleEngineContext.builder(evaluator)
+                .ruleVariables(Arrays.<RuleVariable>asList(
+                        RuleVariableCurrentEvent.create("test_variable_one",
+                                "test_data_element_one", RuleValueType.NUMERIC),
+                        RuleVariableCurrentEvent.create("test_variable_three",
+                                "test_data_element_three", RuleValueType.NUMERIC)))
+                .rules(Arrays.asList(
+                        Rule.create(null, 1, "d2:hasValue('test_variable_three')",
+                                Arrays.<RuleAction>asList(RuleActionDisplayText
+                                        .createForFeedback("test_action", "#{test_variable_three}"))),
+                        Rule.create(null, 2, "#{test_variable_one} > 10",
+                                Arrays.<RuleAction>asList(RuleActionAssign.create(
+                                        "#{test_variable_three}", "#{test_variable_one} * 2", null)))))
+                .build();
+
+        RuleEngineSession session = assigningContext.toEngineBuilder()
+                .build().session(event("11", "2"));
+
+        assertThat(session.effects()).hasSize(2);
+        assertThat(session.effects().get(1).data()).isEqualTo("22.0");
+
+        List<RuleEffect> ruleEffects = session.updateDataValue("test_data_element_one", "12");
+
+        assertThat(ruleEffects).hasSize(2);
+        assertThat(ruleEffects.get(1).data()).isEqualTo("24.0");
+
+        // assigned value is dropped along with the assignment
+        assertThat(session.updateDataValue("test_data_element_one", "9")).isEmpty();
+    }
+
+    @Test
+    public void updateDataValueShouldThrowForEnrollmentSession() {
+        RuleEngineSession session = RuleEngineContext.builder(evaluator).build()
+                .toEngineBuilder().build().session(ruleEnrollment);
+
+        try {
+            session.updateDataValue("test_data_element_one", "11");
+            fail("IllegalStateException was expected, but nothing was thrown.");
+        } catch (IllegalStateException illegalStateException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void updateAttributeValueShouldThrowWithoutEnrollment() {
+        RuleEngineSession session = RuleEngineContext.builder(evaluator).build()
+                .toEngineBuilder().build().session(event("11", "2"));
+
+        try {
+            session.updateAttributeValue("test_tracked_entity_attribute", "test_value");
+            fail("IllegalStateException was expected, but nothing was thrown.");
+        } catch (IllegalStateException illegalStateException) {
+            // noop
+        }
+    }
+
+    private static RuleEvent event(String valueOne, String valueTwo) {
+        return RuleEvent.create("test_event", "test_program_stage", RuleEvent.Status.ACTIVE,
+                new Date(), new Date(), Arrays.asList(
+                        RuleDataValue.create(new Date(), "test_program_stage",
+                                "test_data_element_one", valueOne),
+                        RuleDataValue.create(new Date(), "test_program_stage",
+                                "test_data_element_two", valueTwo)));
+    }
+
+    private static final class CountingEvaluator implements RuleExpressionEvaluator {
+        private final RuleExpressionEvaluator evaluator = RuleExpressionInterpreter.create();
+
+        private int count;
+
+        @Nonnull
+        @Override
+        public String evaluate(@Nonnull String expression) {
+            count++;
+            return evaluator.evaluate(expression);
+        }
+    }
+}
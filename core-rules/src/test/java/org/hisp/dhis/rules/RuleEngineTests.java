@@ -1,10 +1,16 @@
 package org.hisp.dhis.rules;
 
 import org.hisp.dhis.rules.models.Rule;
+import org.hisp.dhis.rules.models.RuleAction;
+import org.hisp.dhis.rules.models.RuleActionDisplayText;
+import org.hisp.dhis.rules.models.RuleAttributeValue;
 import org.hisp.dhis.rules.models.RuleDataValue;
+import org.hisp.dhis.rules.models.RuleEffect;
 import org.hisp.dhis.rules.models.RuleEnrollment;
 import org.hisp.dhis.rules.models.RuleEvent;
+import org.hisp.dhis.rules.models.RuleValueType;
 import org.hisp.dhis.rules.models.RuleVariable;
+import org.hisp.dhis.rules.models.RuleVariablePreviousEvent;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -12,13 +18,20 @@ import org.junit.runners.JUnit4;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nonnull;
+
 import static junit.framework.TestCase.fail;
 import static org.assertj.core.api.Java6Assertions.assertThat;
 import static org.mockito.Mockito.mock;
@@ -179,6 +192,183 @@ public class RuleEngineTests {
         }
     }
 
+    @Test
+    public void evaluateEventsShouldReturnSameEffectsAsEvaluatingEventsOneByOne() throws Exception {
+        RuleEngineContext context = RuleEngineContext.builder(RuleExpressionInterpreter.create())
+                .ruleVariables(Arrays.<RuleVariable>asList(RuleVariablePreviousEvent.create(
+                        "test_variable", "test_data_element", RuleValueType.NUMERIC)))
+                .rules(Arrays.asList(Rule.create(null, null, "true", Arrays.<RuleAction>asList(
+                        RuleActionDisplayText.createForFeedback("test_content",
+                                "V{event_count} + ':' + #{test_variable}")))))
+                .build();
+
+        RuleEvent contextualEvent = event("test_event_one", "2017-01-01", "1");
+        RuleEvent ruleEventTwo = event("test_event_two", "2017-02-01", "2");
+        RuleEvent ruleEventThree = event("test_event_three", "2017-03-01", "3");
+
+        Map<String, List<RuleEffect>> ruleEffects = context.toEngineBuilder()
+                .events(Arrays.asList(contextualEvent))
+                .build().evaluate(Arrays.asList(ruleEventThree, ruleEventTwo)).call();
+
+        List<RuleEffect> ruleEffectsTwo = context.toEngineBuilder()
+                .events(Arrays.asList(contextualEvent, ruleEventThree))
+                .build().evaluate(ruleEventTwo).call();
+        List<RuleEffect> ruleEffectsThree = context.toEngineBuilder()
+                .events(Arrays.asList(contextualEvent, ruleEventTwo))
+                .build().evaluate(ruleEventThree).call();
+
+        assertThat(ruleEffects.keySet()).containsExactly("test_event_three", "test_event_two");
+        assertThat(ruleEffects.get("test_event_two")).isEqualTo(ruleEffectsTwo);
+        assertThat(ruleEffects.get("test_event_three")).isEqualTo(ruleEffectsThree);
+        assertThat(ruleEffects.get("test_event_two").get(0).data()).isEqualTo("3:1");
+        assertThat(ruleEffects.get("test_event_three").get(0).data()).isEqualTo("3:2");
+    }
+
+    @Test
+    public void evaluateEnrollmentAndEventsShouldReturnEnrollmentEffectsFirst() throws Exception {
+        RuleEngineContext context = RuleEngineContext.builder(RuleExpressionInterpreter.create())
+                .rules(Arrays.asList(Rule.create(null, null, "true", Arrays.<RuleAction>asList(
+                        RuleActionDisplayText.createForFeedback("test_content",
+                                "V{enrollment_id} + ':' + V{event_count}")))))
+                .build();
+
+        RuleEnrollment ruleEnrollment = RuleEnrollment.create("test_enrollment", new Date(),
+                new Date(), RuleEnrollment.Status.ACTIVE, new ArrayList<RuleAttributeValue>());
+        RuleEvent ruleEventOne = event("test_event_one", "2017-01-01", "1");
+        RuleEvent ruleEventTwo = event("test_event_two", "2017-02-01", "2");
+
+        Map<String, List<RuleEffect>> ruleEffects = context.toEngineBuilder().build()
+                .evaluate(ruleEnrollment, Arrays.asList(ruleEventOne, ruleEventTwo)).call();
+
+        assertThat(ruleEffects.keySet()).containsExactly(
+                "test_enrollment", "test_event_one", "test_event_two");
+        assertThat(ruleEffects.get("test_enrollment").get(0).data()).isEqualTo("test_enrollment:2");
+        assertThat(ruleEffects.get("test_event_one").get(0).data()).isEqualTo("test_enrollment:2");
+        assertThat(ruleEffects.get("test_event_two").get(0).data()).isEqualTo("test_enrollment:2");
+    }
+
+    @Test
+    public void evaluateEventsShouldThrowIfEventIsAlreadyInContext() throws ParseException {
+        RuleEvent ruleEvent = event("test_event", "2017-01-01", "1");
+
+        RuleEngine ruleEngine = ruleEngineContext.toEngineBuilder()
+                .events(Arrays.asList(ruleEvent))
+                .build();
+
+        try {
+            ruleEngine.evaluate(Arrays.asList(ruleEvent));
+            fail("IllegalStateException was expected, but nothing was thrown.");
+        } catch (IllegalStateException illegalStateException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void evaluateEventsShouldThrowOnDuplicateEvents() throws ParseException {
+        RuleEvent ruleEvent = event("test_event", "2017-01-01", "1");
+
+        try {
+            ruleEngineContext.toEngineBuilder().build()
+                    .evaluate(Arrays.asList(ruleEvent, ruleEvent));
+            fail("IllegalStateException was expected, but nothing was thrown.");
+        } catch (IllegalStateException illegalStateException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void evaluateEventsShouldThrowOnNullEvents() {
+        try {
+            List<RuleEvent> ruleEvents = null;
+            ruleEngineContext.toEngineBuilder().build().evaluate(ruleEvents);
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void evaluateEnrollmentAndEventsShouldThrowIfEnrollmentIsAlreadyInContext() {
+        RuleEnrollment ruleEnrollment = mock(RuleEnrollment.class);
+
+        RuleEngine ruleEngine = ruleEngineContext.toEngineBuilder()
+                .enrollment(ruleEnrollment)
+                .build();
+
+        try {
+            ruleEngine.evaluate(ruleEnrollment, new ArrayList<RuleEvent>());
+            fail("IllegalStateException was expected, but nothing was thrown.");
+        } catch (IllegalStateException illegalStateException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void evaluateShouldApplyOnlyRulesOfProgramStageOfEvent() throws Exception {
+        Rule ruleOne = Rule.create("test_program_stage", null, "true", Arrays.<RuleAction>asList(
+                RuleActionDisplayText.createForFeedback("test_content_one", "'one'")));
+        Rule ruleTwo = Rule.create("test_program_stage_other", null, "true",
+                Arrays.<RuleAction>asList(RuleActionDisplayText
+                        .createForFeedback("test_content_two", "'two'")));
+        Rule ruleThree = Rule.create(null, 1, "true", Arrays.<RuleAction>asList(
+                RuleActionDisplayText.createForFeedback("test_content_three", "'three'")));
+
+        RuleEngine ruleEngine = RuleEngineContext.builder(RuleExpressionInterpreter.create())
+                .rules(Arrays.asList(ruleOne, ruleTwo, ruleThree))
+                .build().toEngineBuilder()
+                .build();
+
+        List<RuleEffect> eventEffects = ruleEngine
+                .evaluate(event("test_event", "2017-01-01", "1")).call();
+        List<RuleEffect> enrollmentEffects = ruleEngine.evaluate(RuleEnrollment.create(
+                "test_enrollment", new Date(), new Date(), RuleEnrollment.Status.ACTIVE,
+                new ArrayList<RuleAttributeValue>())).call();
+
+        assertThat(eventEffects.size()).isEqualTo(2);
+        assertThat(eventEffects.get(0).data()).isEqualTo("three");
+        assertThat(eventEffects.get(1).data()).isEqualTo("one");
+        // enrollment is evaluated against rules of all stages
+        assertThat(enrollmentEffects.size()).isEqualTo(3);
+        assertThat(enrollmentEffects.get(0).data()).isEqualTo("three");
+        assertThat(enrollmentEffects.get(1).data()).isEqualTo("one");
+        assertThat(enrollmentEffects.get(2).data()).isEqualTo("two");
+    }
+
+    @Test
+    public void evaluateShouldKeepQuotesInTextOfFunctionsAndConstants() throws Exception {
+        Rule rule = Rule.create(null, null, "C{test_constant} == d2:concatenate(\"O'\", 'Brien')",
+                Arrays.<RuleAction>asList(
+                        RuleActionDisplayText.createForFeedback("test_content_one",
+                                "d2:concatenate(\"O'\", 'Brien')"),
+                        RuleActionDisplayText.createForFeedback("test_content_two",
+                                "d2:substring(C{test_constant}, 0, 3) + '\\\\'")));
+
+        Map<String, String> constants = new HashMap<>();
+        constants.put("test_constant", "O'Brien");
+
+        final RuleExpressionEvaluator interpreter = RuleExpressionInterpreter.create();
+        RuleExpressionEvaluator textEvaluator = new RuleExpressionEvaluator() {
+            @Nonnull
+            @Override
+            public String evaluate(@Nonnull String expression) {
+                // results of functions are bound into expressions as text
+                return interpreter.evaluate(expression);
+            }
+        };
+
+        for (RuleExpressionEvaluator expressionEvaluator : Arrays.asList(interpreter, textEvaluator)) {
+            List<RuleEffect> ruleEffects = RuleEngineContext.builder(expressionEvaluator)
+                    .rules(Arrays.asList(rule))
+                    .constants(constants)
+                    .build().toEngineBuilder().build()
+                    .evaluate(event("test_event", "2017-01-01", "1")).call();
+
+            assertThat(ruleEffects.size()).isEqualTo(2);
+            assertThat(ruleEffects.get(0).data()).isEqualTo("O'Brien");
+            assertThat(ruleEffects.get(1).data()).isEqualTo("O'B\\");
+        }
+    }
+
     @Test
     public void concurrentIterationOverRulesListShouldNotFail() throws InterruptedException {
         final RuleEngine ruleEngine = RuleEngineContext.builder(mock(RuleExpressionEvaluator.class))
@@ -223,4 +413,11 @@ public class RuleEngineTests {
         assertThat(threadOneLatch.await(4, TimeUnit.SECONDS)).isTrue();
         assertThat(threadTwoLatch.await(4, TimeUnit.SECONDS)).isTrue();
     }
+
+    private static RuleEvent event(String event, String date, String value) throws ParseException {
+        Date eventDate = new SimpleDateFormat("yyyy-MM-dd", Locale.US).parse(date);
+        return RuleEvent.create(event, "test_program_stage", RuleEvent.Status.ACTIVE,
+                eventDate, eventDate, Arrays.asList(RuleDataValue.create(eventDate,
+                        "test_program_stage", "test_data_element", value)));
+    }
 }
@@ -0,0 +1,97 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.RuleDataValue;
+import org.hisp.dhis.rules.models.RuleEvent;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static junit.framework.TestCase.fail;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class RuleEventsTests {
+
+    @Test
+    public void createShouldThrowOnNullEvents() {
+        try {
+            RuleEvents.create(null);
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void createShouldIndexEventsByUid() {
+        RuleEvent eventOne = event("test_event_one", 1);
+        RuleEvent eventTwo = event("test_event_two", 2);
+
+        List<RuleEvent> events = new ArrayList<>(Arrays.asList(eventOne, eventTwo));
+        RuleEvents ruleEvents = RuleEvents.create(events);
+
+        events.clear();
+
+        assertThat(ruleEvents.size()).isEqualTo(2);
+        assertThat(ruleEvents.events()).containsExactly(eventOne, eventTwo);
+        assertThat(ruleEvents.contains("test_event_one")).isTrue();
+        assertThat(ruleEvents.contains("test_event_two")).isTrue();
+        assertThat(ruleEvents.contains("test_event_three")).isFalse();
+
+        try {
+            ruleEvents.events().clear();
+            fail("UnsupportedOperationException was expected, but nothing was thrown.");
+        } catch (UnsupportedOperationException unsupportedOperationException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void sortedEventsShouldBeOrderedByEventDate() {
+        RuleEvent eventOne = event("test_event_one", 1);
+        RuleEvent eventTwo = event("test_event_two", 3);
+        RuleEvent eventThree = event("test_event_three", 2);
+
+        RuleEvents ruleEvents = RuleEvents.create(Arrays.asList(eventOne, eventTwo, eventThree));
+
+        assertThat(ruleEvents.sortedEvents()).containsExactly(eventTwo, eventThree, eventOne);
+    }
+
+    @Test
+    public void sortedEventsShouldPlaceTargetAsIfItWasAppendedBeforeSorting() {
+        List<RuleEvent> events = Arrays.asList(event("test_event_one", 1), event("test_event_two", 2),
+                event("test_event_three", 2), event("test_event_four", 4), event("test_event_five", 3));
+        RuleEvents ruleEvents = RuleEvents.create(events);
+
+        for (int date = 0; date <= 5; date++) {
+            RuleEvent target = event("test_target", date);
+
+            List<RuleEvent> expected = new ArrayList<>(events);
+            expected.add(target);
+            Collections.sort(expected, RuleEvent.EVENT_DATE_COMPARATOR);
+
+            assertThat(ruleEvents.sortedEvents(target)).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void emptyShouldNotContainEvents() {
+        RuleEvent target = event("test_target", 1);
+
+        assertThat(RuleEvents.empty().size()).isEqualTo(0);
+        assertThat(RuleEvents.empty().contains("test_target")).isFalse();
+        assertThat(RuleEvents.empty().sortedEvents(target)).containsExactly(target);
+        assertThat(RuleEvents.create(new ArrayList<RuleEvent>())).isSameAs(RuleEvents.empty());
+    }
+
+    private static RuleEvent event(String uid, long date) {
+        return RuleEvent.create(uid, "test_program_stage", RuleEvent.Status.ACTIVE,
+                new Date(date), new Date(date), new ArrayList<RuleDataValue>());
+    }
+}
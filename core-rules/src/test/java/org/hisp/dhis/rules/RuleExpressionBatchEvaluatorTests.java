@@ -0,0 +1,209 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.Rule;
+import org.hisp.dhis.rules.models.RuleAction;
+import org.hisp.dhis.rules.models.RuleActionDisplayKeyValuePair;
+import org.hisp.dhis.rules.models.RuleDataValue;
+import org.hisp.dhis.rules.models.RuleEffect;
+import org.hisp.dhis.rules.models.RuleEvent;
+import org.hisp.dhis.rules.models.RuleValueType;
+import org.hisp.dhis.rules.models.RuleVariable;
+import org.hisp.dhis.rules.models.RuleVariableCurrentEvent;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import static junit.framework.TestCase.fail;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class RuleExpressionBatchEvaluatorTests {
+
+    @Test
+    public void ruleEngineShouldEvaluateConditionsAndActionsInTwoRoundTrips() throws Exception {
+        RoundTripCountingEvaluator evaluator = new RoundTripCountingEvaluator();
+
+        List<RuleEffect> ruleEffects = evaluate(evaluator);
+
+        assertThat(evaluator.roundTrips).isEqualTo(2);
+        // three conditions and two actions, empty data is not evaluated
+        assertThat(evaluator.expressions).isEqualTo(5);
+        assertThat(evaluator.singleCalls).isEqualTo(0);
+        assertThat(ruleEffects).isEqualTo(evaluate(RuleExpressionInterpreter.create()));
+
+        assertThat(ruleEffects.size()).isEqualTo(3);
+        assertThat(ruleEffects.get(0).data()).isEqualTo("10.0");
+        assertThat(ruleEffects.get(1).data()).isEqualTo("test_value_two");
+        assertThat(ruleEffects.get(2).data()).isEqualTo("");
+    }
+
+    @Test
+    public void ruleEngineShouldEvaluateLazyOperandsOutsideOfBatch() throws Exception {
+        RoundTripCountingEvaluator evaluator = new RoundTripCountingEvaluator();
+        Rule rule = Rule.create(null, null, "#{test_var_one} > 10 && " +
+                "d2:hasValue('test_var_two')", Arrays.<RuleAction>asList(
+                RuleActionDisplayKeyValuePair.createForFeedback("test_action", "1")));
+
+        RuleEngineContext ruleEngineContext = RuleEngineContext.builder(evaluator)
+                .rules(Arrays.asList(rule))
+                .ruleVariables(ruleVariables())
+                .build();
+        List<RuleEffect> ruleEffects = ruleEngineContext.toEngineBuilder()
+                .build().evaluate(ruleEvent()).call();
+
+        assertThat(ruleEffects).isEmpty();
+        assertThat(evaluator.roundTrips).isEqualTo(0);
+        assertThat(evaluator.singleCalls).isEqualTo(1);
+        assertThat(ruleEngineContext.counters().skippedFunctionCalls()).isEqualTo(1);
+    }
+
+    @Test
+    public void ruleEngineShouldEvaluateArgumentsOfFunctionCallsInBatches() throws Exception {
+        RoundTripCountingEvaluator evaluator = new RoundTripCountingEvaluator();
+        Rule ruleOne = Rule.create(null, null, "d2:ceil(#{test_var_one} / 2) > 2",
+                Arrays.<RuleAction>asList(RuleActionDisplayKeyValuePair
+                        .createForFeedback("test_action_one", "1")));
+        Rule ruleTwo = Rule.create(null, null, "d2:floor(d2:ceil(#{test_var_one}) * 2) == 10",
+                Arrays.<RuleAction>asList(RuleActionDisplayKeyValuePair
+                        .createForFeedback("test_action_two", "2")));
+        Rule ruleThree = Rule.create(null, null, "d2:ceil(#{test_var_one}) > 10",
+                Arrays.<RuleAction>asList(RuleActionDisplayKeyValuePair
+                        .createForFeedback("test_action_three", "3")));
+
+        List<RuleEffect> ruleEffects = RuleEngineContext.builder(evaluator)
+                .rules(Arrays.asList(ruleOne, ruleTwo, ruleThree))
+                .ruleVariables(ruleVariables())
+                .build().toEngineBuilder().build().evaluate(ruleEvent()).call();
+
+        // two levels of arguments, conditions and data of actions
+        assertThat(evaluator.roundTrips).isEqualTo(4);
+        assertThat(evaluator.expressions).isEqualTo(9);
+        assertThat(evaluator.singleCalls).isEqualTo(0);
+
+        assertThat(ruleEffects.size()).isEqualTo(2);
+        assertThat(ruleEffects.get(0).data()).isEqualTo("1.0");
+        assertThat(ruleEffects.get(1).data()).isEqualTo("2.0");
+    }
+
+    @Test
+    public void ruleEngineShouldThrowIfBatchIsIncomplete() throws Exception {
+        RuleExpressionBatchEvaluator evaluator = new RoundTripCountingEvaluator() {
+            @Nonnull
+            @Override
+            public List<String> evaluateAll(@Nonnull List<String> expressions) {
+                return super.evaluateAll(expressions).subList(0, 1);
+            }
+        };
+
+        try {
+            evaluate(evaluator);
+            fail("IllegalStateException was expected, but nothing was thrown.");
+        } catch (IllegalStateException illegalStateException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void adapterShouldEvaluateExpressionsOneByOne() {
+        RuleExpressionBatchEvaluator evaluator = RuleExpressionBatchAdapter
+                .create(RuleExpressionInterpreter.create());
+
+        assertThat(evaluator.evaluateAll(Arrays.asList("1 + 1", "'test' + 1", "2 > 3")))
+                .containsExactly("2.0", "test1", "false");
+        assertThat(evaluator.evaluateAll(new ArrayList<String>())).isEmpty();
+        assertThat(evaluator.evaluate("1 + 1")).isEqualTo("2.0");
+    }
+
+    @Test
+    public void adapterShouldReturnBatchEvaluatorAsIs() {
+        RuleExpressionBatchEvaluator evaluator = new RoundTripCountingEvaluator();
+
+        assertThat(RuleExpressionBatchAdapter.create(evaluator)).isSameAs(evaluator);
+    }
+
+    @Test
+    public void adapterShouldThrowOnNullEvaluator() {
+        try {
+            RuleExpressionBatchAdapter.create(null);
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+
+    private static List<RuleEffect> evaluate(RuleExpressionEvaluator evaluator) throws Exception {
+        Rule ruleOne = Rule.create(null, null, "#{test_var_one} > 1", Arrays.<RuleAction>asList(
+                RuleActionDisplayKeyValuePair.createForFeedback("test_action_one",
+                        "#{test_var_one} * 2"),
+                RuleActionDisplayKeyValuePair.createForFeedback("test_action_two",
+                        "#{test_var_two}")));
+        Rule ruleTwo = Rule.create(null, null, "#{test_var_one} > 10", Arrays.<RuleAction>asList(
+                RuleActionDisplayKeyValuePair.createForFeedback("test_action_three",
+                        "#{test_var_one}")));
+        Rule ruleThree = Rule.create(null, null, "#{test_var_two} == 'test_value_two'",
+                Arrays.<RuleAction>asList(RuleActionDisplayKeyValuePair
+                        .createForFeedback("test_action_four", null)));
+
+        return RuleEngineContext.builder(evaluator)
+                .rules(Arrays.asList(ruleOne, ruleTwo, ruleThree))
+                .ruleVariables(ruleVariables())
+                .build().toEngineBuilder().build().evaluate(ruleEvent()).call();
+    }
+
+    private static List<RuleVariable> ruleVariables() {
+        return Arrays.<RuleVariable>asList(
+                RuleVariableCurrentEvent.create("test_var_one",
+                        "test_data_element_one", RuleValueType.NUMERIC),
+                RuleVariableCurrentEvent.create("test_var_two",
+                        "test_data_element_two", RuleValueType.TEXT));
+    }
+
+    private static RuleEvent ruleEvent() {
+        return RuleEvent.create("test_event", "test_program_stage",
+                RuleEvent.Status.ACTIVE, new Date(), new Date(), Arrays.asList(
+                        RuleDataValue.create(new Date(), "test_program_stage",
+                                "test_data_element_one", "5"),
+                        RuleDataValue.create(new Date(), "test_program_stage",
+                                "test_data_element_two", "test_value_two")));
+    }
+
+    /**
+     * Stand-in for evaluators with a high cost per call, which counts round trips.
+     */
+    private static class RoundTripCountingEvaluator implements RuleExpressionBatchEvaluator {
+        private final RuleExpressionEvaluator evaluator = RuleExpressionInterpreter.create();
+
+        int roundTrips;
+
+        int singleCalls;
+
+        int expressions;
+
+        @Nonnull
+        @Override
+        public String evaluate(@Nonnull String expression) {
+            singleCalls++;
+            return evaluator.evaluate(expression);
+        }
+
+        @Nonnull
+        @Override
+        public List<String> evaluateAll(@Nonnull List<String> expressions) {
+            roundTrips++;
+            this.expressions = this.expressions + expressions.size();
+
+            List<String> results = new ArrayList<>(expressions.size());
+            for (int i = 0; i < expressions.size(); i++) {
+                results.add(evaluator.evaluate(expressions.get(i)));
+            }
+            return results;
+        }
+    }
+}
@@ -110,4 +110,18 @@ public class RuleExpressionBinderTests {
         RuleExpressionBinder ruleExpressionBinder = RuleExpressionBinder.from(ruleExpression);
         assertThat(ruleExpressionBinder.build()).isEqualTo("'test_expression'");
     }
+
+    @Test
+    public void buildShouldBindValuesIntoCompiledTemplate() {
+        RuleExpressionTemplate template = RuleExpressionCompiler.compile("#{test_variable_one} " +
+                "+ d2:floor(d2:ceil(#{test_variable_two})) + d2:ceil(3.8) > #{test_variable_one}");
+
+        String result = RuleExpressionBinder.from(template)
+                .bindVariable("#{test_variable_one}", "1")
+                .bindFunction("d2:floor(d2:ceil(#{test_variable_two}))", "2")
+                .build();
+
+        // function call which is not bound is left as is
+        assertThat(result).isEqualTo("1 + 2 + d2:ceil(3.8) > 1");
+    }
 }
@@ -0,0 +1,165 @@
+package org.hisp.dhis.rules;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import static junit.framework.TestCase.fail;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class RuleExpressionCacheTests {
+    private CountingEvaluator evaluator;
+
+    @Before
+    public void setUp() throws Exception {
+        evaluator = new CountingEvaluator();
+    }
+
+    @Test
+    public void createShouldThrowOnNullEvaluator() {
+        try {
+            RuleExpressionCache.create(null, 10);
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void createShouldThrowOnNonPositiveSize() {
+        try {
+            RuleExpressionCache.create(evaluator, 0);
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void evaluateShouldCallEvaluatorOnlyForNewExpressions() {
+        RuleExpressionCache cache = RuleExpressionCache.create(evaluator, 10);
+
+        assertThat(cache.evaluate("'' == ''")).isEqualTo("true");
+        assertThat(cache.evaluate("'' == ''")).isEqualTo("true");
+        assertThat(cache.evaluate("2 > 3")).isEqualTo("false");
+        assertThat(cache.evaluate("'' == ''")).isEqualTo("true");
+
+        assertThat(evaluator.count.get()).isEqualTo(2);
+        assertThat(cache.hitCount()).isEqualTo(2);
+        assertThat(cache.missCount()).isEqualTo(2);
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void evaluateShouldEvictLeastRecentlyUsedResults() {
+        RuleExpressionCache cache = RuleExpressionCache.create(evaluator, 2);
+
+        cache.evaluate("1 + 1");
+        cache.evaluate("2 + 2");
+
+        // touch the first expression, so the second one is evicted
+        cache.evaluate("1 + 1");
+        cache.evaluate("3 + 3");
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(evaluator.count.get()).isEqualTo(3);
+
+        cache.evaluate("1 + 1");
+        assertThat(evaluator.count.get()).isEqualTo(3);
+
+        cache.evaluate("2 + 2");
+        assertThat(evaluator.count.get()).isEqualTo(4);
+    }
+
+    @Test
+    public void evaluateShouldNotCacheFailures() {
+        RuleExpressionCache cache = RuleExpressionCache.create(evaluator, 10);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.evaluate("2 >");
+                fail("IllegalArgumentException was expected, but nothing was thrown.");
+            } catch (IllegalArgumentException illegalArgumentException) {
+                // noop
+            }
+        }
+
+        assertThat(evaluator.count.get()).isEqualTo(2);
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void clearShouldResetCacheAndStatistics() {
+        RuleExpressionCache cache = RuleExpressionCache.create(evaluator, 10);
+        cache.evaluate("1 + 1");
+        cache.evaluate("1 + 1");
+
+        cache.clear();
+
+        assertThat(cache.size()).isEqualTo(0);
+        assertThat(cache.hitCount()).isEqualTo(0);
+        assertThat(cache.missCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void cacheShouldBeSharedAcrossThreads() throws Exception {
+        final RuleExpressionCache cache = RuleExpressionCache.create(evaluator, 16);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<String> failures = new ArrayList<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < 1000; j++) {
+                            String result = cache.evaluate((j % 32) + " + 1");
+                            if (!result.equals(String.valueOf(j % 32 + 1.0))) {
+                                synchronized (failures) {
+                                    failures.add(result);
+                                }
+                            }
+                        }
+                    } catch (InterruptedException interruptedException) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(failures).isEmpty();
+        assertThat(cache.hitCount() + cache.missCount()).isEqualTo(4000);
+        assertThat(cache.size()).isLessThanOrEqualTo(16);
+    }
+
+    private static final class CountingEvaluator implements RuleExpressionEvaluator {
+        private final RuleExpressionEvaluator evaluator = RuleExpressionInterpreter.create();
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Nonnull
+        @Override
+        public String evaluate(@Nonnull String expression) {
+            count.incrementAndGet();
+            return evaluator.evaluate(expression);
+        }
+    }
+}
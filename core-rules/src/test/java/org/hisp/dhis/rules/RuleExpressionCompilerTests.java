@@ -0,0 +1,220 @@
+package org.hisp.dhis.rules;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class RuleExpressionCompilerTests {
+
+    @Test
+    public void compileShouldReturnEmptyTemplateForBlankExpressions() {
+        assertThat(RuleExpressionCompiler.compile(null).isEmpty()).isTrue();
+        assertThat(RuleExpressionCompiler.compile("").isEmpty()).isTrue();
+        assertThat(RuleExpressionCompiler.compile("   ").isEmpty()).isTrue();
+    }
+
+    @Test
+    public void compileShouldExtractVariables() {
+        RuleExpressionTemplate template = RuleExpressionCompiler.compile(
+                "A{test_variable_one} <0 && C{test_variable_two} == '' && " +
+                        "V{test_variable_three} <0 && #{test_variable_four} == '' && " +
+                        "A{test_variable_one} > 10");
+
+        assertThat(template.expression()).isEqualTo("A{test_variable_one} <0 && " +
+                "C{test_variable_two} == '' && V{test_variable_three} <0 && " +
+                "#{test_variable_four} == '' && A{test_variable_one} > 10");
+        assertThat(template.ruleExpression().variables().size()).isEqualTo(4);
+        assertThat(template.ruleExpression().variables()).contains("A{test_variable_one}",
+                "C{test_variable_two}", "V{test_variable_three}", "#{test_variable_four}");
+        assertThat(template.functionCalls().size()).isEqualTo(0);
+    }
+
+    @Test
+    public void compileShouldExtractTopLevelFunctionCallsOnly() {
+        RuleExpressionTemplate template = RuleExpressionCompiler.compile(
+                "d2:floor(#{test_variable_one} + d2:ceil(#{test_variable_two})) / 5 " +
+                        "* d2:ceil(#{test_variable_two}) + d2:ceil(#{test_variable_two})");
+
+        assertThat(template.ruleExpression().variables().size()).isEqualTo(0);
+        assertThat(template.ruleExpression().functions()).containsExactly(
+                "d2:floor(#{test_variable_one} + d2:ceil(#{test_variable_two}))",
+                "d2:ceil(#{test_variable_two})");
+        assertThat(template.functionCalls().size()).isEqualTo(2);
+
+        RuleFunctionCallTemplate floor = template.functionCalls().get(0);
+        assertThat(floor.functionName()).isEqualTo("d2:floor");
+        assertThat(floor.arguments().size()).isEqualTo(1);
+
+        RuleExpressionTemplate floorArgument = floor.arguments().get(0);
+        assertThat(floorArgument.expression())
+                .isEqualTo("#{test_variable_one} + d2:ceil(#{test_variable_two})");
+        assertThat(floorArgument.ruleExpression().variables())
+                .containsExactly("#{test_variable_one}");
+        assertThat(floorArgument.functionCalls().size()).isEqualTo(1);
+        assertThat(floorArgument.functionCalls().get(0).functionName()).isEqualTo("d2:ceil");
+        assertThat(floorArgument.functionCalls().get(0).arguments().get(0)
+                .ruleExpression().variables()).containsExactly("#{test_variable_two}");
+    }
+
+    @Test
+    public void compileShouldSplitArgumentsOutsideOfStringsAndNestedCalls() {
+        RuleFunctionCallTemplate functionCall = RuleExpressionCompiler.compile(
+                "d2:some('one, two', d2:other(1, 2) , #{test_variable})")
+                .functionCalls().get(0);
+
+        assertThat(functionCall.functionCall())
+                .isEqualTo("d2:some('one, two', d2:other(1, 2) , #{test_variable})");
+        assertThat(functionCall.functionName()).isEqualTo("d2:some");
+        assertThat(functionCall.arguments().size()).isEqualTo(3);
+        assertThat(functionCall.arguments().get(0).expression()).isEqualTo("'one, two'");
+        assertThat(functionCall.arguments().get(1).expression()).isEqualTo("d2:other(1, 2)");
+        assertThat(functionCall.arguments().get(2).expression()).isEqualTo("#{test_variable}");
+    }
+
+    @Test
+    public void compileShouldReturnFunctionCallWithNoArguments() {
+        RuleFunctionCallTemplate functionCall = RuleExpressionCompiler
+                .compile("d2:some()").functionCalls().get(0);
+
+        assertThat(functionCall.functionName()).isEqualTo("d2:some");
+        assertThat(functionCall.arguments().size()).isEqualTo(0);
+    }
+
+    @Test
+    public void compileShouldIgnoreMalformedFunctionCalls() {
+        RuleExpressionTemplate template = RuleExpressionCompiler
+                .compile("d2:some(#{test_variable} && d2: == ''");
+
+        assertThat(template.functionCalls().size()).isEqualTo(0);
+        assertThat(template.ruleExpression().variables()).containsExactly("#{test_variable}");
+    }
+
+    @Test
+    public void compileShouldIgnoreContentOfStringLiterals() {
+        RuleExpressionTemplate template = RuleExpressionCompiler
+                .compile("'d2:ceil(1) #{test_variable}' == \"A{test_attribute}\"");
+
+        assertThat(template.functionCalls().size()).isEqualTo(0);
+        assertThat(template.ruleExpression().variables().size()).isEqualTo(0);
+    }
+
+    @Test
+    public void compileShouldRecordOffsetsOfEachReference() {
+        RuleExpressionTemplate template = RuleExpressionCompiler
+                .compile("#{one} + d2:ceil(#{two}) > #{one}");
+
+        assertThat(template.tokens().size()).isEqualTo(3);
+        assertThat(template.tokens().get(0)).isEqualTo(RuleExpressionToken.variable(0, "#{one}", 0));
+        assertThat(template.tokens().get(0).name()).isEqualTo("one");
+        assertThat(template.tokens().get(1))
+                .isEqualTo(RuleExpressionToken.functionCall(9, "d2:ceil(#{two})"));
+        assertThat(template.tokens().get(1).name()).isEqualTo("d2:ceil");
+        assertThat(template.tokens().get(2)).isEqualTo(RuleExpressionToken.variable(27, "#{one}", 0));
+    }
+
+    @Test
+    public void compileShouldNotSplitExpressionsWithoutFunctionCalls() {
+        assertThat(RuleExpressionCompiler.compile("#{one} > 1 && #{two} > 2")
+                .branch()).isNull();
+        assertThat(RuleExpressionCompiler.compile("#{one} > 1 ? #{two} : 'three'")
+                .branch()).isNull();
+        assertThat(RuleExpressionCompiler.compile("d2:hasValue('one') && #{two} > 2")
+                .branch()).isNull();
+    }
+
+    @Test
+    public void compileShouldGroupOperandsBeforeFunctionCalls() {
+        RuleExpressionTemplate template = RuleExpressionCompiler.compile("(#{five} || " +
+                "#{one} > 1 && #{two} > 2 && d2:hasValue('three') && #{four})");
+
+        RuleExpressionBranch or = template.branch();
+        assertThat(or.kind()).isEqualTo(RuleExpressionBranch.Kind.OR);
+        assertThat(or.operands().size()).isEqualTo(2);
+
+        assertThat(or.operands().get(0).expression()).isEqualTo("#{five} ");
+        assertThat(or.operands().get(0).branch()).isNull();
+
+        RuleExpressionBranch and = or.operands().get(1).branch();
+        assertThat(and.kind()).isEqualTo(RuleExpressionBranch.Kind.AND);
+        assertThat(and.operands().size()).isEqualTo(2);
+        assertThat(and.operands().get(0).expression()).isEqualTo("#{one} > 1 && #{two} > 2 ");
+        assertThat(and.operands().get(1).expression()).isEqualTo(" d2:hasValue('three') && #{four}");
+        assertThat(and.operands().get(1).functionCallCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void compileShouldSplitConditionalAtMatchingColon() {
+        RuleExpressionTemplate template = RuleExpressionCompiler.compile("#{one} == '?:' ? " +
+                "(#{two} ? 1 : 2) : #{three} ? d2:floor(d2:ceil(#{four})) : 3");
+
+        RuleExpressionBranch conditional = template.branch();
+        assertThat(conditional.kind()).isEqualTo(RuleExpressionBranch.Kind.CONDITIONAL);
+        assertThat(conditional.operands().get(0).expression()).isEqualTo("#{one} == '?:' ");
+        assertThat(conditional.operands().get(1).expression()).isEqualTo(" (#{two} ? 1 : 2) ");
+        assertThat(conditional.operands().get(2).expression())
+                .isEqualTo(" #{three} ? d2:floor(d2:ceil(#{four})) : 3");
+        assertThat(conditional.operands().get(2).functionCallCount()).isEqualTo(2);
+        assertThat(conditional.operands().get(2).branch().kind())
+                .isEqualTo(RuleExpressionBranch.Kind.CONDITIONAL);
+    }
+
+    @Test
+    public void compileShouldInlineConstants() {
+        Map<String, String> constants = new HashMap<>();
+        constants.put("test_constant_one", "-2");
+        constants.put("test_constant_two", "test_value");
+
+        RuleExpressionTemplate template = RuleExpressionCompiler.compile("#{test_variable} - " +
+                "C{test_constant_one} == C{test_constant_two} + 'C{test_constant_one}' + " +
+                "C{test_constant_three}", new RuleVariableSlots(), constants);
+
+        assertThat(template.expression()).isEqualTo("#{test_variable} - (-2) == " +
+                "'test_value' + 'C{test_constant_one}' + C{test_constant_three}");
+        assertThat(template.ruleExpression().variables()).containsExactly(
+                "#{test_variable}", "C{test_constant_three}");
+    }
+
+    @Test
+    public void compileShouldEscapeQuotesOfInlinedConstants() {
+        Map<String, String> constants = new HashMap<>();
+        constants.put("test_constant", "it's");
+
+        RuleExpressionTemplate template = RuleExpressionCompiler.compile("C{test_constant} == " +
+                "d2:concatenate('it', \"'s\") + #{test_variable}", new RuleVariableSlots(), constants);
+
+        assertThat(template.expression()).isEqualTo("'it\\'s' == " +
+                "d2:concatenate('it', \"'s\") + #{test_variable}");
+
+        // escaped quote does not end the literal
+        assertThat(template.functionCalls().size()).isEqualTo(1);
+        assertThat(template.ruleExpression().variables()).containsExactly("#{test_variable}");
+    }
+
+    @Test
+    public void compileShouldFoldConstantExpressions() {
+        Map<String, String> constants = new HashMap<>();
+        constants.put("test_threshold", "4");
+
+        RuleExpressionTemplate folded = RuleExpressionCompiler.compile(
+                "(C{test_threshold} * 2 > 10) ? 'high' : 'low'", new RuleVariableSlots(), constants);
+        assertThat(folded.expression()).isEqualTo("'low'");
+        assertThat(folded.tokens()).isEmpty();
+        assertThat(folded.node()).isInstanceOf(RuleExpressionNode.Literal.class);
+
+        RuleExpressionTemplate partiallyFolded = RuleExpressionCompiler.compile(
+                "C{test_threshold} * 2 > 10 || d2:hasValue(#{test_variable})",
+                new RuleVariableSlots(), constants);
+        assertThat(partiallyFolded.node()).isInstanceOf(RuleExpressionNode.FunctionCall.class);
+
+        RuleExpressionTemplate notFolded = RuleExpressionCompiler.compile(
+                "#{test_variable} * (2 + 3)", new RuleVariableSlots(), constants);
+        RuleExpressionNode.Binary multiply = (RuleExpressionNode.Binary) notFolded.node();
+        assertThat(((RuleExpressionNode.Literal) multiply.right).value).isEqualTo(5.0);
+    }
+}
@@ -0,0 +1,337 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.Rule;
+import org.hisp.dhis.rules.models.RuleAction;
+import org.hisp.dhis.rules.models.RuleActionDisplayKeyValuePair;
+import org.hisp.dhis.rules.models.RuleDataValue;
+import org.hisp.dhis.rules.models.RuleEffect;
+import org.hisp.dhis.rules.models.RuleEvent;
+import org.hisp.dhis.rules.models.RuleValueType;
+import org.hisp.dhis.rules.models.RuleVariable;
+import org.hisp.dhis.rules.models.RuleVariableCurrentEvent;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.assertj.core.api.Java6Assertions.fail;
+
+@RunWith(JUnit4.class)
+public class RuleExpressionInterpreterTests {
+    private RuleExpressionInterpreter interpreter;
+
+    @Before
+    public void setUp() throws Exception {
+        interpreter = RuleExpressionInterpreter.create();
+    }
+
+    @Test
+    public void evaluateMustFormatResultsAsJavaScriptEngineBridge() {
+        assertThat(interpreter.evaluate("2 + 2")).isEqualTo("4.0");
+        assertThat(interpreter.evaluate("true")).isEqualTo("true");
+        assertThat(interpreter.evaluate("'test_string'")).isEqualTo("test_string");
+        assertThat(interpreter.evaluate("\"test_string\"")).isEqualTo("test_string");
+    }
+
+    @Test
+    public void evaluateMustRespectOperatorPrecedence() {
+        assertThat(interpreter.evaluate("2 + 2 * 3")).isEqualTo("8.0");
+        assertThat(interpreter.evaluate("(2 + 2) * 3")).isEqualTo("12.0");
+        assertThat(interpreter.evaluate("10 - 4 - 3")).isEqualTo("3.0");
+        assertThat(interpreter.evaluate("30 / 5 * 1")).isEqualTo("6.0");
+        assertThat(interpreter.evaluate("7 % 4")).isEqualTo("3.0");
+        assertThat(interpreter.evaluate("-2 * -3")).isEqualTo("6.0");
+        assertThat(interpreter.evaluate("1 + 2 > 2 && 3 < 4")).isEqualTo("true");
+        assertThat(interpreter.evaluate("1 / 0")).isEqualTo("Infinity");
+    }
+
+    @Test
+    public void evaluateMustCompareValues() {
+        assertThat(interpreter.evaluate("1 < 2")).isEqualTo("true");
+        assertThat(interpreter.evaluate("2 <= 2")).isEqualTo("true");
+        assertThat(interpreter.evaluate("1 > 2")).isEqualTo("false");
+        assertThat(interpreter.evaluate("2 >= 3")).isEqualTo("false");
+        assertThat(interpreter.evaluate("'abc' < 'abd'")).isEqualTo("true");
+        assertThat(interpreter.evaluate("'10' < 9")).isEqualTo("false");
+        assertThat(interpreter.evaluate("'abc' < 9")).isEqualTo("false");
+    }
+
+    @Test
+    public void evaluateMustFollowJavaScriptEquality() {
+        assertThat(interpreter.evaluate("'' == ''")).isEqualTo("true");
+        assertThat(interpreter.evaluate("'1' == 1")).isEqualTo("true");
+        assertThat(interpreter.evaluate("'1' === 1")).isEqualTo("false");
+        assertThat(interpreter.evaluate("1 == 1.0")).isEqualTo("true");
+        assertThat(interpreter.evaluate("true == 1")).isEqualTo("true");
+        assertThat(interpreter.evaluate("'' == 0")).isEqualTo("true");
+        assertThat(interpreter.evaluate("'a' != 'b'")).isEqualTo("true");
+        assertThat(interpreter.evaluate("'a' !== 'a'")).isEqualTo("false");
+    }
+
+    @Test
+    public void evaluateMustConcatenateStrings() {
+        assertThat(interpreter.evaluate("'test' + '_' + 'string'")).isEqualTo("test_string");
+        assertThat(interpreter.evaluate("'value: ' + 4")).isEqualTo("value: 4");
+        assertThat(interpreter.evaluate("'value: ' + 4.5")).isEqualTo("value: 4.5");
+        assertThat(interpreter.evaluate("1 + 2 + '3'")).isEqualTo("33");
+        assertThat(interpreter.evaluate("'it\\'s'")).isEqualTo("it's");
+    }
+
+    @Test
+    public void evaluateMustShortCircuitLogicalOperators() {
+        assertThat(interpreter.evaluate("false && d2:unknown()")).isEqualTo("false");
+        assertThat(interpreter.evaluate("true || d2:unknown()")).isEqualTo("true");
+        assertThat(interpreter.evaluate("!true || !false")).isEqualTo("true");
+        assertThat(interpreter.evaluate("'' || 'fallback'")).isEqualTo("fallback");
+        assertThat(interpreter.evaluate("1 && 'last'")).isEqualTo("last");
+    }
+
+    @Test
+    public void evaluateMustSupportTernaryOperator() {
+        assertThat(interpreter.evaluate("1 > 2 ? 'yes' : 'no'")).isEqualTo("no");
+        assertThat(interpreter.evaluate("1 < 2 ? 'yes' : 'no'")).isEqualTo("yes");
+        assertThat(interpreter.evaluate("false ? 1 : true ? 2 : 3")).isEqualTo("2.0");
+    }
+
+    @Test
+    public void evaluateMustCallFunctions() {
+        assertThat(interpreter.evaluate("d2:floor(19.9 + d2:ceil(10.6))")).isEqualTo("30.0");
+        assertThat(interpreter.evaluate("d2:daysBetween('2017-01-01', '2017-02-01')"))
+                .isEqualTo("31.0");
+    }
+
+    @Test
+    public void evaluateMustCallTextFunctions() {
+        assertThat(interpreter.evaluate("d2:concatenate('ab', d2:left('cdef', 2)) == 'abcd'"))
+                .isEqualTo("true");
+        assertThat(interpreter.evaluate("d2:addDays('2017-01-30', 3)")).isEqualTo("2017-02-02");
+    }
+
+    @Test
+    public void evaluateMustThrowOnUnsupportedFunction() {
+        try {
+            interpreter.evaluate("d2:unknown(1)");
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void evaluateMustThrowOnUnboundVariable() {
+        try {
+            interpreter.evaluate("#{test_variable} > 0");
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void evaluateMustThrowOnMalformedExpression() {
+        List<String> expressions = Arrays.asList("", "1 +", "(1 + 2", "'unterminated",
+                "1 ? 2", "test_identifier", "1 2");
+
+        for (String expression : expressions) {
+            try {
+                interpreter.evaluate(expression);
+                fail("IllegalArgumentException was expected for: " + expression);
+            } catch (IllegalArgumentException illegalArgumentException) {
+                // noop
+            }
+        }
+    }
+
+    @Test
+    public void evaluateMustThrowOnNullExpression() {
+        try {
+            interpreter.evaluate(null);
+            fail("NullPointerException was expected, but nothing was thrown.");
+        } catch (NullPointerException nullPointerException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void ruleEngineMustEvaluateNestedFunctionCalls() throws Exception {
+        RuleAction ruleAction = RuleActionDisplayKeyValuePair.createForFeedback(
+                "test_action_content", "d2:floor(#{test_var_one} + d2:ceil(#{test_var_three})) " +
+                        "/ 5 * d2:ceil(#{test_var_two})");
+        RuleVariable ruleVariableOne = RuleVariableCurrentEvent.create(
+                "test_var_one", "test_data_element_one", RuleValueType.NUMERIC);
+        RuleVariable ruleVariableTwo = RuleVariableCurrentEvent.create(
+                "test_var_two", "test_data_element_two", RuleValueType.NUMERIC);
+        RuleVariable ruleVariableThree = RuleVariableCurrentEvent.create(
+                "test_var_three", "test_data_element_three", RuleValueType.NUMERIC);
+        Rule rule = Rule.create(null, null, "#{test_var_one} > 10 && " +
+                "d2:hasValue('test_var_two')", Arrays.asList(ruleAction));
+
+        RuleEngine ruleEngine = RuleEngineContext.builder(interpreter)
+                .rules(Arrays.asList(rule))
+                .ruleVariables(Arrays.asList(ruleVariableOne, ruleVariableTwo, ruleVariableThree))
+                .build().toEngineBuilder()
+                .build();
+
+        RuleEvent ruleEvent = RuleEvent.create("test_event", "test_program_stage",
+                RuleEvent.Status.ACTIVE, new Date(), new Date(), Arrays.asList(
+                        RuleDataValue.create(new Date(), "test_program_stage",
+                                "test_data_element_one", "19.9"),
+                        RuleDataValue.create(new Date(), "test_program_stage",
+                                "test_data_element_two", "0.9"),
+                        RuleDataValue.create(new Date(), "test_program_stage",
+                                "test_data_element_three", "10.6")));
+        List<RuleEffect> ruleEffects = ruleEngine.evaluate(ruleEvent).call();
+
+        assertThat(ruleEffects.size()).isEqualTo(1);
+        assertThat(ruleEffects.get(0).data()).isEqualTo("6.0");
+        assertThat(ruleEffects.get(0).ruleAction()).isEqualTo(ruleAction);
+    }
+
+    @Test
+    public void ruleEngineMustBindTextResultsOfFunctionsAsStrings() throws Exception {
+        RuleAction ruleAction = RuleActionDisplayKeyValuePair.createForFeedback(
+                "test_action_content", "d2:concatenate(#{test_var_one}, '_suffix')");
+        RuleVariable ruleVariableOne = RuleVariableCurrentEvent.create(
+                "test_var_one", "test_data_element_one", RuleValueType.TEXT);
+        Rule rule = Rule.create(null, null, "d2:left(#{test_var_one}, 4) == 'test'",
+                Arrays.asList(ruleAction));
+
+        // evaluator which is opaque to the engine, so
+        // function results are bound into expressions
+        RuleExpressionEvaluator evaluator = new RuleExpressionEvaluator() {
+            @Nonnull
+            @Override
+            public String evaluate(@Nonnull String expression) {
+                return interpreter.evaluate(expression);
+            }
+        };
+
+        RuleEngine ruleEngine = RuleEngineContext.builder(evaluator)
+                .rules(Arrays.asList(rule))
+                .ruleVariables(Arrays.asList(ruleVariableOne))
+                .build().toEngineBuilder()
+                .build();
+
+        RuleEvent ruleEvent = RuleEvent.create("test_event", "test_program_stage",
+                RuleEvent.Status.ACTIVE, new Date(), new Date(), Arrays.asList(
+                        RuleDataValue.create(new Date(), "test_program_stage",
+                                "test_data_element_one", "test_value")));
+        List<RuleEffect> ruleEffects = ruleEngine.evaluate(ruleEvent).call();
+
+        assertThat(ruleEffects.size()).isEqualTo(1);
+        assertThat(ruleEffects.get(0).data()).isEqualTo("test_value_suffix");
+    }
+
+    @Test
+    public void ruleEngineMustSkipFunctionCallsOfShortCircuitedOperands() throws Exception {
+        RuleEngineContext ruleEngineContext = shortCircuitingContext(interpreter);
+        List<RuleEffect> ruleEffects = shortCircuitingEvent(ruleEngineContext);
+
+        assertThat(ruleEffects.size()).isEqualTo(1);
+        assertThat(ruleEffects.get(0).data()).isEqualTo("1.0");
+        assertThat(ruleEngineContext.counters().functionCalls()).isEqualTo(1);
+        assertThat(ruleEngineContext.counters().skippedFunctionCalls()).isEqualTo(3);
+    }
+
+    @Test
+    public void ruleEngineMustSkipFunctionCallsOfShortCircuitedOperandsForExternalEvaluator()
+            throws Exception {
+        final List<String> expressions = new ArrayList<>();
+        RuleEngineContext ruleEngineContext = shortCircuitingContext(new RuleExpressionEvaluator() {
+            @Nonnull
+            @Override
+            public String evaluate(@Nonnull String expression) {
+                expressions.add(expression);
+                return interpreter.evaluate(expression);
+            }
+        });
+        List<RuleEffect> ruleEffects = shortCircuitingEvent(ruleEngineContext);
+
+        assertThat(ruleEffects.size()).isEqualTo(1);
+        assertThat(ruleEffects.get(0).data()).isEqualTo("1.0");
+        assertThat(ruleEngineContext.counters().functionCalls()).isEqualTo(1);
+        assertThat(ruleEngineContext.counters().skippedFunctionCalls()).isEqualTo(3);
+        // operands with function calls are sent only when they have to be evaluated
+        assertThat(expressions).containsExactly("5 > 10 ", "5 < 10 ", "5 > 10 ", "0.9", " 1");
+
+        ruleEngineContext.counters().reset();
+        assertThat(ruleEngineContext.counters().functionCalls()).isEqualTo(0);
+        assertThat(ruleEngineContext.counters().skippedFunctionCalls()).isEqualTo(0);
+    }
+
+    @Test
+    public void ruleEngineMustTreatTextOperandsAsTruthyForExternalEvaluator() throws Exception {
+        RuleExpressionEvaluator evaluator = new RuleExpressionEvaluator() {
+            @Nonnull
+            @Override
+            public String evaluate(@Nonnull String expression) {
+                return interpreter.evaluate(expression);
+            }
+        };
+
+        RuleVariable ruleVariable = RuleVariableCurrentEvent.create(
+                "test_var", "test_data_element", RuleValueType.TEXT);
+        Rule rule = Rule.create(null, null, "#{test_var} && d2:hasValue('test_var')",
+                Arrays.<RuleAction>asList(RuleActionDisplayKeyValuePair.createForFeedback(
+                        "test_action", "#{test_var} || d2:ceil(1.5)")));
+        RuleEvent ruleEvent = RuleEvent.create("test_event", "test_program_stage",
+                RuleEvent.Status.ACTIVE, new Date(), new Date(), Arrays.asList(
+                        RuleDataValue.create(new Date(), "test_program_stage",
+                                "test_data_element", "false")));
+
+        for (RuleExpressionEvaluator ruleExpressionEvaluator : Arrays.asList(evaluator, interpreter)) {
+            RuleEngineContext ruleEngineContext = RuleEngineContext.builder(ruleExpressionEvaluator)
+                    .rules(Arrays.asList(rule))
+                    .ruleVariables(Arrays.asList(ruleVariable))
+                    .build();
+            List<RuleEffect> ruleEffects = ruleEngineContext.toEngineBuilder()
+                    .build().evaluate(ruleEvent).call();
+
+            // text 'false' is truthy, the same way as it is in JavaScript
+            assertThat(ruleEffects.size()).isEqualTo(1);
+            assertThat(ruleEffects.get(0).data()).isEqualTo("false");
+            assertThat(ruleEngineContext.counters().functionCalls()).isEqualTo(1);
+            assertThat(ruleEngineContext.counters().skippedFunctionCalls()).isEqualTo(1);
+        }
+    }
+
+    private static RuleEngineContext shortCircuitingContext(RuleExpressionEvaluator evaluator) {
+        RuleVariable ruleVariableOne = RuleVariableCurrentEvent.create(
+                "test_var_one", "test_data_element_one", RuleValueType.NUMERIC);
+        RuleVariable ruleVariableTwo = RuleVariableCurrentEvent.create(
+                "test_var_two", "test_data_element_two", RuleValueType.NUMERIC);
+
+        Rule ruleOne = Rule.create(null, null, "#{test_var_one} > 10 && " +
+                "d2:floor(#{test_var_two}) > 0", Arrays.<RuleAction>asList(
+                RuleActionDisplayKeyValuePair.createForFeedback("test_action_one", "1")));
+        Rule ruleTwo = Rule.create(null, null, "#{test_var_one} < 10 || " +
+                "d2:ceil(#{test_var_two}) > 0", Arrays.<RuleAction>asList(
+                RuleActionDisplayKeyValuePair.createForFeedback("test_action_two",
+                        "#{test_var_one} > 10 ? d2:floor(#{test_var_two}) : " +
+                                "d2:ceil(#{test_var_two})")));
+
+        return RuleEngineContext.builder(evaluator)
+                .rules(Arrays.asList(ruleOne, ruleTwo))
+                .ruleVariables(Arrays.asList(ruleVariableOne, ruleVariableTwo))
+                .build();
+    }
+
+    private static List<RuleEffect> shortCircuitingEvent(RuleEngineContext ruleEngineContext)
+            throws Exception {
+        RuleEvent ruleEvent = RuleEvent.create("test_event", "test_program_stage",
+                RuleEvent.Status.ACTIVE, new Date(), new Date(), Arrays.asList(
+                        RuleDataValue.create(new Date(), "test_program_stage",
+                                "test_data_element_one", "5"),
+                        RuleDataValue.create(new Date(), "test_program_stage",
+                                "test_data_element_two", "0.9")));
+        return ruleEngineContext.toEngineBuilder().build().evaluate(ruleEvent).call();
+    }
+}
@@ -0,0 +1,116 @@
+package org.hisp.dhis.rules;
+
+import org.hisp.dhis.rules.models.RuleValueType;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static junit.framework.TestCase.fail;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class RuleVariableFrameTests {
+    private RuleVariableSlots slots;
+
+    private Map<String, RuleVariableValue> valueMap;
+
+    @Before
+    public void setUp() throws Exception {
+        slots = new RuleVariableSlots();
+        valueMap = new HashMap<>();
+    }
+
+    @Test
+    public void valueShouldBeConvertedToTypeOfVariable() {
+        valueMap.put("test_number", RuleVariableValue.create("12.5", RuleValueType.NUMERIC));
+        valueMap.put("test_boolean", RuleVariableValue.create("true", RuleValueType.BOOLEAN));
+        valueMap.put("test_text", RuleVariableValue.create("test_value", RuleValueType.TEXT));
+        valueMap.put("test_malformed", RuleVariableValue.create("abc", RuleValueType.NUMERIC));
+
+        RuleVariableFrame frame = frame("test_number",
+                "test_boolean", "test_text", "test_malformed");
+
+        assertThat(frame.value(0)).isEqualTo(12.5);
+        assertThat(frame.value(1)).isEqualTo(true);
+        assertThat(frame.value(2)).isEqualTo("test_value");
+        assertThat(frame.value(3)).isEqualTo("abc");
+    }
+
+    @Test
+    public void valueShouldFallBackToDefaultsOfType() {
+        valueMap.put("test_number", RuleVariableValue.create(RuleValueType.NUMERIC));
+        valueMap.put("test_boolean", RuleVariableValue.create(RuleValueType.BOOLEAN));
+        valueMap.put("test_text", RuleVariableValue.create(RuleValueType.TEXT));
+
+        RuleVariableFrame frame = frame("test_number", "test_boolean", "test_text");
+
+        assertThat(frame.value(0)).isEqualTo(0.0);
+        assertThat(frame.value(1)).isEqualTo(false);
+        assertThat(frame.value(2)).isEqualTo("");
+        assertThat(frame.render(0)).isEqualTo("0.0");
+        assertThat(frame.render(1)).isEqualTo("false");
+        assertThat(frame.render(2)).isEqualTo("''");
+    }
+
+    @Test
+    public void renderShouldReturnValueInFormOfExpression() {
+        valueMap.put("test_number", RuleVariableValue.create("12", RuleValueType.NUMERIC));
+        valueMap.put("test_text", RuleVariableValue.create("test_value", RuleValueType.TEXT));
+
+        RuleVariableFrame frame = frame("test_number", "test_text", "test_unknown");
+
+        assertThat(frame.render(0)).isEqualTo("12");
+        assertThat(frame.render(1)).isEqualTo("'test_value'");
+        assertThat(frame.render(2)).isNull();
+    }
+
+    @Test
+    public void valueShouldThrowForUnknownVariable() {
+        RuleVariableFrame frame = frame("test_unknown");
+
+        try {
+            frame.value(0);
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void invalidateShouldDropCachedValue() {
+        valueMap.put("test_number", RuleVariableValue.create("12", RuleValueType.NUMERIC));
+
+        RuleVariableFrame frame = frame("test_number");
+        assertThat(frame.value(0)).isEqualTo(12.0);
+        assertThat(frame.render(0)).isEqualTo("12");
+
+        valueMap.put("test_number", RuleVariableValue.create("13", RuleValueType.NUMERIC));
+        assertThat(frame.value(0)).isEqualTo(12.0);
+
+        frame.invalidate("test_number");
+        assertThat(frame.value(0)).isEqualTo(13.0);
+        assertThat(frame.render(0)).isEqualTo("13");
+    }
+
+    @Test
+    public void parsedExpressionShouldBeEvaluatedAgainstFrame() {
+        valueMap.put("test_number", RuleVariableValue.create("12", RuleValueType.NUMERIC));
+        valueMap.put("test_text", RuleVariableValue.create("test_value", RuleValueType.TEXT));
+
+        RuleExpressionNode node = RuleExpressionParser.parse(
+                "#{test_number} > 10 && A{test_text} == 'test_value'", slots);
+
+        assertThat(node.evaluate(new RuleVariableFrame(slots, valueMap))).isEqualTo(true);
+    }
+
+    private RuleVariableFrame frame(String... variables) {
+        for (String variable : variables) {
+            slots.slot(variable);
+        }
+        return new RuleVariableFrame(slots, valueMap);
+    }
+}
@@ -21,6 +21,7 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Locale;
 import java.util.Map;
 
@@ -539,6 +540,36 @@ public class RuleVariableValueMapBuilderTests {
                 .hasValue("'test_attribute_value_two'").hasCandidates("test_attribute_value_two");
     }
 
+    @Test
+    public void buildShouldMaterializeReferencedVariablesOnly() throws ParseException {
+        RuleVariable ruleVariableOne = RuleVariableCurrentEvent.create("test_variable_one",
+                "test_dataelement_one", RuleValueType.TEXT);
+        RuleVariable ruleVariableTwo = RuleVariableNewestEvent.create("test_variable_two",
+                "test_dataelement_two", RuleValueType.TEXT);
+
+        Date eventDate = dateFormat.parse("2015-01-01");
+        RuleEvent ruleEvent = RuleEvent.create("test_event_uid", "test_program_stage",
+                RuleEvent.Status.ACTIVE, eventDate, eventDate, Arrays.asList(
+                        RuleDataValue.create(eventDate, "test_program_stage",
+                                "test_dataelement_one", "test_value_one"),
+                        RuleDataValue.create(eventDate, "test_program_stage",
+                                "test_dataelement_two", "test_value_two")));
+
+        Map<String, RuleVariableValue> valueMap = RuleVariableValueMapBuilder.target(ruleEvent)
+                .ruleVariables(Arrays.asList(ruleVariableOne, ruleVariableTwo))
+                .referencedVariables(new HashSet<>(Arrays.asList("test_variable_one",
+                        "event_count", "test_unknown_variable")))
+                .ruleEvents(new ArrayList<RuleEvent>())
+                .build();
+
+        assertThat(valueMap.size()).isEqualTo(2);
+
+        assertThatVariable(valueMap.get("event_count")).hasValue("1")
+                .isTypeOf(RuleValueType.NUMERIC).hasCandidates("1");
+        assertThatVariable(valueMap.get("test_variable_one")).hasValue("'test_value_one'")
+                .isTypeOf(RuleValueType.TEXT).hasCandidates("test_value_one");
+    }
+
     @Test
     public void buildShouldThrowOnDuplicateEvent() {
         RuleEvent ruleEvent = RuleEvent.create("test_event_two", "test_program_stage",
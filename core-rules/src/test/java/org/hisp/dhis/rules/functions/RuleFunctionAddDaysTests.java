@@ -0,0 +1,37 @@
+package org.hisp.dhis.rules.functions;
+
+import org.hisp.dhis.rules.RuleVariableValue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.assertj.core.api.Java6Assertions.fail;
+
+@RunWith(JUnit4.class)
+public class RuleFunctionAddDaysTests {
+
+    @Test
+    public void evaluateMustReturnShiftedDate() {
+        assertThat(RuleFunctionAddDays.create().evaluate(Arrays.asList("2017-01-30", "3"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("2017-02-02");
+        assertThat(RuleFunctionAddDays.create().evaluate(Arrays.asList("2017-03-01", "-1"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("2017-02-28");
+        assertThat(RuleFunctionAddDays.create().evaluate(Arrays.asList("2016-12-31", "1.0"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("2017-01-01");
+    }
+
+    @Test
+    public void evaluateMustFailOnWrongArgumentCount() {
+        try {
+            RuleFunctionAddDays.create().evaluate(Arrays.asList("2017-01-01"),
+                    new HashMap<String, RuleVariableValue>());
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+}
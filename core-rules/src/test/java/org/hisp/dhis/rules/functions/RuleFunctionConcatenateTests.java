@@ -0,0 +1,24 @@
+package org.hisp.dhis.rules.functions;
+
+import org.hisp.dhis.rules.RuleVariableValue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class RuleFunctionConcatenateTests {
+
+    @Test
+    public void evaluateMustJoinArguments() {
+        assertThat(RuleFunctionConcatenate.create().evaluate(Arrays.asList("ab", "1", "cd"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("ab1cd");
+        assertThat(RuleFunctionConcatenate.create().evaluate(new ArrayList<String>(),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("");
+    }
+}
@@ -0,0 +1,54 @@
+package org.hisp.dhis.rules.functions;
+
+import org.hisp.dhis.rules.RuleVariableValue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.assertj.core.api.Java6Assertions.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(JUnit4.class)
+public class RuleFunctionCountTests {
+
+    @Test
+    public void evaluateMustReturnNumberOfValues() {
+        RuleVariableValue variableValue = mock(RuleVariableValue.class);
+        when(variableValue.candidates()).thenReturn(Arrays.asList("1", "2", "3"));
+
+        Map<String, RuleVariableValue> valueMap = new HashMap<>();
+        valueMap.put("test_variable", variableValue);
+
+        assertThat(RuleFunctionCount.create().evaluate(Arrays.asList("'test_variable'"),
+                valueMap)).isEqualTo("3");
+    }
+
+    @Test
+    public void evaluateMustFailOnUnknownVariable() {
+        try {
+            RuleFunctionCount.create().evaluate(Arrays.asList("'test_variable'"),
+                    new HashMap<String, RuleVariableValue>());
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void evaluateMustFailOnWrongArgumentCount() {
+        try {
+            RuleFunctionCount.create().evaluate(new ArrayList<String>(),
+                    new HashMap<String, RuleVariableValue>());
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+}
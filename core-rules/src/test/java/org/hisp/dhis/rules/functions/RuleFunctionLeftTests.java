@@ -0,0 +1,37 @@
+package org.hisp.dhis.rules.functions;
+
+import org.hisp.dhis.rules.RuleVariableValue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.assertj.core.api.Java6Assertions.fail;
+
+@RunWith(JUnit4.class)
+public class RuleFunctionLeftTests {
+
+    @Test
+    public void evaluateMustReturnLeadingCharacters() {
+        assertThat(RuleFunctionLeft.create().evaluate(Arrays.asList("abcdef", "2"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("ab");
+        assertThat(RuleFunctionLeft.create().evaluate(Arrays.asList("abc", "10"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("abc");
+        assertThat(RuleFunctionLeft.create().evaluate(Arrays.asList("abc", "-1"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("");
+    }
+
+    @Test
+    public void evaluateMustFailOnWrongArgumentCount() {
+        try {
+            RuleFunctionLeft.create().evaluate(Arrays.asList("abc"),
+                    new HashMap<String, RuleVariableValue>());
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.hisp.dhis.rules.functions;
+
+import org.hisp.dhis.rules.RuleVariableValue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.assertj.core.api.Java6Assertions.fail;
+
+@RunWith(JUnit4.class)
+public class RuleFunctionModulusTests {
+
+    @Test
+    public void evaluateMustReturnRemainder() {
+        assertThat(RuleFunctionModulus.create().evaluate(Arrays.asList("7", "3"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("1");
+        assertThat(RuleFunctionModulus.create().evaluate(Arrays.asList("-7", "3"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("-1");
+        assertThat(RuleFunctionModulus.create().evaluate(Arrays.asList("7.5", "2"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("1.5");
+    }
+
+    @Test
+    public void evaluateMustFailOnWrongArgumentCount() {
+        try {
+            RuleFunctionModulus.create().evaluate(Arrays.asList("7"),
+                    new HashMap<String, RuleVariableValue>());
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+}
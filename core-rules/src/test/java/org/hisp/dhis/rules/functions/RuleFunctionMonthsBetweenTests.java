@@ -0,0 +1,37 @@
+package org.hisp.dhis.rules.functions;
+
+import org.hisp.dhis.rules.RuleVariableValue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.assertj.core.api.Java6Assertions.fail;
+
+@RunWith(JUnit4.class)
+public class RuleFunctionMonthsBetweenTests {
+
+    @Test
+    public void evaluateMustReturnWholeMonthsBetweenDates() {
+        assertThat(RuleFunctionMonthsBetween.create().evaluate(Arrays.asList("2017-01-15", "2017-03-15"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("2");
+        assertThat(RuleFunctionMonthsBetween.create().evaluate(Arrays.asList("2017-01-15", "2017-03-14"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("1");
+        assertThat(RuleFunctionMonthsBetween.create().evaluate(Arrays.asList("2017-03-15", "2017-01-16"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("-1");
+    }
+
+    @Test
+    public void evaluateMustFailOnWrongArgumentCount() {
+        try {
+            RuleFunctionMonthsBetween.create().evaluate(Arrays.asList("2017-01-01"),
+                    new HashMap<String, RuleVariableValue>());
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+}
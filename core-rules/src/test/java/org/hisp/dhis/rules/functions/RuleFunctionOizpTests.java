@@ -0,0 +1,39 @@
+package org.hisp.dhis.rules.functions;
+
+import org.hisp.dhis.rules.RuleVariableValue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.assertj.core.api.Java6Assertions.fail;
+
+@RunWith(JUnit4.class)
+public class RuleFunctionOizpTests {
+
+    @Test
+    public void evaluateMustReturnOneForZeroOrPositiveNumbers() {
+        assertThat(RuleFunctionOizp.create().evaluate(Arrays.asList("-5"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("0");
+        assertThat(RuleFunctionOizp.create().evaluate(Arrays.asList("0"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("1");
+        assertThat(RuleFunctionOizp.create().evaluate(Arrays.asList("5.5"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("1");
+        assertThat(RuleFunctionOizp.create().evaluate(Arrays.asList("abc"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("0");
+    }
+
+    @Test
+    public void evaluateMustFailOnWrongArgumentCount() {
+        try {
+            RuleFunctionOizp.create().evaluate(Arrays.asList("1", "2"),
+                    new HashMap<String, RuleVariableValue>());
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+}
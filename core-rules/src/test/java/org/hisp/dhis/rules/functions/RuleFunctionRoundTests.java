@@ -0,0 +1,39 @@
+package org.hisp.dhis.rules.functions;
+
+import org.hisp.dhis.rules.RuleVariableValue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.assertj.core.api.Java6Assertions.fail;
+
+@RunWith(JUnit4.class)
+public class RuleFunctionRoundTests {
+
+    @Test
+    public void evaluateMustReturnRoundedValue() {
+        assertThat(RuleFunctionRound.create().evaluate(Arrays.asList("5.5"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("6");
+        assertThat(RuleFunctionRound.create().evaluate(Arrays.asList("5.4"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("5");
+        assertThat(RuleFunctionRound.create().evaluate(Arrays.asList("-2.5"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("-2");
+        assertThat(RuleFunctionRound.create().evaluate(Arrays.asList("abc"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("0");
+    }
+
+    @Test
+    public void evaluateMustFailOnWrongArgumentCount() {
+        try {
+            RuleFunctionRound.create().evaluate(Arrays.asList("1.5", "2.5"),
+                    new HashMap<String, RuleVariableValue>());
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.hisp.dhis.rules.functions;
+
+import org.hisp.dhis.rules.RuleVariableValue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.assertj.core.api.Java6Assertions.fail;
+
+@RunWith(JUnit4.class)
+public class RuleFunctionSubstringTests {
+
+    @Test
+    public void evaluateMustReturnPartOfText() {
+        assertThat(RuleFunctionSubstring.create().evaluate(Arrays.asList("abcdef", "1", "3"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("bc");
+        assertThat(RuleFunctionSubstring.create().evaluate(Arrays.asList("abcdef", "3", "1"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("bc");
+        assertThat(RuleFunctionSubstring.create().evaluate(Arrays.asList("abc", "-1", "10"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("abc");
+    }
+
+    @Test
+    public void evaluateMustFailOnWrongArgumentCount() {
+        try {
+            RuleFunctionSubstring.create().evaluate(Arrays.asList("abc", "1"),
+                    new HashMap<String, RuleVariableValue>());
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+}
@@ -15,4 +15,12 @@ public class RuleFunctionTests {
                 .isInstanceOf(RuleFunctionDaysBetween.class);
         assertThat(RuleFunction.create("d2:fake")).isNull();
     }
+
+    @Test
+    public void createMustReturnSharedInstances() {
+        assertThat(RuleFunction.create("d2:countIfValue"))
+                .isInstanceOf(RuleFunctionCountIfValue.class);
+        assertThat(RuleFunction.create("d2:countIfValue"))
+                .isSameAs(RuleFunction.create("d2:countIfValue"));
+    }
 }
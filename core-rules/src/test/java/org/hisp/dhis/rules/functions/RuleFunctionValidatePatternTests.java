@@ -0,0 +1,68 @@
+package org.hisp.dhis.rules.functions;
+
+import org.hisp.dhis.rules.RuleVariableValue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.assertj.core.api.Java6Assertions.fail;
+
+@RunWith(JUnit4.class)
+public class RuleFunctionValidatePatternTests {
+
+    @Test
+    public void evaluateMustMatchWholeText() {
+        assertThat(RuleFunctionValidatePattern.create().evaluate(Arrays.asList("123", "[0-9]+"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("true");
+        assertThat(RuleFunctionValidatePattern.create().evaluate(Arrays.asList("123a", "[0-9]+"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("false");
+    }
+
+    @Test
+    public void evaluateMustReuseCompiledPatterns() {
+        RuleFunctionValidatePattern function = RuleFunctionValidatePattern.create();
+
+        assertThat(function.pattern("[0-9]+")).isSameAs(function.pattern("[0-9]+"));
+        assertThat(function.pattern("[0-9]+")).isNotSameAs(function.pattern("[a-z]+"));
+    }
+
+    @Test
+    public void evaluateMustCapNumberOfCompiledPatterns() {
+        RuleFunctionValidatePattern function = RuleFunctionValidatePattern.create();
+        for (int i = 0; i < 64; i++) {
+            function.pattern("[0-9]{" + i + "}");
+        }
+
+        // patterns which are kept already are still reused
+        assertThat(function.pattern("[0-9]{0}")).isSameAs(function.pattern("[0-9]{0}"));
+        assertThat(function.pattern("[a-z]+")).isNotSameAs(function.pattern("[a-z]+"));
+        assertThat(function.evaluate(Arrays.asList("abc", "[a-z]+"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("true");
+    }
+
+    @Test
+    public void evaluateMustFailOnMalformedPattern() {
+        try {
+            RuleFunctionValidatePattern.create().evaluate(Arrays.asList("abc", "[a-z"),
+                    new HashMap<String, RuleVariableValue>());
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+
+    @Test
+    public void evaluateMustFailOnWrongArgumentCount() {
+        try {
+            RuleFunctionValidatePattern.create().evaluate(Arrays.asList("abc"),
+                    new HashMap<String, RuleVariableValue>());
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+}
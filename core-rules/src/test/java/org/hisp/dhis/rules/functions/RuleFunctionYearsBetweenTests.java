@@ -0,0 +1,35 @@
+package org.hisp.dhis.rules.functions;
+
+import org.hisp.dhis.rules.RuleVariableValue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.assertj.core.api.Java6Assertions.fail;
+
+@RunWith(JUnit4.class)
+public class RuleFunctionYearsBetweenTests {
+
+    @Test
+    public void evaluateMustReturnWholeYearsBetweenDates() {
+        assertThat(RuleFunctionYearsBetween.create().evaluate(Arrays.asList("2000-06-15", "2017-06-15"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("17");
+        assertThat(RuleFunctionYearsBetween.create().evaluate(Arrays.asList("2000-06-15", "2017-06-14"),
+                new HashMap<String, RuleVariableValue>())).isEqualTo("16");
+    }
+
+    @Test
+    public void evaluateMustFailOnWrongArgumentCount() {
+        try {
+            RuleFunctionYearsBetween.create().evaluate(Arrays.asList("2017-01-01"),
+                    new HashMap<String, RuleVariableValue>());
+            fail("IllegalArgumentException was expected, but nothing was thrown.");
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // noop
+        }
+    }
+}
@@ -15,11 +15,11 @@ public class RuleActionErrorOnCompletionTests {
 
     @Test
     public void createMustSubstituteEmptyStringsForNullArguments() {
-        RuleActionWarningOnCompletion ruleActionNoContent = RuleActionWarningOnCompletion
+        RuleActionErrorOnCompletion ruleActionNoContent = RuleActionErrorOnCompletion
                 .create(null, "test_data", "test_field");
-        RuleActionWarningOnCompletion ruleActionNoData = RuleActionWarningOnCompletion
+        RuleActionErrorOnCompletion ruleActionNoData = RuleActionErrorOnCompletion
                 .create("test_content", null, "test_field");
-        RuleActionWarningOnCompletion ruleActionNoField = RuleActionWarningOnCompletion
+        RuleActionErrorOnCompletion ruleActionNoField = RuleActionErrorOnCompletion
                 .create("test_content", "test_data", null);
 
         assertThat(ruleActionNoContent.content()).isEqualTo("");
@@ -38,7 +38,7 @@ public class RuleActionErrorOnCompletionTests {
     @Test
     public void createMustThrowWhenContentDataFieldAreNull() {
         try {
-            RuleActionWarningOnCompletion.create(null, null, null);
+            RuleActionErrorOnCompletion.create(null, null, null);
             fail("IllegalArgumentException was expected, but nothing was thrown.");
         } catch (IllegalArgumentException illegalArgumentException) {
             // noop
@@ -47,7 +47,7 @@ public class RuleActionErrorOnCompletionTests {
 
     @Test
     public void equalsAndHashcodeFunctionsMustConformToContract() {
-        EqualsVerifier.forClass(RuleActionWarningOnCompletion
+        EqualsVerifier.forClass(RuleActionErrorOnCompletion
                 .create("test_content", "test_data", "test_field").getClass())
                 .suppress(Warning.NULL_FIELDS)
                 .verify();
@@ -37,6 +37,7 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.util.Date;
+import java.util.Map;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.hisp.dhis.android.core.data.database.CursorAssert.assertThatCursor;
@@ -80,4 +81,16 @@ public class ConstantStoreTests extends AbsStoreTestCase {
     public void insert_null_uid() {
         store.insert(null, CODE, NAME, DISPLAY_NAME, CREATED, LAST_UPDATED, VALUE);
     }
+
+    @Test
+    public void query_shouldReturnValuesKeyedByUid() {
+        store.insert(UID, CODE, NAME, DISPLAY_NAME, CREATED, LAST_UPDATED, VALUE);
+        store.insert("test_uid_two", CODE, NAME, DISPLAY_NAME, CREATED, LAST_UPDATED, "2");
+
+        Map<String, String> values = store.queryConstantValues();
+
+        assertThat(values.size()).isEqualTo(2);
+        assertThat(values.get(UID)).isEqualTo(VALUE);
+        assertThat(values.get("test_uid_two")).isEqualTo("2");
+    }
 }
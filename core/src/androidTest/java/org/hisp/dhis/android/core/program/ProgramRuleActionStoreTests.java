@@ -49,6 +49,7 @@ import org.junit.runner.RunWith;
 
 import java.io.IOException;
 import java.util.Date;
+import java.util.List;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.hisp.dhis.android.core.data.database.CursorAssert.assertThatCursor;
@@ -400,6 +401,42 @@ public class ProgramRuleActionStoreTests extends AbsStoreTestCase {
 
     // ToDo: consider introducing conflict resolution strategy
 
+    @Test
+    public void queryByProgram_shouldReturnActionsOfRulesOfProgram() throws Exception {
+        String otherProgram = "test_other_program";
+        String otherProgramRule = "test_other_program_rule";
+        database().insert(ProgramModel.TABLE, null, CreateProgramUtils.create(3L, otherProgram,
+                RELATIONSHIP_TYPE_UID, null, TRACKED_ENTITY_UID));
+        database().insert(ProgramRuleModel.TABLE, null, CreateProgramRuleUtils
+                .createWithoutProgramStage(3L, otherProgramRule, otherProgram));
+
+        store.insert("test_program_rule_action_one", CODE, NAME, DISPLAY_NAME, date, date, DATA, CONTENT,
+                LOCATION, null, null, null, ProgramRuleActionType.SHOWERROR, null, DATA_ELEMENT, PROGRAM_RULE);
+        store.insert("test_program_rule_action_two", CODE, NAME, DISPLAY_NAME, date, date, DATA, null,
+                null, null, null, null, ProgramRuleActionType.ERRORONCOMPLETE, null, null, PROGRAM_RULE);
+        store.insert("test_program_rule_action_three", CODE, NAME, DISPLAY_NAME, date, date, DATA, CONTENT,
+                LOCATION, null, null, null, ProgramRuleActionType.SHOWERROR, null, DATA_ELEMENT, otherProgramRule);
+
+        List<ProgramRuleActionModel> programRuleActions = store.queryByProgram(PROGRAM);
+
+        assertThat(programRuleActions.size()).isEqualTo(2);
+        assertThat(programRuleActions.get(0).uid()).isEqualTo("test_program_rule_action_one");
+        assertThat(programRuleActions.get(0).programRuleActionType()).isEqualTo(ProgramRuleActionType.SHOWERROR);
+        assertThat(programRuleActions.get(0).content()).isEqualTo(CONTENT);
+        assertThat(programRuleActions.get(0).dataElement()).isEqualTo(DATA_ELEMENT);
+        assertThat(programRuleActions.get(0).programRule()).isEqualTo(PROGRAM_RULE);
+        assertThat(programRuleActions.get(1).uid()).isEqualTo("test_program_rule_action_two");
+        assertThat(programRuleActions.get(1).content()).isNull();
+        assertThat(programRuleActions.get(1).data()).isEqualTo(DATA);
+
+        assertThat(store.queryByProgram("test_program_without_rules")).isEmpty();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void queryByProgram_null_program() {
+        store.queryByProgram(null);
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void insert_null_uid() {
         store.insert(null, CODE, NAME, DISPLAY_NAME, date, date, DATA, CONTENT, LOCATION, TRACKED_ENTITY_ATTRIBUTE,
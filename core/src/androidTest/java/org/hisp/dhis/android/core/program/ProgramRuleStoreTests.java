@@ -46,6 +46,7 @@ import org.junit.runner.RunWith;
 
 import java.io.IOException;
 import java.util.Date;
+import java.util.List;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.hisp.dhis.android.core.data.database.CursorAssert.assertThatCursor;
@@ -297,6 +298,38 @@ public class ProgramRuleStoreTests extends AbsStoreTestCase {
 
     }
 
+    @Test
+    public void queryByProgram_shouldReturnRulesOfProgram() throws Exception {
+        String otherProgram = "test_other_program";
+        database().insert(ProgramModel.TABLE, null, CreateProgramUtils.create(3L, otherProgram,
+                RELATIONSHIP_TYPE_UID, null, TRACKED_ENTITY_UID));
+
+        store.insert("test_program_rule_one", CODE, NAME, DISPLAY_NAME, date, date, PRIORITY,
+                CONDITION, PROGRAM, PROGRAM_STAGE);
+        store.insert("test_program_rule_two", CODE, NAME, DISPLAY_NAME, date, date, null,
+                CONDITION, PROGRAM, null);
+        store.insert("test_program_rule_three", CODE, NAME, DISPLAY_NAME, date, date, PRIORITY,
+                CONDITION, otherProgram, null);
+
+        List<ProgramRuleModel> programRules = store.queryByProgram(PROGRAM);
+
+        assertThat(programRules.size()).isEqualTo(2);
+        assertThat(programRules.get(0).uid()).isEqualTo("test_program_rule_one");
+        assertThat(programRules.get(0).priority()).isEqualTo(PRIORITY);
+        assertThat(programRules.get(0).condition()).isEqualTo(CONDITION);
+        assertThat(programRules.get(0).programStage()).isEqualTo(PROGRAM_STAGE);
+        assertThat(programRules.get(1).uid()).isEqualTo("test_program_rule_two");
+        assertThat(programRules.get(1).priority()).isNull();
+        assertThat(programRules.get(1).programStage()).isNull();
+
+        assertThat(store.queryByProgram("test_program_without_rules")).isEmpty();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void queryByProgram_null_program() {
+        store.queryByProgram(null);
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void insert_null_uid() {
         store.insert(null, CODE, NAME, DISPLAY_NAME, date, date, PRIORITY, CONDITION, PROGRAM, PROGRAM_STAGE);
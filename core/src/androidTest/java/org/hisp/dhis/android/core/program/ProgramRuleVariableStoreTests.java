@@ -33,6 +33,7 @@ import android.database.Cursor;
 import android.support.test.runner.AndroidJUnit4;
 
 import org.hisp.dhis.android.core.common.BaseIdentifiableObject;
+import org.hisp.dhis.android.core.common.ValueType;
 import org.hisp.dhis.android.core.data.database.AbsStoreTestCase;
 import org.hisp.dhis.android.core.dataelement.CreateDataElementUtils;
 import org.hisp.dhis.android.core.dataelement.DataElementModel;
@@ -49,6 +50,8 @@ import org.junit.runner.RunWith;
 
 import java.io.IOException;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.hisp.dhis.android.core.data.database.CursorAssert.assertThatCursor;
@@ -387,6 +390,44 @@ public class ProgramRuleVariableStoreTests extends AbsStoreTestCase {
         assertThatCursor(cursor).isExhausted();
     }
 
+    @Test
+    public void queryByProgram_shouldReturnVariablesOfProgram() throws Exception {
+        insertProgramRuleVariables();
+
+        List<ProgramRuleVariableModel> programRuleVariables = store.queryByProgram(PROGRAM);
+
+        assertThat(programRuleVariables.size()).isEqualTo(3);
+        for (ProgramRuleVariableModel programRuleVariable : programRuleVariables) {
+            assertThat(programRuleVariable.program()).isEqualTo(PROGRAM);
+        }
+
+        assertThat(store.queryByProgram("test_program_without_variables")).isEmpty();
+    }
+
+    @Test
+    public void queryValueTypesByProgram_shouldReturnValueTypesOfBoundVariables() throws Exception {
+        insertProgramRuleVariables();
+
+        Map<String, ValueType> valueTypes = store.queryValueTypesByProgram(PROGRAM);
+
+        // calculated value is not bound to data element or attribute
+        assertThat(valueTypes.size()).isEqualTo(2);
+        assertThat(valueTypes.get("test_data_element_variable")).isEqualTo(ValueType.TEXT);
+        assertThat(valueTypes.get("test_attribute_variable")).isEqualTo(ValueType.BOOLEAN);
+        assertThat(valueTypes.containsKey("test_calculated_variable")).isFalse();
+        assertThat(valueTypes.containsKey("test_other_program_variable")).isFalse();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void queryByProgram_null_program() {
+        store.queryByProgram(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void queryValueTypesByProgram_null_program() {
+        store.queryValueTypesByProgram(null);
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void insert_null_uid() {
         store.insert(null, CODE, NAME, DISPLAY_NAME, date, date, USE_CODE_FOR_OPTION_SET, PROGRAM, PROGRAM_STAGE,
@@ -421,5 +462,23 @@ public class ProgramRuleVariableStoreTests extends AbsStoreTestCase {
     public void delete_null_uid() {
         store.delete(null);
     }
-}
 
+    private void insertProgramRuleVariables() {
+        String otherProgram = "test_other_program";
+        database().insert(ProgramModel.TABLE, null, CreateProgramUtils.create(3L, otherProgram,
+                RELATIONSHIP_TYPE_UID, null, TRACKED_ENTITY_UID));
+
+        store.insert("test_data_element_variable", CODE, NAME, DISPLAY_NAME, date, date,
+                USE_CODE_FOR_OPTION_SET, PROGRAM, null, DATA_ELEMENT, null,
+                ProgramRuleVariableSourceType.DATAELEMENT_CURRENT_EVENT);
+        store.insert("test_attribute_variable", CODE, NAME, DISPLAY_NAME, date, date,
+                USE_CODE_FOR_OPTION_SET, PROGRAM, null, null, TRACKED_ENTITY_ATTRIBUTE,
+                ProgramRuleVariableSourceType.TEI_ATTRIBUTE);
+        store.insert("test_calculated_variable", CODE, NAME, DISPLAY_NAME, date, date,
+                USE_CODE_FOR_OPTION_SET, PROGRAM, null, null, null,
+                ProgramRuleVariableSourceType.CALCULATED_VALUE);
+        store.insert("test_other_program_variable", CODE, NAME, DISPLAY_NAME, date, date,
+                USE_CODE_FOR_OPTION_SET, otherProgram, null, DATA_ELEMENT, null,
+                ProgramRuleVariableSourceType.DATAELEMENT_CURRENT_EVENT);
+    }
+}
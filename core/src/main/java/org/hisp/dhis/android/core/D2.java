@@ -39,6 +39,8 @@ import org.hisp.dhis.android.core.calls.MetadataCall;
 import org.hisp.dhis.android.core.calls.TrackedEntityInstancePostCall;
 import org.hisp.dhis.android.core.common.BaseIdentifiableObject;
 import org.hisp.dhis.android.core.configuration.ConfigurationModel;
+import org.hisp.dhis.android.core.constant.ConstantStore;
+import org.hisp.dhis.android.core.constant.ConstantStoreImpl;
 import org.hisp.dhis.android.core.data.api.FieldsConverterFactory;
 import org.hisp.dhis.android.core.data.api.FilterConverterFactory;
 import org.hisp.dhis.android.core.data.database.DatabaseAdapter;
@@ -65,6 +67,7 @@ import org.hisp.dhis.android.core.program.ProgramIndicatorStore;
 import org.hisp.dhis.android.core.program.ProgramIndicatorStoreImpl;
 import org.hisp.dhis.android.core.program.ProgramRuleActionStore;
 import org.hisp.dhis.android.core.program.ProgramRuleActionStoreImpl;
+import org.hisp.dhis.android.core.program.ProgramRuleEngineFactory;
 import org.hisp.dhis.android.core.program.ProgramRuleStore;
 import org.hisp.dhis.android.core.program.ProgramRuleStoreImpl;
 import org.hisp.dhis.android.core.program.ProgramRuleVariableStore;
@@ -118,6 +121,7 @@ import org.hisp.dhis.android.core.user.UserRoleStoreImpl;
 import org.hisp.dhis.android.core.user.UserService;
 import org.hisp.dhis.android.core.user.UserStore;
 import org.hisp.dhis.android.core.user.UserStoreImpl;
+import org.hisp.dhis.rules.RuleExpressionInterpreter;
 
 import java.util.concurrent.Callable;
 
@@ -177,6 +181,9 @@ public final class D2 {
 
 
     private final OrganisationUnitProgramLinkStore organisationUnitProgramLinkStore;
+    private final ConstantStore constantStore;
+
+    private final ProgramRuleEngineFactory programRuleEngineFactory;
 
 
     @VisibleForTesting
@@ -258,6 +265,12 @@ public final class D2 {
                 new TrackedEntityAttributeValueStoreImpl(databaseAdapter);
         this.organisationUnitProgramLinkStore =
                 new OrganisationUnitProgramLinkStoreImpl(databaseAdapter);
+        this.constantStore =
+                new ConstantStoreImpl(databaseAdapter);
+
+        this.programRuleEngineFactory = new ProgramRuleEngineFactory(programRuleStore,
+                programRuleActionStore, programRuleVariableStore, constantStore, resourceStore,
+                RuleExpressionInterpreter.create());
 
     }
 
@@ -322,6 +335,14 @@ public final class D2 {
                 trackedEntityAttributeValueStore);
     }
 
+    /**
+     * @return factory of rule engine contexts, which caches contexts of programs in memory.
+     */
+    @NonNull
+    public ProgramRuleEngineFactory programRuleEngineFactory() {
+        return programRuleEngineFactory;
+    }
+
     public Call<Response<WebResponse>> syncSingleEvents() {
         return new EventPostCall(eventService, eventStore, trackedEntityDataValueStore);
     }
@@ -32,6 +32,7 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import java.util.Date;
+import java.util.Map;
 
 public interface ConstantStore {
 
@@ -41,4 +42,11 @@ public interface ConstantStore {
             @Nullable Date lastUpdated, @NonNull String value
     );
 
+    /**
+     * @return values of all constants keyed by uid, which is
+     * how constants are referenced by program rules: C{uid}.
+     */
+    @NonNull
+    Map<String, String> queryConstantValues();
+
 }
@@ -28,6 +28,7 @@
 
 package org.hisp.dhis.android.core.constant;
 
+import android.database.Cursor;
 import android.database.sqlite.SQLiteStatement;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -35,6 +36,8 @@ import android.support.annotation.Nullable;
 import org.hisp.dhis.android.core.data.database.DatabaseAdapter;
 
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 import static org.hisp.dhis.android.core.utils.StoreUtils.sqLiteBind;
 import static org.hisp.dhis.android.core.utils.Utils.isNull;
@@ -50,6 +53,11 @@ public class ConstantStoreImpl implements ConstantStore {
             ConstantModel.Columns.VALUE +
             ") VALUES (?, ?, ?, ?, ?, ?, ?);";
 
+    private static final String QUERY_VALUES_STATEMENT = "SELECT " +
+            ConstantModel.Columns.UID + "," +
+            ConstantModel.Columns.VALUE +
+            " FROM " + ConstantModel.TABLE;
+
     private final SQLiteStatement insertStatement;
     private final DatabaseAdapter databaseAdapter;
 
@@ -76,4 +84,28 @@ public class ConstantStoreImpl implements ConstantStore {
         return ret;
     }
 
+    @NonNull
+    @Override
+    public Map<String, String> queryConstantValues() {
+        Cursor cursor = databaseAdapter.query(QUERY_VALUES_STATEMENT);
+        Map<String, String> values = new HashMap<>(cursor.getCount());
+
+        try {
+            if (cursor.getCount() > 0) {
+                cursor.moveToFirst();
+                do {
+                    String value = cursor.getString(1);
+
+                    // constants without value can't be inlined into expressions
+                    if (value != null) {
+                        values.put(cursor.getString(0), value);
+                    }
+                } while (cursor.moveToNext());
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return values;
+    }
 }
@@ -32,6 +32,7 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import java.util.Date;
+import java.util.List;
 
 public interface ProgramRuleActionStore {
     long insert(@NonNull String uid, @Nullable String code, @NonNull String name,
@@ -55,4 +56,10 @@ public interface ProgramRuleActionStore {
     );
 
     int delete(String uid);
+
+    /**
+     * @return actions of all rules of the program.
+     */
+    @NonNull
+    List<ProgramRuleActionModel> queryByProgram(@NonNull String program);
 }
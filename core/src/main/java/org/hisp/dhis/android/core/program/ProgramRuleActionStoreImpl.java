@@ -28,13 +28,16 @@
 
 package org.hisp.dhis.android.core.program;
 
+import android.database.Cursor;
 import android.database.sqlite.SQLiteStatement;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import org.hisp.dhis.android.core.data.database.DatabaseAdapter;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import static org.hisp.dhis.android.core.utils.StoreUtils.sqLiteBind;
 import static org.hisp.dhis.android.core.utils.Utils.isNull;
@@ -86,6 +89,13 @@ public class ProgramRuleActionStoreImpl implements ProgramRuleActionStore {
             " WHERE " +
             ProgramRuleActionModel.Columns.UID + " =?;";
 
+    private static final String QUERY_BY_PROGRAM_STATEMENT = "SELECT " +
+            ProgramRuleActionModel.TABLE + ".* FROM " + ProgramRuleActionModel.TABLE +
+            " INNER JOIN " + ProgramRuleModel.TABLE + " ON " +
+            ProgramRuleActionModel.TABLE + "." + ProgramRuleActionModel.Columns.PROGRAM_RULE + " = " +
+            ProgramRuleModel.TABLE + "." + ProgramRuleModel.Columns.UID +
+            " WHERE " + ProgramRuleModel.TABLE + "." + ProgramRuleModel.Columns.PROGRAM + " = ?";
+
     private final SQLiteStatement insertStatement;
     private final SQLiteStatement updateStatement;
     private final SQLiteStatement deleteStatement;
@@ -201,4 +211,24 @@ public class ProgramRuleActionStoreImpl implements ProgramRuleActionStore {
         sqLiteBind(sqLiteStatement, 16, programRule);
     }
 
+    @NonNull
+    @Override
+    public List<ProgramRuleActionModel> queryByProgram(@NonNull String program) {
+        isNull(program);
+        Cursor cursor = databaseAdapter.query(QUERY_BY_PROGRAM_STATEMENT, program);
+        List<ProgramRuleActionModel> programRuleActions = new ArrayList<>(cursor.getCount());
+
+        try {
+            if (cursor.getCount() > 0) {
+                cursor.moveToFirst();
+                do {
+                    programRuleActions.add(ProgramRuleActionModel.create(cursor));
+                } while (cursor.moveToNext());
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return programRuleActions;
+    }
 }
@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2017, University of Oslo
+ *
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.hisp.dhis.android.core.program;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.hisp.dhis.android.core.common.ValueType;
+import org.hisp.dhis.android.core.constant.ConstantStore;
+import org.hisp.dhis.android.core.resource.ResourceModel;
+import org.hisp.dhis.android.core.resource.ResourceStore;
+import org.hisp.dhis.rules.RuleEngineContext;
+import org.hisp.dhis.rules.RuleExpressionEvaluator;
+import org.hisp.dhis.rules.models.Rule;
+import org.hisp.dhis.rules.models.RuleAction;
+import org.hisp.dhis.rules.models.RuleActionAssign;
+import org.hisp.dhis.rules.models.RuleActionCreateEvent;
+import org.hisp.dhis.rules.models.RuleActionDisplayKeyValuePair;
+import org.hisp.dhis.rules.models.RuleActionDisplayText;
+import org.hisp.dhis.rules.models.RuleActionErrorOnCompletion;
+import org.hisp.dhis.rules.models.RuleActionHideField;
+import org.hisp.dhis.rules.models.RuleActionHideSection;
+import org.hisp.dhis.rules.models.RuleActionShowError;
+import org.hisp.dhis.rules.models.RuleActionShowWarning;
+import org.hisp.dhis.rules.models.RuleActionText;
+import org.hisp.dhis.rules.models.RuleActionWarningOnCompletion;
+import org.hisp.dhis.rules.models.RuleValueType;
+import org.hisp.dhis.rules.models.RuleVariable;
+import org.hisp.dhis.rules.models.RuleVariableAttribute;
+import org.hisp.dhis.rules.models.RuleVariableCurrentEvent;
+import org.hisp.dhis.rules.models.RuleVariableNewestEvent;
+import org.hisp.dhis.rules.models.RuleVariableNewestStageEvent;
+import org.hisp.dhis.rules.models.RuleVariablePreviousEvent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hisp.dhis.android.core.utils.Utils.isNull;
+
+/**
+ * Builds {@link RuleEngineContext} of a program out of program rules, actions and variables
+ * stored in the database. Contexts are cached in memory, until metadata of programs is
+ * synced again (which is when timestamp of {@link ResourceModel.Type#PROGRAM} changes).
+ */
+@SuppressWarnings({
+        "PMD.CouplingBetweenObjects",
+        "PMD.ExcessiveImports"
+})
+public class ProgramRuleEngineFactory {
+    private final ProgramRuleStore programRuleStore;
+    private final ProgramRuleActionStore programRuleActionStore;
+    private final ProgramRuleVariableStore programRuleVariableStore;
+    private final ConstantStore constantStore;
+    private final ResourceStore resourceStore;
+    private final RuleExpressionEvaluator expressionEvaluator;
+
+    // guarded by this
+    private final Map<String, RuleEngineContext> ruleEngineContexts;
+
+    // timestamp of programs which cached contexts have been built from
+    private String lastSynced;
+
+    public ProgramRuleEngineFactory(@NonNull ProgramRuleStore programRuleStore,
+                                    @NonNull ProgramRuleActionStore programRuleActionStore,
+                                    @NonNull ProgramRuleVariableStore programRuleVariableStore,
+                                    @NonNull ConstantStore constantStore,
+                                    @NonNull ResourceStore resourceStore,
+                                    @NonNull RuleExpressionEvaluator expressionEvaluator) {
+        this.programRuleStore = programRuleStore;
+        this.programRuleActionStore = programRuleActionStore;
+        this.programRuleVariableStore = programRuleVariableStore;
+        this.constantStore = constantStore;
+        this.resourceStore = resourceStore;
+        this.expressionEvaluator = expressionEvaluator;
+        this.ruleEngineContexts = new HashMap<>();
+    }
+
+    /**
+     * @param program uid of program.
+     * @return context with rules and variables of the program, which
+     * is built once and reused until programs are synced again.
+     */
+    @NonNull
+    public synchronized RuleEngineContext ruleEngineContext(@NonNull String program) {
+        isNull(program);
+
+        // contexts are dropped only if programs have been synced since they were built
+        String programsLastSynced = resourceStore.getLastUpdated(ResourceModel.Type.PROGRAM);
+        if (lastSynced == null ? programsLastSynced != null : !lastSynced.equals(programsLastSynced)) {
+            ruleEngineContexts.clear();
+            lastSynced = programsLastSynced;
+        }
+
+        RuleEngineContext ruleEngineContext = ruleEngineContexts.get(program);
+        if (ruleEngineContext == null) {
+            ruleEngineContext = build(program);
+            ruleEngineContexts.put(program, ruleEngineContext);
+        }
+
+        return ruleEngineContext;
+    }
+
+    /**
+     * Drops all cached contexts, e.g. after metadata has been changed
+     * without going through {@link org.hisp.dhis.android.core.calls.MetadataCall}.
+     */
+    public synchronized void invalidate() {
+        ruleEngineContexts.clear();
+    }
+
+    @NonNull
+    private RuleEngineContext build(@NonNull String program) {
+        Map<String, List<RuleAction>> ruleActions = new HashMap<>();
+        for (ProgramRuleActionModel programRuleAction : programRuleActionStore.queryByProgram(program)) {
+            RuleAction ruleAction = ruleAction(programRuleAction);
+
+            if (ruleAction != null) {
+                List<RuleAction> actions = ruleActions.get(programRuleAction.programRule());
+                if (actions == null) {
+                    actions = new ArrayList<>();
+                    ruleActions.put(programRuleAction.programRule(), actions);
+                }
+                actions.add(ruleAction);
+            }
+        }
+
+        List<ProgramRuleModel> programRules = programRuleStore.queryByProgram(program);
+        List<Rule> rules = new ArrayList<>(programRules.size());
+        for (ProgramRuleModel programRule : programRules) {
+            List<RuleAction> actions = ruleActions.get(programRule.uid());
+
+            // rules without actions don't have any effect
+            if (actions != null) {
+                rules.add(Rule.create(programRule.programStage(), programRule.priority(),
+                        programRule.condition() == null ? "false" : programRule.condition(), actions));
+            }
+        }
+
+        Map<String, ValueType> valueTypes = programRuleVariableStore.queryValueTypesByProgram(program);
+        List<RuleVariable> ruleVariables = new ArrayList<>();
+        for (ProgramRuleVariableModel programRuleVariable : programRuleVariableStore.queryByProgram(program)) {
+            RuleVariable ruleVariable = ruleVariable(programRuleVariable,
+                    valueTypes.get(programRuleVariable.uid()));
+
+            if (ruleVariable != null) {
+                ruleVariables.add(ruleVariable);
+            }
+        }
+
+        return RuleEngineContext.builder(expressionEvaluator)
+                .rules(rules)
+                .ruleVariables(ruleVariables)
+                .constants(constantStore.queryConstantValues())
+                .build();
+    }
+
+    /**
+     * @return action, or null if action is not supported by rule engine
+     * or it lacks properties which are required by the engine.
+     */
+    @Nullable
+    @SuppressWarnings("PMD.CyclomaticComplexity")
+    private static RuleAction ruleAction(@NonNull ProgramRuleActionModel programRuleAction) {
+        String content = programRuleAction.content();
+        String data = programRuleAction.data();
+        String field = programRuleAction.dataElement() == null ?
+                programRuleAction.trackedEntityAttribute() : programRuleAction.dataElement();
+        boolean indicators = RuleActionText.LOCATION_INDICATOR_WIDGET
+                .equals(programRuleAction.location());
+
+        if (programRuleAction.programRuleActionType() == null) {
+            return null;
+        }
+
+        switch (programRuleAction.programRuleActionType()) {
+            case DISPLAYTEXT:
+                return indicators ? RuleActionDisplayText.createForIndicators(content, data) :
+                        RuleActionDisplayText.createForFeedback(content, data);
+            case DISPLAYKEYVALUEPAIR:
+                return indicators ? RuleActionDisplayKeyValuePair.createForIndicators(content, data) :
+                        RuleActionDisplayKeyValuePair.createForFeedback(content, data);
+            case HIDEFIELD:
+                return field == null ? null : RuleActionHideField.create(content, field);
+            case HIDESECTION:
+                return programRuleAction.programStageSection() == null ? null :
+                        RuleActionHideSection.create(programRuleAction.programStageSection());
+            case ASSIGN:
+                return data == null || (content == null && field == null) ? null :
+                        RuleActionAssign.create(content, data, field);
+            case SHOWWARNING:
+                return field == null || (content == null && data == null) ? null :
+                        RuleActionShowWarning.create(content, data, field);
+            case WARNINGONCOMPLETE:
+                return content == null && data == null ? null :
+                        RuleActionWarningOnCompletion.create(content, data, field);
+            case SHOWERROR:
+                return field == null || (content == null && data == null) ? null :
+                        RuleActionShowError.create(content, data, field);
+            case ERRORONCOMPLETE:
+                return content == null && data == null ? null :
+                        RuleActionErrorOnCompletion.create(content, data, field);
+            case CREATEEVENT:
+                return programRuleAction.programStage() == null ? null :
+                        RuleActionCreateEvent.create(content, data, programRuleAction.programStage());
+            default:
+                // e.g. HIDEPROGRAMSTAGE, which doesn't have a counterpart in rule engine
+                return null;
+        }
+    }
+
+    /**
+     * @return variable, or null if variable is not bound to any value (calculated values
+     * are assigned by rules) or it lacks properties which are required by the engine.
+     */
+    @Nullable
+    private static RuleVariable ruleVariable(@NonNull ProgramRuleVariableModel programRuleVariable,
+                                             @Nullable ValueType valueType) {
+        String name = programRuleVariable.name();
+        String dataElement = programRuleVariable.dataElement();
+        String attribute = programRuleVariable.trackedEntityAttribute();
+        RuleValueType ruleValueType = ruleValueType(valueType);
+
+        if (name == null || programRuleVariable.programRuleVariableSourceType() == null) {
+            return null;
+        }
+
+        switch (programRuleVariable.programRuleVariableSourceType()) {
+            case DATAELEMENT_NEWEST_EVENT_PROGRAM_STAGE:
+                return dataElement == null || programRuleVariable.programStage() == null ? null :
+                        RuleVariableNewestStageEvent.create(name, dataElement,
+                                programRuleVariable.programStage(), ruleValueType);
+            case DATAELEMENT_NEWEST_EVENT_PROGRAM:
+                return dataElement == null ? null :
+                        RuleVariableNewestEvent.create(name, dataElement, ruleValueType);
+            case DATAELEMENT_CURRENT_EVENT:
+                return dataElement == null ? null :
+                        RuleVariableCurrentEvent.create(name, dataElement, ruleValueType);
+            case DATAELEMENT_PREVIOUS_EVENT:
+                return dataElement == null ? null :
+                        RuleVariablePreviousEvent.create(name, dataElement, ruleValueType);
+            case TEI_ATTRIBUTE:
+                return attribute == null ? null :
+                        RuleVariableAttribute.create(name, attribute, ruleValueType);
+            default:
+                return null;
+        }
+    }
+
+    @NonNull
+    private static RuleValueType ruleValueType(@Nullable ValueType valueType) {
+        if (valueType == null) {
+            return RuleValueType.TEXT;
+        } else if (valueType.isNumeric()) {
+            return RuleValueType.NUMERIC;
+        } else if (valueType.isBoolean()) {
+            return RuleValueType.BOOLEAN;
+        }
+
+        return RuleValueType.TEXT;
+    }
+}
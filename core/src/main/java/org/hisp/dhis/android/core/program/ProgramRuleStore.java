@@ -32,6 +32,7 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import java.util.Date;
+import java.util.List;
 
 public interface ProgramRuleStore {
     long insert(@NonNull String uid, @Nullable String code, @NonNull String name,
@@ -47,4 +48,7 @@ public interface ProgramRuleStore {
     );
 
     int delete(String uid);
+
+    @NonNull
+    List<ProgramRuleModel> queryByProgram(@NonNull String program);
 }
@@ -28,6 +28,7 @@
 
 package org.hisp.dhis.android.core.program;
 
+import android.database.Cursor;
 import android.database.sqlite.SQLiteStatement;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -35,7 +36,9 @@ import android.support.annotation.Nullable;
 import org.hisp.dhis.android.core.data.database.DatabaseAdapter;
 import org.hisp.dhis.android.core.program.ProgramRuleModel.Columns;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import static org.hisp.dhis.android.core.utils.StoreUtils.sqLiteBind;
 import static org.hisp.dhis.android.core.utils.Utils.isNull;
@@ -76,6 +79,10 @@ public class ProgramRuleStoreImpl implements ProgramRuleStore {
             " WHERE " +
             Columns.UID + " =?;";
 
+    private static final String QUERY_BY_PROGRAM_STATEMENT = "SELECT * FROM " +
+            ProgramRuleModel.TABLE + " WHERE " +
+            Columns.PROGRAM + " = ?";
+
     private final SQLiteStatement insertStatement;
     private final SQLiteStatement updateStatement;
     private final SQLiteStatement deleteStatement;
@@ -156,4 +163,24 @@ public class ProgramRuleStoreImpl implements ProgramRuleStore {
         sqLiteBind(sqLiteStatement, 10, programStage);
     }
 
+    @NonNull
+    @Override
+    public List<ProgramRuleModel> queryByProgram(@NonNull String program) {
+        isNull(program);
+        Cursor cursor = databaseAdapter.query(QUERY_BY_PROGRAM_STATEMENT, program);
+        List<ProgramRuleModel> programRules = new ArrayList<>(cursor.getCount());
+
+        try {
+            if (cursor.getCount() > 0) {
+                cursor.moveToFirst();
+                do {
+                    programRules.add(ProgramRuleModel.create(cursor));
+                } while (cursor.moveToNext());
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return programRules;
+    }
 }
@@ -31,7 +31,11 @@ package org.hisp.dhis.android.core.program;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import org.hisp.dhis.android.core.common.ValueType;
+
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 
 public interface ProgramRuleVariableStore {
     long insert(@NonNull String uid, @Nullable String code, @NonNull String name,
@@ -53,4 +57,14 @@ public interface ProgramRuleVariableStore {
     );
 
     int delete(String uid);
+
+    @NonNull
+    List<ProgramRuleVariableModel> queryByProgram(@NonNull String program);
+
+    /**
+     * @return value types of data elements and tracked entity attributes
+     * which variables of the program are bound to, keyed by variable uid.
+     */
+    @NonNull
+    Map<String, ValueType> queryValueTypesByProgram(@NonNull String program);
 }
@@ -28,13 +28,21 @@
 
 package org.hisp.dhis.android.core.program;
 
+import android.database.Cursor;
 import android.database.sqlite.SQLiteStatement;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import org.hisp.dhis.android.core.common.ValueType;
 import org.hisp.dhis.android.core.data.database.DatabaseAdapter;
+import org.hisp.dhis.android.core.dataelement.DataElementModel;
+import org.hisp.dhis.android.core.trackedentity.TrackedEntityAttributeModel;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.hisp.dhis.android.core.utils.StoreUtils.sqLiteBind;
 import static org.hisp.dhis.android.core.utils.Utils.isNull;
@@ -79,6 +87,23 @@ public class ProgramRuleVariableStoreImpl implements ProgramRuleVariableStore {
     private static final String DELETE_STATEMENT = "DELETE FROM " + ProgramRuleVariableModel.TABLE +
             " WHERE " + ProgramRuleVariableModel.Columns.UID + " =?;";
 
+    private static final String QUERY_BY_PROGRAM_STATEMENT = "SELECT * FROM " +
+            ProgramRuleVariableModel.TABLE + " WHERE " +
+            ProgramRuleVariableModel.Columns.PROGRAM + " = ?";
+
+    private static final String QUERY_VALUE_TYPES_BY_PROGRAM_STATEMENT = "SELECT " +
+            ProgramRuleVariableModel.TABLE + "." + ProgramRuleVariableModel.Columns.UID + ", " +
+            "COALESCE(" + DataElementModel.TABLE + "." + DataElementModel.Columns.VALUE_TYPE + ", " +
+            TrackedEntityAttributeModel.TABLE + "." + TrackedEntityAttributeModel.Columns.VALUE_TYPE + ")" +
+            " FROM " + ProgramRuleVariableModel.TABLE +
+            " LEFT OUTER JOIN " + DataElementModel.TABLE + " ON " +
+            ProgramRuleVariableModel.TABLE + "." + ProgramRuleVariableModel.Columns.DATA_ELEMENT + " = " +
+            DataElementModel.TABLE + "." + DataElementModel.Columns.UID +
+            " LEFT OUTER JOIN " + TrackedEntityAttributeModel.TABLE + " ON " +
+            ProgramRuleVariableModel.TABLE + "." + ProgramRuleVariableModel.Columns.TRACKED_ENTITY_ATTRIBUTE +
+            " = " + TrackedEntityAttributeModel.TABLE + "." + TrackedEntityAttributeModel.Columns.UID +
+            " WHERE " + ProgramRuleVariableModel.TABLE + "." + ProgramRuleVariableModel.Columns.PROGRAM + " = ?";
+
     private final SQLiteStatement insertStatement;
     private final SQLiteStatement updateStatement;
     private final SQLiteStatement deleteStatement;
@@ -166,4 +191,50 @@ public class ProgramRuleVariableStoreImpl implements ProgramRuleVariableStore {
 
     }
 
+    @NonNull
+    @Override
+    public List<ProgramRuleVariableModel> queryByProgram(@NonNull String program) {
+        isNull(program);
+        Cursor cursor = databaseAdapter.query(QUERY_BY_PROGRAM_STATEMENT, program);
+        List<ProgramRuleVariableModel> programRuleVariables = new ArrayList<>(cursor.getCount());
+
+        try {
+            if (cursor.getCount() > 0) {
+                cursor.moveToFirst();
+                do {
+                    programRuleVariables.add(ProgramRuleVariableModel.create(cursor));
+                } while (cursor.moveToNext());
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return programRuleVariables;
+    }
+
+    @NonNull
+    @Override
+    public Map<String, ValueType> queryValueTypesByProgram(@NonNull String program) {
+        isNull(program);
+        Cursor cursor = databaseAdapter.query(QUERY_VALUE_TYPES_BY_PROGRAM_STATEMENT, program);
+        Map<String, ValueType> valueTypes = new HashMap<>(cursor.getCount());
+
+        try {
+            if (cursor.getCount() > 0) {
+                cursor.moveToFirst();
+                do {
+                    String valueType = cursor.getString(1);
+
+                    // calculated values are not bound to any data element or attribute
+                    if (valueType != null) {
+                        valueTypes.put(cursor.getString(0), ValueType.valueOf(valueType));
+                    }
+                } while (cursor.moveToNext());
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return valueTypes;
+    }
 }
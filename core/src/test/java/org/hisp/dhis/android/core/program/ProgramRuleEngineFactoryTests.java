@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2017, University of Oslo
+ *
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.hisp.dhis.android.core.program;
+
+import org.hisp.dhis.android.core.common.ValueType;
+import org.hisp.dhis.android.core.constant.ConstantStore;
+import org.hisp.dhis.android.core.resource.ResourceModel;
+import org.hisp.dhis.android.core.resource.ResourceStore;
+import org.hisp.dhis.rules.RuleEngineContext;
+import org.hisp.dhis.rules.RuleExpressionInterpreter;
+import org.hisp.dhis.rules.models.Rule;
+import org.hisp.dhis.rules.models.RuleActionErrorOnCompletion;
+import org.hisp.dhis.rules.models.RuleActionHideField;
+import org.hisp.dhis.rules.models.RuleActionShowError;
+import org.hisp.dhis.rules.models.RuleValueType;
+import org.hisp.dhis.rules.models.RuleVariableCurrentEvent;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(JUnit4.class)
+public class ProgramRuleEngineFactoryTests {
+
+    @Mock
+    private ProgramRuleStore programRuleStore;
+
+    @Mock
+    private ProgramRuleActionStore programRuleActionStore;
+
+    @Mock
+    private ProgramRuleVariableStore programRuleVariableStore;
+
+    @Mock
+    private ConstantStore constantStore;
+
+    @Mock
+    private ResourceStore resourceStore;
+
+    // object to test
+    private ProgramRuleEngineFactory programRuleEngineFactory;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        programRuleEngineFactory = new ProgramRuleEngineFactory(programRuleStore,
+                programRuleActionStore, programRuleVariableStore, constantStore,
+                resourceStore, RuleExpressionInterpreter.create());
+
+        when(programRuleStore.queryByProgram("test_program")).thenReturn(Arrays.asList(
+                ProgramRuleModel.builder()
+                        .uid("test_program_rule_one")
+                        .program("test_program")
+                        .priority(1)
+                        .condition("#{test_variable} > 10")
+                        .build(),
+                ProgramRuleModel.builder()
+                        .uid("test_program_rule_two")
+                        .program("test_program")
+                        .condition("true")
+                        .build()));
+
+        when(programRuleActionStore.queryByProgram("test_program")).thenReturn(Arrays.asList(
+                ProgramRuleActionModel.builder()
+                        .uid("test_program_rule_action_one")
+                        .programRule("test_program_rule_one")
+                        .programRuleActionType(ProgramRuleActionType.SHOWERROR)
+                        .content("test_content")
+                        .dataElement("test_data_element")
+                        .build(),
+                ProgramRuleActionModel.builder()
+                        .uid("test_program_rule_action_two")
+                        .programRule("test_program_rule_one")
+                        .programRuleActionType(ProgramRuleActionType.HIDEFIELD)
+                        .trackedEntityAttribute("test_attribute")
+                        .build(),
+                ProgramRuleActionModel.builder()
+                        .uid("test_program_rule_action_three")
+                        .programRule("test_program_rule_two")
+                        .programRuleActionType(ProgramRuleActionType.HIDEPROGRAMSTAGE)
+                        .programStage("test_program_stage")
+                        .build()));
+
+        when(programRuleVariableStore.queryByProgram("test_program")).thenReturn(Arrays.asList(
+                ProgramRuleVariableModel.builder()
+                        .uid("test_program_rule_variable_one")
+                        .name("test_variable")
+                        .program("test_program")
+                        .dataElement("test_data_element")
+                        .programRuleVariableSourceType(ProgramRuleVariableSourceType.DATAELEMENT_CURRENT_EVENT)
+                        .build(),
+                ProgramRuleVariableModel.builder()
+                        .uid("test_program_rule_variable_two")
+                        .name("test_calculated_value")
+                        .program("test_program")
+                        .programRuleVariableSourceType(ProgramRuleVariableSourceType.CALCULATED_VALUE)
+                        .build()));
+
+        Map<String, ValueType> valueTypes = new HashMap<>();
+        valueTypes.put("test_program_rule_variable_one", ValueType.INTEGER);
+        when(programRuleVariableStore.queryValueTypesByProgram("test_program")).thenReturn(valueTypes);
+
+        when(constantStore.queryConstantValues()).thenReturn(Collections.<String, String>emptyMap());
+        when(resourceStore.getLastUpdated(ResourceModel.Type.PROGRAM)).thenReturn("2017-01-01T00:00:00.000");
+    }
+
+    @Test
+    public void ruleEngineContext_shouldMapStoredRulesAndVariables() throws Exception {
+        RuleEngineContext ruleEngineContext = programRuleEngineFactory.ruleEngineContext("test_program");
+
+        // the second rule has only action which is not supported by engine
+        assertThat(ruleEngineContext.rules()).hasSize(1);
+
+        Rule rule = ruleEngineContext.rules().get(0);
+        assertThat(rule.priority()).isEqualTo(1);
+        assertThat(rule.condition()).isEqualTo("#{test_variable} > 10");
+        assertThat(rule.actions()).containsExactly(
+                RuleActionShowError.create("test_content", null, "test_data_element"),
+                RuleActionHideField.create(null, "test_attribute"));
+
+        // calculated values are not bound to any value
+        assertThat(ruleEngineContext.ruleVariables()).containsExactly(RuleVariableCurrentEvent
+                .create("test_variable", "test_data_element", RuleValueType.NUMERIC));
+    }
+
+    @Test
+    public void ruleEngineContext_shouldReuseContextUntilProgramsAreSynced() throws Exception {
+        RuleEngineContext ruleEngineContext = programRuleEngineFactory.ruleEngineContext("test_program");
+
+        assertThat(programRuleEngineFactory.ruleEngineContext("test_program")).isSameAs(ruleEngineContext);
+        verify(programRuleStore, times(1)).queryByProgram("test_program");
+
+        when(resourceStore.getLastUpdated(ResourceModel.Type.PROGRAM)).thenReturn("2017-01-02T00:00:00.000");
+
+        assertThat(programRuleEngineFactory.ruleEngineContext("test_program")).isNotSameAs(ruleEngineContext);
+        verify(programRuleStore, times(2)).queryByProgram("test_program");
+    }
+
+    @Test
+    public void invalidate_shouldDropCachedContexts() throws Exception {
+        RuleEngineContext ruleEngineContext = programRuleEngineFactory.ruleEngineContext("test_program");
+
+        programRuleEngineFactory.invalidate();
+
+        assertThat(programRuleEngineFactory.ruleEngineContext("test_program")).isNotSameAs(ruleEngineContext);
+        verify(programRuleStore, times(2)).queryByProgram("test_program");
+    }
+
+    @Test
+    public void ruleEngineContext_shouldMapErrorOnCompletionWithoutContent() throws Exception {
+        when(programRuleActionStore.queryByProgram("test_program")).thenReturn(Arrays.asList(
+                ProgramRuleActionModel.builder()
+                        .uid("test_program_rule_action_one")
+                        .programRule("test_program_rule_one")
+                        .programRuleActionType(ProgramRuleActionType.ERRORONCOMPLETE)
+                        .data("#{test_variable} * 2")
+                        .build()));
+
+        RuleEngineContext ruleEngineContext = programRuleEngineFactory.ruleEngineContext("test_program");
+
+        assertThat(ruleEngineContext.rules()).hasSize(1);
+        assertThat(ruleEngineContext.rules().get(0).actions()).containsExactly(
+                RuleActionErrorOnCompletion.create(null, "#{test_variable} * 2", null));
+        assertThat(((RuleActionErrorOnCompletion) ruleEngineContext.rules().get(0)
+                .actions().get(0)).content()).isEqualTo("");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ruleEngineContext_shouldThrowOnNullProgram() throws Exception {
+        programRuleEngineFactory.ruleEngineContext(null);
+    }
+}